@@ -22,6 +22,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -30,11 +31,17 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.LongAdder;
 
+import dmg.cells.nucleus.CDC;
 import dmg.cells.nucleus.CellAdapter;
 import dmg.cells.nucleus.CellDomainInfo;
 import dmg.cells.nucleus.CellDomainRole;
@@ -43,9 +50,11 @@ import dmg.cells.nucleus.CellNucleus;
 import dmg.cells.nucleus.CellRoute;
 import dmg.cells.nucleus.CellTunnel;
 import dmg.cells.nucleus.CellTunnelInfo;
+import dmg.cells.nucleus.MessageCodecs;
 import dmg.cells.nucleus.MessageEvent;
 import dmg.cells.nucleus.NoRouteToCellException;
 import dmg.cells.nucleus.RoutedMessageEvent;
+import dmg.cells.nucleus.SerializationException;
 import dmg.util.StreamEngine;
 
 import org.dcache.util.Args;
@@ -64,6 +73,30 @@ public class LocationMgrTunnel
     private static final Logger _log =
         LoggerFactory.getLogger(LocationMgrTunnel.class);
 
+    /**
+     * Message formats supported by this tunnel, in order of preference.
+     * The first format also supported by the peer is used; Java
+     * serialization of the envelope is used if there is none.
+     */
+    private static final String FRAMED_FORMAT = "framed-1";
+    private static final String COMPACT_FORMAT = "compact-1";
+    private static final String JAVA_FORMAT = "java";
+    private static final List<String> MESSAGE_FORMATS = Arrays.asList(FRAMED_FORMAT, COMPACT_FORMAT, JAVA_FORMAT);
+
+    private static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    /**
+     * The I/O engine of a tunnel. The stream engine uses a dedicated reader
+     * thread per tunnel and writes block the sender. The nio engine
+     * multiplexes all tunnels of the domain onto a single selector thread
+     * and queues outbound messages; it requires that the peer supports the
+     * framed message format and otherwise falls back to the stream engine.
+     */
+    private enum Engine
+    {
+        STREAM, NIO
+    }
+
     private final CellNucleus  _nucleus;
 
     private CellDomainInfo  _localDomainInfo;
@@ -74,10 +107,21 @@ public class LocationMgrTunnel
     private final Socket _socket;
 
     private final OutputStream _rawOut;
-    private final InputStream _rawIn;
+    private final HandoverInputStream _rawIn;
 
+    private Engine _engine;
+    private final int _queueSize;
     private ObjectSource _input;
     private ObjectSink _output;
+    private TunnelConnection _connection;
+    private String _messageFormat = JAVA_FORMAT;
+
+    /**
+     * Ids of the message codecs supported by the peer. Message objects
+     * encoded with other codecs are converted to Java serialization before
+     * being sent.
+     */
+    private Set<Integer> _peerCodecs;
 
     //
     // some statistics
@@ -90,12 +134,17 @@ public class LocationMgrTunnel
         super(cellName, "System", args);
         _nucleus = getNucleus();
         _socket = engine.getSocket();
+        _engine = args.hasOption("engine")
+                  ? Engine.valueOf(args.getOption("engine").toUpperCase())
+                  : Engine.STREAM;
+        _queueSize = args.getIntOption("queue-size", DEFAULT_QUEUE_SIZE);
         _rawOut = new BufferedOutputStream(engine.getOutputStream());
-        _rawIn = new BufferedInputStream(engine.getInputStream());
+        _rawIn = new HandoverInputStream(engine.getInputStream());
         CellDomainRole role = args.hasOption("role") ? CellDomainRole.valueOf(
                 args.getOption("role").toUpperCase()) : CellDomainRole.SATELLITE;
         _localDomainInfo = new CellDomainInfo(_nucleus.getCellDomainName(),
-                                              Version.of(LocationMgrTunnel.class).getVersion(), role);
+                                              Version.of(LocationMgrTunnel.class).getVersion(), role,
+                                              MESSAGE_FORMATS, MessageCodecs.getIds());
     }
 
     @Override
@@ -103,6 +152,17 @@ public class LocationMgrTunnel
     {
         _socket.setTcpNoDelay(true);
         handshake();
+        if (_engine == Engine.NIO) {
+            SocketChannel channel = _socket.getChannel();
+            if (channel == null || !_messageFormat.equals(FRAMED_FORMAT)) {
+                _log.info("Using stream engine for tunnel to {} as {}", getRemoteDomainName(),
+                          (channel == null) ? "the socket has no channel" : "the peer does not support framing");
+                _engine = Engine.STREAM;
+            } else {
+                _connection = new TunnelConnection(channel, TunnelSelector.getInstance(), _queueSize,
+                                                   new ConnectionHandler());
+            }
+        }
         _tunnels.add(this);
     }
 
@@ -110,8 +170,17 @@ public class LocationMgrTunnel
     protected void started()
     {
         installRoutes();
-        _thread = _nucleus.newThread(this, "Tunnel");
-        _thread.start();
+        if (_connection != null) {
+            try {
+                _connection.start(_rawIn.drain());
+            } catch (IOException e) {
+                _log.warn("Failed to start tunnel: {}", e.toString());
+                kill();
+            }
+        } else {
+            _thread = _nucleus.newThread(this, "Tunnel");
+            _thread.start();
+        }
     }
 
     @Override
@@ -120,14 +189,18 @@ public class LocationMgrTunnel
         _log.info("Closing tunnel to {}", getRemoteDomainName());
         _tunnels.remove(this);
         try {
-            try {
-                _socket.shutdownOutput();
-                if (_thread != null) {
-                    _thread.join(800);
+            if (_connection != null) {
+                _connection.close();
+            } else {
+                try {
+                    _socket.shutdownOutput();
+                    if (_thread != null) {
+                        _thread.join(800);
+                    }
+                } catch (IOException e) {
+                    _log.debug("Failed to shutdown socket: {}", e.getMessage());
+                } catch (InterruptedException ignored) {
                 }
-            } catch (IOException e) {
-                _log.debug("Failed to shutdown socket: {}", e.getMessage());
-            } catch (InterruptedException ignored) {
             }
         } finally {
             try {
@@ -169,13 +242,29 @@ public class LocationMgrTunnel
 
             _allowForwardingOfRemoteMessages = (_remoteDomainInfo.getRole() != CellDomainRole.CORE);
 
-            _input = new JavaObjectSource(in);
-            _output = new JavaObjectSink(out);
+            _peerCodecs = _remoteDomainInfo.getMessageCodecs();
+
+            List<String> formats = _remoteDomainInfo.getMessageFormats();
+            _messageFormat = MESSAGE_FORMATS.stream().filter(formats::contains).findFirst().orElse(JAVA_FORMAT);
+            switch (_messageFormat) {
+            case FRAMED_FORMAT:
+                _input = new FramedObjectSource(new DataInputStream(_rawIn));
+                _output = new FramedObjectSink(_rawOut);
+                break;
+            case COMPACT_FORMAT:
+                _input = new CompactObjectSource(in);
+                _output = new CompactObjectSink(out);
+                break;
+            default:
+                _input = new JavaObjectSource(in);
+                _output = new JavaObjectSink(out);
+                break;
+            }
         } catch (ClassNotFoundException e) {
             throw new IOException("Cannot deserialize object. This is most likely due to a version mismatch.", e);
         }
 
-        _log.debug("Established tunnel to {}", getRemoteDomainName());
+        _log.debug("Established tunnel to {} using {} message format", getRemoteDomainName(), _messageFormat);
     }
 
     @Override
@@ -203,21 +292,37 @@ public class LocationMgrTunnel
         if (me instanceof RoutedMessageEvent) {
             CellMessage msg = me.getMessage();
             try {
+                if (!msg.isDecodableWith(_peerCodecs)) {
+                    msg = msg.withSerializedMessageObject();
+                }
+                if (_connection == null) {
+                    _output.writeObject(msg);
+                } else if (!_connection.offer(msg)) {
+                    returnToSender(msg, "Tunnel to " + getRemoteDomainName() + " is congested. Message could not be delivered.");
+                    return;
+                }
                 _messagesToTunnel.increment();
-                _output.writeObject(msg);
             } catch (IOException e) {
                 _log.warn("Error while sending message: " + e.getMessage());
-                CellMessage envelope = new CellMessage(msg.getSourcePath().revert(),
-                        new NoRouteToCellException(msg, "Communication failure. Message could not be delivered."));
-                envelope.setLastUOID(msg.getUOID());
-                _nucleus.sendMessage(envelope, true, true);
+                returnToSender(msg, "Communication failure. Message could not be delivered.");
                 kill();
+            } catch (SerializationException e) {
+                _log.warn("Failed to convert message for {}: {}", getRemoteDomainName(), e.getMessage());
+                returnToSender(msg, "Message could not be converted for " + getRemoteDomainName() + ".");
             }
         } else {
             super.messageArrived(me);
         }
     }
 
+    private void returnToSender(CellMessage msg, String reason)
+    {
+        CellMessage envelope = new CellMessage(msg.getSourcePath().revert(),
+                                               new NoRouteToCellException(msg, reason));
+        envelope.setLastUOID(msg.getUOID());
+        _nucleus.sendMessage(envelope, true, true);
+    }
+
     @Override
     public CellTunnelInfo getCellTunnelInfo()
     {
@@ -244,6 +349,25 @@ public class LocationMgrTunnel
         pw.println("Messages delivered to");
         pw.println("   Peer       : " + _messagesToTunnel);
         pw.println("   Local      : " + _messagesToSystem);
+        pw.println("Message format: " + _messageFormat);
+        pw.println("Engine        : " + _engine.toString().toLowerCase());
+        TunnelConnection connection = _connection;
+        if (connection != null) {
+            long writes = connection.getWrites();
+            long reads = connection.getReads();
+            pw.println("Outbound queue");
+            pw.println("   Queued     : " + connection.getQueueLength() + " messages, " +
+                       connection.getQueuedBytes() + " bytes");
+            pw.println("   Peak       : " + connection.getPeakQueueLength() + " messages");
+            pw.println("   Limit      : " + connection.getCapacity() + " messages");
+            pw.println("   Rejected   : " + connection.getRejected());
+            pw.println("Writes        : " + writes + " (" +
+                       String.format("%.1f", (writes == 0) ? 0.0 : (double) connection.getFramesWritten() / writes) +
+                       " messages per write)");
+            pw.println("Reads         : " + reads + " (" +
+                       String.format("%.1f", (reads == 0) ? 0.0 : (double) connection.getFramesRead() / reads) +
+                       " messages per read)");
+        }
         pw.println("Local domain");
         pw.println("   Name       : " + _localDomainInfo.getCellDomainName());
         pw.println("   Version    : " + _localDomainInfo.getVersion());
@@ -317,6 +441,33 @@ public class LocationMgrTunnel
         }
     }
 
+    /**
+     * Receives events from the non-blocking connection. Messages are
+     * delivered by the delivery thread of the connection.
+     */
+    private class ConnectionHandler implements TunnelConnection.Handler
+    {
+        @Override
+        public void messageArrived(CellMessage message)
+        {
+            _nucleus.sendMessage(message, true, _allowForwardingOfRemoteMessages);
+            _messagesToSystem.increment();
+        }
+
+        @Override
+        public void closed(Exception cause)
+        {
+            try (CDC ignored = CDC.reset(_nucleus)) {
+                if (cause instanceof ClassNotFoundException) {
+                    _log.warn("Cannot deserialize object. This is most likely due to a version mismatch.");
+                } else if (cause != null) {
+                    _log.warn("Error in tunnel: {}", cause.toString());
+                }
+                kill();
+            }
+        }
+    }
+
     private interface ObjectSource
     {
         CellMessage readObject() throws IOException, ClassNotFoundException;
@@ -368,4 +519,134 @@ public class LocationMgrTunnel
             out.flush();
         }
     }
+
+    /**
+     * Reads messages in the compact format. Every message is preceded by
+     * a tag identifying whether it is encoded in the compact format or as
+     * a serialized Java object.
+     */
+    private static class CompactObjectSource implements ObjectSource
+    {
+        private ObjectInputStream in;
+
+        private CompactObjectSource(ObjectInputStream in)
+        {
+            this.in = in;
+        }
+
+        @Override
+        public CellMessage readObject() throws IOException, ClassNotFoundException
+        {
+            byte tag = in.readByte();
+            switch (tag) {
+            case CompactObjectSink.COMPACT:
+                return CellMessage.createFrom(in);
+            case CompactObjectSink.JAVA:
+                return (CellMessage) in.readObject();
+            default:
+                throw new IOException("Invalid message tag: " + tag);
+            }
+        }
+    }
+
+    /**
+     * Writes messages in the compact format. The envelope is written
+     * field by field using the primitive data methods of the object
+     * stream, so no class descriptors are transferred. Messages that
+     * cannot be written in the compact format fall back to Java
+     * serialization.
+     */
+    private static class CompactObjectSink implements ObjectSink
+    {
+        private static final byte COMPACT = 1;
+        private static final byte JAVA = 2;
+
+        private ObjectOutputStream out;
+
+        private CompactObjectSink(ObjectOutputStream out)
+        {
+            this.out = out;
+        }
+
+        @Override
+        public void writeObject(CellMessage message) throws IOException
+        {
+            if (message.isCompactEncodable()) {
+                out.writeByte(COMPACT);
+                message.writeTo(out);
+            } else {
+                out.writeByte(JAVA);
+                out.writeObject(message);
+                out.reset();
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads messages in the framed format from a stream.
+     */
+    private static class FramedObjectSource implements ObjectSource
+    {
+        private DataInputStream in;
+
+        private FramedObjectSource(DataInputStream in)
+        {
+            this.in = in;
+        }
+
+        @Override
+        public CellMessage readObject() throws IOException, ClassNotFoundException
+        {
+            int length = in.readInt();
+            MessageFrames.checkBodySize(length);
+            byte tag = in.readByte();
+            byte[] body = new byte[length];
+            in.readFully(body);
+            return MessageFrames.decode(tag, ByteBuffer.wrap(body));
+        }
+    }
+
+    /**
+     * Writes messages in the framed format to a stream.
+     */
+    private static class FramedObjectSink implements ObjectSink
+    {
+        private OutputStream out;
+
+        private FramedObjectSink(OutputStream out)
+        {
+            this.out = out;
+        }
+
+        @Override
+        public void writeObject(CellMessage message) throws IOException
+        {
+            ByteBuffer frame = MessageFrames.encode(message);
+            out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            out.flush();
+        }
+    }
+
+    /**
+     * Buffered input stream allowing the data read ahead of the handshake
+     * to be handed over to the non-blocking connection.
+     */
+    private static class HandoverInputStream extends BufferedInputStream
+    {
+        private HandoverInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        /**
+         * Returns and consumes the buffered data.
+         */
+        private synchronized ByteBuffer drain()
+        {
+            ByteBuffer data = ByteBuffer.wrap(Arrays.copyOfRange(buf, pos, count));
+            pos = count;
+            return data;
+        }
+    }
 }
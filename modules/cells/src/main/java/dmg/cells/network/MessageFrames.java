@@ -0,0 +1,119 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dmg.cells.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+import dmg.cells.nucleus.CellMessage;
+
+/**
+ * Encoding of cell messages as self-delimiting frames.
+ *
+ * Every frame consists of a four byte body length, a one byte tag and
+ * the body. The tag identifies whether the body holds the message in
+ * the compact format or as a serialized Java object. Since frames can
+ * be delimited without decoding them, they can be read by non-blocking
+ * tunnels.
+ */
+final class MessageFrames
+{
+    static final int HEADER_SIZE = 5;
+
+    static final int MAXIMUM_BODY_SIZE = 256 << 20;
+
+    private static final byte COMPACT = 1;
+    private static final byte JAVA = 2;
+
+    private MessageFrames()
+    {
+    }
+
+    /**
+     * Returns a frame holding {@code message}. The buffer is ready to be
+     * written.
+     */
+    static ByteBuffer encode(CellMessage message) throws IOException
+    {
+        FrameOutputStream bytes = new FrameOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        if (message.isCompactEncodable()) {
+            out.writeByte(COMPACT);
+            message.writeTo(out);
+        } else {
+            out.writeByte(JAVA);
+            ObjectOutputStream object = new ObjectOutputStream(out);
+            object.writeObject(message);
+            object.flush();
+        }
+        out.flush();
+
+        ByteBuffer frame = bytes.toByteBuffer();
+        int length = frame.remaining() - HEADER_SIZE;
+        checkBodySize(length);
+        frame.putInt(0, length);
+        return frame;
+    }
+
+    /**
+     * Decodes the body of a frame.
+     */
+    static CellMessage decode(byte tag, ByteBuffer body) throws IOException, ClassNotFoundException
+    {
+        ByteArrayInputStream in =
+                new ByteArrayInputStream(body.array(), body.arrayOffset() + body.position(), body.remaining());
+        switch (tag) {
+        case COMPACT:
+            return CellMessage.createFrom(new DataInputStream(in));
+        case JAVA:
+            return (CellMessage) new ObjectInputStream(in).readObject();
+        default:
+            throw new IOException("Invalid message tag: " + tag);
+        }
+    }
+
+    static void checkBodySize(int length) throws IOException
+    {
+        if (length < 0 || length > MAXIMUM_BODY_SIZE) {
+            throw new IOException("Invalid message frame length: " + length);
+        }
+    }
+
+    /**
+     * Output stream exposing its buffer without copying it.
+     */
+    private static class FrameOutputStream extends ByteArrayOutputStream
+    {
+        FrameOutputStream()
+        {
+            super(512);
+        }
+
+        ByteBuffer toByteBuffer()
+        {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
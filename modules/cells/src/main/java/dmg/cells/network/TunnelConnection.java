@@ -0,0 +1,430 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dmg.cells.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import dmg.cells.nucleus.CellMessage;
+
+import org.dcache.util.SequentialExecutor;
+
+/**
+ * Non-blocking, framed connection to a peer domain.
+ *
+ * Outbound messages are encoded by the sending thread and placed in a
+ * bounded queue. The selector thread drains the queue, writing as many
+ * queued frames as possible with a single gathering write. If the queue
+ * is full, further messages are rejected rather than blocking the sender;
+ * thus a slow peer cannot stall the domain.
+ *
+ * Inbound frames are read and split by the selector thread. Decoding and
+ * passing messages to the {@link Handler} is done in order by a delivery
+ * thread of the connection, thus a handler blocking on delivery does not
+ * stall the selector thread. Should too many bytes await delivery, the
+ * connection stops reading from the peer until delivery catches up.
+ */
+class TunnelConnection
+{
+    /**
+     * Maximum number of frames written with a single system call.
+     */
+    private static final int MAXIMUM_BATCH_SIZE = 64;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Reading is suspended once more than this number of bytes is awaiting
+     * delivery, and resumed once delivery has caught up to half of it.
+     */
+    private static final long MAXIMUM_PENDING_BYTES = 16 * 1024 * 1024;
+
+    interface Handler
+    {
+        /**
+         * Called for every message received, in the order received. Calls
+         * are made sequentially, but not necessarily by the same thread.
+         */
+        void messageArrived(CellMessage message);
+
+        /**
+         * Called once if the connection fails or the peer closes it.
+         *
+         * @param cause The failure, or null if the peer closed the connection
+         */
+        void closed(Exception cause);
+    }
+
+    private final SocketChannel _channel;
+    private final TunnelSelector _selector;
+    private final Handler _handler;
+    private final int _capacity;
+    private final BlockingQueue<ByteBuffer> _queue;
+    private final Executor _deliveryExecutor;
+
+    private final AtomicBoolean _isClosed = new AtomicBoolean();
+    private final AtomicBoolean _isWriteScheduled = new AtomicBoolean();
+    private final AtomicLong _queuedBytes = new AtomicLong();
+    private final AtomicLong _pendingBytes = new AtomicLong();
+    private final AtomicInteger _peakQueueLength = new AtomicInteger();
+    private final LongAdder _rejected = new LongAdder();
+    private final LongAdder _writes = new LongAdder();
+    private final LongAdder _framesWritten = new LongAdder();
+    private final LongAdder _reads = new LongAdder();
+    private final LongAdder _framesRead = new LongAdder();
+
+    /* Only accessed by the selector thread. */
+    private SelectionKey _key;
+    private ByteBuffer _readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final ByteBuffer[] _batch = new ByteBuffer[MAXIMUM_BATCH_SIZE];
+    private int _batchLength;
+    private boolean _isWaitingForWrite;
+    private boolean _isReadSuspended;
+
+    TunnelConnection(SocketChannel channel, TunnelSelector selector, int capacity, Handler handler)
+    {
+        _channel = channel;
+        _selector = selector;
+        _handler = handler;
+        _capacity = capacity;
+        _queue = new ArrayBlockingQueue<>(capacity);
+        _deliveryExecutor = new SequentialExecutor(selector.getDeliveryExecutor());
+    }
+
+    /**
+     * Switches the channel to non-blocking mode and registers it with the
+     * selector.
+     *
+     * @param received Data already read from the channel
+     */
+    void start(ByteBuffer received) throws IOException
+    {
+        if (received.remaining() > _readBuffer.capacity()) {
+            _readBuffer = ByteBuffer.allocate(received.remaining());
+        }
+        _readBuffer.put(received);
+        _channel.configureBlocking(false);
+        _selector.execute(() -> {
+            try {
+                _key = _selector.register(_channel, SelectionKey.OP_READ, this);
+                decode();
+                if (_isWriteScheduled.get()) {
+                    write();
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+        });
+    }
+
+    /**
+     * Closes the connection. Queued messages are discarded and the handler
+     * is not notified.
+     */
+    void close()
+    {
+        if (_isClosed.compareAndSet(false, true)) {
+            shutdown();
+        }
+    }
+
+    /**
+     * Queues a message for delivery to the peer.
+     *
+     * @return false if the queue is full
+     * @throws ClosedChannelException if the connection is closed
+     * @throws IOException if the message cannot be encoded
+     */
+    boolean offer(CellMessage message) throws IOException
+    {
+        if (_isClosed.get()) {
+            throw new ClosedChannelException();
+        }
+        ByteBuffer frame = MessageFrames.encode(message);
+        int size = frame.remaining();
+        if (!_queue.offer(frame)) {
+            _rejected.increment();
+            return false;
+        }
+        _queuedBytes.addAndGet(size);
+        _peakQueueLength.accumulateAndGet(_queue.size(), Math::max);
+        if (_isWriteScheduled.compareAndSet(false, true)) {
+            _selector.execute(this::flush);
+        }
+        return true;
+    }
+
+    /**
+     * Called by the selector thread when the channel is ready.
+     */
+    void handle(SelectionKey key)
+    {
+        try {
+            if (key.isReadable()) {
+                read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                write();
+            }
+        } catch (CancelledKeyException ignored) {
+        } catch (EOFException e) {
+            fail(null);
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private void flush()
+    {
+        try {
+            write();
+        } catch (CancelledKeyException ignored) {
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Exception cause)
+    {
+        if (_isClosed.compareAndSet(false, true)) {
+            shutdown();
+            _handler.closed(cause);
+        }
+    }
+
+    private void shutdown()
+    {
+        try {
+            _channel.close();
+        } catch (IOException ignored) {
+        }
+        _queue.clear();
+        _queuedBytes.set(0);
+    }
+
+    private void read() throws IOException
+    {
+        if (_channel.read(_readBuffer) < 0) {
+            throw new EOFException();
+        }
+        _reads.increment();
+        decode();
+    }
+
+    /**
+     * Hands all complete frames in the read buffer to the delivery thread.
+     */
+    private void decode() throws IOException
+    {
+        _readBuffer.flip();
+        while (_readBuffer.remaining() >= MessageFrames.HEADER_SIZE) {
+            int position = _readBuffer.position();
+            int length = _readBuffer.getInt(position);
+            MessageFrames.checkBodySize(length);
+            int size = MessageFrames.HEADER_SIZE + length;
+            if (_readBuffer.remaining() < size) {
+                if (size > _readBuffer.capacity()) {
+                    ByteBuffer buffer = ByteBuffer.allocate(size);
+                    buffer.put(_readBuffer);
+                    _readBuffer = buffer;
+                    return;
+                }
+                break;
+            }
+
+            byte tag = _readBuffer.get(position + 4);
+            ByteBuffer frame = _readBuffer.duplicate();
+            frame.limit(position + size).position(position + MessageFrames.HEADER_SIZE);
+            _readBuffer.position(position + size);
+
+            /* The read buffer is reused, thus the body is copied. */
+            ByteBuffer body = ByteBuffer.allocate(length);
+            body.put(frame);
+            body.flip();
+
+            _framesRead.increment();
+            deliver(tag, body);
+        }
+
+        if (_readBuffer.hasRemaining() || _readBuffer.capacity() == READ_BUFFER_SIZE) {
+            _readBuffer.compact();
+        } else {
+            /* Release the buffer of an unusually large frame. */
+            _readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        }
+
+        if (!_isReadSuspended && _pendingBytes.get() > MAXIMUM_PENDING_BYTES) {
+            _isReadSuspended = true;
+            updateInterestOps();
+        }
+    }
+
+    /**
+     * Decodes a frame and passes the message to the handler on the delivery
+     * thread.
+     */
+    private void deliver(byte tag, ByteBuffer body)
+    {
+        int size = body.remaining();
+        _pendingBytes.addAndGet(size);
+        _deliveryExecutor.execute(() -> {
+            try {
+                if (!_isClosed.get()) {
+                    _handler.messageArrived(MessageFrames.decode(tag, body));
+                }
+            } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                fail(e);
+            } finally {
+                long pending = _pendingBytes.addAndGet(-size);
+                if (pending <= MAXIMUM_PENDING_BYTES / 2 && pending + size > MAXIMUM_PENDING_BYTES / 2) {
+                    _selector.execute(this::resumeReading);
+                }
+            }
+        });
+    }
+
+    /**
+     * Resumes reading from the peer if it was suspended and delivery has
+     * caught up. Called by the selector thread.
+     */
+    private void resumeReading()
+    {
+        if (_isReadSuspended && _pendingBytes.get() <= MAXIMUM_PENDING_BYTES / 2) {
+            _isReadSuspended = false;
+            try {
+                updateInterestOps();
+            } catch (CancelledKeyException ignored) {
+            }
+        }
+    }
+
+    private void updateInterestOps()
+    {
+        if (_key != null) {
+            _key.interestOps((_isReadSuspended ? 0 : SelectionKey.OP_READ) |
+                             (_isWaitingForWrite ? SelectionKey.OP_WRITE : 0));
+        }
+    }
+
+    /**
+     * Writes queued frames until either the queue is empty or the socket
+     * buffer is full. In the latter case the selector is asked to notify
+     * us once the channel becomes writable.
+     */
+    private void write() throws IOException
+    {
+        if (_key == null) {
+            return;
+        }
+
+        while (true) {
+            int length = _batchLength;
+            ByteBuffer frame;
+            while (length < _batch.length && (frame = _queue.poll()) != null) {
+                _batch[length++] = frame;
+            }
+
+            if (length == 0) {
+                _isWaitingForWrite = false;
+                updateInterestOps();
+                _isWriteScheduled.set(false);
+                if (_queue.isEmpty() || !_isWriteScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+
+            long written = _channel.write(_batch, 0, length);
+            _writes.increment();
+            _queuedBytes.addAndGet(-written);
+
+            int done = 0;
+            while (done < length && !_batch[done].hasRemaining()) {
+                done++;
+            }
+            _framesWritten.add(done);
+            System.arraycopy(_batch, done, _batch, 0, length - done);
+            Arrays.fill(_batch, length - done, length, null);
+            _batchLength = length - done;
+
+            if (_batchLength > 0) {
+                _isWaitingForWrite = true;
+                updateInterestOps();
+                return;
+            }
+        }
+    }
+
+    int getCapacity()
+    {
+        return _capacity;
+    }
+
+    int getQueueLength()
+    {
+        return _queue.size();
+    }
+
+    long getQueuedBytes()
+    {
+        return _queuedBytes.get();
+    }
+
+    int getPeakQueueLength()
+    {
+        return _peakQueueLength.get();
+    }
+
+    long getRejected()
+    {
+        return _rejected.sum();
+    }
+
+    long getWrites()
+    {
+        return _writes.sum();
+    }
+
+    long getFramesWritten()
+    {
+        return _framesWritten.sum();
+    }
+
+    long getReads()
+    {
+        return _reads.sum();
+    }
+
+    long getFramesRead()
+    {
+        return _framesRead.sum();
+    }
+}
@@ -0,0 +1,142 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dmg.cells.network;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Multiplexes the I/O of all non-blocking tunnels of a domain onto a
+ * single thread.
+ *
+ * Channels are registered with and tasks are submitted to the selector
+ * thread using {@link #execute}. All I/O on a registered channel is
+ * performed by the selector thread. Received messages are decoded and
+ * delivered by the threads of a separate delivery executor, so that
+ * slow delivery does not hold up the I/O of other tunnels.
+ */
+class TunnelSelector implements Runnable
+{
+    private static final Logger _log = LoggerFactory.getLogger(TunnelSelector.class);
+
+    private static TunnelSelector _instance;
+
+    private final Selector _selector;
+    private final Queue<Runnable> _tasks = new ConcurrentLinkedQueue<>();
+    private final ExecutorService _deliveryExecutor =
+            Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                                                  .setNameFormat("tunnel-delivery-%d")
+                                                  .setDaemon(true)
+                                                  .build());
+
+    private TunnelSelector(Selector selector)
+    {
+        _selector = selector;
+    }
+
+    /**
+     * Returns the selector shared by all tunnels of this domain. The
+     * selector thread is started on first use.
+     */
+    static synchronized TunnelSelector getInstance() throws IOException
+    {
+        if (_instance == null) {
+            TunnelSelector selector = new TunnelSelector(Selector.open());
+            Thread thread = new Thread(selector, "tunnel-selector");
+            thread.setDaemon(true);
+            thread.start();
+            _instance = selector;
+        }
+        return _instance;
+    }
+
+    /**
+     * Runs {@code task} on the selector thread.
+     */
+    void execute(Runnable task)
+    {
+        _tasks.add(task);
+        _selector.wakeup();
+    }
+
+    /**
+     * Returns the executor shared by all tunnels for delivering received
+     * messages.
+     */
+    Executor getDeliveryExecutor()
+    {
+        return _deliveryExecutor;
+    }
+
+    /**
+     * Registers a channel. Must be called on the selector thread.
+     */
+    SelectionKey register(SelectableChannel channel, int ops, TunnelConnection connection)
+            throws ClosedChannelException
+    {
+        return channel.register(_selector, ops, connection);
+    }
+
+    @Override
+    public void run()
+    {
+        try {
+            while (true) {
+                try {
+                    _selector.select();
+                    runTasks();
+                    Iterator<SelectionKey> keys = _selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        ((TunnelConnection) key.attachment()).handle(key);
+                    }
+                } catch (IOException e) {
+                    _log.error("Tunnel selector failed: {}", e.toString());
+                }
+            }
+        } catch (ClosedSelectorException ignored) {
+        }
+    }
+
+    private void runTasks()
+    {
+        Runnable task;
+        while ((task = _tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                _log.error("Tunnel task failed due to a bug, please contact support@dcache.org.", e);
+            }
+        }
+    }
+}
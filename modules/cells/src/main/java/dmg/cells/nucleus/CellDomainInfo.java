@@ -17,7 +17,14 @@
  */
 package dmg.cells.nucleus;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Ints;
+
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 import dmg.util.Releases;
 
@@ -29,12 +36,27 @@ public class CellDomainInfo implements Serializable
     private final String _domainName;
     private final String _version;
     private CellDomainRole _role;
+    private String[] _messageFormats;
+    private int[] _messageCodecs;
 
     public CellDomainInfo(String name, String version, CellDomainRole role)
+    {
+        this(name, version, role, Collections.emptyList());
+    }
+
+    public CellDomainInfo(String name, String version, CellDomainRole role, List<String> messageFormats)
+    {
+        this(name, version, role, messageFormats, Collections.emptySet());
+    }
+
+    public CellDomainInfo(String name, String version, CellDomainRole role, List<String> messageFormats,
+                          Set<Integer> messageCodecs)
     {
         _domainName = checkNotNull(name);
         _version = checkNotNull(version);
         _role = checkNotNull(role);
+        _messageFormats = messageFormats.toArray(new String[messageFormats.size()]);
+        _messageCodecs = Ints.toArray(messageCodecs);
     }
 
     public String getVersion()
@@ -57,6 +79,23 @@ public class CellDomainInfo implements Serializable
         return _role;
     }
 
+    /**
+     * Returns the tunnel message formats supported by the domain, in
+     * order of preference.
+     */
+    public List<String> getMessageFormats()
+    {
+        return Arrays.asList(_messageFormats);
+    }
+
+    /**
+     * Returns the ids of the {@link MessageCodec}s supported by the domain.
+     */
+    public Set<Integer> getMessageCodecs()
+    {
+        return ImmutableSet.copyOf(Ints.asList(_messageCodecs));
+    }
+
     public String toString()
     {
         return _domainName + "," + _version + "," + _role;
@@ -71,5 +110,13 @@ public class CellDomainInfo implements Serializable
         if (_role == null) {
             _role = CellDomainRole.SATELLITE;
         }
+
+        // For backwards compatibility with pre-2.17
+        if (_messageFormats == null) {
+            _messageFormats = new String[0];
+        }
+        if (_messageCodecs == null) {
+            _messageCodecs = new int[0];
+        }
     }
 }
@@ -23,6 +23,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import dmg.util.TimebasedCounter;
 
@@ -57,6 +58,17 @@ class CellGlue
     private final CellAddressCore _domainAddress;
     private final CuratorFramework _curatorFramework;
 
+    /**
+     * Whether messages implementing PassByReference are delivered to local
+     * cells without serialization.
+     */
+    private volatile boolean _isPassByReferenceEnabled;
+
+    /**
+     * Number of messages delivered without serialization.
+     */
+    private final LongAdder _passedByReference = new LongAdder();
+
     CellGlue(String cellDomainName, CuratorFramework curatorFramework)
     {
         String cellDomainNameLocal = cellDomainName;
@@ -167,6 +179,21 @@ class CellGlue
         return v;
     }
 
+    void setPassByReferenceEnabled(boolean enabled)
+    {
+        _isPassByReferenceEnabled = enabled;
+    }
+
+    boolean isPassByReferenceEnabled()
+    {
+        return _isPassByReferenceEnabled;
+    }
+
+    long getPassedByReferenceCount()
+    {
+        return _passedByReference.sum();
+    }
+
     List<String> getCellNames()
     {
         return new ArrayList<>(_cellList.keySet());
@@ -362,7 +389,14 @@ class CellGlue
     void sendMessage(CellMessage msg, boolean resolveLocally, boolean resolveRemotely)
             throws SerializationException
     {
-        if (!msg.isStreamMode()) {
+        if (msg.isStreamMode()) {
+            // Already encoded
+        } else if (_isPassByReferenceEnabled && msg.getMessageObject() instanceof PassByReference) {
+            /* Encoding is deferred until the message leaves the domain, but
+             * we must not modify the envelope of the sender.
+             */
+            msg = msg.clone();
+        } else {
             msg = msg.encode();
         }
         CellPath destination = msg.getDestinationPath();
@@ -493,7 +527,12 @@ class CellGlue
             CellPath destinationPath = msg.getDestinationPath();
             if (address.equals(destinationPath.getCurrent())) {
                 try {
-                    destNucleus.addToEventQueue(new MessageEvent(msg.decode()));
+                    if (msg.isStreamMode()) {
+                        destNucleus.addToEventQueue(new MessageEvent(msg.decode()));
+                    } else {
+                        destNucleus.addToEventQueue(new MessageEvent(msg.copyForDelivery()));
+                        _passedByReference.increment();
+                    }
                 } catch (SerializationException e) {
                     LOGGER.error("Received malformed message from {} with UOID {} and session [{}]: {}",
                                  msg.getSourcePath(), msg.getUOID(), msg.getSession(), e.getMessage());
@@ -503,6 +542,11 @@ class CellGlue
                 LOGGER.error("Hop count exceeds 30: {}", msg);
                 sendException(msg, address.toString());
             } else {
+                /* Routers such as tunnels expect encoded messages.
+                 */
+                if (!msg.isStreamMode()) {
+                    msg = msg.encode();
+                }
                 msg.addSourceAddress(_domainAddress);
                 destNucleus.addToEventQueue(new RoutedMessageEvent(msg));
             }
@@ -515,7 +559,7 @@ class CellGlue
             throws SerializationException
     {
         if (msg.getSourceAddress().getCellName().equals("*")) {
-            Serializable messageObject = msg.decode().getMessageObject();
+            Serializable messageObject = msg.isStreamMode() ? msg.decode().getMessageObject() : msg.getMessageObject();
             if (messageObject instanceof NoRouteToCellException) {
                 LOGGER.warn(
                         "Unable to notify {} about delivery failure of message sent to {}: No route for {} in {}.",
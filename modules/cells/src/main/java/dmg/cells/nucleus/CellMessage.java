@@ -4,12 +4,17 @@ import com.google.common.base.Throwables;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InvalidClassException;
 import java.io.NotSerializableException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkState;
 
@@ -33,6 +38,18 @@ public class CellMessage implements Cloneable , Serializable {
    */
   private static final float TTL_BUFFER_FRACTION = 0.10f;
 
+  /**
+   * Maximum length of a session identifier in the compact format. Ensures
+   * that the modified UTF-8 encoding stays below 64 KiB.
+   */
+  private static final int COMPACT_SESSION_MAXIMUM = 16384;
+
+  /**
+   * First byte of a message stream encoded with a {@link MessageCodec}.
+   * Java serialization streams always start with 0xAC.
+   */
+  private static final byte CODEC_STREAM = 1;
+
   private CellPath    _source , _destination ;
   private Object      _message ;
   private long        _creationTime ;
@@ -183,6 +200,19 @@ public boolean equals( Object obj ){
         return encoded;
     }
 
+    /**
+     * Returns a copy of this unencoded message for delivery to a cell in
+     * the same domain. The message object must implement
+     * {@link PassByReference}.
+     */
+    CellMessage copyForDelivery()
+    {
+        checkState(_mode == ORIGINAL_MODE);
+        CellMessage copy = clone();
+        copy._message = ((PassByReference) _message).copyForDelivery();
+        return copy;
+    }
+
     public CellMessage decode() throws SerializationException
     {
         checkState(_mode == STREAM_MODE);
@@ -193,7 +223,30 @@ public boolean equals( Object obj ){
         return decoded;
     }
 
+    /**
+     * Encodes a message object with its {@link MessageCodec} or, if it has
+     * none, with Java serialization.
+     */
     protected static byte[] encode(Object message)
+    {
+        MessageCodec<?> codec = MessageCodecs.forClass(message.getClass());
+        return (codec == null) ? serialize(message) : encode(codec, message);
+    }
+
+    private static <T extends Serializable> byte[] encode(MessageCodec<T> codec, Object message)
+    {
+        ByteArrayOutputStream array = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(array)) {
+            out.writeByte(CODEC_STREAM);
+            out.writeInt(codec.getId());
+            codec.writeTo(codec.getMessageClass().cast(message), out);
+        } catch (IOException e) {
+            throw new SerializationException("Failed to encode object: " + e, e);
+        }
+        return array.toByteArray();
+    }
+
+    private static byte[] serialize(Object message)
     {
         int initialBufferSize = 256;
         ByteArrayOutputStream array = new ByteArrayOutputStream(initialBufferSize);
@@ -212,6 +265,20 @@ public boolean equals( Object obj ){
 
     protected static Object decode(byte[] messageStream)
     {
+        if (isCodecEncoded(messageStream)) {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(messageStream))) {
+                in.readByte();
+                int id = in.readInt();
+                MessageCodec<?> codec = MessageCodecs.forId(id);
+                if (codec == null) {
+                    throw new SerializationException("Failed to decode object: Unknown message codec " + id +
+                                                     ". Is there a software version mismatch in your installation?");
+                }
+                return codec.readFrom(in);
+            } catch (IOException e) {
+                throw new SerializationException("Failed to decode object: " + e, e);
+            }
+        }
         try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(messageStream))) {
             return stream.readObject();
         } catch (ClassNotFoundException e) {
@@ -221,6 +288,111 @@ public boolean equals( Object obj ){
         }
     }
 
+    private static boolean isCodecEncoded(byte[] messageStream)
+    {
+        return messageStream.length > 0 && messageStream[0] == CODEC_STREAM;
+    }
+
+    /**
+     * Returns whether the message object of this message can be decoded
+     * by a domain supporting the given message codecs. This is the case
+     * unless the message object is encoded with any other codec.
+     */
+    public boolean isDecodableWith(Set<Integer> codecs)
+    {
+        if (_mode != STREAM_MODE || !isCodecEncoded(_messageStream)) {
+            return true;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(_messageStream))) {
+            in.readByte();
+            return codecs.contains(in.readInt());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns a copy of this encoded message with the message object
+     * encoded with Java serialization. Used for peers that do not support
+     * the codec of the message object.
+     */
+    public CellMessage withSerializedMessageObject() throws SerializationException
+    {
+        checkState(_mode == STREAM_MODE);
+        if (!isCodecEncoded(_messageStream)) {
+            return this;
+        }
+        CellMessage copy = clone();
+        copy._messageStream = serialize(decode(_messageStream));
+        return copy;
+    }
+
+    /**
+     * Returns whether this message can be written with {@link #writeTo}.
+     * Only encoded messages without a session or with a string session
+     * can be written in the compact format.
+     */
+    public boolean isCompactEncodable()
+    {
+        return _mode == STREAM_MODE &&
+               (_session == null ||
+                _session instanceof String && ((String) _session).length() <= COMPACT_SESSION_MAXIMUM);
+    }
+
+    /**
+     * Writes this message in the compact binary format used by cell
+     * tunnels. Unlike Java serialization, no class descriptors are
+     * written; the message object itself is written as the already
+     * encoded byte stream, which is compact too if the message object
+     * has a {@link MessageCodec}.
+     */
+    public void writeTo(DataOutput out) throws IOException
+    {
+        checkState(isCompactEncodable());
+        _source.writeTo(out);
+        _destination.writeTo(out);
+        _umid.writeTo(out);
+        _lastUmid.writeTo(out);
+        out.writeLong(_creationTime);
+        out.writeLong(_ttl);
+        out.writeBoolean(_isPersistent);
+        out.writeBoolean(_session != null);
+        if (_session != null) {
+            out.writeUTF((String) _session);
+        }
+        out.writeInt(_messageStream.length);
+        out.write(_messageStream);
+    }
+
+    /**
+     * Reads a message written by {@link #writeTo}. The message is in
+     * stream mode and must be decoded before the message object can be
+     * accessed.
+     */
+    public static CellMessage createFrom(DataInput in) throws IOException
+    {
+        CellMessage message = new CellMessage();
+        message._mode = STREAM_MODE;
+        message._source = CellPath.createFrom(in);
+        message._destination = CellPath.createFrom(in);
+        message._umid = UOID.createFrom(in);
+        message._lastUmid = UOID.createFrom(in);
+        message._creationTime = in.readLong();
+        message._ttl = in.readLong();
+        message._isPersistent = in.readBoolean();
+        if (in.readBoolean()) {
+            message._session = in.readUTF();
+        }
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid message stream length: " + length);
+        }
+        message._messageStream = new byte[length];
+        in.readFully(message._messageStream);
+        message._receivedAt = System.currentTimeMillis();
+        return message;
+    }
+
     public void addSourceAddress( CellAddressCore source ){
       _source.add(source) ;
   }
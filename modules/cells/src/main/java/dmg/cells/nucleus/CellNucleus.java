@@ -228,6 +228,29 @@ public class CellNucleus implements ThreadFactory
         return __cellGlue.getCellDomainName();
     }
     public List<String> getCellNames() { return __cellGlue.getCellNames(); }
+
+    /**
+     * Enables or disables delivery of {@link PassByReference} messages to
+     * cells in this domain without serialization.
+     */
+    public void setPassByReferenceEnabled(boolean enabled)
+    {
+        __cellGlue.setPassByReferenceEnabled(enabled);
+    }
+
+    public boolean isPassByReferenceEnabled()
+    {
+        return __cellGlue.isPassByReferenceEnabled();
+    }
+
+    /**
+     * Returns the number of messages delivered to cells in this domain
+     * without serialization.
+     */
+    public long getPassedByReferenceCount()
+    {
+        return __cellGlue.getPassedByReferenceCount();
+    }
     public CellInfo getCellInfo(String name) {
         return __cellGlue.getCellInfo(name);
     }
@@ -4,6 +4,9 @@ import com.google.common.collect.Collections2;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -101,6 +104,38 @@ public final class CellPath implements Cloneable, Serializable
         streamOfPath(path).forEachOrdered(this::add);
     }
 
+    /**
+     * Writes this path in the compact binary format used by cell tunnels.
+     */
+    synchronized void writeTo(DataOutput out) throws IOException
+    {
+        out.writeInt(_position);
+        out.writeInt(_list.size());
+        for (CellAddressCore address : _list) {
+            out.writeUTF(address.getCellName());
+            out.writeUTF(address.getCellDomainName());
+        }
+    }
+
+    /**
+     * Reads a path written by {@link #writeTo}.
+     */
+    static CellPath createFrom(DataInput in) throws IOException
+    {
+        int position = in.readInt();
+        int size = in.readInt();
+        if (size < 0 || position < -1 || position >= size) {
+            throw new IOException("Invalid cell path encoding");
+        }
+        List<CellAddressCore> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String cell = in.readUTF();
+            String domain = in.readUTF();
+            list.add(new CellAddressCore(cell, domain));
+        }
+        return new CellPath(position, list);
+    }
+
     @Override
     public synchronized CellPath clone()
     {
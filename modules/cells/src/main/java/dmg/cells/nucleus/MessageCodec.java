@@ -0,0 +1,43 @@
+package dmg.cells.nucleus;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Encodes message objects of a particular class without Java serialization.
+ *
+ * Codecs are registered with {@link MessageCodecs} and are used by
+ * {@link CellMessage} to encode message objects of exactly the class
+ * returned by {@link #getMessageClass}. The encoding consists of the codec
+ * id followed by the fields written by {@link #writeTo}; no class
+ * descriptors are written.
+ *
+ * The id identifies both the message class and the layout of the encoding.
+ * Domains advertise the ids of their codecs when establishing a tunnel, and
+ * messages are only sent with a codec the peer supports. Thus the layout of
+ * a codec must never change: a changed layout must use a new id.
+ */
+public interface MessageCodec<T extends Serializable>
+{
+    /**
+     * Returns the positive id of this codec.
+     */
+    int getId();
+
+    /**
+     * Returns the class of messages encoded by this codec.
+     */
+    Class<T> getMessageClass();
+
+    /**
+     * Writes the fields of a message.
+     */
+    void writeTo(T message, DataOutput out) throws IOException;
+
+    /**
+     * Reads a message written by {@link #writeTo}.
+     */
+    T readFrom(DataInput in) throws IOException;
+}
@@ -0,0 +1,179 @@
+package dmg.cells.nucleus;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Registry of {@link MessageCodec}s.
+ *
+ * Codecs are discovered with {@link ServiceLoader}. A codec is only used
+ * for messages of exactly its message class; instances of subclasses and
+ * all other messages are encoded with Java serialization.
+ *
+ * The class also provides methods for writing fields shared by codec
+ * implementations.
+ */
+public final class MessageCodecs
+{
+    private static final Map<Class<?>, MessageCodec<?>> BY_CLASS = new ConcurrentHashMap<>();
+    private static final Map<Integer, MessageCodec<?>> BY_ID = new ConcurrentHashMap<>();
+
+    static {
+        for (MessageCodec<?> codec : ServiceLoader.load(MessageCodec.class, MessageCodecs.class.getClassLoader())) {
+            register(codec);
+        }
+    }
+
+    private MessageCodecs()
+    {
+    }
+
+    @VisibleForTesting
+    static synchronized void register(MessageCodec<?> codec)
+    {
+        checkArgument(codec.getId() > 0, "Invalid codec id: %s", codec.getId());
+        checkArgument(!BY_ID.containsKey(codec.getId()), "Duplicate codec id: %s", codec.getId());
+        checkArgument(!BY_CLASS.containsKey(codec.getMessageClass()),
+                      "Duplicate codec for %s", codec.getMessageClass());
+        BY_ID.put(codec.getId(), codec);
+        BY_CLASS.put(codec.getMessageClass(), codec);
+    }
+
+    /**
+     * Returns the codec for messages of the given class, or null if
+     * messages of the class are encoded with Java serialization.
+     */
+    public static MessageCodec<?> forClass(Class<?> type)
+    {
+        return BY_CLASS.get(type);
+    }
+
+    /**
+     * Returns the codec with the given id, or null if there is none.
+     */
+    public static MessageCodec<?> forId(int id)
+    {
+        return BY_ID.get(id);
+    }
+
+    /**
+     * Returns the ids of all registered codecs.
+     */
+    public static Set<Integer> getIds()
+    {
+        return ImmutableSet.copyOf(BY_ID.keySet());
+    }
+
+    /**
+     * Writes a string that may be null.
+     */
+    public static void writeString(DataOutput out, String s) throws IOException
+    {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    /**
+     * Reads a string written by {@link #writeString}.
+     */
+    public static String readString(DataInput in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Writes a set of enum constants that may be null. Constants are
+     * written by name, thus the encoding does not depend on their order.
+     */
+    public static void writeEnumSet(DataOutput out, Set<? extends Enum<?>> set) throws IOException
+    {
+        if (set == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(set.size());
+            for (Enum<?> e : set) {
+                out.writeUTF(e.name());
+            }
+        }
+    }
+
+    /**
+     * Reads a set written by {@link #writeEnumSet}.
+     */
+    public static <E extends Enum<E>> EnumSet<E> readEnumSet(DataInput in, Class<E> type) throws IOException
+    {
+        int size = in.readInt();
+        if (size < -1) {
+            throw new IOException("Invalid set size: " + size);
+        }
+        if (size == -1) {
+            return null;
+        }
+        EnumSet<E> set = EnumSet.noneOf(type);
+        for (int i = 0; i < size; i++) {
+            String name = in.readUTF();
+            try {
+                set.add(Enum.valueOf(type, name));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unknown " + type.getSimpleName() + ": " + name, e);
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Writes an object that may be null using Java serialization. Meant for
+     * fields for which a codec has no dedicated encoding.
+     */
+    public static void writeObject(DataOutput out, Object o) throws IOException
+    {
+        if (o == null) {
+            out.writeInt(-1);
+        } else {
+            ByteArrayOutputStream array = new ByteArrayOutputStream(256);
+            try (ObjectOutputStream stream = new ObjectOutputStream(array)) {
+                stream.writeObject(o);
+            }
+            out.writeInt(array.size());
+            out.write(array.toByteArray());
+        }
+    }
+
+    /**
+     * Reads an object written by {@link #writeObject}.
+     */
+    public static Object readObject(DataInput in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < -1) {
+            throw new IOException("Invalid object length: " + length);
+        }
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return stream.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Failed to deserialize object: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package dmg.cells.nucleus;
+
+import java.io.Serializable;
+
+/**
+ * Message objects implementing this interface may be delivered to cells
+ * in the same domain without being serialized.
+ *
+ * Normally a message is serialized when sent and deserialized when
+ * delivered, thus sender and receiver never share any state. If passing
+ * by reference is enabled for the domain, messages implementing this
+ * interface skip serialization when delivered to a cell of the same
+ * domain. The receiver is instead given the object returned by
+ * {@link #copyForDelivery}.
+ *
+ * Only immutable classes, or classes able to create a copy that shares
+ * no mutable state with the original, should implement this interface.
+ */
+public interface PassByReference extends Serializable
+{
+    /**
+     * Returns the object to deliver to a cell in the same domain. The
+     * default implementation returns this object and is only suitable
+     * for immutable classes.
+     */
+    default Serializable copyForDelivery()
+    {
+        return this;
+    }
+}
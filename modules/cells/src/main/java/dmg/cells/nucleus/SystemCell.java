@@ -251,6 +251,9 @@ public class      SystemCell
         long tm = _runtime.totalMemory();
 
         pw.format(" Memory : tot=%d;free=%d;used=%d\n", tm, fm, tm - fm);
+        if (_nucleus.isPassByReferenceEnabled()) {
+            pw.format(" Local delivery by reference : %d\n", _nucleus.getPassedByReferenceCount());
+        }
         pw.println(" Cells (Threads)");
         for (String name: _nucleus.getCellNames()) {
             pw.append(" ").append(name).append("(");
@@ -20,15 +20,16 @@ package dmg.cells.services;
 
 import javax.annotation.concurrent.Immutable;
 
-import java.io.Serializable;
 import java.util.Collection;
 import java.util.Collections;
 
+import dmg.cells.nucleus.PassByReference;
+
 import static java.util.Arrays.asList;
 import static java.util.Collections.unmodifiableCollection;
 
 @Immutable
-public class CoreRouteUpdate implements Serializable
+public class CoreRouteUpdate implements PassByReference
 {
     private static final long serialVersionUID = 5105253793542041494L;
     private final String[] exports;
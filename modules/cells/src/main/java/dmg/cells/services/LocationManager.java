@@ -479,7 +479,8 @@ public class LocationManager extends CellAdapter
     {
         String cellName = "l*";
         String cellClass = "dmg.cells.network.LocationMgrTunnel";
-        String cellArgs = args + " " + cellClass + " " + "-prot=raw" + " -lm=" + getCellName() + " -role=" + role;
+        String cellArgs = args + " " + cellClass + " " + "-prot=raw" + " -lm=" + getCellName() + " -role=" + role
+                          + getTunnelOptions();
         LOGGER.info("Starting acceptor with arguments: {}", cellArgs);
         LoginManager c = new LoginManager(cellName, "System", cellArgs);
         c.start().get();
@@ -501,7 +502,8 @@ public class LocationManager extends CellAdapter
                 + "-role=" + role + " "
                 + "-where=" + address + " "
                 + clientKey + " "
-                + clientName;
+                + clientName
+                + getTunnelOptions();
         LOGGER.info("Starting connector with {}", cellArgs);
         LocationManagerConnector c = new LocationManagerConnector(cellName, cellArgs);
         c.start().get();
@@ -509,6 +511,23 @@ public class LocationManager extends CellAdapter
         return c.getCellName();
     }
 
+    /**
+     * Returns the options controlling the I/O engine of tunnels.
+     */
+    private String getTunnelOptions()
+    {
+        StringBuilder options = new StringBuilder();
+        String engine = args.getOpt("engine");
+        if (engine != null && !engine.isEmpty()) {
+            options.append(" -engine=").append(engine);
+        }
+        String queueSize = args.getOpt("queue-size");
+        if (queueSize != null && !queueSize.isEmpty()) {
+            options.append(" -queue-size=").append(queueSize);
+        }
+        return options.toString();
+    }
+
     @Command(name = "ls", hint = "list core domains",
             description = "Provides information on available core domains.")
     class ListCommand implements Callable<String>
@@ -0,0 +1,166 @@
+package dmg.cells.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import dmg.cells.nucleus.CellAddressCore;
+import dmg.cells.nucleus.CellMessage;
+import dmg.cells.nucleus.CellPath;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+public class TunnelConnectionTest
+{
+    private SocketChannel client;
+    private SocketChannel server;
+    private final BlockingQueue<CellMessage> received = new LinkedBlockingQueue<>();
+    private final TunnelConnection.Handler handler = new TunnelConnection.Handler()
+    {
+        @Override
+        public void messageArrived(CellMessage message)
+        {
+            received.add(message);
+        }
+
+        @Override
+        public void closed(Exception cause)
+        {
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException
+    {
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress("127.0.0.1", 0));
+            client = SocketChannel.open(listener.getLocalAddress());
+            server = listener.accept();
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        client.close();
+        server.close();
+    }
+
+    private static CellMessage newMessage(Serializable payload)
+    {
+        CellMessage message = new CellMessage(new CellPath("PnfsManager@dCacheDomain"), payload);
+        message.addSourceAddress(new CellAddressCore("door", "doorDomain"));
+        return message.encode();
+    }
+
+    @Test
+    public void shouldDeliverMessagesInOrder() throws Exception
+    {
+        TunnelConnection sender = new TunnelConnection(client, TunnelSelector.getInstance(), 1000, handler);
+        TunnelConnection receiver = new TunnelConnection(server, TunnelSelector.getInstance(), 1000, handler);
+        sender.start(ByteBuffer.allocate(0));
+        receiver.start(ByteBuffer.allocate(0));
+
+        for (int i = 0; i < 500; i++) {
+            sender.offer(newMessage(i));
+        }
+        sender.offer(newMessage(new byte[200000]));
+
+        for (int i = 0; i < 500; i++) {
+            CellMessage message = received.poll(10, TimeUnit.SECONDS);
+            assertThat(message, is(notNullValue()));
+            assertThat(message.decode().getMessageObject(), is((Object) i));
+        }
+        CellMessage large = received.poll(10, TimeUnit.SECONDS);
+        assertThat(((byte[]) large.decode().getMessageObject()).length, is(200000));
+    }
+
+    @Test
+    public void shouldDecodeDataReceivedDuringHandshake() throws Exception
+    {
+        TunnelConnection receiver = new TunnelConnection(server, TunnelSelector.getInstance(), 1000, handler);
+        receiver.start(MessageFrames.encode(newMessage("early")));
+
+        CellMessage message = received.poll(10, TimeUnit.SECONDS);
+        assertThat(message.decode().getMessageObject(), is((Object) "early"));
+    }
+
+    @Test
+    public void shouldNotStallOtherTunnelsWhileDeliveryBlocks() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        TunnelConnection.Handler blocking = new TunnelConnection.Handler()
+        {
+            @Override
+            public void messageArrived(CellMessage message)
+            {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void closed(Exception cause)
+            {
+            }
+        };
+        TunnelConnection blockedSender = new TunnelConnection(client, TunnelSelector.getInstance(), 1000, handler);
+        TunnelConnection blockedReceiver = new TunnelConnection(server, TunnelSelector.getInstance(), 1000, blocking);
+        blockedSender.start(ByteBuffer.allocate(0));
+        blockedReceiver.start(ByteBuffer.allocate(0));
+
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress("127.0.0.1", 0));
+            try (SocketChannel otherClient = SocketChannel.open(listener.getLocalAddress());
+                 SocketChannel otherServer = listener.accept()) {
+                TunnelConnection sender = new TunnelConnection(otherClient, TunnelSelector.getInstance(), 1000, handler);
+                TunnelConnection receiver = new TunnelConnection(otherServer, TunnelSelector.getInstance(), 1000, handler);
+                sender.start(ByteBuffer.allocate(0));
+                receiver.start(ByteBuffer.allocate(0));
+
+                blockedSender.offer(newMessage("blocked"));
+                sender.offer(newMessage("delivered"));
+
+                CellMessage message = received.poll(10, TimeUnit.SECONDS);
+                assertThat(message, is(notNullValue()));
+                assertThat(message.decode().getMessageObject(), is((Object) "delivered"));
+            } finally {
+                release.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void shouldRejectMessagesWhenQueueIsFull() throws Exception
+    {
+        TunnelConnection sender = new TunnelConnection(client, TunnelSelector.getInstance(), 4, handler);
+        sender.start(ByteBuffer.allocate(0));
+
+        /* Nobody reads from the server side, so the socket buffers fill up
+         * and eventually the queue overflows.
+         */
+        boolean accepted = true;
+        for (int i = 0; i < 10000 && accepted; i++) {
+            accepted = sender.offer(newMessage(new byte[100000]));
+        }
+
+        assertFalse(accepted);
+        assertThat(sender.getRejected(), is(1L));
+    }
+}
@@ -0,0 +1,117 @@
+package dmg.cells.nucleus;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class CellGlueTest
+{
+    private CellGlue glue;
+    private CellNucleus nucleus;
+
+    @Before
+    public void setUp()
+    {
+        glue = new CellGlue("testDomain", null);
+        nucleus = mock(CellNucleus.class);
+        glue.addCell("receiver", nucleus);
+    }
+
+    private CellMessage deliver(Serializable payload) throws Exception
+    {
+        CellMessage message = new CellMessage(new CellPath("receiver@testDomain"), payload);
+        message.addSourceAddress(new CellAddressCore("sender", "testDomain"));
+        glue.sendMessage(message, true, true);
+
+        ArgumentCaptor<MessageEvent> event = ArgumentCaptor.forClass(MessageEvent.class);
+        verify(nucleus).addToEventQueue(event.capture());
+        return event.getValue().getMessage();
+    }
+
+    @Test
+    public void localDeliveryShouldSkipEncodingWhenPassingByReference() throws Exception
+    {
+        glue.setPassByReferenceEnabled(true);
+        UnserializableMessage payload = new UnserializableMessage();
+
+        CellMessage delivered = deliver(payload);
+
+        assertThat(delivered.isStreamMode(), is(false));
+        assertThat(delivered.getMessageObject(), is(not(sameInstance((Object) payload))));
+        assertThat(((UnserializableMessage) delivered.getMessageObject()).isCopy, is(true));
+        assertThat(glue.getPassedByReferenceCount(), is(1L));
+    }
+
+    @Test
+    public void localDeliveryShouldEncodeWhenPassingByReferenceIsDisabled() throws Exception
+    {
+        CopyableMessage payload = new CopyableMessage();
+
+        CellMessage delivered = deliver(payload);
+
+        assertThat(delivered.getMessageObject(), is(not(sameInstance((Object) payload))));
+        assertThat(((CopyableMessage) delivered.getMessageObject()).isCopy, is(false));
+        assertThat(glue.getPassedByReferenceCount(), is(0L));
+    }
+
+    @Test
+    public void localDeliveryShouldEncodeOtherMessages() throws Exception
+    {
+        glue.setPassByReferenceEnabled(true);
+
+        CellMessage delivered = deliver("payload");
+
+        assertThat(delivered.getMessageObject(), is((Object) "payload"));
+        assertThat(glue.getPassedByReferenceCount(), is(0L));
+    }
+
+    private static class CopyableMessage implements PassByReference
+    {
+        private static final long serialVersionUID = 1L;
+
+        boolean isCopy;
+
+        @Override
+        public Serializable copyForDelivery()
+        {
+            CopyableMessage copy = new CopyableMessage();
+            copy.isCopy = true;
+            return copy;
+        }
+    }
+
+    /**
+     * Fails if serialized, thus proving that delivery did not encode it.
+     */
+    private static class UnserializableMessage implements PassByReference
+    {
+        private static final long serialVersionUID = 1L;
+
+        boolean isCopy;
+
+        @Override
+        public Serializable copyForDelivery()
+        {
+            UnserializableMessage copy = new UnserializableMessage();
+            copy.isCopy = true;
+            return copy;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException
+        {
+            throw new NotSerializableException(getClass().getName());
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package dmg.cells.nucleus;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.BeforeClass;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class CellMessageTest
+{
+    private static final int CODEC_ID = 1000;
+
+    @BeforeClass
+    public static void registerCodec()
+    {
+        MessageCodecs.register(new EncodedMessageCodec());
+    }
+
+    private static CellMessage roundTrip(CellMessage message) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            message.writeTo(out);
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return CellMessage.createFrom(in);
+        }
+    }
+
+    @Test
+    public void compactFormatShouldPreserveEnvelope() throws Exception
+    {
+        CellMessage message = new CellMessage(new CellPath("PnfsManager@dCacheDomain"), "payload");
+        message.addSourceAddress(new CellAddressCore("door", "doorDomain"));
+        message.setSession("door:42");
+        message.setTtl(30000);
+
+        CellMessage decoded = roundTrip(message.encode()).decode();
+
+        assertThat(decoded.getUOID(), is(message.getUOID()));
+        assertThat(decoded.getLastUOID(), is(message.getLastUOID()));
+        assertThat(decoded.getSourcePath(), is(message.getSourcePath()));
+        assertThat(decoded.getDestinationPath(), is(message.getDestinationPath()));
+        assertThat(decoded.getSession(), is("door:42"));
+        assertThat(decoded.getTtl(), is(30000L));
+        assertThat(decoded.isReply(), is(false));
+        assertThat(decoded.getMessageObject(), is("payload"));
+    }
+
+    @Test
+    public void compactFormatShouldPreserveReplies() throws Exception
+    {
+        CellMessage message = new CellMessage(new CellPath("PnfsManager"), "payload");
+        message.addSourceAddress(new CellAddressCore("door", "doorDomain"));
+        message.setSession(null);
+        message.revertDirection();
+
+        CellMessage decoded = roundTrip(message.encode()).decode();
+
+        assertThat(decoded.isReply(), is(true));
+        assertThat(decoded.getSession(), is(nullValue()));
+        assertThat(decoded.getDestinationPath(), is(message.getDestinationPath()));
+    }
+
+    @Test
+    public void onlyEncodedMessagesShouldBeCompactEncodable() throws Exception
+    {
+        CellMessage message = new CellMessage(new CellPath("PnfsManager"), "payload");
+        assertFalse(message.isCompactEncodable());
+        assertTrue(message.encode().isCompactEncodable());
+    }
+
+    @Test
+    public void copyForDeliveryShouldShareImmutableMessages() throws Exception
+    {
+        PassByReference payload = new PassByReference() {};
+        CellMessage message = new CellMessage(new CellPath("PnfsManager"), payload);
+        message.addSourceAddress(new CellAddressCore("door", "doorDomain"));
+
+        CellMessage copy = message.copyForDelivery();
+        copy.revertDirection();
+
+        assertThat(copy.getMessageObject(), is(sameInstance((Object) payload)));
+        assertThat(copy.getUOID(), is(message.getUOID()));
+        assertThat(message.isReply(), is(false));
+    }
+
+    @Test
+    public void copyForDeliveryShouldUseCopyOfMutableMessages() throws Exception
+    {
+        MutableMessage payload = new MutableMessage();
+        CellMessage message = new CellMessage(new CellPath("PnfsManager"), payload);
+
+        CellMessage copy = message.copyForDelivery();
+
+        assertThat(copy.getMessageObject(), is(not(sameInstance((Object) payload))));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void copyForDeliveryShouldRejectEncodedMessages() throws Exception
+    {
+        new CellMessage(new CellPath("PnfsManager"), new MutableMessage()).encode().copyForDelivery();
+    }
+
+    @Test
+    public void shouldEncodeMessageObjectWithCodec() throws Exception
+    {
+        CellMessage message = new CellMessage(new CellPath("PnfsManager@dCacheDomain"), new EncodedMessage("value"));
+        message.addSourceAddress(new CellAddressCore("door", "doorDomain"));
+
+        CellMessage encoded = message.encode();
+        CellMessage decoded = roundTrip(encoded).decode();
+
+        assertThat(encoded.isDecodableWith(Collections.emptySet()), is(false));
+        assertThat(encoded.isDecodableWith(ImmutableSet.of(CODEC_ID)), is(true));
+        assertThat(((EncodedMessage) decoded.getMessageObject()).value, is("value"));
+        assertThat(((EncodedMessage) decoded.getMessageObject()).isDecoded, is(true));
+    }
+
+    @Test
+    public void shouldConvertCodecEncodedMessageObjectToJavaSerialization() throws Exception
+    {
+        CellMessage message = new CellMessage(new CellPath("PnfsManager@dCacheDomain"), new EncodedMessage("value"));
+        message.addSourceAddress(new CellAddressCore("door", "doorDomain"));
+
+        CellMessage converted = message.encode().withSerializedMessageObject();
+        CellMessage decoded = roundTrip(converted).decode();
+
+        assertThat(converted.isDecodableWith(Collections.emptySet()), is(true));
+        assertThat(decoded.getUOID(), is(message.getUOID()));
+        assertThat(((EncodedMessage) decoded.getMessageObject()).value, is("value"));
+    }
+
+    @Test
+    public void javaSerializedMessageObjectsShouldBeDecodableByAnyPeer() throws Exception
+    {
+        CellMessage encoded = new CellMessage(new CellPath("PnfsManager"), "payload").encode();
+
+        assertThat(encoded.isDecodableWith(Collections.emptySet()), is(true));
+        assertThat(encoded.withSerializedMessageObject(), is(sameInstance(encoded)));
+    }
+
+    private static class EncodedMessage implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String value;
+        private final boolean isDecoded;
+
+        EncodedMessage(String value)
+        {
+            this(value, false);
+        }
+
+        EncodedMessage(String value, boolean isDecoded)
+        {
+            this.value = value;
+            this.isDecoded = isDecoded;
+        }
+    }
+
+    private static class EncodedMessageCodec implements MessageCodec<EncodedMessage>
+    {
+        @Override
+        public int getId()
+        {
+            return CODEC_ID;
+        }
+
+        @Override
+        public Class<EncodedMessage> getMessageClass()
+        {
+            return EncodedMessage.class;
+        }
+
+        @Override
+        public void writeTo(EncodedMessage message, DataOutput out) throws IOException
+        {
+            out.writeUTF(message.value);
+        }
+
+        @Override
+        public EncodedMessage readFrom(DataInput in) throws IOException
+        {
+            return new EncodedMessage(in.readUTF(), true);
+        }
+    }
+
+    private static class MutableMessage implements PassByReference
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public MutableMessage copyForDelivery()
+        {
+            return new MutableMessage();
+        }
+    }
+}
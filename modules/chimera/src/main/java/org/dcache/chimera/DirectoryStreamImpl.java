@@ -18,6 +18,7 @@ package org.dcache.chimera;
 
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.jdbc.support.JdbcUtils;
 
@@ -42,6 +43,21 @@ public class DirectoryStreamImpl
     private final PreparedStatement _statement;
 
     DirectoryStreamImpl(FsInode dir, JdbcTemplate jdbc)
+    {
+        this(jdbc, QUERY, 0, ps -> {
+            ps.setLong(1, dir.ino());
+            ps.setLong(2, dir.ino());
+            ps.setLong(3, dir.ino());
+        });
+    }
+
+    /**
+     * Streams the result of an arbitrary query returning t_inodes rows
+     * and an iname column.
+     *
+     * @param maxRows the maximum number of rows to fetch; zero means no limit
+     */
+    DirectoryStreamImpl(JdbcTemplate jdbc, String query, int maxRows, PreparedStatementSetter setter)
     {
         _jdbc = jdbc;
 
@@ -50,16 +66,15 @@ public class DirectoryStreamImpl
         ResultSet rs;
         try {
             connection = DataSourceUtils.getConnection(_jdbc.getDataSource());
-            ps = connection.prepareStatement(QUERY);
+            ps = connection.prepareStatement(query);
             ps.setFetchSize(50);
-            ps.setLong(1, dir.ino());
-            ps.setLong(2, dir.ino());
-            ps.setLong(3, dir.ino());
+            ps.setMaxRows(maxRows);
+            setter.setValues(ps);
             rs = ps.executeQuery();
         } catch (SQLException ex) {
             JdbcUtils.closeStatement(ps);
             DataSourceUtils.releaseConnection(connection, _jdbc.getDataSource());
-            throw _jdbc.getExceptionTranslator().translate("StatementExecution", QUERY, ex);
+            throw _jdbc.getExceptionTranslator().translate("StatementExecution", query, ex);
         }
         _connection = connection;
         _resultSet = rs;
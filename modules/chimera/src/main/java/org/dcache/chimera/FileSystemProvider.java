@@ -17,6 +17,7 @@
 package org.dcache.chimera;
 
 import java.io.Closeable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -25,6 +26,7 @@ import org.dcache.acl.ACE;
 import org.dcache.chimera.posix.Stat;
 import org.dcache.chimera.store.InodeStorageInformation;
 import org.dcache.util.Checksum;
+import org.dcache.util.Glob;
 
 public interface FileSystemProvider extends Closeable {
 
@@ -86,6 +88,22 @@ public interface FileSystemProvider extends Closeable {
     DirectoryStreamB<HimeraDirectoryEntry> newDirectoryStream(FsInode dir)
             throws ChimeraFsException;
 
+    /**
+     * Returns up to {@code limit} entries of a directory ordered by name.
+     * The '.' and '..' entries are not included.
+     *
+     * @param dir the directory to list
+     * @param after if not null, only entries with names sorting after
+     *        this name are returned
+     * @param glob if not null, only entries with names matching this
+     *        glob are returned
+     * @param limit maximum number of entries to return
+     * @return stream of directory entries
+     * @throws ChimeraFsException
+     */
+    DirectoryStreamB<HimeraDirectoryEntry> newDirectoryStream(FsInode dir, String after, Glob glob, int limit)
+            throws ChimeraFsException;
+
     void remove(String path) throws ChimeraFsException;
 
     /**
@@ -243,6 +261,17 @@ public interface FileSystemProvider extends Closeable {
     List<StorageLocatable> getInodeLocations(FsInode inode)
             throws ChimeraFsException;
 
+    /**
+     * Get the online locations of several inodes using set based queries.
+     * Inodes without locations are not contained in the result.
+     *
+     * @param inodes
+     * @return map from inode to its locations, ordered by priority.
+     * @throws ChimeraFsException
+     */
+    Map<FsInode, List<StorageLocatable>> getInodeLocations(Collection<? extends FsInode> inodes)
+            throws ChimeraFsException;
+
     void addInodeLocation(FsInode inode, int type,
                           String location) throws ChimeraFsException;
 
@@ -287,6 +316,18 @@ public interface FileSystemProvider extends Closeable {
     InodeStorageInformation getStorageInfo(FsInode inode)
             throws ChimeraFsException;
 
+    /**
+     * Get the storage information of several inodes using set based
+     * queries. Inodes without storage information are not contained in
+     * the result.
+     *
+     * @param inodes
+     * @return map from inode to its storage information.
+     * @throws ChimeraFsException
+     */
+    Map<FsInode, InodeStorageInformation> getStorageInfo(Collection<? extends FsInode> inodes)
+            throws ChimeraFsException;
+
     void setInodeChecksum(FsInode inode, int type,
                           String checksum) throws ChimeraFsException;
 
@@ -296,6 +337,17 @@ public interface FileSystemProvider extends Closeable {
     Set<Checksum> getInodeChecksums(FsInode inode)
                     throws ChimeraFsException;
 
+    /**
+     * Get the checksums of several inodes using set based queries. Inodes
+     * without checksums are not contained in the result.
+     *
+     * @param inodes
+     * @return map from inode to its checksums.
+     * @throws ChimeraFsException
+     */
+    Map<FsInode, Set<Checksum>> getInodeChecksums(Collection<? extends FsInode> inodes)
+            throws ChimeraFsException;
+
     String getInfo();
 
     /**
@@ -28,6 +28,7 @@ import org.springframework.jdbc.LobRetrievalFailureException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
@@ -45,16 +46,23 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.ServiceLoader;
+import java.util.StringJoiner;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 import diskCacheV111.util.AccessLatency;
 import diskCacheV111.util.RetentionPolicy;
@@ -69,6 +77,7 @@ import org.dcache.chimera.store.InodeStorageInformation;
 import org.dcache.chimera.spi.DBDriverProvider;
 import org.dcache.util.Checksum;
 import org.dcache.util.ChecksumType;
+import org.dcache.util.Glob;
 
 import static java.util.stream.Collectors.toList;
 import static org.dcache.chimera.FileSystemProvider.StatCacheOption;
@@ -101,6 +110,25 @@ public class FsSqlDriver {
 
     private final long _root;
 
+    /**
+     * Maximum number of path elements resolved by a single query.
+     */
+    private static final int MAX_CHAIN_LENGTH = 16;
+
+    /**
+     * Maximum number of inodes queried by a single set based query. Kept
+     * well below the limits some databases impose on IN lists.
+     */
+    private static final int MAX_INODES_PER_QUERY = 500;
+
+    /**
+     * Columns of t_inodes needed to build a {@link Stat}.
+     */
+    private static final String[] STAT_COLUMNS = {
+            "inumber", "ipnfsid", "icrtime", "igeneration", "iretention_policy", "iaccess_latency",
+            "isize", "iatime", "ictime", "imtime", "iuid", "igid", "imode", "itype", "inlink"
+    };
+
     /**
      *  this is a utility class which is issues SQL queries on database
      *
@@ -217,15 +245,87 @@ public class FsSqlDriver {
      * @return
      */
     DirectoryStreamB<HimeraDirectoryEntry> newDirectoryStream(FsInode dir) {
+        return newDirectoryStream(dir, new DirectoryStreamImpl(dir, _jdbc), name -> true, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns up to {@code limit} entries of a directory ordered by name,
+     * starting after the entry called {@code after}. The '.' and '..'
+     * entries are not included.
+     *
+     * Since t_dirs is keyed by parent and name, resuming a listing after a
+     * given name does not have to read the entries before it. Globs using
+     * only the '*' and '?' wildcards are evaluated by the database; other
+     * globs are evaluated while streaming the result.
+     *
+     * @param dir the directory to list
+     * @param after name after which to start the listing; may be null
+     * @param glob pattern names have to match; may be null
+     * @param limit maximum number of entries to return
+     */
+    DirectoryStreamB<HimeraDirectoryEntry> newDirectoryStream(FsInode dir, String after, Glob glob, int limit) {
+        String like = (glob == null) ? null : toLikePattern(glob.toString());
+        Pattern pattern = (glob == null || like != null) ? null : glob.toPattern();
+        String query = "SELECT i.*, d.iname FROM t_inodes i JOIN t_dirs d ON i.inumber = d.ichild WHERE d.iparent=?" +
+                       ((after == null) ? "" : " AND d.iname > ?") +
+                       ((like == null) ? "" : " AND d.iname LIKE ? ESCAPE '\\'") +
+                       " ORDER BY d.iname";
+        int maxRows = (pattern != null || limit == Integer.MAX_VALUE) ? 0 : limit;
+        DirectoryStreamImpl stream = new DirectoryStreamImpl(_jdbc, query, maxRows, ps -> {
+            int i = 1;
+            ps.setLong(i++, dir.ino());
+            if (after != null) {
+                ps.setString(i++, after);
+            }
+            if (like != null) {
+                ps.setString(i, like);
+            }
+        });
+        return newDirectoryStream(dir, stream, name -> pattern == null || pattern.matcher(name).matches(), limit);
+    }
+
+    /**
+     * Translates a glob to an SQL LIKE pattern using backslash as the escape
+     * character. Returns null if the glob cannot be expressed as a LIKE
+     * pattern.
+     */
+    static String toLikePattern(String glob) {
+        StringBuilder like = new StringBuilder(glob.length() + 8);
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+            case '*':
+                like.append('%');
+                break;
+            case '?':
+                like.append('_');
+                break;
+            case '{':
+                return null;
+            case '%':
+            case '_':
+            case '\\':
+                like.append('\\').append(c);
+                break;
+            default:
+                like.append(c);
+                break;
+            }
+        }
+        return like.toString();
+    }
+
+    private DirectoryStreamB<HimeraDirectoryEntry> newDirectoryStream(FsInode dir, DirectoryStreamImpl stream,
+                                                                      Predicate<String> filter, int limit) {
         return new DirectoryStreamB<HimeraDirectoryEntry>()
         {
-            final DirectoryStreamImpl stream = new DirectoryStreamImpl(dir, _jdbc);
-
             @Override
             public Iterator<HimeraDirectoryEntry> iterator()
             {
                 return new Iterator<HimeraDirectoryEntry>()
                 {
+                    private int count;
+
                     private HimeraDirectoryEntry current = innerNext();
 
                     @Override
@@ -248,14 +348,21 @@ public class FsSqlDriver {
                     protected HimeraDirectoryEntry innerNext()
                     {
                         try {
-                            ResultSet rs = stream.next();
-                            if (rs == null) {
+                            if (count >= limit) {
                                 return null;
                             }
-                            Stat stat = toStat(rs);
-                            FsInode inode = new FsInode(dir.getFs(), rs.getLong("inumber"), FsInodeType.INODE, 0, stat);
-                            inode.setParent(dir);
-                            return new HimeraDirectoryEntry(rs.getString("iname"), inode, stat);
+                            ResultSet rs;
+                            while ((rs = stream.next()) != null) {
+                                String name = rs.getString("iname");
+                                if (filter.test(name)) {
+                                    Stat stat = toStat(rs);
+                                    FsInode inode = new FsInode(dir.getFs(), rs.getLong("inumber"), FsInodeType.INODE, 0, stat);
+                                    inode.setParent(dir);
+                                    count++;
+                                    return new HimeraDirectoryEntry(name, inode, stat);
+                                }
+                            }
+                            return null;
                         } catch (SQLException e) {
                             _log.error("failed to fetch next entry: {}", e.getMessage());
                             return null;
@@ -383,28 +490,37 @@ public class FsSqlDriver {
     }
 
     private Stat toStat(ResultSet rs) throws SQLException
+    {
+        return toStat(rs, "");
+    }
+
+    /**
+     * Like {@link #toStat(ResultSet)}, but reads columns whose labels carry
+     * the given prefix, as produced by {@link #lookupChain}.
+     */
+    private Stat toStat(ResultSet rs, String prefix) throws SQLException
     {
         Stat stat = new Stat();
-        stat.setIno(rs.getLong("inumber"));
-        stat.setId(rs.getString("ipnfsid"));
-        stat.setCrTime(rs.getTimestamp("icrtime").getTime());
-        stat.setGeneration(rs.getLong("igeneration"));
-        int rp = rs.getInt("iretention_policy");
+        stat.setIno(rs.getLong(prefix + "inumber"));
+        stat.setId(rs.getString(prefix + "ipnfsid"));
+        stat.setCrTime(rs.getTimestamp(prefix + "icrtime").getTime());
+        stat.setGeneration(rs.getLong(prefix + "igeneration"));
+        int rp = rs.getInt(prefix + "iretention_policy");
         if (!rs.wasNull()) {
             stat.setRetentionPolicy(RetentionPolicy.getRetentionPolicy(rp));
         }
-        int al = rs.getInt("iaccess_latency");
+        int al = rs.getInt(prefix + "iaccess_latency");
         if (!rs.wasNull()) {
             stat.setAccessLatency(AccessLatency.getAccessLatency(al));
         }
-        stat.setSize(rs.getLong("isize"));
-        stat.setATime(rs.getTimestamp("iatime").getTime());
-        stat.setCTime(rs.getTimestamp("ictime").getTime());
-        stat.setMTime(rs.getTimestamp("imtime").getTime());
-        stat.setUid(rs.getInt("iuid"));
-        stat.setGid(rs.getInt("igid"));
-        stat.setMode(rs.getInt("imode") | rs.getInt("itype"));
-        stat.setNlink(rs.getInt("inlink"));
+        stat.setSize(rs.getLong(prefix + "isize"));
+        stat.setATime(rs.getTimestamp(prefix + "iatime").getTime());
+        stat.setCTime(rs.getTimestamp(prefix + "ictime").getTime());
+        stat.setMTime(rs.getTimestamp(prefix + "imtime").getTime());
+        stat.setUid(rs.getInt(prefix + "iuid"));
+        stat.setGid(rs.getInt(prefix + "igid"));
+        stat.setMode(rs.getInt(prefix + "imode") | rs.getInt(prefix + "itype"));
+        stat.setNlink(rs.getInt(prefix + "inlink"));
         stat.setDev(17);
         stat.setRdev(13);
         return stat;
@@ -772,6 +888,19 @@ public class FsSqlDriver {
                             name, parent.ino(), child.ino()) > 0;
     }
 
+    /**
+     * Calls the consumer with the parent inumber and the name of every directory
+     * entry of an inode.
+     *
+     * @param inode
+     * @param consumer
+     */
+    void forEachEntryOf(FsInode inode, BiConsumer<Long, String> consumer) {
+        _jdbc.query("SELECT iparent, iname FROM t_dirs WHERE ichild=?",
+                    ps -> ps.setLong(1, inode.ino()),
+                    (RowCallbackHandler) rs -> consumer.accept(rs.getLong("iparent"), rs.getString("iname")));
+    }
+
     /**
      *
      * return a parent of inode. In case of hard links, one of the parents is returned
@@ -953,6 +1082,33 @@ public class FsSqlDriver {
                            });
     }
 
+    /**
+     * Returns the online locations of several inodes. Inodes without
+     * locations are not contained in the result.
+     *
+     * @param inodes
+     * @return map from inode to locations ordered by priority
+     */
+    Map<FsInode, List<StorageLocatable>> getInodeLocations(Collection<? extends FsInode> inodes) {
+        Map<Long, FsInode> byId = inodesById(inodes);
+        Map<FsInode, List<StorageLocatable>> result = new HashMap<>();
+        for (List<Long> ids : Lists.partition(new ArrayList<>(byId.keySet()), MAX_INODES_PER_QUERY)) {
+            _jdbc.query("SELECT inumber,itype,ilocation,ipriority,ictime,iatime FROM t_locationinfo " +
+                        "WHERE inumber IN (" + placeholders(ids.size()) + ") AND istate=1 " +
+                        "ORDER BY inumber, ipriority DESC",
+                        ps -> setLongs(ps, ids),
+                        (RowCallbackHandler) rs -> {
+                            int type = rs.getInt("itype");
+                            long ctime = rs.getTimestamp("ictime").getTime();
+                            long atime = rs.getTimestamp("iatime").getTime();
+                            int priority = rs.getInt("ipriority");
+                            String location = rs.getString("ilocation");
+                            result.computeIfAbsent(byId.get(rs.getLong("inumber")), i -> new ArrayList<>())
+                                    .add(new StorageGenericLocation(type, priority, location, ctime, atime, true));
+                        });
+        }
+        return result;
+    }
 
     /**
      *
@@ -1415,6 +1571,31 @@ public class FsSqlDriver {
         }
     }
 
+    /**
+     * Returns the storage information of several inodes. Inodes without
+     * storage information are not contained in the result.
+     *
+     * @param inodes
+     * @return map from inode to storage information
+     */
+    Map<FsInode, InodeStorageInformation> getStorageInfo(Collection<? extends FsInode> inodes) {
+        Map<Long, FsInode> byId = inodesById(inodes);
+        Map<FsInode, InodeStorageInformation> result = new HashMap<>();
+        for (List<Long> ids : Lists.partition(new ArrayList<>(byId.keySet()), MAX_INODES_PER_QUERY)) {
+            _jdbc.query("SELECT inumber, ihsmName, istorageGroup, istorageSubGroup FROM t_storageinfo " +
+                        "WHERE inumber IN (" + placeholders(ids.size()) + ")",
+                        ps -> setLongs(ps, ids),
+                        (RowCallbackHandler) rs -> {
+                            FsInode inode = byId.get(rs.getLong("inumber"));
+                            String hsmName = rs.getString("ihsmName");
+                            String storageGroup = rs.getString("istoragegroup");
+                            String storageSubGroup = rs.getString("istoragesubgroup");
+                            result.put(inode, new InodeStorageInformation(inode, hsmName, storageGroup, storageSubGroup));
+                        });
+        }
+        return result;
+    }
+
     /**
      * add a checksum value of <i>type</i> to an inode
      *
@@ -1447,6 +1628,48 @@ public class FsSqlDriver {
                            });
     }
 
+    /**
+     * Returns the checksums of several inodes. Inodes without checksums
+     * are not contained in the result.
+     *
+     * @param inodes
+     * @return map from inode to checksums
+     */
+    Map<FsInode, Set<Checksum>> getInodeChecksums(Collection<? extends FsInode> inodes) {
+        Map<Long, FsInode> byId = inodesById(inodes);
+        Map<FsInode, Set<Checksum>> result = new HashMap<>();
+        for (List<Long> ids : Lists.partition(new ArrayList<>(byId.keySet()), MAX_INODES_PER_QUERY)) {
+            _jdbc.query("SELECT inumber, isum, itype FROM t_inodes_checksum " +
+                        "WHERE inumber IN (" + placeholders(ids.size()) + ")",
+                        ps -> setLongs(ps, ids),
+                        (RowCallbackHandler) rs -> {
+                            String checksum = rs.getString("isum");
+                            int type = rs.getInt("itype");
+                            result.computeIfAbsent(byId.get(rs.getLong("inumber")), i -> new HashSet<>())
+                                    .add(new Checksum(ChecksumType.getChecksumType(type), checksum));
+                        });
+        }
+        return result;
+    }
+
+    private static Map<Long, FsInode> inodesById(Collection<? extends FsInode> inodes) {
+        Map<Long, FsInode> byId = new HashMap<>();
+        for (FsInode inode : inodes) {
+            byId.put(inode.ino(), inode);
+        }
+        return byId;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+
+    private static void setLongs(PreparedStatement ps, List<Long> values) throws SQLException {
+        for (int i = 0; i < values.size(); i++) {
+            ps.setLong(i + 1, values.get(i));
+        }
+    }
+
     /**
      *
      * @param inode
@@ -1472,59 +1695,17 @@ public class FsSqlDriver {
      */
     FsInode path2inode(FsInode root, String path) throws ChimeraFsException
     {
-        File pathFile = new File(path);
-        List<String> pathElemts = new ArrayList<>();
-
-        do {
-            String fileName = pathFile.getName();
-            if (fileName.length() != 0) {
-                /*
-                 * skip multiple '/'
-                 */
-                pathElemts.add(pathFile.getName());
-            }
-
-            pathFile = pathFile.getParentFile();
-        } while (pathFile != null);
-
-        FsInode parentInode = root;
-        FsInode inode = root;
-        /*
-         * while list in reverse order, we have too go backward
-         */
-        for (int i = pathElemts.size(); i > 0; i--) {
-            String f = pathElemts.get(i - 1);
-            inode = inodeOf(parentInode, f, STAT);
-
-            if (inode == null) {
-                /*
-                 * element not found stop walking
-                 */
-                break;
-            }
-
-            /*
-             * if is a link, then resolve it
-             */
-            Stat s = inode.statCache();
-            if (UnixPermission.getType(s.getMode()) == UnixPermission.S_IFLNK) {
-                byte[] b = new byte[(int) s.getSize()];
-                int n = read(inode, 0, 0, b, 0, b.length);
-                String link = new String(b, 0, n);
-                if (link.charAt(0) == File.separatorChar) {
-                    parentInode = new FsInode(parentInode.getFs(), _root);
-                }
-                inode = path2inode(parentInode, link);
-            }
-            parentInode = inode;
-        }
-
-        return inode;
+        List<FsInode> inodes = path2inodes(root, path);
+        return inodes.isEmpty() ? null : inodes.get(inodes.size() - 1);
     }
 
     /**
      * Get the inodes of given the path starting at <i>root</i>.
      *
+     * Consecutive regular path elements are resolved with a single query
+     * (see {@link #lookupChain}); only '.', '..' and symbolic links break
+     * the chain and cause additional round trips.
+     *
      * @param root staring point
      * @param path
      * @return inode or null if path does not exist.
@@ -1544,23 +1725,47 @@ public class FsSqlDriver {
             pathFile = pathFile.getParentFile();
         } while (pathFile != null);
 
+        /* Path elements are in reverse order.
+         */
+        pathElements = Lists.reverse(pathElements);
+
         FsInode parentInode = root;
         FsInode inode;
 
         List<FsInode> inodes = new ArrayList<>(pathElements.size() + 1);
         inodes.add(root);
 
-        /* Path elements are in reverse order.
-         */
-        for (String f: Lists.reverse(pathElements)) {
-            inode = inodeOf(parentInode, f, STAT);
+        int i = 0;
+        while (i < pathElements.size()) {
+            String f = pathElements.get(i);
+            if (f.equals(".") || f.equals("..")) {
+                inode = inodeOf(parentInode, f, STAT);
+                if (inode == null) {
+                    return Collections.emptyList();
+                }
+                inodes.add(inode);
+                i++;
+            } else {
+                int end = i + 1;
+                while (end < pathElements.size() && end - i < MAX_CHAIN_LENGTH &&
+                       !pathElements.get(end).equals(".") && !pathElements.get(end).equals("..")) {
+                    end++;
+                }
+                List<FsInode> chain = lookupChain(parentInode, pathElements.subList(i, end));
+                if (chain.isEmpty()) {
+                    return Collections.emptyList();
+                }
+                inodes.addAll(chain);
+                i += chain.size();
+                inode = chain.get(chain.size() - 1);
 
-            if (inode == null) {
-                return Collections.emptyList();
+                /* A chain ends early only at a symbolic link or at a missing entry.
+                 */
+                if (i < end && UnixPermission.getType(inode.statCache().getMode()) != UnixPermission.S_IFLNK) {
+                    return Collections.emptyList();
+                }
             }
 
-            inodes.add(inode);
-
             /* If inode is a link then resolve it.
              */
             Stat s = inode.statCache();
@@ -1586,6 +1791,64 @@ public class FsSqlDriver {
         return inodes;
     }
 
+    /**
+     * Resolves a sequence of regular path elements below <i>parent</i> in
+     * a single round trip to the database. The query joins t_dirs and
+     * t_inodes once per path element; as symbolic links and regular files
+     * never have directory entries, the chain stops at the first such
+     * inode.
+     *
+     * @param parent directory in which the first element is looked up
+     * @param names path elements, none of which may be '.' or '..'
+     * @return the inodes of the resolved prefix of <i>names</i>, with stat
+     * cache filled in; empty if the first element does not exist
+     */
+    List<FsInode> lookupChain(FsInode parent, List<String> names)
+    {
+        int depth = names.size();
+        StringJoiner select = new StringJoiner(",", "SELECT ", " ");
+        StringBuilder from = new StringBuilder("FROM t_dirs d0 JOIN t_inodes i0 ON i0.inumber = d0.ichild");
+        for (int level = 0; level < depth; level++) {
+            for (String column : STAT_COLUMNS) {
+                select.add("i" + level + '.' + column + " AS i" + level + '_' + column);
+            }
+            if (level > 0) {
+                from.append(" LEFT JOIN t_dirs d").append(level)
+                        .append(" ON d").append(level).append(".iparent = i").append(level - 1).append(".inumber")
+                        .append(" AND d").append(level).append(".iname = ?")
+                        .append(" LEFT JOIN t_inodes i").append(level)
+                        .append(" ON i").append(level).append(".inumber = d").append(level).append(".ichild");
+            }
+        }
+        String sql = select + from.toString() + " WHERE d0.iparent = ? AND d0.iname = ?";
+
+        return _jdbc.query(sql,
+                           ps -> {
+                               int idx = 1;
+                               for (String name : names.subList(1, depth)) {
+                                   ps.setString(idx++, name);
+                               }
+                               ps.setLong(idx++, parent.ino());
+                               ps.setString(idx, names.get(0));
+                           },
+                           rs -> {
+                               List<FsInode> inodes = new ArrayList<>(depth);
+                               if (rs.next()) {
+                                   for (int level = 0; level < depth; level++) {
+                                       String prefix = "i" + level + "_";
+                                       rs.getLong(prefix + "inumber");
+                                       if (rs.wasNull()) {
+                                           break;
+                                       }
+                                       Stat stat = toStat(rs, prefix);
+                                       inodes.add(new FsInode(parent.getFs(), stat.getIno(),
+                                                              FsInodeType.INODE, 0, stat));
+                                   }
+                               }
+                               return inodes;
+                           });
+    }
+
     /**
      * Get inode's Access Control List. An empty list is returned if there are no ACL assigned
      * to the <code>inode</code>.
@@ -16,10 +16,12 @@
  */
 package org.dcache.chimera;
 
+import com.google.common.base.Splitter;
 import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
@@ -33,6 +35,8 @@ import org.springframework.transaction.TransactionException;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.TransactionSystemException;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.sql.DataSource;
 
@@ -41,6 +45,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
@@ -51,12 +56,14 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.dcache.acl.ACE;
 import org.dcache.acl.enums.RsType;
 import org.dcache.chimera.posix.Stat;
 import org.dcache.chimera.store.InodeStorageInformation;
 import org.dcache.util.Checksum;
+import org.dcache.util.Glob;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static org.dcache.acl.enums.AceFlags.*;
@@ -152,6 +159,28 @@ public class JdbcFs implements FileSystemProvider {
                     .maximumSize(100000)
                     .build();
 
+    /* Directory entry cache mapping (parent inumber, name) to the inumber of a
+     * child directory. Only directories are cached, thus symbolic links never
+     * have to be expanded when resolving a cached path prefix. The cache is only
+     * invalidated by modifications through this instance; it is disabled by
+     * default as other JVMs may modify the same name space.
+     */
+    private volatile Cache<Dentry, Long> _dentryCache = newDentryCache(0);
+    private volatile boolean _isDentryCacheEnabled;
+
+    /* Incremented whenever a directory entry is invalidated. A lookup only caches
+     * its result if no entry was invalidated while the lookup was in progress, as
+     * it may otherwise have observed the state before the invalidation.
+     */
+    private final AtomicLong _dentryGeneration = new AtomicLong();
+
+    /**
+     * Maximum time a directory entry is cached. Entries are invalidated when
+     * modified through this instance; the lifetime bounds the damage should an
+     * invalidation be missed.
+     */
+    private static final long DENTRY_CACHE_LIFETIME = TimeUnit.MINUTES.toMillis(10);
+
     /**
      * current fs id
      */
@@ -186,6 +215,77 @@ public class JdbcFs implements FileSystemProvider {
         _sqlDriver = FsSqlDriver.getDriverInstance(dataSource);
     }
 
+    private static Cache<Dentry, Long> newDentryCache(long size)
+    {
+        return CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(DENTRY_CACHE_LIFETIME, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Sets the maximum number of directory entries kept in the directory entry
+     * cache. Zero disables the cache.
+     */
+    public void setDentryCacheSize(long size)
+    {
+        checkArgument(size >= 0, "Cache size must be non-negative.");
+        _dentryCache = newDentryCache(size);
+        _isDentryCacheEnabled = size > 0;
+    }
+
+    /**
+     * Invalidates a cached directory entry. As a concurrent lookup may still
+     * observe the old entry until the transaction commits, the entry is
+     * invalidated once more when the surrounding transaction completes.
+     */
+    private void invalidateDentry(long parent, String name)
+    {
+        Dentry dentry = new Dentry(parent, name);
+        afterCompletion(() -> {
+            _dentryGeneration.incrementAndGet();
+            _dentryCache.invalidate(dentry);
+        });
+    }
+
+    private static void afterCompletion(Runnable task)
+    {
+        task.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter()
+            {
+                @Override
+                public void afterCompletion(int status)
+                {
+                    task.run();
+                }
+            });
+        }
+    }
+
+    /**
+     * Caches a directory entry observed by a lookup that started at the given
+     * generation. The entry is not cached if any entry was invalidated since.
+     */
+    private void cacheDentry(long generation, FsInode parent, String name, FsInode inode)
+    {
+        Stat stat = inode.getStatCache();
+        if (stat != null && (stat.getMode() & UnixPermission.F_TYPE) == UnixPermission.S_IFDIR &&
+                _dentryGeneration.get() == generation) {
+            Cache<Dentry, Long> cache = _dentryCache;
+            Dentry dentry = new Dentry(parent.ino(), name);
+            cache.put(dentry, inode.ino());
+            /* Invalidations increment the generation before invalidating, thus an
+             * invalidation racing with the put is either observed here or removes
+             * the entry after the put.
+             */
+            if (_dentryGeneration.get() != generation) {
+                cache.invalidate(dentry);
+            }
+        }
+    }
+
     private FsInode getWormID() throws ChimeraFsException {
 
         return this.path2inode("/admin/etc/config");
@@ -471,6 +571,12 @@ public class JdbcFs implements FileSystemProvider {
         return _sqlDriver.newDirectoryStream(dir);
     }
 
+    @Override
+    public DirectoryStreamB<HimeraDirectoryEntry> newDirectoryStream(FsInode dir, String after, Glob glob, int limit)
+            throws ChimeraFsException {
+        return _sqlDriver.newDirectoryStream(dir, after, glob, limit);
+    }
+
     @Override
     public void remove(String path) throws ChimeraFsException {
 
@@ -488,6 +594,7 @@ public class JdbcFs implements FileSystemProvider {
             if (inode == null || !_sqlDriver.remove(parent, name, inode)) {
                 throw new FileNotFoundHimeraFsException(path);
             }
+            invalidateDentry(parent.ino(), name);
             return null;
         });
     }
@@ -498,6 +605,7 @@ public class JdbcFs implements FileSystemProvider {
             if (!_sqlDriver.remove(directory, name, inode)) {
                 throw new FileNotFoundHimeraFsException(name);
             }
+            invalidateDentry(directory.ino(), name);
             return null;
         });
     }
@@ -515,8 +623,13 @@ public class JdbcFs implements FileSystemProvider {
             if (!inode.exists()) {
                 throw new FileNotFoundHimeraFsException("No such file.");
             }
-            if (inode.isDirectory() && inode.statCache().getNlink() > 2) {
-                throw new DirNotEmptyHimeraFsException("Directory is not empty");
+            if (inode.isDirectory()) {
+                if (inode.statCache().getNlink() > 2) {
+                    throw new DirNotEmptyHimeraFsException("Directory is not empty");
+                }
+                if (_isDentryCacheEnabled) {
+                    _sqlDriver.forEachEntryOf(inode, this::invalidateDentry);
+                }
             }
             _sqlDriver.remove(inode);
             return null;
@@ -579,6 +692,7 @@ public class JdbcFs implements FileSystemProvider {
                     perm = mode;
                 }
 
+                invalidateDentry(parent.ino(), name);
                 FsInode inode = _sqlDriver.mkdir(parent, name, owner, gid, perm);
                 _sqlDriver.copyTags(parent, inode);
                 _sqlDriver.copyAcl(parent, inode, RsType.DIR, EnumSet.of(INHERIT_ONLY_ACE),
@@ -621,6 +735,7 @@ public class JdbcFs implements FileSystemProvider {
                     gid = group;
                     perm = mode;
                 }
+                invalidateDentry(parent.ino(), name);
                 FsInode inode = _sqlDriver.mkdir(parent, name, owner, gid, perm);
                 _sqlDriver.createTags(inode, owner, gid, perm & 0666, tags);
                 _sqlDriver.writeAcl(inode, RsType.DIR, acl);
@@ -639,10 +754,50 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public FsInode path2inode(String path, FsInode startFrom) throws ChimeraFsException {
-        FsInode inode = _sqlDriver.path2inode(startFrom, path);
-        if (inode == null) {
+        List<String> elements = Splitter.on('/').omitEmptyStrings().splitToList(path);
+        if (startFrom.type() != FsInodeType.INODE || elements.contains(".") || elements.contains("..")) {
+            FsInode inode = _sqlDriver.path2inode(startFrom, path);
+            if (inode == null) {
+                throw new FileNotFoundHimeraFsException(path);
+            }
+            fillIdCaches(inode);
+            return inode;
+        }
+
+        /* Resolve the longest cached prefix and look up the remainder in the database.
+         */
+        Cache<Dentry, Long> cache = _dentryCache;
+        FsInode dir = startFrom;
+        int i = 0;
+        while (i < elements.size()) {
+            Long ino = cache.getIfPresent(new Dentry(dir.ino(), elements.get(i)));
+            if (ino == null) {
+                break;
+            }
+            dir = new FsInode(this, ino);
+            i++;
+        }
+        if (i == elements.size()) {
+            return dir;
+        }
+
+        List<String> remaining = elements.subList(i, elements.size());
+        long generation = _dentryGeneration.get();
+        List<FsInode> inodes = _sqlDriver.path2inodes(dir, String.join("/", remaining));
+        if (inodes.isEmpty()) {
             throw new FileNotFoundHimeraFsException(path);
         }
+
+        /* Symbolic links expand into additional inodes; only cache if the
+         * inodes map one-to-one onto the path elements.
+         */
+        if (inodes.size() == remaining.size() + 1) {
+            for (int j = 0; j < remaining.size(); j++) {
+                cacheDentry(generation, inodes.get(j), remaining.get(j), inodes.get(j + 1));
+            }
+        }
+
+        FsInode inode = inodes.get(inodes.size() - 1);
         fillIdCaches(inode);
         return inode;
     }
@@ -915,10 +1070,23 @@ public class JdbcFs implements FileSystemProvider {
 
         }
 
+        if (cacheOption == NO_STAT && !name.equals(".") && !name.equals("..")) {
+            Long ino = _dentryCache.getIfPresent(new Dentry(parent.ino(), name));
+            if (ino != null) {
+                FsInode inode = new FsInode(this, ino);
+                inode.setParent(parent);
+                return inode;
+            }
+        }
+
+        long generation = _dentryGeneration.get();
         FsInode inode = _sqlDriver.inodeOf(parent, name, cacheOption);
         if (inode == null) {
             throw new FileNotFoundHimeraFsException(name);
         }
+        if (!name.equals(".") && !name.equals("..")) {
+            cacheDentry(generation, parent, name, inode);
+        }
         fillIdCaches(inode);
         inode.setParent(parent);
         return inode;
@@ -1080,6 +1248,8 @@ public class JdbcFs implements FileSystemProvider {
             if (!_sqlDriver.rename(inode, srcDir, source, destDir, dest)) {
                 throw new FileNotFoundHimeraFsException(source);
             }
+            invalidateDentry(srcDir.ino(), source);
+            invalidateDentry(destDir.ino(), dest);
             return true;
         });
     }
@@ -1099,6 +1269,12 @@ public class JdbcFs implements FileSystemProvider {
         return _sqlDriver.getInodeLocations(inode);
     }
 
+    @Override
+    public Map<FsInode, List<StorageLocatable>> getInodeLocations(Collection<? extends FsInode> inodes)
+            throws ChimeraFsException {
+        return _sqlDriver.getInodeLocations(inodes);
+    }
+
     @Override
     public void addInodeLocation(FsInode inode, int type, String location) throws ChimeraFsException {
         inTransaction(status -> {
@@ -1238,6 +1414,12 @@ public class JdbcFs implements FileSystemProvider {
         return _sqlDriver.getStorageInfo(inode);
     }
 
+    @Override
+    public Map<FsInode, InodeStorageInformation> getStorageInfo(Collection<? extends FsInode> inodes)
+            throws ChimeraFsException {
+        return _sqlDriver.getStorageInfo(inodes);
+    }
+
     /*
      * inode checksum handling
      */
@@ -1266,6 +1448,12 @@ public class JdbcFs implements FileSystemProvider {
         return new HashSet<>(_sqlDriver.getInodeChecksums(inode));
     }
 
+    @Override
+    public Map<FsInode, Set<Checksum>> getInodeChecksums(Collection<? extends FsInode> inodes)
+            throws ChimeraFsException {
+        return _sqlDriver.getInodeChecksums(inodes);
+    }
+
     /**
      * Get inode's Access Control List. An empty list is returned if there are no ACL assigned
      * to the <code>inode</code>.
@@ -1351,6 +1539,12 @@ public class JdbcFs implements FileSystemProvider {
             sb.append("rootID    : ").append(e.getMessage()).append("\n");
         }
         sb.append("FsId      : ").append(_fsId).append("\n");
+        Cache<Dentry, Long> dentryCache = _dentryCache;
+        CacheStats dentryStats = dentryCache.stats();
+        sb.append("Dentries  : ").append(dentryCache.size())
+                .append(" cached, ").append(dentryStats.hitCount()).append(" hits, ")
+                .append(dentryStats.missCount()).append(" misses, ")
+                .append(dentryStats.evictionCount()).append(" evictions\n");
         return sb.toString();
     }
 
@@ -1519,4 +1713,38 @@ public class JdbcFs implements FileSystemProvider {
             return null;
         }
     }
+
+    /**
+     * Key of the directory entry cache.
+     */
+    private static final class Dentry
+    {
+        private final long _parent;
+        private final String _name;
+
+        Dentry(long parent, String name)
+        {
+            _parent = parent;
+            _name = name;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Dentry)) {
+                return false;
+            }
+            Dentry that = (Dentry) o;
+            return _parent == that._parent && _name.equals(that._name);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * Long.hashCode(_parent) + _name.hashCode();
+        }
+    }
 }
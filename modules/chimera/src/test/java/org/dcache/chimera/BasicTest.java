@@ -8,8 +8,11 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.nio.charset.StandardCharsets;
 
@@ -19,10 +22,13 @@ import org.dcache.acl.enums.AceType;
 import org.dcache.acl.enums.RsType;
 import org.dcache.acl.enums.Who;
 import org.dcache.chimera.posix.Stat;
+import org.dcache.chimera.store.InodeStorageInformation;
 import org.dcache.util.Checksum;
 import org.dcache.util.ChecksumType;
+import org.dcache.util.Glob;
 
 import static org.dcache.chimera.FileSystemProvider.StatCacheOption.NO_STAT;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasEntry;
 import static org.hamcrest.Matchers.is;
@@ -1197,4 +1203,195 @@ public class BasicTest extends ChimeraTestCaseHelper {
         assertEquals("incorrect number of bytes", moreData.length, n);
 
     }
+
+    @Test
+    public void testDeepPathResolution() throws Exception {
+
+        FsInode dir = _rootInode;
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            dir = dir.mkdir("level" + i);
+            path.append("/level").append(i);
+        }
+        FsInode file = dir.create("aFile", 0, 0, 0644);
+
+        assertEquals(file, _fs.path2inode(path + "/aFile"));
+        assertEquals(dir, _fs.path2inode(path + "/../level19/."));
+    }
+
+    @Test
+    public void testPathResolutionThroughSymLink() throws Exception {
+
+        FsInode target = _rootInode.mkdir("target").mkdir("sub");
+        FsInode file = target.create("aFile", 0, 0, 0644);
+        FsInode linkBase = _rootInode.mkdir("links");
+
+        _fs.createLink(linkBase, "absolute", 0, 0, 0644, "/target".getBytes(Charsets.UTF_8));
+        _fs.createLink(linkBase, "relative", 0, 0, 0644, "../target/sub".getBytes(Charsets.UTF_8));
+
+        assertEquals(file, _fs.path2inode("/links/absolute/sub/aFile"));
+        assertEquals(file, _fs.path2inode("/links/relative/aFile"));
+    }
+
+    @Test(expected = FileNotFoundHimeraFsException.class)
+    public void testPathResolutionThroughFile() throws Exception {
+
+        FsInode base = _rootInode.mkdir("junit");
+        base.create("aFile", 0, 0, 0644);
+
+        _fs.path2inode("/junit/aFile/foo/bar");
+    }
+
+    @Test
+    public void testDentryCacheInvalidatedOnRename() throws Exception {
+
+        ((JdbcFs) _fs).setDentryCacheSize(100);
+
+        FsInode dir = _rootInode.mkdir("junit").mkdir("dir");
+        FsInode file = dir.create("aFile", 0, 0, 0644);
+        assertEquals(file, _fs.path2inode("/junit/dir/aFile"));
+        assertEquals(file, _fs.path2inode("/junit/dir/aFile"));
+
+        _fs.rename(dir, _fs.path2inode("/junit"), "dir", _rootInode, "moved");
+
+        assertEquals(file, _fs.path2inode("/moved/aFile"));
+        try {
+            _fs.path2inode("/junit/dir/aFile");
+            fail("Stale directory entry was used");
+        } catch (FileNotFoundHimeraFsException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testDentryCacheInvalidatedOnRemove() throws Exception {
+
+        ((JdbcFs) _fs).setDentryCacheSize(100);
+
+        FsInode dir = _rootInode.mkdir("junit").mkdir("dir");
+        assertEquals(dir, _fs.path2inode("/junit/dir"));
+
+        _fs.remove("/junit/dir");
+        FsInode newDir = _fs.path2inode("/junit").mkdir("dir");
+
+        assertEquals(newDir, _fs.path2inode("/junit/dir"));
+    }
+
+    @Test
+    public void testDentryCacheInvalidatedOnRemoveByInode() throws Exception {
+
+        ((JdbcFs) _fs).setDentryCacheSize(100);
+
+        FsInode dir = _rootInode.mkdir("junit").mkdir("dir");
+        FsInode other = _fs.path2inode("/junit").mkdir("other");
+        assertEquals(dir, _fs.path2inode("/junit/dir"));
+        assertEquals(other, _fs.path2inode("/junit/other"));
+
+        _fs.remove(dir);
+
+        try {
+            _fs.path2inode("/junit/dir");
+            fail("Stale directory entry was used");
+        } catch (FileNotFoundHimeraFsException e) {
+            // OK
+        }
+        assertEquals(other, _fs.path2inode("/junit/other"));
+    }
+
+    @Test
+    public void testGetChecksumsOfSeveralInodes() throws Exception {
+
+        FsInode dir = _rootInode.mkdir("junit");
+        FsInode file1 = dir.create("file1", 0, 0, 0644);
+        FsInode file2 = dir.create("file2", 0, 0, 0644);
+        FsInode file3 = dir.create("file3", 0, 0, 0644);
+        _fs.setInodeChecksum(file1, 1, "c6e50a5a");
+        _fs.setInodeChecksum(file2, 2, "d41d8cd98f00b204e9800998ecf8427e");
+
+        Map<FsInode, Set<Checksum>> checksums = _fs.getInodeChecksums(Arrays.asList(file1, file2, file3));
+
+        assertEquals(2, checksums.size());
+        assertThat(checksums.get(file1), contains(new Checksum(ChecksumType.getChecksumType(1), "c6e50a5a")));
+        assertThat(checksums.get(file2),
+                   contains(new Checksum(ChecksumType.getChecksumType(2), "d41d8cd98f00b204e9800998ecf8427e")));
+        assertFalse(checksums.containsKey(file3));
+    }
+
+    @Test
+    public void testGetLocationsOfSeveralInodes() throws Exception {
+
+        FsInode dir = _rootInode.mkdir("junit");
+        FsInode file1 = dir.create("file1", 0, 0, 0644);
+        FsInode file2 = dir.create("file2", 0, 0, 0644);
+        _fs.addInodeLocation(file1, StorageGenericLocation.DISK, "pool1");
+        _fs.addInodeLocation(file1, StorageGenericLocation.TAPE, "osm://osm/?store=test&group=disk&bfid=1");
+
+        Map<FsInode, List<StorageLocatable>> locations = _fs.getInodeLocations(Arrays.asList(file1, file2));
+
+        assertEquals(1, locations.size());
+        assertEquals(2, locations.get(file1).size());
+        assertFalse(locations.containsKey(file2));
+    }
+
+    @Test
+    public void testGetStorageInfoOfSeveralInodes() throws Exception {
+
+        FsInode dir = _rootInode.mkdir("junit");
+        FsInode file1 = dir.create("file1", 0, 0, 0644);
+        FsInode file2 = dir.create("file2", 0, 0, 0644);
+        _fs.setStorageInfo(file1, new InodeStorageInformation(file1, "osm", "test", "disk"));
+
+        Map<FsInode, InodeStorageInformation> storageInfos = _fs.getStorageInfo(Arrays.asList(file1, file2));
+
+        assertEquals(1, storageInfos.size());
+        assertEquals("osm", storageInfos.get(file1).hsmName());
+        assertEquals("test", storageInfos.get(file1).storageGroup());
+        assertEquals("disk", storageInfos.get(file1).storageSubGroup());
+    }
+
+    private List<String> list(FsInode dir, String after, Glob glob, int limit) throws Exception {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStreamB<HimeraDirectoryEntry> stream = _fs.newDirectoryStream(dir, after, glob, limit)) {
+            for (HimeraDirectoryEntry entry : stream) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+
+    @Test
+    public void testListDirectoryPageByPage() throws Exception {
+
+        FsInode dir = _rootInode.mkdir("junit");
+        for (String name : Arrays.asList("e", "c", "a", "d", "b")) {
+            dir.create(name, 0, 0, 0644);
+        }
+
+        assertEquals(Arrays.asList("a", "b"), list(dir, null, null, 2));
+        assertEquals(Arrays.asList("c", "d"), list(dir, "b", null, 2));
+        assertEquals(Arrays.asList("e"), list(dir, "d", null, 2));
+        assertEquals(Collections.emptyList(), list(dir, "e", null, 2));
+    }
+
+    @Test
+    public void testListDirectoryWithGlob() throws Exception {
+
+        FsInode dir = _rootInode.mkdir("junit");
+        for (String name : Arrays.asList("run1.root", "run2.root", "run10.log", "run_3.root", "x%y")) {
+            dir.create(name, 0, 0, 0644);
+        }
+
+        assertEquals(Arrays.asList("run1.root", "run2.root", "run_3.root"),
+                     list(dir, null, new Glob("run*.root"), Integer.MAX_VALUE));
+        assertEquals(Arrays.asList("run1.root", "run2.root"),
+                     list(dir, null, new Glob("run?.root"), Integer.MAX_VALUE));
+        assertEquals(Arrays.asList("run_3.root"),
+                     list(dir, null, new Glob("run_*"), Integer.MAX_VALUE));
+        assertEquals(Arrays.asList("x%y"),
+                     list(dir, null, new Glob("x%y"), Integer.MAX_VALUE));
+        assertEquals(Arrays.asList("run10.log", "run2.root"),
+                     list(dir, "run1.root", new Glob("run{10,2}*"), Integer.MAX_VALUE));
+        assertEquals(Arrays.asList("run10.log"),
+                     list(dir, "run1.root", new Glob("run{10,2}*"), 1));
+    }
 }
@@ -11,6 +11,7 @@ package diskCacheV111.util;
 
 
 import java.io.FileInputStream;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 
 import org.dcache.util.Checksum;
@@ -63,6 +64,46 @@ public class Adler32 extends MessageDigest
        return _adler ;
    }
 
+   /**
+    * Returns the Adler-32 checksum of the concatenation of two blocks
+    * given the checksums of the individual blocks. Equivalent to
+    * adler32_combine of zlib.
+    *
+    * @param adler1 checksum of the first block
+    * @param adler2 checksum of the second block
+    * @param len2 length of the second block in bytes
+    * @return checksum of the first block followed by the second block
+    */
+   public static long combine(long adler1, long adler2, long len2){
+       long rem = len2 % BASE ;
+       long sum1 = adler1 & 0xffffL ;
+       long sum2 = (rem * sum1) % BASE ;
+       sum1 += (adler2 & 0xffffL) + BASE - 1 ;
+       sum2 += ((adler1 >> 16) & 0xffffL) + ((adler2 >> 16) & 0xffffL) + BASE - rem ;
+       if( sum1 >= BASE ) {
+           sum1 -= BASE;
+       }
+       if( sum1 >= BASE ) {
+           sum1 -= BASE;
+       }
+       if( sum2 >= (BASE << 1) ) {
+           sum2 -= (BASE << 1);
+       }
+       if( sum2 >= BASE ) {
+           sum2 -= BASE;
+       }
+       return sum1 | (sum2 << 16) ;
+   }
+
+   /**
+    * Returns the Adler-32 checksum of a block of zeros.
+    *
+    * @param len length of the block in bytes
+    */
+   public static long zeros(long len){
+       return ((len % BASE) << 16) | 1L ;
+   }
+
    @Override
    public byte [] engineDigest(){
 //      return digestAdler32() ;
@@ -86,6 +127,10 @@ public class Adler32 extends MessageDigest
        _zipAdler.update( data, offset , size ) ;
    }
    @Override
+   public void engineUpdate( ByteBuffer input ){
+       _zipAdler.update( input ) ;
+   }
+   @Override
    public int engineGetDigestLength(){ return 4 ; }
 
    public byte [] digestAdler32(){
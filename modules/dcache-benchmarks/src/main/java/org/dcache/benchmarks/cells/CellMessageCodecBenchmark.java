@@ -0,0 +1,212 @@
+package org.dcache.benchmarks.cells;
+
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.util.AccessLatency;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.util.RetentionPolicy;
+import diskCacheV111.vehicles.DCapProtocolInfo;
+import diskCacheV111.vehicles.GenericStorageInfo;
+import diskCacheV111.vehicles.PoolMgrSelectReadPoolMsg;
+
+import dmg.cells.nucleus.CellAddressCore;
+import dmg.cells.nucleus.CellMessage;
+import dmg.cells.nucleus.CellPath;
+
+import org.dcache.namespace.FileAttribute;
+import org.dcache.util.Checksum;
+import org.dcache.util.ChecksumType;
+import org.dcache.vehicles.FileAttributes;
+import org.dcache.vehicles.PnfsGetFileAttributes;
+
+/**
+ * Compares the cost of encoding and decoding CellMessages using Java
+ * serialization and using the compact formats.
+ *
+ * The payload benchmarks measure encoding and decoding of the message
+ * object, which the cell nucleus does for every message leaving or
+ * entering a domain, using either Java serialization or the message
+ * codec of the payload.
+ *
+ * The envelope benchmarks measure writing and reading the envelope on a
+ * tunnel using Java serialization and using the compact tunnel format.
+ * The payload is encoded into the envelope before the measurement, as it
+ * is in the cell nucleus, so they isolate the envelope cost as seen by
+ * LocationMgrTunnel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CellMessageCodecBenchmark
+{
+    private static final PnfsId PNFSID = new PnfsId("0000A1B2C3D4E5F60718293A4B5C6D7E8F90");
+
+    @Param({"PnfsGetFileAttributes", "PoolMgrSelectReadPoolMsg"})
+    public String payload;
+
+    @Param({"codec", "java"})
+    public String payloadEncoding;
+
+    private CellMessage original;
+    private CellMessage message;
+    private byte[] javaEncoded;
+    private byte[] compactEncoded;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private ObjectOutputStream out;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        original = new CellMessage(new CellPath("PnfsManager@dCacheDomain"), createPayload(payload));
+        original.addSourceAddress(new CellAddressCore("DCap-door", "doorDomain"));
+        original.setSession("door:DCap-door@doorDomain:1476793200000");
+        message = original.encode();
+        if (payloadEncoding.equals("java")) {
+            message = message.withSerializedMessageObject();
+        }
+
+        out = new ObjectOutputStream(buffer);
+        javaEncoded = withStreamHeader(encodeJava());
+        compactEncoded = withStreamHeader(encodeCompact());
+    }
+
+    private static Serializable createPayload(String type)
+    {
+        switch (type) {
+        case "PnfsGetFileAttributes":
+            return new PnfsGetFileAttributes(PNFSID, EnumSet.of(FileAttribute.PNFSID,
+                                                                 FileAttribute.SIZE,
+                                                                 FileAttribute.STORAGEINFO,
+                                                                 FileAttribute.CHECKSUM,
+                                                                 FileAttribute.ACCESS_LATENCY,
+                                                                 FileAttribute.RETENTION_POLICY,
+                                                                 FileAttribute.LOCATIONS));
+        case "PoolMgrSelectReadPoolMsg":
+            FileAttributes attributes = new FileAttributes();
+            attributes.setPnfsId(PNFSID);
+            attributes.setSize(1L << 30);
+            attributes.setStorageInfo(new GenericStorageInfo("osm", "atlas:raw"));
+            attributes.setStorageClass("atlas:raw");
+            attributes.setCacheClass(null);
+            attributes.setHsm("osm");
+            attributes.setLocations(Arrays.asList("pool-a", "pool-b"));
+            attributes.setAccessLatency(AccessLatency.NEARLINE);
+            attributes.setRetentionPolicy(RetentionPolicy.CUSTODIAL);
+            attributes.setChecksums(Collections.singleton(new Checksum(ChecksumType.ADLER32, "0a1b2c3d")));
+            attributes.setFlags(ImmutableMap.of("uid", "1000", "gid", "1000"));
+            DCapProtocolInfo protocolInfo =
+                    new DCapProtocolInfo("DCap", 3, 0, new InetSocketAddress("192.0.2.1", 22125));
+            return new PoolMgrSelectReadPoolMsg(attributes, protocolInfo, null);
+        default:
+            throw new IllegalArgumentException("Unknown payload: " + type);
+        }
+    }
+
+    private byte[] encodeJava() throws IOException
+    {
+        buffer.reset();
+        out.writeObject(message);
+        out.reset();
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    private byte[] encodeCompact() throws IOException
+    {
+        buffer.reset();
+        message.writeTo(out);
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    @Benchmark
+    public Object encodePayload() throws IOException
+    {
+        if (payloadEncoding.equals("java")) {
+            ByteArrayOutputStream array = new ByteArrayOutputStream(256);
+            try (ObjectOutputStream out = new ObjectOutputStream(array)) {
+                out.writeObject(original.getMessageObject());
+            }
+            return array.toByteArray();
+        } else {
+            return original.encode();
+        }
+    }
+
+    @Benchmark
+    public Object decodePayload()
+    {
+        return message.decode();
+    }
+
+    @Benchmark
+    public int writeJava() throws IOException
+    {
+        buffer.reset();
+        out.writeObject(message);
+        out.reset();
+        out.flush();
+        return buffer.size();
+    }
+
+    @Benchmark
+    public int writeCompact() throws IOException
+    {
+        buffer.reset();
+        message.writeTo(out);
+        out.flush();
+        return buffer.size();
+    }
+
+    @Benchmark
+    public Object readJava() throws IOException, ClassNotFoundException
+    {
+        return new ObjectInputStream(new ByteArrayInputStream(javaEncoded)).readObject();
+    }
+
+    @Benchmark
+    public Object readCompact() throws IOException
+    {
+        return CellMessage.createFrom(new ObjectInputStream(new ByteArrayInputStream(compactEncoded)));
+    }
+
+    /**
+     * The encoded messages were captured without the object stream header that
+     * the tunnel only sends once. Readers need it, so prepend a fresh one.
+     */
+    private static byte[] withStreamHeader(byte[] body) throws IOException
+    {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        new ObjectOutputStream(header).flush();
+        header.write(body);
+        return header.toByteArray();
+    }
+}
@@ -0,0 +1,107 @@
+package org.dcache.benchmarks.chimera;
+
+import com.zaxxer.hikari.HikariDataSource;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.LiquibaseException;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.chimera.ChimeraFsException;
+import org.dcache.chimera.FsFactory;
+import org.dcache.chimera.FsInode;
+import org.dcache.chimera.JdbcFs;
+
+/**
+ * Measures the resolution of absolute paths by the Chimera SQL driver
+ * against an embedded H2 database.
+ *
+ * The name space holds a tree of the given depth with ten files in the
+ * leaf directory of each of a hundred branches. Paths are resolved both
+ * with and without the directory entry cache of JdbcFs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PathResolutionBenchmark
+{
+    private static final int BRANCHES = 100;
+    private static final int FILES = 10;
+
+    @Param({"2", "8"})
+    public int depth;
+
+    @Param({"0", "100000"})
+    public long dentryCacheSize;
+
+    private HikariDataSource dataSource;
+    private JdbcFs fs;
+    private String[] paths;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException, LiquibaseException, ChimeraFsException
+    {
+        dataSource = FsFactory.getDataSource("jdbc:h2:mem:benchmark", "sa", "");
+        try (Connection connection = dataSource.getConnection()) {
+            Database database = DatabaseFactory.getInstance()
+                    .findCorrectDatabaseImplementation(new JdbcConnection(connection));
+            new Liquibase("org/dcache/chimera/changelog/changelog-master.xml",
+                          new ClassLoaderResourceAccessor(), database).update("");
+        }
+        fs = new JdbcFs(dataSource, new DataSourceTransactionManager(dataSource));
+        fs.setDentryCacheSize(dentryCacheSize);
+
+        paths = new String[BRANCHES * FILES];
+        for (int i = 0; i < BRANCHES; i++) {
+            FsInode dir = fs.path2inode("/");
+            StringBuilder path = new StringBuilder();
+            for (int level = 0; level < depth; level++) {
+                String name = (level == 0) ? "branch" + i : "dir" + level;
+                dir = fs.mkdir(dir, name);
+                path.append('/').append(name);
+            }
+            for (int j = 0; j < FILES; j++) {
+                fs.createFile(dir, "file" + j);
+                paths[i * FILES + j] = path + "/file" + j;
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException
+    {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.createStatement().execute("SHUTDOWN");
+        }
+        dataSource.close();
+    }
+
+    @Benchmark
+    public FsInode path2inode() throws ChimeraFsException
+    {
+        return fs.path2inode(paths[ThreadLocalRandom.current().nextInt(paths.length)]);
+    }
+}
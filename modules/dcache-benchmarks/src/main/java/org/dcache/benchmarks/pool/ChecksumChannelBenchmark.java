@@ -0,0 +1,272 @@
+package org.dcache.benchmarks.pool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.util.ChecksumFactory;
+
+import org.dcache.pool.movers.ChecksumChannel;
+import org.dcache.pool.repository.RepositoryChannel;
+import org.dcache.util.Checksum;
+import org.dcache.util.ChecksumType;
+
+/**
+ * Measures the overhead of computing a checksum on the fly while a mover
+ * writes a file. Data is written to memory, so the benchmark isolates the
+ * cost of ChecksumChannel from that of the disk.
+ *
+ * The sequential variant corresponds to the common case of a single
+ * stream; the shuffled variant writes the blocks out of order, as
+ * multi-stream movers do. Both are measured with the checksum computed
+ * by the writing thread and in a checksum pipeline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ChecksumChannelBenchmark
+{
+    /**
+     * Number of blocks written per file.
+     */
+    private static final int BLOCKS = 64;
+
+    @Param({"ADLER32", "MD5_TYPE"})
+    public ChecksumType type;
+
+    @Param({"65536", "1048576"})
+    public int blockSize;
+
+    @Param({"false", "true"})
+    public boolean pipelined;
+
+    private ExecutorService executor;
+    private ChecksumFactory factory;
+    private ByteBuffer block;
+    private long[] shuffled;
+
+    @Setup(Level.Trial)
+    public void setup() throws NoSuchAlgorithmException
+    {
+        factory = ChecksumFactory.getFactory(type);
+        executor = pipelined ? Executors.newCachedThreadPool() : null;
+
+        byte[] data = new byte[blockSize];
+        new Random(0).nextBytes(data);
+        block = ByteBuffer.wrap(data);
+
+        Random random = new Random(1);
+        shuffled = new long[BLOCKS];
+        for (int i = 0; i < BLOCKS; i++) {
+            shuffled[i] = (long) i * blockSize;
+        }
+        for (int i = BLOCKS - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long tmp = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = tmp;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private ChecksumChannel createChannel()
+    {
+        return new ChecksumChannel(new MemoryRepositoryChannel(BLOCKS * blockSize), factory,
+                                   executor, 16 * 1024 * 1024);
+    }
+
+    /**
+     * Writes one file of BLOCKS blocks; throughput is reported per block.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BLOCKS)
+    public Checksum sequential() throws IOException
+    {
+        ChecksumChannel channel = createChannel();
+        for (int i = 0; i < BLOCKS; i++) {
+            block.rewind();
+            channel.write(block);
+        }
+        return channel.getChecksum();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCKS)
+    public Checksum shuffled() throws IOException
+    {
+        ChecksumChannel channel = createChannel();
+        for (long position : shuffled) {
+            block.rewind();
+            channel.write(block, position);
+        }
+        return channel.getChecksum();
+    }
+
+    /**
+     * Repository channel keeping the data in memory. Out of order writes
+     * make the checksum channel read back data it could not digest on the
+     * fly, thus the data has to be retained.
+     */
+    private static class MemoryRepositoryChannel implements RepositoryChannel
+    {
+        private final byte[] data;
+        private long position;
+        private long size;
+
+        MemoryRepositoryChannel(int capacity)
+        {
+            data = new byte[capacity];
+        }
+
+        @Override
+        public long position()
+        {
+            return position;
+        }
+
+        @Override
+        public RepositoryChannel position(long position)
+        {
+            this.position = position;
+            return this;
+        }
+
+        @Override
+        public long size()
+        {
+            return size;
+        }
+
+        @Override
+        public int write(ByteBuffer buffer, long position)
+        {
+            int bytes = buffer.remaining();
+            buffer.get(data, (int) position, bytes);
+            size = Math.max(size, position + bytes);
+            return bytes;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer, long position)
+        {
+            if (position >= size) {
+                return -1;
+            }
+            int bytes = (int) Math.min(buffer.remaining(), size - position);
+            buffer.put(data, (int) position, bytes);
+            return bytes;
+        }
+
+        @Override
+        public RepositoryChannel truncate(long size)
+        {
+            this.size = Math.min(this.size, size);
+            return this;
+        }
+
+        @Override
+        public void sync()
+        {
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length)
+        {
+            long bytes = 0;
+            for (int i = offset; i < offset + length; i++) {
+                bytes += write(srcs[i]);
+            }
+            return bytes;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs)
+        {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(ByteBuffer dst)
+        {
+            int bytes = read(dst, position);
+            if (bytes > 0) {
+                position += bytes;
+            }
+            return bytes;
+        }
+
+        @Override
+        public int write(ByteBuffer src)
+        {
+            int bytes = write(src, position);
+            position += bytes;
+            return bytes;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return true;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.dcache.benchmarks.pool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.util.AccessLatency;
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.util.RetentionPolicy;
+import diskCacheV111.vehicles.GenericStorageInfo;
+
+import org.dcache.pool.repository.EntryChangeEvent;
+import org.dcache.pool.repository.EntryState;
+import org.dcache.pool.repository.FlatFileStore;
+import org.dcache.pool.repository.MetaDataCache;
+import org.dcache.pool.repository.MetaDataRecord;
+import org.dcache.pool.repository.StateChangeEvent;
+import org.dcache.pool.repository.StateChangeListener;
+import org.dcache.pool.repository.StickyChangeEvent;
+import org.dcache.pool.repository.meta.file.FileMetaDataRepository;
+import org.dcache.vehicles.FileAttributes;
+
+/**
+ * Measures access to meta data records through the MetaDataCache of a
+ * pool, as performed by the repository for every mover, flush and
+ * sweeper decision. The records are backed by the file based meta data
+ * store in a temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Threads(4)
+@Fork(1)
+public class MetaDataCacheBenchmark
+{
+    @Param({"1000", "100000"})
+    public int records;
+
+    private Path directory;
+    private MetaDataCache cache;
+    private PnfsId[] ids;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, CacheException, InterruptedException
+    {
+        directory = Files.createTempDirectory("metadata-benchmark");
+        FileMetaDataRepository store =
+                new FileMetaDataRepository(new FlatFileStore(directory.toFile()), directory.toFile());
+        cache = new MetaDataCache(store, new NopStateChangeListener(), event -> {
+            throw new RuntimeException("Unexpected fault: " + event.getMessage(), event.getCause());
+        });
+        cache.init();
+
+        ids = new PnfsId[records];
+        for (int i = 0; i < records; i++) {
+            ids[i] = new PnfsId(String.format("0000%032X", i));
+            MetaDataRecord record = cache.create(ids[i]);
+            FileAttributes attributes = new FileAttributes();
+            attributes.setPnfsId(ids[i]);
+            attributes.setSize(1024);
+            attributes.setAccessLatency(AccessLatency.ONLINE);
+            attributes.setRetentionPolicy(RetentionPolicy.REPLICA);
+            attributes.setStorageInfo(new GenericStorageInfo("osm", "atlas:raw"));
+            record.setFileAttributes(attributes);
+            record.setSize(1024);
+            record.setState(EntryState.FROM_CLIENT);
+            record.setState(EntryState.CACHED);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        cache.close();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException
+            {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private PnfsId randomId()
+    {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+
+    @Benchmark
+    public long readState() throws CacheException, InterruptedException
+    {
+        MetaDataRecord record = cache.get(randomId());
+        return record.getState().ordinal() + record.getSize() + (record.isSticky() ? 1 : 0);
+    }
+
+    @Benchmark
+    public FileAttributes readAttributes() throws CacheException, InterruptedException
+    {
+        return cache.get(randomId()).getFileAttributes();
+    }
+
+    private static class NopStateChangeListener implements StateChangeListener
+    {
+        @Override
+        public void stateChanged(StateChangeEvent event)
+        {
+        }
+
+        @Override
+        public void accessTimeChanged(EntryChangeEvent event)
+        {
+        }
+
+        @Override
+        public void stickyChanged(StickyChangeEvent event)
+        {
+        }
+    }
+}
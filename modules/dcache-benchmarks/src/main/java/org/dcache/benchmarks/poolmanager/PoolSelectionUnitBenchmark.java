@@ -0,0 +1,182 @@
+package org.dcache.benchmarks.poolmanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.poolManager.PoolPreferenceLevel;
+import diskCacheV111.poolManager.PoolSelectionCache;
+import diskCacheV111.poolManager.PoolSelectionUnit.DirectionType;
+import diskCacheV111.poolManager.PoolSelectionUnit.SelectionPool;
+import diskCacheV111.poolManager.PoolSelectionUnitCommands;
+import diskCacheV111.poolManager.PoolSelectionUnitV2;
+import diskCacheV111.pools.PoolV2Mode;
+import diskCacheV111.vehicles.GenericStorageInfo;
+import diskCacheV111.vehicles.StorageInfos;
+
+import dmg.util.CommandException;
+import dmg.util.CommandInterpreter;
+
+import org.dcache.vehicles.FileAttributes;
+
+/**
+ * Measures PoolSelectionUnitV2.match for a setup resembling that of a
+ * multi-VO site: every experiment has its own storage unit group, pool
+ * group and read, write and stage links. Reads are allowed from anywhere
+ * using a set of protocols, while writes and stages are restricted to the
+ * internal networks. A default link catches all other storage classes.
+ *
+ * The cached variant measures the same requests through the pool
+ * manager selection cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PoolSelectionUnitBenchmark
+{
+    private static final String[] NETWORKS = {
+            "131.169.214.149", "192.0.2.17", "2001:638:700:1::20", "198.51.100.4"
+    };
+
+    private static final String[] PROTOCOLS = {
+            "DCap/3", "GFtp/2", "Http/1", "Xrootd/2"
+    };
+
+    private static final DirectionType[] DIRECTIONS = {
+            DirectionType.READ, DirectionType.WRITE, DirectionType.CACHE, DirectionType.P2P
+    };
+
+    /**
+     * Number of experiments, each with three links and ten pools.
+     */
+    @Param({"10", "100"})
+    public int experiments;
+
+    private final PoolSelectionUnitV2 psu = new PoolSelectionUnitV2();
+    private final PoolSelectionCache cache = new PoolSelectionCache();
+    private FileAttributes[] files;
+
+    @Setup(Level.Trial)
+    public void setup() throws CommandException
+    {
+        PoolSelectionUnitCommands commands = new PoolSelectionUnitCommands();
+        commands.setPsuAccess(psu);
+        CommandInterpreter ci = new CommandInterpreter(commands);
+
+        ci.command("psu create unit -net 131.169.0.0/255.255.0.0");
+        ci.command("psu create unit -net 2001:638:700::0/48");
+        ci.command("psu create unit -net 0.0.0.0/0.0.0.0");
+        ci.command("psu create unit -net ::/0");
+        ci.command("psu create ugroup intern");
+        ci.command("psu addto ugroup intern 131.169.0.0/255.255.0.0");
+        ci.command("psu addto ugroup intern 2001:638:700::0/48");
+        ci.command("psu create ugroup world");
+        ci.command("psu addto ugroup world 131.169.0.0/255.255.0.0");
+        ci.command("psu addto ugroup world 2001:638:700::0/48");
+        ci.command("psu addto ugroup world 0.0.0.0/0.0.0.0");
+        ci.command("psu addto ugroup world ::/0");
+
+        ci.command("psu create ugroup protocols");
+        for (String protocol : PROTOCOLS) {
+            ci.command("psu create unit -protocol " + protocol);
+            ci.command("psu addto ugroup protocols " + protocol);
+        }
+
+        ci.command("psu create unit -store *@*");
+        ci.command("psu create ugroup any-store");
+        ci.command("psu addto ugroup any-store *@*");
+        ci.command("psu create pgroup default-pools");
+        for (int i = 0; i < 10; i++) {
+            createPool(ci, "default-pool-" + i, "default-pools");
+        }
+        ci.command("psu create link default-link any-store world");
+        ci.command("psu set link default-link -readpref=1 -writepref=1 -cachepref=1 -p2ppref=1");
+        ci.command("psu add link default-link default-pools");
+
+        files = new FileAttributes[experiments];
+        for (int i = 0; i < experiments; i++) {
+            String vo = "vo" + i;
+            ci.command("psu create ugroup " + vo);
+            for (String storageClass : new String[] { vo + ":raw", vo + ":user" }) {
+                ci.command("psu create unit -store " + storageClass + "@osm");
+                ci.command("psu addto ugroup " + vo + " " + storageClass + "@osm");
+            }
+
+            ci.command("psu create pgroup " + vo + "-pools");
+            for (int j = 0; j < 10; j++) {
+                createPool(ci, vo + "-pool-" + j, vo + "-pools");
+            }
+
+            ci.command("psu create link " + vo + "-read " + vo + " world protocols");
+            ci.command("psu set link " + vo + "-read -readpref=10 -writepref=0 -cachepref=10 -p2ppref=10");
+            ci.command("psu add link " + vo + "-read " + vo + "-pools");
+
+            ci.command("psu create link " + vo + "-write " + vo + " intern protocols");
+            ci.command("psu set link " + vo + "-write -readpref=0 -writepref=20 -cachepref=0 -p2ppref=0");
+            ci.command("psu add link " + vo + "-write " + vo + "-pools");
+
+            ci.command("psu create link " + vo + "-stage " + vo + " intern");
+            ci.command("psu set link " + vo + "-stage -readpref=0 -writepref=0 -cachepref=20 -p2ppref=0");
+            ci.command("psu add link " + vo + "-stage " + vo + "-pools");
+
+            FileAttributes attributes = new FileAttributes();
+            StorageInfos.injectInto(new GenericStorageInfo("osm", vo + ":raw"), attributes);
+            files[i] = attributes;
+        }
+
+        cache.setSize(10000);
+        cache.setTimeout(1);
+        cache.setTimeoutUnit(TimeUnit.HOURS);
+        cache.init();
+        psu.addChangeListener(cache::invalidate);
+    }
+
+    private void createPool(CommandInterpreter ci, String name, String group) throws CommandException
+    {
+        ci.command("psu create pool " + name);
+        ci.command("psu addto pgroup " + group + " " + name);
+        SelectionPool pool = psu.getPool(name);
+        pool.setPoolMode(new PoolV2Mode(PoolV2Mode.ENABLED));
+        pool.setHsmInstances(Collections.singleton("osm"));
+        pool.setActive(true);
+    }
+
+    @Benchmark
+    public PoolPreferenceLevel[] match()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return psu.match(DIRECTIONS[random.nextInt(DIRECTIONS.length)],
+                         NETWORKS[random.nextInt(NETWORKS.length)],
+                         PROTOCOLS[random.nextInt(PROTOCOLS.length)],
+                         files[random.nextInt(files.length)],
+                         null);
+    }
+
+    @Benchmark
+    public PoolPreferenceLevel[] matchCached()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return cache.match(psu,
+                           DIRECTIONS[random.nextInt(DIRECTIONS.length)],
+                           NETWORKS[random.nextInt(NETWORKS.length)],
+                           PROTOCOLS[random.nextInt(PROTOCOLS.length)],
+                           files[random.nextInt(files.length)],
+                           null);
+    }
+}
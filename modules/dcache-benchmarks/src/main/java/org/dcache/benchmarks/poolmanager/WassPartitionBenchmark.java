@@ -0,0 +1,90 @@
+package org.dcache.benchmarks.poolmanager;
+
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.pools.PoolCostInfo;
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.PnfsId;
+
+import dmg.cells.nucleus.CellAddressCore;
+
+import org.dcache.pool.classic.IoQueueManager;
+import org.dcache.poolmanager.Partition;
+import org.dcache.poolmanager.PoolInfo;
+import org.dcache.poolmanager.WassPartition;
+import org.dcache.vehicles.FileAttributes;
+
+/**
+ * Measures pool selection by the weighted available space selection
+ * partition for pool groups of different sizes. Pools have random space
+ * usage and mover load.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class WassPartitionBenchmark
+{
+    private static final long GiB = 1L << 30;
+
+    @Param({"10", "100", "1000"})
+    public int pools;
+
+    private final Partition partition = new WassPartition();
+    private final FileAttributes attributes = new FileAttributes();
+    private List<PoolInfo> poolInfos;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        Random random = new Random(0);
+        poolInfos = new ArrayList<>(pools);
+        for (int i = 0; i < pools; i++) {
+            String name = "pool" + i;
+            PoolCostInfo cost = new PoolCostInfo(name, IoQueueManager.DEFAULT_QUEUE);
+            long total = 100 * 1024 * GiB;
+            long free = (long) (random.nextDouble() * total);
+            long removable = (long) (random.nextDouble() * (total - free));
+            cost.setSpaceUsage(total, free, total - free - removable, removable, random.nextInt(7 * 24 * 3600));
+            cost.getSpaceInfo().setParameter(0.7, 4 * GiB);
+            cost.setMoverCostFactor(0.5);
+            int active = random.nextInt(100);
+            cost.addExtendedMoverQueueSizes("regular", active, 100, random.nextInt(10), active / 2, active - active / 2);
+            poolInfos.add(new PoolInfo(new CellAddressCore(name, name + "Domain"), cost, ImmutableMap.of()));
+        }
+
+        attributes.setPnfsId(new PnfsId("0000A1B2C3D4E5F60718293A4B5C6D7E8F90"));
+        attributes.setSize(GiB);
+    }
+
+    @Benchmark
+    public PoolInfo selectWritePool() throws CacheException
+    {
+        return partition.selectWritePool(null, poolInfos, attributes, GiB);
+    }
+
+    @Benchmark
+    public PoolInfo selectReadPool() throws CacheException
+    {
+        return partition.selectReadPool(null, new ArrayList<>(poolInfos), attributes);
+    }
+}
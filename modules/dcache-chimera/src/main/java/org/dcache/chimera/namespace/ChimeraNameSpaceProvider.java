@@ -2,6 +2,7 @@ package org.dcache.chimera.namespace;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
+import com.google.common.collect.BoundType;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -24,12 +25,12 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Pattern;
 
 import diskCacheV111.namespace.NameSpaceProvider;
 import diskCacheV111.util.AccessLatency;
@@ -89,6 +90,16 @@ public class ChimeraNameSpaceProvider
 {
     private static final int SYMLINK_MODE = 0777;
 
+    /**
+     * Number of directory entries for which list fetches file attributes
+     * with set based queries.
+     */
+    private static final int LIST_BATCH_SIZE = 500;
+
+    private static final Set<FileAttribute> STORAGE_INFO_ATTRIBUTES =
+            EnumSet.of(FileAttribute.STORAGEINFO, FileAttribute.STORAGECLASS,
+                       FileAttribute.CACHECLASS, FileAttribute.HSM);
+
     public static final String TAG_EXPECTED_SIZE = "ExpectedSize";
     public static final String TAG_PATH = "Path";
     public static final String TAG_WRITE_TOKEN = "WriteToken";
@@ -1016,9 +1027,16 @@ public class ChimeraNameSpaceProvider
     public void list(Subject subject, String path, Glob glob, Range<Integer> range,
                      Set<FileAttribute> attrs, ListHandler handler)
         throws CacheException
+    {
+        list(subject, path, glob, range, null, attrs, handler);
+    }
+
+    @Override
+    public void list(Subject subject, String path, Glob glob, Range<Integer> range,
+                     String cookie, Set<FileAttribute> attrs, ListHandler handler)
+        throws CacheException
     {
         try {
-            Pattern pattern = (glob == null) ? null : glob.toPattern();
             ExtendedInode dir = pathToInode(subject, path);
             if (!dir.isDirectory()) {
                 throw new NotDirCacheException("Not a directory: " + path);
@@ -1035,31 +1053,42 @@ public class ChimeraNameSpaceProvider
                 }
             }
 
+            /* The directory stream is ordered by name and starts after the
+             * cookie, and the database applies the glob whenever possible.
+             * Entries before the range are skipped, and the stream ends
+             * with the last entry in the range.
+             */
+            long from = !range.hasLowerBound() ? 0
+                    : (range.lowerBoundType() == BoundType.CLOSED) ? range.lowerEndpoint()
+                    : range.lowerEndpoint() + 1L;
+            long to = !range.hasUpperBound() ? Integer.MAX_VALUE
+                    : (range.upperBoundType() == BoundType.CLOSED) ? range.upperEndpoint() + 1L
+                    : range.upperEndpoint();
+            int limit = (int) Math.min(Math.max(to, 0), Integer.MAX_VALUE);
+
             int counter = 0;
-            try (DirectoryStreamB<HimeraDirectoryEntry> dirStream = dir
-                    .newDirectoryStream()) {
+            Map<String, ExtendedInode> batch = new LinkedHashMap<>();
+            try (DirectoryStreamB<HimeraDirectoryEntry> dirStream =
+                         _fs.newDirectoryStream(dir, cookie, glob, limit)) {
                 for (HimeraDirectoryEntry entry : dirStream) {
-                    try {
-                        String name = entry.getName();
-                        if (!name.equals(".") && !name.equals("..") &&
-                                (pattern == null || pattern.matcher(name)
-                                        .matches()) &&
-                                range.contains(counter++)) {
-                            // FIXME: actually, HimeraDirectoryEntry
-                            // already contains most of attributes
-                            FileAttributes fa =
-                                    attrs.isEmpty()
-                                            ? null
-                                            : getFileAttributes(new ExtendedInode(_fs, entry.getInode()), attrs);
-                            handler.addEntry(name, fa);
+                    String name = entry.getName();
+                    if (counter++ >= from) {
+                        if (attrs.isEmpty()) {
+                            handler.addEntry(name, null);
+                        } else {
+                            /* The entry carries the stat of the inode. Sharing
+                             * the directory inode means its tags are only
+                             * fetched once for the whole listing.
+                             */
+                            batch.put(name, new ExtendedInode(dir, entry.getInode()));
+                            if (batch.size() >= LIST_BATCH_SIZE) {
+                                addEntries(batch, attrs, handler);
+                            }
                         }
-                    } catch (FileNotFoundHimeraFsException e) {
-                        /* Not an error; files may be deleted during the
-                         * list operation.
-                         */
                     }
                 }
             }
+            addEntries(batch, attrs, handler);
 
         } catch (FileNotFoundHimeraFsException e) {
             throw new FileNotFoundCacheException("No such file or directory: " + path);
@@ -1069,6 +1098,59 @@ public class ChimeraNameSpaceProvider
         }
     }
 
+    /**
+     * Passes a batch of directory entries to the list handler. Attributes
+     * not contained in the inode table are fetched for the whole batch
+     * with set based queries rather than with one query per entry.
+     */
+    private void addEntries(Map<String, ExtendedInode> entries, Set<FileAttribute> attrs, ListHandler handler)
+            throws ChimeraFsException, CacheException
+    {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        if (attrs.contains(FileAttribute.CHECKSUM)) {
+            ExtendedInode.prefetchChecksums(_fs, entries.values());
+        }
+
+        boolean needsStorageInfo = !Collections.disjoint(attrs, STORAGE_INFO_ATTRIBUTES);
+        if (attrs.contains(FileAttribute.LOCATIONS) || needsStorageInfo) {
+            ExtendedInode.prefetchLocations(_fs, entries.values());
+        } else if (attrs.contains(FileAttribute.SIZE)) {
+            /* Locations are only consulted for empty files.
+             */
+            List<ExtendedInode> empty = new ArrayList<>();
+            for (ExtendedInode inode : entries.values()) {
+                if (inode.statCache().getSize() == 0) {
+                    empty.add(inode);
+                }
+            }
+            ExtendedInode.prefetchLocations(_fs, empty);
+        }
+
+        if (needsStorageInfo) {
+            List<ExtendedInode> files = new ArrayList<>();
+            for (ExtendedInode inode : entries.values()) {
+                if (!inode.isDirectory()) {
+                    files.add(inode);
+                }
+            }
+            ExtendedInode.prefetchStorageInfo(_fs, files);
+        }
+
+        for (Map.Entry<String, ExtendedInode> entry : entries.entrySet()) {
+            try {
+                handler.addEntry(entry.getKey(), getFileAttributes(entry.getValue(), attrs));
+            } catch (FileNotFoundHimeraFsException e) {
+                /* Not an error; files may be deleted during the
+                 * list operation.
+                 */
+            }
+        }
+        entries.clear();
+    }
+
     private ExtendedInode mkdir(Subject subject, ExtendedInode parent, String name, int uid, int gid, int mode)
             throws ChimeraFsException, CacheException
     {
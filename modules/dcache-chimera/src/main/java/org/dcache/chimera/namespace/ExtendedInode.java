@@ -26,9 +26,11 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteSource;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import diskCacheV111.util.FsPath;
 import diskCacheV111.util.PnfsId;
@@ -64,7 +66,7 @@ public class ExtendedInode extends FsInode
     private InodeStorageInformation storageInfo;
     private Optional<ExtendedInode> parent;
 
-    private ExtendedInode(ExtendedInode parent, FsInode inode)
+    ExtendedInode(ExtendedInode parent, FsInode inode)
     {
         this(parent.getFs(), inode);
         this.parent = Optional.of(parent);
@@ -238,6 +240,54 @@ public class ExtendedInode extends FsInode
         return storageInfo;
     }
 
+    /**
+     * Populates the checksum cache of several inodes with a set based query.
+     */
+    static void prefetchChecksums(FileSystemProvider fs, Collection<ExtendedInode> inodes)
+            throws ChimeraFsException
+    {
+        if (!inodes.isEmpty()) {
+            Map<FsInode, Set<Checksum>> checksums = fs.getInodeChecksums(inodes);
+            for (ExtendedInode inode : inodes) {
+                Set<Checksum> values = checksums.get(inode);
+                inode.checksums = (values == null) ? ImmutableList.of() : ImmutableList.copyOf(values);
+            }
+        }
+    }
+
+    /**
+     * Populates the location cache of several inodes with a set based query.
+     */
+    static void prefetchLocations(FileSystemProvider fs, Collection<ExtendedInode> inodes)
+            throws ChimeraFsException
+    {
+        if (!inodes.isEmpty()) {
+            Map<FsInode, List<StorageLocatable>> locations = fs.getInodeLocations(inodes);
+            for (ExtendedInode inode : inodes) {
+                List<StorageLocatable> values = locations.get(inode);
+                inode.locations = (values == null) ? ImmutableList.of() : ImmutableList.copyOf(values);
+            }
+        }
+    }
+
+    /**
+     * Populates the storage info cache of several inodes with a set based
+     * query. Inodes without storage info are left untouched.
+     */
+    static void prefetchStorageInfo(FileSystemProvider fs, Collection<ExtendedInode> inodes)
+            throws ChimeraFsException
+    {
+        if (!inodes.isEmpty()) {
+            Map<FsInode, InodeStorageInformation> storageInfos = fs.getStorageInfo(inodes);
+            for (ExtendedInode inode : inodes) {
+                InodeStorageInformation storageInfo = storageInfos.get(inode);
+                if (storageInfo != null) {
+                    inode.storageInfo = storageInfo;
+                }
+            }
+        }
+    }
+
     public FsPath getPath() throws ChimeraFsException
     {
         return FsPath.create(_fs.inode2path(this));
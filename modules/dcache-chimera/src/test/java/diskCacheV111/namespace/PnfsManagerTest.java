@@ -17,6 +17,7 @@ import java.net.URI;
 import java.net.URL;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Properties;
@@ -35,9 +36,13 @@ import diskCacheV111.vehicles.PnfsCreateEntryMessage;
 import diskCacheV111.vehicles.PnfsCreateUploadPath;
 import diskCacheV111.vehicles.PnfsDeleteEntryMessage;
 import diskCacheV111.vehicles.PnfsGetCacheLocationsMessage;
+import diskCacheV111.vehicles.PnfsMessage;
 import diskCacheV111.vehicles.PnfsSetChecksumMessage;
 import diskCacheV111.vehicles.StorageInfo;
 
+import dmg.cells.nucleus.CellMessage;
+import dmg.cells.nucleus.CellPath;
+
 import org.dcache.auth.Subjects;
 import org.dcache.auth.attributes.Restrictions;
 import org.dcache.chimera.ChimeraFsException;
@@ -347,6 +352,56 @@ public class PnfsManagerTest
 
 
 
+    @Test
+    public void testBatchCommitsAllMessages() throws Exception {
+        PnfsId pnfsId = createFile("/pnfs/testRoot/testBatchCommit");
+
+        PnfsAddCacheLocationMessage add = new PnfsAddCacheLocationMessage(pnfsId, "pool1");
+        PnfsGetFileAttributes get = new PnfsGetFileAttributes(pnfsId, EnumSet.of(LOCATIONS));
+        _pnfsManager.processMessageBatch(envelopes(add, get));
+
+        assertThat(add.getReturnCode(), is(0));
+        assertThat(get.getReturnCode(), is(0));
+        assertThat(get.getFileAttributes().getLocations().contains("pool1"), is(true));
+        assertThat(_pnfsManager.getBatchedCounters().getTotalRequests(), is(2));
+        assertThat(_pnfsManager.getBatchedCounters().getTotalFailed(), is(0));
+    }
+
+    @Test
+    public void testBatchKeepsFailedReadOnlyMessage() throws Exception {
+        PnfsId pnfsId = createFile("/pnfs/testRoot/testBatchReadOnly");
+
+        PnfsGetFileAttributes missing =
+                new PnfsGetFileAttributes(new PnfsId("111113333300000000000000000000222222"), SOME_ATTRIBUTES);
+        PnfsAddCacheLocationMessage add = new PnfsAddCacheLocationMessage(pnfsId, "pool1");
+        _pnfsManager.processMessageBatch(envelopes(missing, add));
+
+        assertThat(missing.getReturnCode(), is(CacheException.FILE_NOT_FOUND));
+        assertThat(add.getReturnCode(), is(0));
+        assertThat(_pnfsManager.getBatchedCounters().getTotalFailed(), is(0));
+
+        PnfsGetFileAttributes get = new PnfsGetFileAttributes(pnfsId, EnumSet.of(LOCATIONS));
+        _pnfsManager.getFileAttributes(get);
+        assertThat(get.getFileAttributes().getLocations().contains("pool1"), is(true));
+    }
+
+    @Test
+    public void testBatchRollsBackAndReplaysOnFailedUpdate() throws Exception {
+        PnfsId pnfsId = createFile("/pnfs/testRoot/testBatchRollback");
+
+        PnfsAddCacheLocationMessage add = new PnfsAddCacheLocationMessage(pnfsId, "pool1");
+        PnfsAddCacheLocationMessage missing =
+                new PnfsAddCacheLocationMessage(new PnfsId("111113333300000000000000000000222222"), "pool1");
+        PnfsGetFileAttributes get = new PnfsGetFileAttributes(pnfsId, EnumSet.of(LOCATIONS));
+        _pnfsManager.processMessageBatch(envelopes(add, missing, get));
+
+        assertThat(missing.getReturnCode(), is(CacheException.FILE_NOT_FOUND));
+        assertThat(add.getReturnCode(), is(0));
+        assertThat(get.getReturnCode(), is(0));
+        assertThat(get.getFileAttributes().getLocations().contains("pool1"), is(true));
+        assertThat(_pnfsManager.getBatchedCounters().getTotalFailed(), is(3));
+    }
+
     @Test
     public void testGetStorageInfoNoTags() throws ChimeraFsException {
 
@@ -645,4 +700,22 @@ public class PnfsManagerTest
     public static junit.framework.Test suite() {
         return new JUnit4TestAdapter(PnfsManagerTest.class);
     }
+
+    private PnfsId createFile(String path) {
+        PnfsCreateEntryMessage message = new PnfsCreateEntryMessage(path);
+        _pnfsManager.createEntry(message);
+        assertThat(message.getReturnCode(), is(0));
+        return message.getPnfsId();
+    }
+
+    private static List<CellMessage> envelopes(PnfsMessage... messages) {
+        List<CellMessage> envelopes = new ArrayList<>();
+        for (PnfsMessage message : messages) {
+            message.setReplyRequired(false);
+            CellMessage envelope = new CellMessage(new CellPath("PnfsManager"), message);
+            envelope.getSourcePath().add("door@dCacheDomain");
+            envelopes.add(envelope);
+        }
+        return envelopes;
+    }
 }
@@ -43,7 +43,7 @@ import org.dcache.util.NetworkUtils;
 import org.dcache.vehicles.FileAttributes;
 
 
-public class DCapProtocol_3_nio implements MoverProtocol, ChecksumMover, CellArgsAware
+public class DCapProtocol_3_nio implements MoverProtocol, ChecksumMover, CellArgsAware, ByteBufferPoolAware
 {
     private static Logger _log = LoggerFactory.getLogger(DCapProtocol_3_nio.class);
     private static Logger _logSocketIO = LoggerFactory.getLogger("logger.dev.org.dcache.io.socket");
@@ -60,8 +60,11 @@ public class DCapProtocol_3_nio implements MoverProtocol, ChecksumMover, CellArg
     private long _lastTransferred    = System.currentTimeMillis();
 
     private ByteBuffer _bigBuffer;
+    private ByteBufferPool _bufferPool;
+    private ByteBufferPool.Lease _bufferLease;
     private String  _status          = "None";
     private boolean _io_ok           = true;
+    private boolean _isZeroCopyEnabled = true;
     private long    _ioError         = -1;
     private PnfsId  _pnfsId;
     private int     _sessionId       = -1;
@@ -92,16 +95,36 @@ public class DCapProtocol_3_nio implements MoverProtocol, ChecksumMover, CellArg
 
     }
 
+    @Override
+    public void setByteBufferPool(ByteBufferPool pool)
+    {
+        _bufferPool = pool;
+    }
+
     private void initialiseBuffer(MoverIoBuffer bufferSize) {
+        if (_bigBuffer != null) {
+            return;
+        }
+        if (_bufferPool != null) {
+            _bufferLease = _bufferPool.lease("DCap", bufferSize.getIoBufferSize());
+            _bigBuffer = _bufferLease.buffer();
+            return;
+        }
         try {
-            _bigBuffer = _bigBuffer
-                    == null ? ByteBuffer.allocate(bufferSize.getIoBufferSize()) :
-                        _bigBuffer;
+            _bigBuffer = ByteBuffer.allocate(bufferSize.getIoBufferSize());
         } catch (OutOfMemoryError om) {
             _bigBuffer = ByteBuffer.allocate(32 * 1024);
         }
     }
 
+    private void releaseBuffer() {
+        if (_bufferLease != null) {
+            _bufferLease.close();
+            _bufferLease = null;
+            _bigBuffer = null;
+        }
+    }
+
     private MoverIoBuffer prepareBufferSize(StorageInfo storage) {
         MoverIoBuffer bufferSize = new MoverIoBuffer(_defaultBufferSize);
         String tmp;
@@ -136,6 +159,7 @@ public class DCapProtocol_3_nio implements MoverProtocol, ChecksumMover, CellArg
     public void setCellArgs(Args args)
     {
         _args = args;
+        _isZeroCopyEnabled = args.getBooleanOption("zeroCopyReads", true);
     }
 
     private class SpaceMonitorHandler {
@@ -289,6 +313,20 @@ public class DCapProtocol_3_nio implements MoverProtocol, ChecksumMover, CellArg
                       Allocator    allocator,
                       IoMode          access  )
         throws Exception
+    {
+        try {
+            transfer(fileAttributes, fileChannel, protocol, allocator, access);
+        } finally {
+            releaseBuffer();
+        }
+    }
+
+    private void transfer(FileAttributes fileAttributes,
+                          RepositoryChannel  fileChannel,
+                          ProtocolInfo protocol,
+                          Allocator    allocator,
+                          IoMode          access  )
+        throws Exception
     {
         configureBufferSizes();
         Exception ioException         = null;
@@ -1058,6 +1096,27 @@ public class DCapProtocol_3_nio implements MoverProtocol, ChecksumMover, CellArg
             socketChannel.write(cntOut.buffer());
             return;
         }
+        if (_isZeroCopyEnabled && fileChannel.isZeroCopySupported()) {
+            transferBlock(fileChannel, socketChannel, blockSize);
+        } else {
+            copyBlock(fileChannel, socketChannel, blockSize);
+        }
+        //
+        // data chain delimiter
+        //
+        cntOut.writeDATA_TRAILER();
+        socketChannel.write(cntOut.buffer());
+
+    }
+
+    /**
+     * Sends up to blockSize bytes from the current position of the file
+     * by reading them into the IO buffer.
+     */
+    private void copyBlock(RepositoryChannel fileChannel,
+                           SocketChannel socketChannel,
+                           long blockSize) throws Exception
+    {
         long    rest = blockSize;
         int     size, rc;
 
@@ -1095,12 +1154,71 @@ public class DCapProtocol_3_nio implements MoverProtocol, ChecksumMover, CellArg
                 break;
             }
         }
-        //
-        // data chain delimiter
-        //
-        cntOut.writeDATA_TRAILER();
-        socketChannel.write(cntOut.buffer());
+    }
+
+    /**
+     * Sends up to blockSize bytes from the current position of the file
+     * without copying them through the IO buffer. The data is framed in
+     * the same chunks as by copyBlock, but only the chunk headers pass
+     * through user space.
+     */
+    private void transferBlock(RepositoryChannel fileChannel,
+                               SocketChannel socketChannel,
+                               long blockSize) throws Exception
+    {
+        long rest = blockSize;
+        long position;
+        int size;
+
+        final int maxBuffer = _bigBuffer.capacity() - 4;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                position = fileChannel.position();
+                size = (int) Math.min(Math.min(maxBuffer, rest), fileChannel.size() - position);
+            } catch (IOException ee) {
+                _io_ok = false;
+                break;
+            }
+            if (size <= 0) {
+                break;
+            }
+
+            _bigBuffer.clear();
+            _bigBuffer.putInt(size).flip();
+            socketChannel.write(_bigBuffer);
 
+            /* Once the chunk header is sent, a failure cannot be reported
+             * to the client without breaking the framing. Any error is
+             * therefore fatal for the transfer.
+             */
+            try {
+                long transferred = 0;
+                while (transferred < size) {
+                    long rc = fileChannel.transferTo(position + transferred,
+                                                     size - transferred, socketChannel);
+                    if (rc <= 0 && position + transferred >= fileChannel.size()) {
+                        throw new EOFException("File shrank during transfer");
+                    }
+                    transferred += rc;
+                }
+                fileChannel.position(position + size);
+            } catch (ClosedByInterruptException ee) {
+                // clear interrupted state
+                Thread.interrupted();
+                throw new InterruptedException(ee.getMessage());
+            }
+
+            rest -= size;
+            _bytesTransferred += size;
+            if ((_ioError > 0L) && (_bytesTransferred > _ioError)) {
+                _io_ok = false;
+                break;
+            }
+            if (rest <= 0) {
+                break;
+            }
+        }
     }
     @Override
     public long getLastTransferred() { return _lastTransferred; }
@@ -47,8 +47,14 @@ public abstract class Mode extends AbstractMultiplexerListener
 
     private   long              _fileSize;
 
+    /** Default size of the buffer for transferTo and transferFrom. */
+    private static final int        DEFAULT_BUFFER_SIZE = 8192;
+
     /** Buffer for transferTo and transferFrom. */
-    private final ByteBuffer        _buffer = ByteBuffer.allocate(8192);
+    private   ByteBuffer        _buffer;
+
+    /** Whether transferTo may use zero-copy mode. */
+    private   boolean           _isZeroCopyEnabled;
 
     /** The address to connect to for outgoing connections. */
     private   InetSocketAddress     _address;
@@ -146,6 +152,25 @@ public abstract class Mode extends AbstractMultiplexerListener
         _bufferSize = value;
     }
 
+    /**
+     * Sets the buffer used to copy data between the file and the data
+     * channels when zero-copy mode is not used. The buffer must not be
+     * used by anybody else until the transfer has completed. If not
+     * set, a heap buffer is allocated on first use.
+     */
+    public void setTransferBuffer(ByteBuffer buffer)
+    {
+        _buffer = buffer;
+    }
+
+    private ByteBuffer getTransferBuffer()
+    {
+        if (_buffer == null) {
+            _buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+        }
+        return _buffer;
+    }
+
     /**
      * Sets the number of concurrent connections to use. Only relevant
      * for outgoing connections. Parallelism is not supported by all
@@ -177,38 +202,57 @@ public abstract class Mode extends AbstractMultiplexerListener
         return Collections.unmodifiableCollection(_remoteAddresses);
     }
 
+    /**
+     * Enables zero-copy mode for transferTo. Only has an effect if
+     * the file supports zero-copy transfers.
+     */
+    public void setZeroCopyEnabled(boolean enabled)
+    {
+        _isZeroCopyEnabled = enabled;
+    }
+
     /**
      * Like calling _file.transferTo().
      *
      * This method behaves similarly to FileChannel.transferTo, except
-     * that it never uses zero-copy mode. FileChannel.transferTo has
-     * been subject to a large number of bugs throughout the history
-     * of Java.
+     * that it returns -1 at end of file. Unless zero-copy mode is
+     * enabled, the data is copied through a buffer as
+     * FileChannel.transferTo has been subject to a large number of
+     * bugs throughout the history of Java.
      */
     protected long transferTo(long position, long count, SocketChannel socket)
         throws IOException
     {
+        if (_isZeroCopyEnabled && _file.isZeroCopySupported()) {
+            long nw = _file.transferTo(position, count, socket);
+            if (nw == 0 && count > 0 && position >= _file.size()) {
+                return -1;
+            }
+            return nw;
+        }
+
+        ByteBuffer buffer = getTransferBuffer();
         long tr = 0;                        // Total bytes read
         long pos = position;
-        _buffer.clear();
+        buffer.clear();
         while (tr < count) {
-            _buffer.limit((int)Math.min((count - tr),
-                                        (long)_buffer.capacity()));
-            int nr = _file.read(_buffer, pos);
+            buffer.limit((int)Math.min((count - tr),
+                                       (long)buffer.capacity()));
+            int nr = _file.read(buffer, pos);
             if (nr < 0 && tr == 0) {
                 return -1;
             }
             if (nr <= 0) {
                 break;
             }
-            _buffer.flip();
-            int nw = socket.write(_buffer);
+            buffer.flip();
+            int nw = socket.write(buffer);
             tr += nw;
             if (nw != nr) {
                 break;
             }
             pos += nw;
-            _buffer.clear();
+            buffer.clear();
         }
         return tr;
     }
@@ -237,28 +281,29 @@ public abstract class Mode extends AbstractMultiplexerListener
     protected long transferFrom(SocketChannel socket, long position, long count)
         throws IOException
     {
+        ByteBuffer buffer = getTransferBuffer();
         long tw = 0;                    // Total bytes written
         long pos = position;
         try {
-            _buffer.clear();
+            buffer.clear();
             while (tw < count) {
-                _buffer.limit((int)Math.min((count - tw),
-                                            (long)_buffer.capacity()));
-                int nr = socket.read(_buffer);
+                buffer.limit((int)Math.min((count - tw),
+                                           (long)buffer.capacity()));
+                int nr = socket.read(buffer);
                 if (nr < 0 && tw == 0) {
                     return -1;
                 }
                 if (nr <= 0) {
                     break;
                 }
-                _buffer.flip();
-                int nw = _file.write(_buffer, pos);
+                buffer.flip();
+                int nw = _file.write(buffer, pos);
                 tw += nw;
                 if (nw != nr) {
                     break;
                 }
                 pos += nw;
-                _buffer.clear();
+                buffer.clear();
             }
             return tw;
         } catch (IOException x) {
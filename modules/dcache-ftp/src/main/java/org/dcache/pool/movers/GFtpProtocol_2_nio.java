@@ -58,7 +58,7 @@ import static com.google.common.base.Preconditions.checkState;
  * FTP mover. Supports both mover protocols GFtp/1 and GFtp/2.
  */
 public class GFtpProtocol_2_nio implements ConnectionMonitor,
-        MoverProtocol, ChecksumMover, CellArgsAware
+        MoverProtocol, ChecksumMover, CellArgsAware, ByteBufferPoolAware
 {
     private static final Logger _log =
             LoggerFactory.getLogger(GFtpProtocol_2_nio.class);
@@ -90,6 +90,12 @@ public class GFtpProtocol_2_nio implements ConnectionMonitor,
      */
     public static final int MODE_X_DEFAULT_BLOCK_SIZE = 128 * 1024;
 
+    /**
+     * Size of the buffer leased for copying data between the file and
+     * the data channels.
+     */
+    public static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
     /** The cell owning this mover. Log messages are sent to it. */
     protected final CellEndpoint  _cell;
 
@@ -188,11 +194,19 @@ public class GFtpProtocol_2_nio implements ConnectionMonitor,
      */
     protected boolean      _allowPassivePool;
 
+    /**
+     * Whether files may be sent using zero-copy transfers.
+     */
+    protected boolean      _isZeroCopyEnabled = true;
+
     /**
      * True while the transfer is in progress.
      */
     protected boolean      _inProgress;
 
+    /** Source of transfer buffers, or null to use heap buffers. */
+    private ByteBufferPool _bufferPool;
+
     public GFtpProtocol_2_nio(CellEndpoint cell)
     {
         _cell = cell;
@@ -205,6 +219,12 @@ public class GFtpProtocol_2_nio implements ConnectionMonitor,
         }
     }
 
+    @Override
+    public void setByteBufferPool(ByteBufferPool pool)
+    {
+        _bufferPool = pool;
+    }
+
     /**
      * Factory method for creating the Mode object.
      */
@@ -434,6 +454,7 @@ public class GFtpProtocol_2_nio implements ConnectionMonitor,
 
         Mode mode = createMode(gftpProtocolInfo.getMode(), role, fileChannel);
         mode.setBufferSize(bufferSize);
+        mode.setZeroCopyEnabled(_isZeroCopyEnabled);
 
         /* For GFtp/2, the FTP door expects a
          * GFtpTransferStartedMessage when the mover is ready to
@@ -540,9 +561,18 @@ public class GFtpProtocol_2_nio implements ConnectionMonitor,
             mode.setPartialRetrieveParameters(offset, size);
         }
 
+        ByteBufferPool.Lease lease = (_bufferPool == null)
+                ? null : _bufferPool.lease("GFtp", TRANSFER_BUFFER_SIZE);
+        if (lease != null) {
+            mode.setTransferBuffer(lease.buffer());
+        }
         try {
             transfer(fileChannel, role, mode, allocator);
         } finally {
+            if (lease != null) {
+                lease.close();
+            }
+
             /* Log some useful information about the transfer. This
              * will be send back to the door by the pool cell.
              */
@@ -782,6 +812,7 @@ public class GFtpProtocol_2_nio implements ConnectionMonitor,
     public void setCellArgs(Args args)
     {
         _allowPassivePool = args.getBooleanOption("ftpAllowIncomingConnections");
+        _isZeroCopyEnabled = args.getBooleanOption("zeroCopyReads", true);
 
         if (args.hasOption("gsiftpBlockSize")) {
             _blockSize = args.getIntOption("gsiftpBlockSize");
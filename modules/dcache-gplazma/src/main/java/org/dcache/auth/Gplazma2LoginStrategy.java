@@ -7,18 +7,22 @@ import org.springframework.beans.factory.annotation.Required;
 import javax.security.auth.Subject;
 
 import java.io.File;
+import java.io.PrintWriter;
 import java.security.Principal;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import diskCacheV111.namespace.NameSpaceProvider;
 import diskCacheV111.util.CacheException;
 import diskCacheV111.util.PermissionDeniedCacheException;
 
 import dmg.cells.nucleus.CellCommandListener;
+import dmg.cells.nucleus.CellInfo;
+import dmg.cells.nucleus.CellInfoProvider;
 import dmg.cells.nucleus.EnvironmentAware;
 import dmg.util.Formats;
 import dmg.util.Replaceable;
@@ -41,12 +45,15 @@ import org.dcache.util.Args;
  *
  */
 public class Gplazma2LoginStrategy
-    implements LoginStrategy, EnvironmentAware, CellCommandListener
+    implements LoginStrategy, EnvironmentAware, CellCommandListener, CellInfoProvider
 {
     private String _configurationFile;
     private GPlazma _gplazma;
     private Map<String,Object> _environment = Collections.emptyMap();
     private PluginFactory _factory;
+    private int _loginCacheSize;
+    private long _loginCacheLifetime;
+    private TimeUnit _loginCacheLifetimeUnit = TimeUnit.SECONDS;
 
     @Required
     public void setConfigurationFile(String configurationFile)
@@ -67,6 +74,21 @@ public class Gplazma2LoginStrategy
         _factory = new DcacheAwarePluginFactory(namespace);
     }
 
+    public void setLoginCacheSize(int size)
+    {
+        _loginCacheSize = size;
+    }
+
+    public void setLoginCacheLifetime(long lifetime)
+    {
+        _loginCacheLifetime = lifetime;
+    }
+
+    public void setLoginCacheLifetimeUnit(TimeUnit unit)
+    {
+        _loginCacheLifetimeUnit = unit;
+    }
+
     public String getConfigurationFile()
     {
         return _configurationFile;
@@ -103,6 +125,7 @@ public class Gplazma2LoginStrategy
             new FromFileConfigurationLoadingStrategy(_configurationFile);
         _gplazma =
             new GPlazma(configuration, getEnvironmentAsProperties(), _factory);
+        _gplazma.setLoginCache(_loginCacheSize, _loginCacheLifetime, _loginCacheLifetimeUnit);
     }
 
     public void shutdown()
@@ -112,6 +135,20 @@ public class Gplazma2LoginStrategy
         }
     }
 
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        if (_gplazma != null) {
+            _gplazma.getInfo(pw);
+        }
+    }
+
+    @Override
+    public CellInfo getCellInfo(CellInfo info)
+    {
+        return info;
+    }
+
     static LoginReply
         convertLoginReply(org.dcache.gplazma.LoginReply gPlazmaLoginReply)
     {
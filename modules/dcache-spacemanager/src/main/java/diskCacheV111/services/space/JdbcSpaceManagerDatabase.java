@@ -1,5 +1,6 @@
 package diskCacheV111.services.space;
 
+import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessException;
@@ -12,7 +13,10 @@ import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.io.PrintWriter;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -22,6 +26,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Stream;
 
 import diskCacheV111.util.AccessLatency;
@@ -29,13 +37,17 @@ import diskCacheV111.util.PnfsId;
 import diskCacheV111.util.RetentionPolicy;
 import diskCacheV111.util.VOInfo;
 
+import dmg.cells.nucleus.CellInfo;
+import dmg.cells.nucleus.CellInfoProvider;
+
 import org.dcache.util.SqlGlob;
 
 import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.stream.Collectors.joining;
 
 @Repository
-public class JdbcSpaceManagerDatabase extends JdbcDaoSupport implements SpaceManagerDatabase
+public class JdbcSpaceManagerDatabase extends JdbcDaoSupport implements SpaceManagerDatabase, CellInfoProvider
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(JdbcSpaceManagerDatabase.class);
 
@@ -104,10 +116,302 @@ public class JdbcSpaceManagerDatabase extends JdbcDaoSupport implements SpaceMan
     */
     private static final String SPACEFILE_TABLE = "srmspacefile";
 
+    /*
+    The accumulated fields of srmspace are not updated by the srmspacefile
+    triggers. Instead the triggers append the changes to this table and the
+    changes are periodically folded into srmspace.
+
+                Table "public.srmspacedelta"
+            Column         |  Type  | Modifiers
+    -----------------------+--------+-----------
+     id                    | bigint | not null
+     spacereservationid    | bigint | not null
+     allocatedspaceinbytes | bigint | not null
+     usedspaceinbytes      | bigint | not null
+    */
+    private static final String SPACE_DELTA_TABLE = "srmspacedelta";
+
+    /*
+    Free space of a reservation held in escrow by a space manager instance.
+
+                Table "public.srmspaceescrow"
+           Column       |         Type          | Modifiers
+    --------------------+-----------------------+-----------
+     spacereservationid | bigint                | not null
+     owner              | character varying(64) | not null
+     sizeinbytes        | bigint                | not null
+     updatetime         | bigint                | not null
+    */
+    private static final String SPACE_ESCROW_TABLE = "srmspaceescrow";
+
+    /**
+     * Escrow not refreshed for this number of accounting periods is assumed to
+     * belong to a dead instance and is reclaimed.
+     */
+    private static final int ESCROW_EXPIRATION_PERIODS = 10;
+
+    /** Identifies the escrow of this instance. */
+    private final String owner = UUID.randomUUID().toString();
+
+    /**
+     * Key of the transaction bound set of ids of space reservations created in
+     * the current transaction.
+     */
+    private final Object createdSpacesKey = new Object();
+
+    private long accountingPeriod;
+    private long escrowChunkSize;
+    private Semaphore escrowConnections;
+    private SpaceAccounting accounting;
+    private ScheduledExecutorService accountingExecutor;
+
+    /**
+     * Sets the period in milliseconds between writing escrow and space usage
+     * changes to the space reservations.
+     */
+    public void setAccountingPeriod(long millis)
+    {
+        this.accountingPeriod = millis;
+    }
+
+    /**
+     * Sets the minimum amount of free space moved into escrow at a time.
+     */
+    public void setEscrowChunkSize(long bytes)
+    {
+        this.escrowChunkSize = bytes;
+    }
+
+    /**
+     * Sets the maximum number of concurrent escrow transactions.
+     *
+     * Escrow is moved in a separate transaction while the transaction adding
+     * the file holds on to its database connection, thus every escrow
+     * transaction needs a second connection. Limiting the number of these
+     * transactions bounds the number of connections needed by space manager
+     * to the number of message processing threads plus this limit, which must
+     * not exceed the size of the connection pool.
+     */
+    public void setMaxEscrowConnections(int max)
+    {
+        this.escrowConnections = new Semaphore(max);
+    }
+
     public void init() throws DataAccessException
     {
         insertRetentionPolicies();
         insertAccessLatencies();
+
+        accounting = new SpaceAccounting(new SpaceAccounting.Store()
+        {
+            @Override
+            public Space getSpace(long id) throws DataAccessException
+            {
+                return JdbcSpaceManagerDatabase.this.getSpace(id);
+            }
+
+            @Override
+            public long escrow(long id, long required, long preferred)
+                    throws DataAccessException, SpaceException
+            {
+                escrowConnections.acquireUninterruptibly();
+                try {
+                    return JdbcSpaceManagerDatabase.this.escrow(id, required, preferred);
+                } finally {
+                    escrowConnections.release();
+                }
+            }
+
+            @Override
+            public void release(long id, long bytes) throws DataAccessException
+            {
+                releaseEscrow(id, bytes);
+            }
+        }, escrowChunkSize);
+        accountingExecutor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "SpaceAccounting"));
+        accountingExecutor.scheduleWithFixedDelay(this::flushAccounting, accountingPeriod, accountingPeriod,
+                                                  MILLISECONDS);
+    }
+
+    public void shutdown() throws InterruptedException
+    {
+        accountingExecutor.shutdown();
+        accountingExecutor.awaitTermination(accountingPeriod, MILLISECONDS);
+        accounting.close();
+        applyDeltas();
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        accounting.getInfo(pw);
+    }
+
+    @Override
+    public CellInfo getCellInfo(CellInfo info)
+    {
+        return info;
+    }
+
+    @VisibleForTesting
+    void flushAccounting()
+    {
+        try {
+            accounting.flush();
+            long now = System.currentTimeMillis();
+            getJdbcTemplate().update("UPDATE " + SPACE_ESCROW_TABLE + " SET updatetime = ? WHERE owner = ?",
+                                     now, owner);
+            int reclaimed = getJdbcTemplate().update(
+                    "DELETE FROM " + SPACE_ESCROW_TABLE + " WHERE updatetime < ?",
+                    now - ESCROW_EXPIRATION_PERIODS * accountingPeriod);
+            if (reclaimed > 0) {
+                LOGGER.warn("Reclaimed {} expired space reservation escrows.", reclaimed);
+            }
+            applyDeltas();
+        } catch (DataAccessException e) {
+            LOGGER.warn("Failed to update space reservations: {}", e.getMessage());
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to update space reservations", e);
+        }
+    }
+
+    /**
+     * Folds the journaled changes of the accumulated fields into the space
+     * reservations.
+     */
+    private void applyDeltas() throws DataAccessException
+    {
+        for (long id : getJdbcTemplate().queryForList(
+                "SELECT DISTINCT spacereservationid FROM " + SPACE_DELTA_TABLE, Long.class)) {
+            applyDeltas(id);
+        }
+    }
+
+    @Transactional
+    private void applyDeltas(long id) throws DataAccessException
+    {
+        /* Locking the reservation serializes concurrent instances folding the same deltas. */
+        boolean exists = !getJdbcTemplate().queryForList(
+                "SELECT id FROM " + SPACE_TABLE + " WHERE id = ? FOR UPDATE", Long.class, id).isEmpty();
+        getJdbcTemplate().query(
+                "SELECT SUM(allocatedspaceinbytes), SUM(usedspaceinbytes), MAX(id) FROM " + SPACE_DELTA_TABLE
+                + " WHERE spacereservationid = ?",
+                (ResultSet rs) -> {
+                    long allocated = rs.getLong(1);
+                    long used = rs.getLong(2);
+                    long maxId = rs.getLong(3);
+                    if (!rs.wasNull()) {
+                        if (exists && (allocated != 0 || used != 0)) {
+                            getJdbcTemplate().update(
+                                    "UPDATE " + SPACE_TABLE + " SET allocatedspaceinbytes = allocatedspaceinbytes + ?,"
+                                    + " usedspaceinbytes = usedspaceinbytes + ? WHERE id = ?",
+                                    allocated, used, id);
+                        }
+                        getJdbcTemplate().update(
+                                "DELETE FROM " + SPACE_DELTA_TABLE + " WHERE spacereservationid = ? AND id <= ?",
+                                id, maxId);
+                    }
+                },
+                id);
+    }
+
+    /**
+     * Moves free space of a reservation into the escrow of this instance.
+     *
+     * The free space of a reservation is its size minus the space used and
+     * allocated by files, including changes not yet folded into the reservation,
+     * minus the escrow held by all instances.
+     *
+     * The escrow is committed independently of the transaction admitting the
+     * file, as the in-memory escrow outlives the latter.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW, rollbackFor = SpaceException.class)
+    private long escrow(long id, long required, long preferred) throws DataAccessException, SpaceException
+    {
+        long available = getAvailableSpace(selectSpaceForUpdate(id), required);
+        long granted = Math.min(preferred, available);
+        releaseEscrow(id, -granted);
+        return granted;
+    }
+
+    /**
+     * Returns the free space of a locked reservation that may be moved into
+     * escrow or allocated by files.
+     *
+     * @throws NoFreeSpaceException if less than {@code required} bytes are free
+     */
+    private long getAvailableSpace(Space space, long required) throws DataAccessException, SpaceException
+    {
+        long id = space.getId();
+        long currentTime = System.currentTimeMillis();
+        if (space.getExpirationTime() != null && space.getExpirationTime() <= currentTime) {
+            throw new SpaceExpiredException("space with id=" + id + " has expired");
+        }
+        if (space.getState() == SpaceState.EXPIRED) {
+            throw new SpaceExpiredException("space with id=" + id + " has expired");
+        }
+        if (space.getState() == SpaceState.RELEASED) {
+            throw new SpaceReleasedException("space with id=" + id + " was released");
+        }
+        long pending = getJdbcTemplate().queryForObject(
+                "SELECT COALESCE(SUM(allocatedspaceinbytes + usedspaceinbytes), 0) FROM " + SPACE_DELTA_TABLE
+                + " WHERE spacereservationid = ?", Long.class, id);
+        long escrowed = getJdbcTemplate().queryForObject(
+                "SELECT COALESCE(SUM(sizeinbytes), 0) FROM " + SPACE_ESCROW_TABLE
+                + " WHERE spacereservationid = ?", Long.class, id);
+        long available = space.getAvailableSpaceInBytes() - pending - escrowed;
+        if (available < required) {
+            throw new NoFreeSpaceException("space with id=" + id + " does not have enough space");
+        }
+        return available;
+    }
+
+    /**
+     * Returns the ids of the space reservations created in the current
+     * transaction.
+     */
+    @SuppressWarnings("unchecked")
+    private Set<Long> getSpacesCreatedInTransaction()
+    {
+        Set<Long> ids = (Set<Long>) TransactionSynchronizationManager.getResource(createdSpacesKey);
+        if (ids == null) {
+            ids = new HashSet<>();
+            TransactionSynchronizationManager.bindResource(createdSpacesKey, ids);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter()
+            {
+                @Override
+                public void afterCompletion(int status)
+                {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(createdSpacesKey);
+                }
+            });
+        }
+        return ids;
+    }
+
+    private boolean isCreatedInTransaction(long id)
+    {
+        Set<?> ids = (Set<?>) TransactionSynchronizationManager.getResource(createdSpacesKey);
+        return ids != null && ids.contains(id);
+    }
+
+    private void releaseEscrow(long id, long bytes) throws DataAccessException
+    {
+        long now = System.currentTimeMillis();
+        int rc = getJdbcTemplate().update(
+                "UPDATE " + SPACE_ESCROW_TABLE + " SET sizeinbytes = sizeinbytes - ?, updatetime = ?"
+                + " WHERE spacereservationid = ? AND owner = ?",
+                bytes, now, id, owner);
+        if (rc == 0 && bytes < 0) {
+            getJdbcTemplate().update(
+                    "INSERT INTO " + SPACE_ESCROW_TABLE + " (spacereservationid, owner, sizeinbytes, updatetime)"
+                    + " VALUES (?,?,?,?)",
+                    id, owner, -bytes, now);
+        } else if (rc > 0 && bytes > 0) {
+            getJdbcTemplate().update(
+                    "DELETE FROM " + SPACE_ESCROW_TABLE + " WHERE spacereservationid = ? AND owner = ? AND sizeinbytes <= 0",
+                    id, owner);
+        }
     }
 
     private void insertRetentionPolicies() throws DataAccessException
@@ -210,6 +514,7 @@ public class JdbcSpaceManagerDatabase extends JdbcDaoSupport implements SpaceMan
                 space.getDescription(),
                 space.getState().getStateId(),
                 space.getId());
+        accounting.update(space);
         return space;
     }
 
@@ -352,7 +657,11 @@ public class JdbcSpaceManagerDatabase extends JdbcDaoSupport implements SpaceMan
         if (rc != 1) {
             throw new JdbcUpdateAffectedIncorrectNumberOfRowsException("insert returned row count =" + rc, 1, rc);
         }
-        return new Space((Long) keyHolder.getKeys().get("id"),
+        long id = (Long) keyHolder.getKeys().get("id");
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            getSpacesCreatedInTransaction().add(id);
+        }
+        return new Space(id,
                          voGroup,
                          voRole,
                          retentionPolicy,
@@ -522,21 +831,46 @@ public class JdbcSpaceManagerDatabase extends JdbcDaoSupport implements SpaceMan
     {
         final long creationTime = System.currentTimeMillis();
 
-        Space space = selectSpaceForUpdate(reservationId);
-        long currentTime = System.currentTimeMillis();
-        if (space.getExpirationTime() != null && space.getExpirationTime() <= currentTime) {
-            throw new SpaceExpiredException("space with id=" + reservationId + " has expired");
-        }
-        if (space.getState() == SpaceState.EXPIRED) {
-            throw new SpaceExpiredException("space with id=" + reservationId + " has expired");
+        /* The space is admitted against the escrow of this instance rather than by
+         * locking the reservation. Should the file not be added after all, the space
+         * is returned to the escrow.
+         */
+        long escrowed = (state == FileState.FLUSHED) ? 0 : sizeInBytes;
+        if (isCreatedInTransaction(reservationId)) {
+            /* Reservations created in the current transaction, such as implicit reservations
+             * for uploads without a space token, are not visible to the escrow transaction.
+             * As no other transaction can add files to them either, space is allocated by
+             * locking the reservation in the current transaction.
+             */
+            getAvailableSpace(selectSpaceForUpdate(reservationId), escrowed);
+            return insertFile(voGroup, voRole, reservationId, sizeInBytes, creationTime, pnfsId, state);
         }
-        if (space.getState() == SpaceState.RELEASED) {
-            throw new SpaceReleasedException("space with id=" + reservationId + " was released");
+        accounting.allocate(reservationId, escrowed);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter()
+            {
+                @Override
+                public void afterCompletion(int status)
+                {
+                    if (status != STATUS_COMMITTED) {
+                        accounting.free(reservationId, escrowed);
+                    }
+                }
+            });
+            return insertFile(voGroup, voRole, reservationId, sizeInBytes, creationTime, pnfsId, state);
         }
-        if (space.getAvailableSpaceInBytes() < sizeInBytes) {
-            throw new NoFreeSpaceException("space with id=" + reservationId + " does not have enough space");
+        try {
+            return insertFile(voGroup, voRole, reservationId, sizeInBytes, creationTime, pnfsId, state);
+        } catch (RuntimeException e) {
+            accounting.free(reservationId, escrowed);
+            throw e;
         }
+    }
 
+    private long insertFile(String voGroup, String voRole, long reservationId, long sizeInBytes,
+                            long creationTime, PnfsId pnfsId, FileState state)
+            throws DataAccessException
+    {
         KeyHolder keyHolder = new GeneratedKeyHolder();
 
         int rc = getJdbcTemplate().update(
@@ -0,0 +1,354 @@
+package diskCacheV111.services.space;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import java.io.PrintWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Escrow based admission of files into space reservations.
+ *
+ * Rather than locking the space reservation for every file added to it,
+ * part of the free space of the reservation is moved into an escrow held
+ * by this space manager instance. Files are admitted against the escrow in
+ * memory, and the database is only consulted when the escrow runs out.
+ *
+ * Consumption of escrow is written back to the database when the accounting
+ * is flushed. Until then the database overestimates the escrow of this
+ * instance, thus the error is on the safe side: Other instances may reject
+ * files they could have accepted, but never accept files they should have
+ * rejected. Escrow exceeding the demand observed since the previous flush is
+ * returned to the reservation, so idle instances do not hold on to space.
+ */
+class SpaceAccounting
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpaceAccounting.class);
+
+    /**
+     * Persistent store of escrow.
+     */
+    interface Store
+    {
+        /**
+         * Returns the space reservation with the given id.
+         */
+        Space getSpace(long id) throws DataAccessException;
+
+        /**
+         * Moves free space of a reservation into the escrow of this instance.
+         *
+         * @param required the minimum number of bytes to escrow
+         * @param preferred the number of bytes to escrow if available
+         * @return the number of bytes moved into escrow
+         */
+        long escrow(long id, long required, long preferred) throws DataAccessException, SpaceException;
+
+        /**
+         * Returns escrow of this instance to the reservation. Negative values
+         * move space back into the escrow.
+         */
+        void release(long id, long bytes) throws DataAccessException;
+    }
+
+    private final ConcurrentMap<Long, Reservation> reservations = new ConcurrentHashMap<>();
+    private final Store store;
+    private final long chunkSize;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder grants = new LongAdder();
+
+    SpaceAccounting(Store store, long chunkSize)
+    {
+        this.store = store;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Admits a file of the given size into a space reservation.
+     *
+     * @throws NoFreeSpaceException if the reservation does not have enough free space
+     * @throws SpaceExpiredException if the reservation has expired
+     * @throws SpaceReleasedException if the reservation was released
+     */
+    public void allocate(long spaceId, long size) throws DataAccessException, SpaceException
+    {
+        try {
+            Reservation reservation;
+            do {
+                reservation = getReservation(spaceId);
+            } while (!reservation.allocate(size));
+            admitted.increment();
+        } catch (SpaceException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns space of a file that was admitted, but never added to the
+     * reservation, to the escrow.
+     */
+    public void free(long spaceId, long size)
+    {
+        try {
+            Reservation reservation;
+            do {
+                reservation = getReservation(spaceId);
+            } while (!reservation.free(size));
+        } catch (DataAccessException e) {
+            LOGGER.warn("Failed to return {} bytes to escrow of space reservation {}: {}",
+                        size, spaceId, e.getMessage());
+        }
+    }
+
+    /**
+     * Updates the cached state of a space reservation.
+     */
+    public void update(Space space)
+    {
+        Reservation reservation = reservations.get(space.getId());
+        if (reservation != null) {
+            reservation.setSpace(space);
+        }
+    }
+
+    /**
+     * Writes escrow consumption to the store and returns escrow exceeding
+     * the recent demand.
+     */
+    public void flush()
+    {
+        flush(false);
+    }
+
+    /**
+     * Writes escrow consumption to the store and returns all escrow.
+     */
+    public void close()
+    {
+        flush(true);
+    }
+
+    private void flush(boolean isClosing)
+    {
+        for (Reservation reservation : reservations.values()) {
+            try {
+                reservation.flush(isClosing);
+            } catch (EmptyResultDataAccessException e) {
+                reservation.setSpace(null);
+            } catch (DataAccessException e) {
+                LOGGER.warn("Failed to update escrow of space reservation {}: {}",
+                            reservation.id, e.getMessage());
+            }
+            reservation.dropIfIdle();
+        }
+    }
+
+    public void getInfo(PrintWriter pw)
+    {
+        long free = 0;
+        long consumed = 0;
+        for (Reservation reservation : reservations.values()) {
+            synchronized (reservation) {
+                free += reservation.free;
+                consumed += reservation.consumed;
+            }
+        }
+        pw.println("Escrow:");
+        pw.println("  Reservations   : " + reservations.size());
+        pw.println("  Free bytes     : " + free);
+        pw.println("  Unflushed bytes: " + consumed);
+        pw.println("  Chunk size     : " + chunkSize);
+        pw.println("  Grants         : " + grants.sum());
+        pw.println("  Admitted files : " + admitted.sum());
+        pw.println("  Rejected files : " + rejected.sum());
+    }
+
+    private Reservation getReservation(long id) throws DataAccessException
+    {
+        Reservation reservation = reservations.get(id);
+        if (reservation == null) {
+            Reservation newReservation = new Reservation(id);
+            newReservation.setSpace(store.getSpace(id));
+            reservation = reservations.putIfAbsent(id, newReservation);
+            if (reservation == null) {
+                reservation = newReservation;
+            }
+        }
+        return reservation;
+    }
+
+    /**
+     * Escrow of a single space reservation.
+     *
+     * The fields are guarded by the monitor of the reservation, which is never
+     * held while accessing the store. Replenishing the escrow is serialized
+     * by a separate lock so that concurrent uploads into the same reservation
+     * share a single round trip to the database.
+     */
+    private class Reservation
+    {
+        private final long id;
+        private final Lock escrowLock = new ReentrantLock();
+
+        /** Last known state of the reservation, null if it no longer exists. */
+        private Space space;
+
+        /** Escrow available for admission of files. */
+        private long free;
+
+        /** Escrow consumed since the last flush. */
+        private long consumed;
+
+        /** Bytes admitted since the last flush. */
+        private long demand;
+
+        /** Bytes admitted between the last two flushes. */
+        private long lastDemand;
+
+        private boolean isDropped;
+
+        Reservation(long id)
+        {
+            this.id = id;
+        }
+
+        synchronized void setSpace(Space space)
+        {
+            this.space = space;
+        }
+
+        /**
+         * Admits a file, replenishing the escrow as necessary. Returns false
+         * if the reservation was dropped concurrently, in which case the
+         * caller has to retry with a fresh reservation.
+         */
+        boolean allocate(long size) throws DataAccessException, SpaceException
+        {
+            synchronized (this) {
+                if (isDropped) {
+                    return false;
+                }
+                if (tryAllocate(size)) {
+                    return true;
+                }
+            }
+
+            escrowLock.lock();
+            try {
+                while (true) {
+                    long required;
+                    long preferred;
+                    synchronized (this) {
+                        if (isDropped) {
+                            return false;
+                        }
+                        if (tryAllocate(size)) {
+                            return true;
+                        }
+                        required = size - free;
+                        preferred = Math.max(required, Math.max(chunkSize, lastDemand));
+                    }
+                    long granted = store.escrow(id, required, preferred);
+                    grants.increment();
+                    synchronized (this) {
+                        free += granted;
+                    }
+                }
+            } finally {
+                escrowLock.unlock();
+            }
+        }
+
+        private boolean tryAllocate(long size) throws SpaceException
+        {
+            checkState();
+            if (free < size) {
+                return false;
+            }
+            free -= size;
+            consumed += size;
+            demand += size;
+            return true;
+        }
+
+        private void checkState() throws SpaceException
+        {
+            if (space == null) {
+                throw new EmptyResultDataAccessException("No such space reservation: " + id, 1);
+            }
+            Long expirationTime = space.getExpirationTime();
+            if (space.getState() == SpaceState.EXPIRED ||
+                    expirationTime != null && expirationTime <= System.currentTimeMillis()) {
+                throw new SpaceExpiredException("space with id=" + id + " has expired");
+            }
+            if (space.getState() == SpaceState.RELEASED) {
+                throw new SpaceReleasedException("space with id=" + id + " was released");
+            }
+        }
+
+        synchronized boolean free(long size)
+        {
+            if (isDropped) {
+                return false;
+            }
+            free += size;
+            consumed -= size;
+            return true;
+        }
+
+        void flush(boolean isClosing) throws DataAccessException
+        {
+            long consumed;
+            long returned;
+            synchronized (this) {
+                consumed = this.consumed;
+                returned = (isClosing || space == null || space.getState() != SpaceState.RESERVED)
+                           ? free
+                           : Math.max(free - demand, 0);
+                this.consumed = 0;
+                free -= returned;
+                lastDemand = demand;
+                demand = 0;
+            }
+            try {
+                if (consumed + returned != 0) {
+                    store.release(id, consumed + returned);
+                }
+            } catch (DataAccessException e) {
+                synchronized (this) {
+                    this.consumed += consumed;
+                    free += returned;
+                }
+                throw e;
+            }
+            if (!isClosing) {
+                setSpace(store.getSpace(id));
+            }
+        }
+
+        void dropIfIdle()
+        {
+            if (escrowLock.tryLock()) {
+                try {
+                    synchronized (this) {
+                        if (free == 0 && consumed == 0 && demand == 0 && lastDemand == 0) {
+                            isDropped = true;
+                            reservations.remove(id, this);
+                        }
+                    }
+                } finally {
+                    escrowLock.unlock();
+                }
+            }
+        }
+    }
+}
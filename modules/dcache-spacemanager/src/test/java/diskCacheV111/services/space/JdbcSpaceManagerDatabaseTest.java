@@ -0,0 +1,221 @@
+package diskCacheV111.services.space;
+
+import com.zaxxer.hikari.HikariDataSource;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.util.AccessLatency;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.util.RetentionPolicy;
+import diskCacheV111.util.VOInfo;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests escrow based space accounting against HSQLDB.
+ *
+ * Transaction demarcation annotations are not woven in unit tests, thus the
+ * tests demarcate the transactions of the callers themselves and escrow is
+ * moved within those transactions.
+ */
+public class JdbcSpaceManagerDatabaseTest
+{
+    private static final long CHUNK_SIZE = 1000;
+
+    private HikariDataSource dataSource;
+    private PlatformTransactionManager txManager;
+    private JdbcTemplate jdbc;
+    private JdbcSpaceManagerDatabase db;
+    private long linkGroupId;
+    private int files;
+
+    private interface Action
+    {
+        void run() throws SpaceException;
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:hsqldb:mem:spacemanager");
+        dataSource.setUsername("sa");
+        dataSource.setTransactionIsolation("TRANSACTION_READ_COMMITTED");
+
+        try (Connection conn = dataSource.getConnection()) {
+            Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(conn));
+            Liquibase liquibase = new Liquibase("diskCacheV111/services/space/db/spacemanager.changelog-master.xml",
+                                                new ClassLoaderResourceAccessor(), database);
+            liquibase.update("");
+        }
+
+        txManager = new DataSourceTransactionManager(dataSource);
+        jdbc = new JdbcTemplate(dataSource);
+
+        db = new JdbcSpaceManagerDatabase();
+        db.setDataSource(dataSource);
+        db.setAccountingPeriod(TimeUnit.HOURS.toMillis(1));
+        db.setEscrowChunkSize(CHUNK_SIZE);
+        db.setMaxEscrowConnections(1);
+        db.init();
+
+        linkGroupId = db.updateLinkGroup("lg", 1_000_000, System.currentTimeMillis(),
+                                         true, true, true, true, true, new VOInfo[0]);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        db.shutdown();
+        jdbc.execute("SHUTDOWN");
+        dataSource.close();
+    }
+
+    @Test
+    public void shouldAdmitFilesAgainstEscrow() throws Exception
+    {
+        long id = createSpace(10_000);
+
+        inTransaction(() -> insertFile(id, 400));
+        assertThat(getEscrow(id), is(CHUNK_SIZE));
+
+        inTransaction(() -> insertFile(id, 400));
+        assertThat(getEscrow(id), is(CHUNK_SIZE));
+
+        inTransaction(() -> insertFile(id, 400));
+        assertThat(getEscrow(id), is(2 * CHUNK_SIZE));
+        assertThat(countFiles(id), is(3));
+    }
+
+    @Test(expected = NoFreeSpaceException.class)
+    public void shouldRejectFilesExceedingReservation() throws Exception
+    {
+        long id = createSpace(1000);
+
+        inTransaction(() -> insertFile(id, 600));
+        inTransaction(() -> insertFile(id, 600));
+    }
+
+    /**
+     * The escrow is moved by the first transaction, thus the rolled back
+     * transaction is admitted against escrow already held in memory. This
+     * verifies that the allocation is released back to that escrow; that an
+     * escrow move survives the rollback of the transaction triggering it
+     * depends on the transaction annotations and is not covered here.
+     */
+    @Test
+    public void shouldReleaseAllocationOnRollback() throws Exception
+    {
+        long id = createSpace(1000);
+        inTransaction(() -> insertFile(id, 100));
+
+        inRolledBackTransaction(() -> insertFile(id, 900));
+
+        inTransaction(() -> insertFile(id, 900));
+        assertThat(getEscrow(id), is(1000L));
+        assertThat(countFiles(id), is(2));
+    }
+
+    @Test
+    public void shouldFoldDeltasIntoReservation() throws Exception
+    {
+        long id = createSpace(10_000);
+        inTransaction(() -> insertFile(id, 400));
+        assertThat(db.getSpace(id).getAllocatedSpaceInBytes(), is(0L));
+
+        db.flushAccounting();
+
+        Space space = db.getSpace(id);
+        assertThat(space.getAllocatedSpaceInBytes(), is(400L));
+        assertThat(space.getUsedSizeInBytes(), is(0L));
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM srmspacedelta", Integer.class), is(0));
+        assertThat(space.getAvailableSpaceInBytes(), is(10_000L - 400L));
+
+        /* Consumed escrow and escrow exceeding the demand of the last period are returned. */
+        assertThat(getEscrow(id), is(400L));
+    }
+
+    @Test
+    public void shouldAllocateSpaceInReservationCreatedInSameTransaction() throws Exception
+    {
+        long[] id = new long[1];
+
+        inTransaction(() -> {
+            id[0] = createSpace(500);
+            insertFile(id[0], 500);
+        });
+
+        assertThat(getEscrow(id[0]), is(0L));
+        assertThat(countFiles(id[0]), is(1));
+    }
+
+    @Test(expected = NoFreeSpaceException.class)
+    public void shouldRejectFilesExceedingReservationCreatedInSameTransaction() throws Exception
+    {
+        inTransaction(() -> {
+            long id = createSpace(500);
+            insertFile(id, 600);
+        });
+    }
+
+    private void inTransaction(Action action) throws SpaceException
+    {
+        TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+        try {
+            action.run();
+        } catch (SpaceException | RuntimeException e) {
+            txManager.rollback(status);
+            throw e;
+        }
+        txManager.commit(status);
+    }
+
+    private void inRolledBackTransaction(Action action) throws SpaceException
+    {
+        TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+        try {
+            action.run();
+        } finally {
+            txManager.rollback(status);
+        }
+    }
+
+    private long createSpace(long size)
+    {
+        return db.insertSpace("atlas", null, RetentionPolicy.REPLICA, AccessLatency.ONLINE, linkGroupId,
+                              size, -1, null, SpaceState.RESERVED, 0, 0).getId();
+    }
+
+    private void insertFile(long id, long size) throws SpaceException
+    {
+        PnfsId pnfsId = new PnfsId(String.format("%036X", ++files));
+        db.insertFile(id, "atlas", null, size, pnfsId, FileState.TRANSFERRING);
+    }
+
+    private long getEscrow(long id)
+    {
+        return jdbc.queryForObject("SELECT COALESCE(SUM(sizeinbytes), 0) FROM srmspaceescrow"
+                                   + " WHERE spacereservationid = ?", Long.class, id);
+    }
+
+    private int countFiles(long id)
+    {
+        return jdbc.queryForObject("SELECT COUNT(*) FROM srmspacefile WHERE spacereservationid = ?",
+                                   Integer.class, id);
+    }
+}
@@ -26,6 +26,35 @@ public class PoolCostInfo implements Serializable {
         _space = new PoolSpaceInfo(0, 0, 0, 0);
     }
 
+    /**
+     * Creates a deep copy of the given cost information. Modifying the
+     * queues or space information of the copy does not affect the
+     * original.
+     */
+    public PoolCostInfo(PoolCostInfo info)
+    {
+        _poolName = info._poolName;
+        _defaultQueueName = info._defaultQueueName;
+        _moverCostFactor = info._moverCostFactor;
+        _store = copyOf(info._store);
+        _restore = copyOf(info._restore);
+        _mover = copyOf(info._mover);
+        _p2p = copyOf(info._p2p);
+        _p2pClient = copyOf(info._p2pClient);
+        for (NamedPoolQueueInfo queue : info._extendedMoverHash.values()) {
+            _extendedMoverHash.put(queue.getName(), new NamedPoolQueueInfo(queue.getName(), queue));
+        }
+        PoolSpaceInfo space = info._space;
+        _space = new PoolSpaceInfo(space._total, space._free, space._precious, space._removable, space._lru);
+        _space.setParameter(space._breakEven, space._gap);
+    }
+
+    private PoolQueueInfo copyOf(PoolQueueInfo queue)
+    {
+        return (queue == null) ? null : new PoolQueueInfo(queue._active, queue._maxActive, queue._queued,
+                                                          queue._readers, queue._writers);
+    }
+
     public String getPoolName(){ return _poolName ; }
     public class NamedPoolQueueInfo extends PoolQueueInfo {
 
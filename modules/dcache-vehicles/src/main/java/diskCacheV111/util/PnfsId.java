@@ -2,6 +2,9 @@
 
 package diskCacheV111.util;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Objects;
@@ -127,6 +130,32 @@ public class PnfsId implements Serializable, Comparable<PnfsId> {
         return x;
     }
 
+    /**
+     * Writes this PNFS ID in the binary format used by message codecs.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(_a.length);
+        out.write(_a);
+        out.writeBoolean(_domain != null);
+        if (_domain != null) {
+            out.writeUTF(_domain);
+        }
+    }
+
+    /**
+     * Reads a PNFS ID written by {@link #writeTo}.
+     */
+    public static PnfsId createFrom(DataInput in) throws IOException {
+        byte[] id = new byte[in.readUnsignedByte()];
+        in.readFully(id);
+        String domain = in.readBoolean() ? in.readUTF() : null;
+        try {
+            return new PnfsId(id, domain);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid PNFS ID encoding: " + e.getMessage(), e);
+        }
+    }
+
     public String toShortString() {
         StringBuilder sb = new StringBuilder();
         int i;
@@ -5,6 +5,8 @@ import javax.annotation.ParametersAreNonnullByDefault;
 
 import diskCacheV111.util.PnfsId;
 
+import dmg.cells.nucleus.PassByReference;
+
 import org.dcache.vehicles.FileAttributes;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -13,8 +15,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * Signals the completion of a transfer on a pool.
  */
 @ParametersAreNonnullByDefault
-public class DoorTransferFinishedMessage extends Message {
-   private final ProtocolInfo _protocol;
+public class DoorTransferFinishedMessage extends Message implements PassByReference {
+   private ProtocolInfo _protocol;
    private FileAttributes _fileAttributes;
    private final PnfsId _pnfsId;
    private final String _poolName;
@@ -55,6 +57,14 @@ public class DoorTransferFinishedMessage extends Message {
        return _poolName;
    }
 
+    @Override
+    public DoorTransferFinishedMessage copyForDelivery() {
+        DoorTransferFinishedMessage copy = (DoorTransferFinishedMessage) clone();
+        copy._fileAttributes = _fileAttributes.clone();
+        copy._protocol = copyOf(_protocol);
+        return copy;
+    }
+
     @Override
     public String getDiagnosticContext() {
         return super.getDiagnosticContext() + " " + getPnfsId();
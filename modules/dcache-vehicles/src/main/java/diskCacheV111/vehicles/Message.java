@@ -4,16 +4,30 @@ package diskCacheV111.vehicles;
 
 import javax.security.auth.Subject;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.security.Principal;
+import java.util.Set;
 
 import dmg.cells.nucleus.HasDiagnosticContext;
+import dmg.cells.nucleus.MessageCodecs;
 
+import org.dcache.auth.GidPrincipal;
 import org.dcache.auth.Subjects;
+import org.dcache.auth.UidPrincipal;
+import org.dcache.auth.UserNamePrincipal;
 
 // Base class for all Messages
 
 public class Message
     implements Serializable,
+               Cloneable,
                HasDiagnosticContext
 {
     private boolean _replyRequired;
@@ -25,12 +39,123 @@ public class Message
 
     private static final long serialVersionUID = 2056896713066252504L;
 
+    /**
+     * Tags of principals in the binary format used by message codecs.
+     */
+    private static final byte SERIALIZED_PRINCIPAL = 0;
+    private static final byte UID_PRINCIPAL = 1;
+    private static final byte GID_PRINCIPAL = 2;
+    private static final byte PRIMARY_GID_PRINCIPAL = 3;
+    private static final byte USER_NAME_PRINCIPAL = 4;
+
     public Message(){
     }
 
     public Message(boolean replyRequired){
 	_replyRequired = replyRequired;
     }
+
+    /**
+     * Reads the fields of a message written by {@link #writeTo}. Used by
+     * the {@link dmg.cells.nucleus.MessageCodec}s of subclasses, which
+     * extend the encoding with their own fields.
+     */
+    protected Message(DataInput in) throws IOException
+    {
+        _replyRequired = in.readBoolean();
+        _isReply = in.readBoolean();
+        _returnCode = in.readInt();
+        _errorObject = MessageCodecs.readObject(in);
+        _id = in.readLong();
+        _subject = readSubject(in);
+    }
+
+    /**
+     * Writes the fields of this message in the binary format used by
+     * message codecs. Subclasses with a codec must write their own fields
+     * after those of their superclass.
+     */
+    protected void writeTo(DataOutput out) throws IOException
+    {
+        out.writeBoolean(_replyRequired);
+        out.writeBoolean(_isReply);
+        out.writeInt(_returnCode);
+        MessageCodecs.writeObject(out, _errorObject);
+        out.writeLong(_id);
+        writeSubject(out, _subject);
+    }
+
+    /**
+     * Writes the principals of a subject. Like Java serialization of a
+     * subject, credentials are not written.
+     */
+    private static void writeSubject(DataOutput out, Subject subject) throws IOException
+    {
+        if (subject == null) {
+            out.writeInt(-1);
+            return;
+        }
+        Set<Principal> principals = subject.getPrincipals();
+        out.writeInt(principals.size());
+        out.writeBoolean(subject.isReadOnly());
+        for (Principal principal : principals) {
+            Class<?> type = principal.getClass();
+            if (type == UidPrincipal.class) {
+                out.writeByte(UID_PRINCIPAL);
+                out.writeLong(((UidPrincipal) principal).getUid());
+            } else if (type == GidPrincipal.class) {
+                GidPrincipal gid = (GidPrincipal) principal;
+                out.writeByte(gid.isPrimaryGroup() ? PRIMARY_GID_PRINCIPAL : GID_PRINCIPAL);
+                out.writeLong(gid.getGid());
+            } else if (type == UserNamePrincipal.class) {
+                out.writeByte(USER_NAME_PRINCIPAL);
+                out.writeUTF(principal.getName());
+            } else {
+                out.writeByte(SERIALIZED_PRINCIPAL);
+                MessageCodecs.writeObject(out, principal);
+            }
+        }
+    }
+
+    private static Subject readSubject(DataInput in) throws IOException
+    {
+        int size = in.readInt();
+        if (size < -1) {
+            throw new IOException("Invalid subject encoding");
+        }
+        if (size == -1) {
+            return null;
+        }
+        boolean isReadOnly = in.readBoolean();
+        Subject subject = new Subject();
+        Set<Principal> principals = subject.getPrincipals();
+        for (int i = 0; i < size; i++) {
+            byte tag = in.readByte();
+            switch (tag) {
+            case UID_PRINCIPAL:
+                principals.add(new UidPrincipal(in.readLong()));
+                break;
+            case GID_PRINCIPAL:
+                principals.add(new GidPrincipal(in.readLong(), false));
+                break;
+            case PRIMARY_GID_PRINCIPAL:
+                principals.add(new GidPrincipal(in.readLong(), true));
+                break;
+            case USER_NAME_PRINCIPAL:
+                principals.add(new UserNamePrincipal(in.readUTF()));
+                break;
+            case SERIALIZED_PRINCIPAL:
+                principals.add((Principal) MessageCodecs.readObject(in));
+                break;
+            default:
+                throw new IOException("Invalid principal tag: " + tag);
+            }
+        }
+        if (isReadOnly) {
+            subject.setReadOnly();
+        }
+        return subject;
+    }
     @Override
     public String toString(){
         return _returnCode==0?"":"("+_returnCode+")="+_errorObject ;
@@ -115,6 +240,72 @@ public class Message
         return name;
     }
 
+    /**
+     * Returns a shallow copy of this message with its own subject and
+     * error object. Subclasses delivered by reference use this as the
+     * basis of the copy handed to the receiver and must replace any
+     * other mutable state of the copy.
+     */
+    @Override
+    protected Message clone()
+    {
+        try {
+            Message copy = (Message) super.clone();
+            if (_subject != null) {
+                copy._subject = new Subject(_subject.isReadOnly(),
+                                            _subject.getPrincipals(),
+                                            _subject.getPublicCredentials(),
+                                            _subject.getPrivateCredentials());
+            }
+            copy._errorObject = copyOfErrorObject(_errorObject);
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException("Failed to clone message: " +
+                                       e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a copy of a protocol info. Protocol infos are mutable and
+     * have no common copy operation, thus they are copied by
+     * serialization. They are small compared to the messages carrying
+     * them.
+     */
+    protected static ProtocolInfo copyOf(ProtocolInfo info)
+    {
+        return (info == null) ? null : (ProtocolInfo) copyBySerialization(info, "protocol info");
+    }
+
+    /**
+     * Returns a copy of an error object. Error objects are usually
+     * strings, which are shared, but may be arbitrary objects such as
+     * exceptions, which are copied by serialization.
+     */
+    private static Object copyOfErrorObject(Object errorObject)
+    {
+        if (errorObject == null || errorObject instanceof String ||
+                errorObject instanceof Number || errorObject instanceof Boolean) {
+            return errorObject;
+        }
+        return copyBySerialization(errorObject, "error object");
+    }
+
+    private static Object copyBySerialization(Object object, String what)
+    {
+        try {
+            ByteArrayOutputStream array = new ByteArrayOutputStream(256);
+            try (ObjectOutputStream out = new ObjectOutputStream(array)) {
+                out.writeObject(object);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(array.toByteArray()))) {
+                return in.readObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException("Failed to copy " + what + ": " +
+                                       e.getMessage(), e);
+        }
+    }
+
     @Override
     public String getDiagnosticContext()
     {
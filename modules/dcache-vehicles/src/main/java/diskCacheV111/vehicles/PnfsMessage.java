@@ -2,12 +2,17 @@
 
 package diskCacheV111.vehicles;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.Set;
 
 import diskCacheV111.util.FsPath;
 import diskCacheV111.util.PnfsId;
 
+import dmg.cells.nucleus.MessageCodecs;
+
 import org.dcache.acl.enums.AccessMask;
 import org.dcache.auth.attributes.Restriction;
 import org.dcache.auth.attributes.Restrictions;
@@ -33,6 +38,32 @@ public class PnfsMessage extends Message {
 
     public PnfsMessage(){ }
 
+    protected PnfsMessage(DataInput in) throws IOException
+    {
+        super(in);
+        _pnfsId = in.readBoolean() ? PnfsId.createFrom(in) : null;
+        _path = MessageCodecs.readString(in);
+        _restriction = in.readBoolean() ? Restrictions.none() : (Restriction) MessageCodecs.readObject(in);
+        _mask = MessageCodecs.readEnumSet(in, AccessMask.class);
+    }
+
+    @Override
+    protected void writeTo(DataOutput out) throws IOException
+    {
+        super.writeTo(out);
+        out.writeBoolean(_pnfsId != null);
+        if (_pnfsId != null) {
+            _pnfsId.writeTo(out);
+        }
+        MessageCodecs.writeString(out, _path);
+        boolean isUnrestricted = _restriction.equals(Restrictions.none());
+        out.writeBoolean(isUnrestricted);
+        if (!isUnrestricted) {
+            MessageCodecs.writeObject(out, _restriction);
+        }
+        MessageCodecs.writeEnumSet(out, _mask);
+    }
+
     public void setPnfsPath( String pnfsPath ){ _path = pnfsPath ; }
     public String getPnfsPath(){ return _path ;}
 
@@ -1,5 +1,8 @@
 package diskCacheV111.vehicles;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.EnumSet;
 
 import org.dcache.vehicles.FileAttributes;
@@ -34,6 +37,19 @@ public class PoolAcceptFileMessage extends PoolIoFileMessage
         _preallocated = preallocated;
     }
 
+    protected PoolAcceptFileMessage(DataInput in) throws IOException
+    {
+        super(in);
+        _preallocated = in.readLong();
+    }
+
+    @Override
+    protected void writeTo(DataOutput out) throws IOException
+    {
+        super.writeTo(out);
+        out.writeLong(_preallocated);
+    }
+
     public long getPreallocated()
     {
         return _preallocated;
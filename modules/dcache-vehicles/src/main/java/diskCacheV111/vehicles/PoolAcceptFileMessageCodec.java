@@ -0,0 +1,37 @@
+package diskCacheV111.vehicles;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import dmg.cells.nucleus.MessageCodec;
+
+/**
+ * Encodes {@link PoolAcceptFileMessage} without Java serialization.
+ */
+public class PoolAcceptFileMessageCodec implements MessageCodec<PoolAcceptFileMessage>
+{
+    @Override
+    public int getId()
+    {
+        return 3;
+    }
+
+    @Override
+    public Class<PoolAcceptFileMessage> getMessageClass()
+    {
+        return PoolAcceptFileMessage.class;
+    }
+
+    @Override
+    public void writeTo(PoolAcceptFileMessage message, DataOutput out) throws IOException
+    {
+        message.writeTo(out);
+    }
+
+    @Override
+    public PoolAcceptFileMessage readFrom(DataInput in) throws IOException
+    {
+        return new PoolAcceptFileMessage(in);
+    }
+}
@@ -0,0 +1,86 @@
+package diskCacheV111.vehicles;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import diskCacheV111.util.PnfsId;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Requests that the pool removes a number of sticky flags.
+ *
+ * The message succeeds as a whole even if some of the flags could not be
+ * removed. The error codes of files for which this failed are available
+ * from the reply.
+ */
+public class PoolClearStickyMessage extends PoolMessage
+{
+    private static final long serialVersionUID = -3306880521768040219L;
+
+    private final List<Sticky> _stickies;
+    private final Map<PnfsId, Integer> _failures = new HashMap<>();
+
+    public PoolClearStickyMessage(String poolName, Collection<Sticky> stickies)
+    {
+        super(poolName);
+        setReplyRequired(true);
+        _stickies = new ArrayList<>(stickies);
+    }
+
+    public List<Sticky> getStickies()
+    {
+        return _stickies;
+    }
+
+    public void setFailed(PnfsId pnfsId, int rc)
+    {
+        _failures.put(pnfsId, rc);
+    }
+
+    /**
+     * Returns the error codes of the files for which the sticky flag
+     * could not be removed.
+     */
+    public Map<PnfsId, Integer> getFailures()
+    {
+        return _failures;
+    }
+
+    @Override
+    public String toString()
+    {
+        return super.toString() + ";ClearSticky=" + _stickies.size();
+    }
+
+    /**
+     * A sticky flag identified by file and owner.
+     */
+    public static class Sticky implements Serializable
+    {
+        private static final long serialVersionUID = 4521069385537124476L;
+
+        private final PnfsId _pnfsId;
+        private final String _owner;
+
+        public Sticky(PnfsId pnfsId, String owner)
+        {
+            _pnfsId = requireNonNull(pnfsId);
+            _owner = requireNonNull(owner);
+        }
+
+        public PnfsId getPnfsId()
+        {
+            return _pnfsId;
+        }
+
+        public String getOwner()
+        {
+            return _owner;
+        }
+    }
+}
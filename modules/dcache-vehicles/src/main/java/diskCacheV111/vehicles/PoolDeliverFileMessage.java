@@ -2,6 +2,9 @@
 
 package diskCacheV111.vehicles;
 
+import java.io.DataInput;
+import java.io.IOException;
+
 import org.dcache.vehicles.FileAttributes;
 
 public class PoolDeliverFileMessage extends PoolIoFileMessage {
@@ -13,4 +16,9 @@ public class PoolDeliverFileMessage extends PoolIoFileMessage {
                                   FileAttributes fileAttributes ){
        super( pool , protocolInfo , fileAttributes ) ;
     }
+
+    protected PoolDeliverFileMessage(DataInput in) throws IOException
+    {
+        super(in);
+    }
 }
@@ -0,0 +1,37 @@
+package diskCacheV111.vehicles;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import dmg.cells.nucleus.MessageCodec;
+
+/**
+ * Encodes {@link PoolDeliverFileMessage} without Java serialization.
+ */
+public class PoolDeliverFileMessageCodec implements MessageCodec<PoolDeliverFileMessage>
+{
+    @Override
+    public int getId()
+    {
+        return 2;
+    }
+
+    @Override
+    public Class<PoolDeliverFileMessage> getMessageClass()
+    {
+        return PoolDeliverFileMessage.class;
+    }
+
+    @Override
+    public void writeTo(PoolDeliverFileMessage message, DataOutput out) throws IOException
+    {
+        message.writeTo(out);
+    }
+
+    @Override
+    public PoolDeliverFileMessage readFrom(DataInput in) throws IOException
+    {
+        return new PoolDeliverFileMessage(in);
+    }
+}
@@ -1,9 +1,15 @@
 package diskCacheV111.vehicles;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.EnumSet;
 
 import diskCacheV111.util.PnfsId;
 
+import dmg.cells.nucleus.MessageCodecs;
+import dmg.cells.nucleus.PassByReference;
+
 import org.dcache.vehicles.FileAttributes;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -11,7 +17,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static org.dcache.namespace.FileAttribute.PNFSID;
 import static org.dcache.namespace.FileAttribute.STORAGEINFO;
 
-public class PoolIoFileMessage extends PoolMessage {
+public class PoolIoFileMessage extends PoolMessage implements PassByReference {
 
     private FileAttributes _fileAttributes;
     private ProtocolInfo _protocolInfo;
@@ -46,6 +52,36 @@ public class PoolIoFileMessage extends PoolMessage {
         _fileAttributes = new FileAttributes();
         _fileAttributes.setPnfsId(pnfsId);
     }
+
+    protected PoolIoFileMessage(DataInput in) throws IOException
+    {
+        super(in);
+        _fileAttributes = FileAttributes.createFrom(in);
+        _protocolInfo = (ProtocolInfo) MessageCodecs.readObject(in);
+        _isPool2Pool = in.readBoolean();
+        _ioQueueName = MessageCodecs.readString(in);
+        _moverId = in.readInt();
+        _initiator = MessageCodecs.readString(in);
+        _forceSourceMode = in.readBoolean();
+        _pnfsPath = MessageCodecs.readString(in);
+        _transferPath = MessageCodecs.readString(in);
+    }
+
+    @Override
+    protected void writeTo(DataOutput out) throws IOException
+    {
+        super.writeTo(out);
+        _fileAttributes.writeTo(out);
+        MessageCodecs.writeObject(out, _protocolInfo);
+        out.writeBoolean(_isPool2Pool);
+        MessageCodecs.writeString(out, _ioQueueName);
+        out.writeInt(_moverId);
+        MessageCodecs.writeString(out, _initiator);
+        out.writeBoolean(_forceSourceMode);
+        MessageCodecs.writeString(out, _pnfsPath);
+        MessageCodecs.writeString(out, _transferPath);
+    }
+
     public PnfsId       getPnfsId(){ return _fileAttributes.getPnfsId(); }
     public ProtocolInfo getProtocolInfo(){ return _protocolInfo ; }
 
@@ -118,6 +154,15 @@ public class PoolIoFileMessage extends PoolMessage {
         return _forceSourceMode;
     }
 
+    @Override
+    public PoolIoFileMessage copyForDelivery()
+    {
+        PoolIoFileMessage copy = (PoolIoFileMessage) clone();
+        copy._fileAttributes = _fileAttributes.clone();
+        copy._protocolInfo = copyOf(_protocolInfo);
+        return copy;
+    }
+
     @Override
     public String getDiagnosticContext() {
         return super.getDiagnosticContext() + " " + getPnfsId();
@@ -2,6 +2,9 @@
 
 package diskCacheV111.vehicles;
 
+import java.io.DataInput;
+import java.io.IOException;
+
 //Base class for messages to PoolManager
 
 
@@ -16,6 +19,11 @@ public class PoolManagerMessage extends Message {
         super(replyNeeded);
     }
 
+    protected PoolManagerMessage(DataInput in) throws IOException
+    {
+        super(in);
+    }
+
 }
 
 
@@ -2,6 +2,12 @@
 
 package diskCacheV111.vehicles;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import dmg.cells.nucleus.MessageCodecs;
+
 //Base class for messages to Pool
 
 
@@ -15,6 +21,19 @@ public class PoolMessage extends Message {
 	_poolName = poolName;
     }
 
+    protected PoolMessage(DataInput in) throws IOException
+    {
+        super(in);
+        _poolName = MessageCodecs.readString(in);
+    }
+
+    @Override
+    protected void writeTo(DataOutput out) throws IOException
+    {
+        super.writeTo(out);
+        MessageCodecs.writeString(out, _poolName);
+    }
+
     public String getPoolName(){
 	return _poolName;
     }
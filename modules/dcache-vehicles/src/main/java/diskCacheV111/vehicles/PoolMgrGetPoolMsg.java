@@ -2,11 +2,16 @@ package diskCacheV111.vehicles;
 
 import javax.annotation.Nonnull;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.EnumSet;
 
 import diskCacheV111.util.PnfsId;
 
 import dmg.cells.nucleus.CellAddressCore;
+import dmg.cells.nucleus.MessageCodecs;
+import dmg.cells.nucleus.PassByReference;
 
 import org.dcache.namespace.FileAttribute;
 import org.dcache.vehicles.FileAttributes;
@@ -15,10 +20,11 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static org.dcache.namespace.FileAttribute.*;
 
 public class PoolMgrGetPoolMsg extends PoolManagerMessage
+    implements PassByReference
 {
     private static final long serialVersionUID = 8907604668091102254L;
 
-    private final FileAttributes _fileAttributes;
+    private FileAttributes _fileAttributes;
     private String _poolName;
     private CellAddressCore _poolAddress;
 
@@ -30,6 +36,31 @@ public class PoolMgrGetPoolMsg extends PoolManagerMessage
 	setReplyRequired(true);
     }
 
+    protected PoolMgrGetPoolMsg(DataInput in) throws IOException
+    {
+        super(in);
+        _fileAttributes = FileAttributes.createFrom(in);
+        _poolName = MessageCodecs.readString(in);
+        if (in.readBoolean()) {
+            String cell = in.readUTF();
+            String domain = in.readUTF();
+            _poolAddress = new CellAddressCore(cell, domain);
+        }
+    }
+
+    @Override
+    protected void writeTo(DataOutput out) throws IOException
+    {
+        super.writeTo(out);
+        _fileAttributes.writeTo(out);
+        MessageCodecs.writeString(out, _poolName);
+        out.writeBoolean(_poolAddress != null);
+        if (_poolAddress != null) {
+            out.writeUTF(_poolAddress.getCellName());
+            out.writeUTF(_poolAddress.getCellDomainName());
+        }
+    }
+
     @Nonnull
     public FileAttributes getFileAttributes()
     {
@@ -81,6 +112,14 @@ public class PoolMgrGetPoolMsg extends PoolManagerMessage
         }
     }
 
+    @Override
+    public PoolMgrGetPoolMsg copyForDelivery()
+    {
+        PoolMgrGetPoolMsg copy = (PoolMgrGetPoolMsg) clone();
+        copy._fileAttributes = _fileAttributes.clone();
+        return copy;
+    }
+
     public static EnumSet<FileAttribute> getRequiredAttributes()
     {
         return EnumSet.of(PNFSID, STORAGEINFO, STORAGECLASS, HSM);
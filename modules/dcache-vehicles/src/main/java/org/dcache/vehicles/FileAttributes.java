@@ -6,12 +6,17 @@ import com.google.common.base.Strings;
 
 import javax.annotation.Nonnull;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -20,11 +25,16 @@ import diskCacheV111.util.PnfsId;
 import diskCacheV111.util.RetentionPolicy;
 import diskCacheV111.vehicles.StorageInfo;
 
+import dmg.cells.nucleus.MessageCodecs;
+
 import org.dcache.acl.ACL;
 import org.dcache.namespace.FileAttribute;
 import org.dcache.namespace.FileType;
 import org.dcache.util.Checksum;
+import org.dcache.util.ChecksumType;
 
+import static dmg.cells.nucleus.MessageCodecs.readString;
+import static dmg.cells.nucleus.MessageCodecs.writeString;
 import static java.util.stream.Collectors.toMap;
 import static org.dcache.namespace.FileAttribute.*;
 
@@ -52,7 +62,7 @@ import static org.dcache.namespace.FileAttribute.*;
  *
  * @since 1.9.5
  */
-public class FileAttributes implements Serializable {
+public class FileAttributes implements Serializable, Cloneable {
 
 
     private static final long serialVersionUID = -3689129805631724432L;
@@ -504,6 +514,164 @@ public class FileAttributes implements Serializable {
                 .toString();
     }
 
+    /**
+     * Returns a copy of these attributes that shares no mutable state
+     * with the original. The ACL is immutable and is shared.
+     */
+    @Override
+    public FileAttributes clone()
+    {
+        try {
+            FileAttributes copy = (FileAttributes) super.clone();
+            copy._definedAttributes = EnumSet.noneOf(FileAttribute.class);
+            copy._definedAttributes.addAll(_definedAttributes);
+            if (_checksums != null) {
+                copy._checksums = new HashSet<>(_checksums);
+            }
+            if (_locations != null) {
+                copy._locations = new ArrayList<>(_locations);
+            }
+            if (_flags != null) {
+                copy._flags = new HashMap<>(_flags);
+            }
+            if (_storageInfo != null) {
+                copy._storageInfo = _storageInfo.clone();
+            }
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException("Failed to clone file attributes: " +
+                                       e.getMessage());
+        }
+    }
+
+    /**
+     * Writes these attributes in the binary format used by message codecs.
+     * The ACL and the storage info are written with Java serialization.
+     */
+    public void writeTo(DataOutput out) throws IOException
+    {
+        MessageCodecs.writeEnumSet(out, _definedAttributes);
+        MessageCodecs.writeObject(out, _acl);
+        out.writeLong(_size);
+        out.writeLong(_ctime);
+        out.writeLong(_creationTime);
+        out.writeLong(_atime);
+        out.writeLong(_mtime);
+        if (_checksums == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(_checksums.size());
+            for (Checksum checksum : _checksums) {
+                out.writeUTF(checksum.getType().name());
+                out.writeUTF(checksum.getValue());
+            }
+        }
+        out.writeInt(_owner);
+        out.writeInt(_group);
+        out.writeInt(_mode);
+        writeString(out, (_accessLatency == null) ? null : _accessLatency.toString());
+        writeString(out, (_retentionPolicy == null) ? null : _retentionPolicy.toString());
+        writeString(out, (_fileType == null) ? null : _fileType.name());
+        if (_locations == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(_locations.size());
+            for (String location : _locations) {
+                out.writeUTF(location);
+            }
+        }
+        if (_flags == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(_flags.size());
+            for (Map.Entry<String, String> flag : _flags.entrySet()) {
+                out.writeUTF(flag.getKey());
+                writeString(out, flag.getValue());
+            }
+        }
+        out.writeBoolean(_pnfsId != null);
+        if (_pnfsId != null) {
+            _pnfsId.writeTo(out);
+        }
+        MessageCodecs.writeObject(out, _storageInfo);
+        writeString(out, _storageClass);
+        writeString(out, _hsm);
+        writeString(out, _cacheClass);
+    }
+
+    /**
+     * Reads attributes written by {@link #writeTo}.
+     */
+    public static FileAttributes createFrom(DataInput in) throws IOException
+    {
+        FileAttributes attributes = new FileAttributes();
+        attributes._definedAttributes = MessageCodecs.readEnumSet(in, FileAttribute.class);
+        if (attributes._definedAttributes == null) {
+            throw new IOException("Invalid file attributes encoding");
+        }
+        attributes._acl = (ACL) MessageCodecs.readObject(in);
+        attributes._size = in.readLong();
+        attributes._ctime = in.readLong();
+        attributes._creationTime = in.readLong();
+        attributes._atime = in.readLong();
+        attributes._mtime = in.readLong();
+        int checksums = in.readInt();
+        if (checksums >= 0) {
+            attributes._checksums = new HashSet<>();
+            for (int i = 0; i < checksums; i++) {
+                String type = in.readUTF();
+                String value = in.readUTF();
+                try {
+                    attributes._checksums.add(new Checksum(ChecksumType.valueOf(type), value));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid checksum " + type + ":" + value, e);
+                }
+            }
+        }
+        attributes._owner = in.readInt();
+        attributes._group = in.readInt();
+        attributes._mode = in.readInt();
+        try {
+            String accessLatency = readString(in);
+            attributes._accessLatency =
+                    (accessLatency == null) ? null : AccessLatency.getAccessLatency(accessLatency);
+            String retentionPolicy = readString(in);
+            attributes._retentionPolicy =
+                    (retentionPolicy == null) ? null : RetentionPolicy.getRetentionPolicy(retentionPolicy);
+            String fileType = readString(in);
+            attributes._fileType = (fileType == null) ? null : FileType.valueOf(fileType);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid file attributes encoding: " + e.getMessage(), e);
+        }
+        int locations = in.readInt();
+        if (locations >= 0) {
+            attributes._locations = new ArrayList<>(locations);
+            for (int i = 0; i < locations; i++) {
+                attributes._locations.add(in.readUTF());
+            }
+        }
+        int flags = in.readInt();
+        if (flags >= 0) {
+            attributes._flags = new HashMap<>();
+            for (int i = 0; i < flags; i++) {
+                attributes._flags.put(in.readUTF().intern(), readString(in));
+            }
+        }
+        if (in.readBoolean()) {
+            attributes._pnfsId = PnfsId.createFrom(in);
+        }
+        attributes._storageInfo = (StorageInfo) MessageCodecs.readObject(in);
+        attributes._storageClass = internOrNull(readString(in));
+        attributes._hsm = internOrNull(readString(in));
+        attributes._cacheClass = internOrNull(readString(in));
+        return attributes;
+    }
+
+    private static String internOrNull(String s)
+    {
+        return (s == null) ? null : s.intern();
+    }
+
     @Nonnull
     private <T> Optional<T> toOptional(FileAttribute attribute, T value)
     {
@@ -1,11 +1,18 @@
 package org.dcache.vehicles;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.EnumSet;
 import java.util.Set;
 
 import diskCacheV111.util.PnfsId;
 import diskCacheV111.vehicles.Message;
 import diskCacheV111.vehicles.PnfsMessage;
 
+import dmg.cells.nucleus.MessageCodecs;
+import dmg.cells.nucleus.PassByReference;
+
 import org.dcache.namespace.FileAttribute;
 
 
@@ -14,7 +21,7 @@ import org.dcache.namespace.FileAttribute;
  *
  * @since 1.9.4
  */
-public class PnfsGetFileAttributes extends PnfsMessage {
+public class PnfsGetFileAttributes extends PnfsMessage implements PassByReference {
 
     private static final long serialVersionUID = -6750531802534981651L;
 
@@ -47,6 +54,26 @@ public class PnfsGetFileAttributes extends PnfsMessage {
         setReplyRequired(true);
     }
 
+    protected PnfsGetFileAttributes(DataInput in) throws IOException
+    {
+        super(in);
+        _fileAttributes = in.readBoolean() ? FileAttributes.createFrom(in) : null;
+        _attributes = MessageCodecs.readEnumSet(in, FileAttribute.class);
+        _updateAtime = in.readBoolean();
+    }
+
+    @Override
+    protected void writeTo(DataOutput out) throws IOException
+    {
+        super.writeTo(out);
+        out.writeBoolean(_fileAttributes != null);
+        if (_fileAttributes != null) {
+            _fileAttributes.writeTo(out);
+        }
+        MessageCodecs.writeEnumSet(out, _attributes);
+        out.writeBoolean(_updateAtime);
+    }
+
     /**
      * Set file attributes.
      *
@@ -121,6 +148,20 @@ public class PnfsGetFileAttributes extends PnfsMessage {
         return _updateAtime;
     }
 
+    @Override
+    public PnfsGetFileAttributes copyForDelivery()
+    {
+        PnfsGetFileAttributes copy = (PnfsGetFileAttributes) clone();
+        if (_fileAttributes != null) {
+            copy._fileAttributes = _fileAttributes.clone();
+        }
+        if (_attributes != null) {
+            copy._attributes = EnumSet.noneOf(FileAttribute.class);
+            copy._attributes.addAll(_attributes);
+        }
+        return copy;
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,37 @@
+package org.dcache.vehicles;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import dmg.cells.nucleus.MessageCodec;
+
+/**
+ * Encodes {@link PnfsGetFileAttributes} without Java serialization.
+ */
+public class PnfsGetFileAttributesCodec implements MessageCodec<PnfsGetFileAttributes>
+{
+    @Override
+    public int getId()
+    {
+        return 1;
+    }
+
+    @Override
+    public Class<PnfsGetFileAttributes> getMessageClass()
+    {
+        return PnfsGetFileAttributes.class;
+    }
+
+    @Override
+    public void writeTo(PnfsGetFileAttributes message, DataOutput out) throws IOException
+    {
+        message.writeTo(out);
+    }
+
+    @Override
+    public PnfsGetFileAttributes readFrom(DataInput in) throws IOException
+    {
+        return new PnfsGetFileAttributes(in);
+    }
+}
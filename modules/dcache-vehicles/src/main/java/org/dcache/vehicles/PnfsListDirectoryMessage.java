@@ -35,6 +35,7 @@ public class PnfsListDirectoryMessage extends PnfsMessage
     private final BoundType _upperBoundType;
     private final UUID _uuid = UUID.randomUUID();
     private final Set<FileAttribute> _requestedAttributes;
+    private String _cookie;
     private Collection<DirectoryEntry> _entries = new ArrayList<>();
 
     /**
@@ -94,6 +95,23 @@ public class PnfsListDirectoryMessage extends PnfsMessage
         }
     }
 
+    /**
+     * Sets the cookie at which to continue the listing. The cookie is the
+     * name of the last entry of the previous page. When a cookie is set,
+     * entries are listed in name order starting after the cookie, and the
+     * range is relative to the first entry after the cookie.
+     */
+    public void setCookie(String cookie)
+    {
+        _cookie = cookie;
+    }
+
+    /** Returns the cookie at which to continue the listing; may be null. */
+    public String getCookie()
+    {
+        return _cookie;
+    }
+
     /** True if and only if the reply should include file meta data. */
     public Set<FileAttribute> getRequestedAttributes()
     {
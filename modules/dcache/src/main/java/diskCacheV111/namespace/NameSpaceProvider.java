@@ -237,6 +237,29 @@ public interface NameSpaceProvider
               Set<FileAttribute> attrs, ListHandler handler)
         throws CacheException;
 
+    /**
+     * Like {@link #list(Subject, String, Glob, Range, Set, ListHandler)},
+     * but entries are listed in name order and the listing starts after
+     * the entry named by {@code cookie}. The range is relative to the
+     * first entry after the cookie.
+     *
+     * The cookie of the next page is the name of the last entry of the
+     * previous page. Paging through a directory this way has a constant
+     * cost per page, independent of the position in the directory. The
+     * entry named by the cookie does not have to exist.
+     *
+     * @param subject Subject of user who invoked this method
+     * @param path Path to directory to list
+     * @param glob Pattern to limit the result set; may be null
+     * @param range The range of entries to return; may be null
+     * @param cookie Name after which to continue the listing; may be null
+     * @param attrs The file attributes to query for each entry
+     * @param handler Handler called for each entry
+     */
+    void list(Subject subject, String path, Glob glob, Range<Integer> range,
+              String cookie, Set<FileAttribute> attrs, ListHandler handler)
+        throws CacheException;
+
     /**
      * Set up a temporary upload location for a file.
      *
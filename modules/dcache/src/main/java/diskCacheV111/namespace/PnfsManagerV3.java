@@ -100,6 +100,7 @@ import org.dcache.vehicles.PnfsListDirectoryMessage;
 import org.dcache.vehicles.PnfsRemoveChecksumMessage;
 import org.dcache.vehicles.PnfsSetFileAttributes;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.dcache.acl.enums.AccessType.*;
 import static org.dcache.auth.Subjects.ROOT;
@@ -123,6 +124,8 @@ public class PnfsManagerV3
         new RequestExecutionTimeGauges<>("PnfsManagerV3");
     private final RequestCounters<Class<?>> _foldedCounters =
         new RequestCounters<>("PnfsManagerV3.Folded");
+    private final RequestCounters<Class<?>> _batchedCounters =
+        new RequestCounters<>("PnfsManagerV3.Batched");
 
     /**
      * Cache of path prefix to database IDs mappings.
@@ -144,12 +147,24 @@ public class PnfsManagerV3
         PnfsListDirectoryMessage.class
     };
 
+    /**
+     * These messages may be processed together with other messages
+     * of the same kind in a single name space transaction.
+     */
+    private final Class<?>[] BATCHABLE = {
+        PnfsGetFileAttributes.class,
+        PnfsAddCacheLocationMessage.class,
+        PnfsClearCacheLocationMessage.class,
+        PnfsSetChecksumMessage.class
+    };
+
     private int _threads;
     private int _threadGroups;
     private int _directoryListLimit;
     private int _queueMaxSize;
     private int _listThreads;
     private long _logSlowThreshold;
+    private int _batchSize = 1;
 
     /**
      * Whether to use folding.
@@ -277,6 +292,16 @@ public class PnfsManagerV3
         _canFold = folding;
     }
 
+    /**
+     * Sets the maximum number of queued messages processed in a
+     * single transaction. A value of one disables batching.
+     */
+    public void setBatchSize(int batchSize)
+    {
+        checkArgument(batchSize > 0, "Batch size must be positive.");
+        _batchSize = batchSize;
+    }
+
     @Required
     public void setDirectoryListLimit(int limit)
     {
@@ -381,10 +406,13 @@ public class PnfsManagerV3
             pw.println("    [" + i + "] " + total);
         }
         pw.println();
+        pw.println("Batch size: " + _batchSize);
+        pw.println();
 
         pw.println( "Statistics:" ) ;
         pw.println(_gauges.toString());
         pw.println(_foldedCounters.toString());
+        pw.println(_batchedCounters.toString());
     }
 
     @Command(name = "pnfsidof",
@@ -1569,6 +1597,7 @@ public class PnfsManagerV3
             _nameSpaceProvider.list(msg.getSubject(), path,
                                     msg.getPattern(),
                                     msg.getRange(),
+                                    msg.getCookie(),
                                     msg.getRequestedAttributes(),
                                     handler);
             msg.setSucceeded(handler.getMessageCount() + 1);
@@ -1598,6 +1627,10 @@ public class PnfsManagerV3
         {
             try {
                 for (CellMessage message = _fifo.take(); message != SHUTDOWN_SENTINEL; message = _fifo.take()) {
+                    if (_batchSize > 1 && isBatchable(message) && isBatchable(_fifo.peek())) {
+                        processBatch(drainBatch(message));
+                        continue;
+                    }
                     CDC.setMessageContext(message);
                     try {
                         /* Discard messages if we are close to their
@@ -1625,6 +1658,46 @@ public class PnfsManagerV3
             }
         }
 
+        /**
+         * Removes further batchable messages from the head of the queue.
+         * Only safe as long as this thread is the only consumer of the queue.
+         */
+        private List<CellMessage> drainBatch(CellMessage first)
+        {
+            List<CellMessage> batch = new ArrayList<>(_batchSize);
+            batch.add(first);
+            while (batch.size() < _batchSize && isBatchable(_fifo.peek())) {
+                batch.add(_fifo.poll());
+            }
+            return batch;
+        }
+
+        private void processBatch(List<CellMessage> batch)
+        {
+            List<CellMessage> messages = new ArrayList<>(batch.size());
+            for (CellMessage message : batch) {
+                CDC.setMessageContext(message);
+                try {
+                    PnfsMessage pnfs = (PnfsMessage) message.getMessageObject();
+                    if (message.getLocalAge() > message.getAdjustedTtl() && useEarlyDiscard(pnfs)) {
+                        _log.warn("Discarding {} because its time to live has been exceeded.",
+                                  pnfs.getClass().getSimpleName());
+                        sendTimeout(message, "TTL exceeded");
+                    } else {
+                        messages.add(message);
+                    }
+                } finally {
+                    CDC.clearMessageContext();
+                }
+            }
+
+            processMessageBatch(messages);
+
+            for (CellMessage message : messages) {
+                fold((PnfsMessage) message.getMessageObject());
+            }
+        }
+
         protected void fold(PnfsMessage message)
         {
             if (_canFold && message.getReturnCode() == 0) {
@@ -1712,20 +1785,131 @@ public class PnfsManagerV3
             }
         }
 
+        logProcessed(message, pnfsMessage, System.currentTimeMillis() - ctime);
+        postProcessMessage(message, pnfsMessage);
+    }
+
+    /**
+     * Processes several messages in a single name space transaction.
+     *
+     * Read-only messages that fail keep their error reply. If a message
+     * that modifies the name space fails, the transaction is rolled back
+     * and all messages are processed one by one, so that a failure of one
+     * message does not affect the others.
+     */
+    @VisibleForTesting
+    void processMessageBatch(List<CellMessage> messages)
+    {
+        long ctime = System.currentTimeMillis();
+        boolean committed;
+        try {
+            processMessagesTransactionally(messages);
+            committed = true;
+        } catch (BatchAbortedException e) {
+            _log.debug("Batched name space transaction rolled back: {}", e.getMessage());
+            committed = false;
+        } catch (RuntimeException e) {
+            _log.warn("Batched name space transaction failed: {}", e.toString());
+            committed = false;
+        }
+        long duration = (System.currentTimeMillis() - ctime) / Math.max(messages.size(), 1);
+
+        for (CellMessage message : messages) {
+            CDC.setMessageContext(message);
+            try {
+                PnfsMessage pnfs = (PnfsMessage) message.getMessageObject();
+                _batchedCounters.incrementRequests(pnfs.getClass());
+                if (committed) {
+                    logProcessed(message, pnfs, duration);
+                    postProcessMessage(message, pnfs);
+                } else {
+                    _batchedCounters.incrementFailed(pnfs.getClass());
+                    pnfs.clearReply();
+                    processPnfsMessage(message, pnfs);
+                }
+            } catch (Throwable e) {
+                _log.warn("processPnfsMessage: {} : {}", Thread.currentThread().getName(), e);
+            } finally {
+                CDC.clearMessageContext();
+            }
+        }
+    }
+
+    @VisibleForTesting
+    RequestCounters<Class<?>> getBatchedCounters()
+    {
+        return _batchedCounters;
+    }
+
+    private void logProcessed(CellMessage message, PnfsMessage pnfsMessage, long duration)
+    {
         if (pnfsMessage.getReturnCode() == CacheException.INVALID_ARGS) {
             _log.error("Inconsistent message {} received form {}",
                        pnfsMessage.getClass(), message.getSourcePath());
         }
 
-        long duration = System.currentTimeMillis() - ctime;
         _gauges.update(pnfsMessage.getClass(), duration);
         if (_logSlowThreshold != THRESHOLD_DISABLED && duration > _logSlowThreshold) {
             _log.warn("{} processed in {} ms", pnfsMessage.getClass(), duration);
         } else {
             _log.info("{} processed in {} ms", pnfsMessage.getClass(), duration);
         }
+    }
 
-        postProcessMessage(message, pnfsMessage);
+    private boolean isBatchable(CellMessage envelope)
+    {
+        if (envelope == null) {
+            return false;
+        }
+        /* Subclasses, such as PnfsCreateEntryMessage, may modify the name space in ways
+         * not suitable for batching, hence the exact match.
+         */
+        Object message = envelope.getMessageObject();
+        for (Class<?> c: BATCHABLE) {
+            if (c == message.getClass()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isReadOnly(PnfsMessage message)
+    {
+        return message.getClass() == PnfsGetFileAttributes.class;
+    }
+
+    /**
+     * Processes all messages in a single transaction. The transaction is
+     * rolled back if any message modifying the name space fails.
+     *
+     * @throws BatchAbortedException if the transaction was rolled back
+     */
+    @Transactional
+    private void processMessagesTransactionally(List<CellMessage> messages)
+    {
+        for (CellMessage message : messages) {
+            PnfsMessage pnfsMessage = (PnfsMessage) message.getMessageObject();
+            if (!processMessageTransactionally(message, pnfsMessage)) {
+                throw new BatchAbortedException("unexpected " + pnfsMessage.getClass().getSimpleName());
+            }
+            if (pnfsMessage.getReturnCode() != 0 && !isReadOnly(pnfsMessage)) {
+                throw new BatchAbortedException(pnfsMessage.getClass().getSimpleName() + " failed: " +
+                                                pnfsMessage.getErrorObject());
+            }
+        }
+    }
+
+    /**
+     * Signals that a batched transaction is to be rolled back.
+     */
+    private static class BatchAbortedException extends RuntimeException
+    {
+        private static final long serialVersionUID = -5178423475391047614L;
+
+        BatchAbortedException(String message)
+        {
+            super(message);
+        }
     }
 
     @Transactional
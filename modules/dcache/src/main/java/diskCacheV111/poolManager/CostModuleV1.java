@@ -10,15 +10,15 @@ import javax.annotation.Nullable;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.StringWriter;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 import diskCacheV111.pools.CostCalculatable;
@@ -50,6 +50,16 @@ import org.dcache.poolmanager.PoolInfo;
 import org.dcache.util.Args;
 import org.dcache.vehicles.FileAttributes;
 
+/**
+ * Cost module keeping the cost information of every pool.
+ *
+ * The cost information of a pool is published as an immutable snapshot:
+ * heartbeats replace the snapshot and cost updates triggered by requests
+ * modify a copy that then replaces the snapshot. Updates of different
+ * pools thus proceed concurrently and readers never block. A sorted index
+ * of the performance cost of all pools is maintained along with the
+ * snapshots, allowing percentile queries without sorting.
+ */
 public class CostModuleV1
     implements Serializable,
                CostModule,
@@ -63,20 +73,19 @@ public class CostModuleV1
 
     private static final long serialVersionUID = -267023006449629909L;
 
-    private final Map<String, Entry> _hash = new HashMap<>() ;
-    private boolean _isActive = true ;
-    private boolean _update = true ;
-    private boolean _magic = true ;
-    private boolean _debug;
-    private boolean _cachedPercentileCostCutIsValid;
-    private double _cachedPercentileCostCut;
-    private double _cachedPercentileFraction;
+    private Map<String, Entry> _hash = new ConcurrentHashMap<>();
+    private volatile boolean _isActive = true ;
+    private volatile boolean _update = true ;
+    private volatile boolean _magic = true ;
+    private volatile boolean _debug;
+    private transient PercentileIndex _costs = new PercentileIndex();
     private transient CellMessageDispatcher _handlers =
         new CellMessageDispatcher("messageToForward");
 
 
     /**
-     * Information about some specific pool.
+     * Information about some specific pool. Entries are immutable and
+     * the PoolCostInfo of an entry must not be modified.
      */
    private static class Entry implements Serializable
    {
@@ -84,19 +93,27 @@ public class CostModuleV1
 
        private final long timestamp;
        private final PoolCostInfo _info;
-       private double _fakeCpu = -1.0;
+       private final double _fakeCpu;
        private final ImmutableMap<String,String> _tagMap;
        private final CellAddressCore _address;
+       private final transient double _performanceCost;
 
        public Entry(CellAddressCore address, PoolCostInfo info, Map<String,String> tagMap)
        {
-           timestamp = System.currentTimeMillis();
+           this(System.currentTimeMillis(), address, info,
+                (tagMap == null) ? ImmutableMap.of() : ImmutableMap.copyOf(tagMap),
+                -1.0);
+       }
+
+       private Entry(long timestamp, CellAddressCore address, PoolCostInfo info,
+                     ImmutableMap<String,String> tagMap, double fakeCpu)
+       {
+           this.timestamp = timestamp;
            _address = address;
            _info = info;
-           _tagMap =
-               (tagMap == null)
-               ? ImmutableMap.<String,String>of()
-               : ImmutableMap.copyOf(tagMap);
+           _tagMap = tagMap;
+           _fakeCpu = fakeCpu;
+           _performanceCost = CostModuleV1.getPerformanceCost(info);
        }
 
        public boolean isValid()
@@ -118,6 +135,21 @@ public class CostModuleV1
        {
            return new PoolInfo(_address, _info, _tagMap);
        }
+
+       public double getPerformanceCost()
+       {
+           return _performanceCost;
+       }
+
+       public Entry withPoolCostInfo(PoolCostInfo info)
+       {
+           return new Entry(timestamp, _address, info, _tagMap, _fakeCpu);
+       }
+
+       public Entry withFakeCpu(double fakeCpu)
+       {
+           return new Entry(timestamp, _address, _info, _tagMap, fakeCpu);
+       }
    }
 
     public CostModuleV1()
@@ -125,7 +157,7 @@ public class CostModuleV1
         _handlers.addMessageListener(this);
     }
 
-    public synchronized void messageArrived(CellMessage envelope, PoolManagerPoolUpMessage msg)
+    public void messageArrived(CellMessage envelope, PoolManagerPoolUpMessage msg)
     {
         if (! _update) {
             return;
@@ -135,102 +167,70 @@ public class CostModuleV1
         String poolName = msg.getPoolName();
         PoolV2Mode poolMode = msg.getPoolMode();
         PoolCostInfo newInfo = msg.getPoolCostInfo();
-        Entry poolEntry = _hash.get(poolName);
-        boolean isNewPool = poolEntry == null;
 
         /* Whether the pool mentioned in the message should be removed */
         boolean shouldRemovePool = poolMode.getMode() == PoolV2Mode.DISABLED ||
                 poolMode.isDisabled(PoolV2Mode.DISABLED_STRICT) ||
                 poolMode.isDisabled(PoolV2Mode.DISABLED_DEAD);
 
-        if( isNewPool || shouldRemovePool) {
-            _cachedPercentileCostCutIsValid = false;
-        } else {
-            PoolCostInfo currentInfo = poolEntry.getPoolCostInfo();
-            considerInvalidatingCache(currentInfo, newInfo);
-        }
-
         if (shouldRemovePool) {
-            _hash.remove(poolName);
+            _hash.computeIfPresent(poolName, (name, entry) -> {
+                _costs.remove(entry.getPerformanceCost());
+                return null;
+            });
         } else if (newInfo != null) {
-            _hash.put(poolName, new Entry(poolAddress, newInfo, msg.getTagMap()));
-        }
-    }
-
-    private void considerInvalidatingCache(PoolCostInfo currentInfo, PoolCostInfo newInfo)
-    {
-        if( !_cachedPercentileCostCutIsValid) {
-            return;
-        }
-
-        double currentCost = getPerformanceCost(currentInfo);
-        double newCost = getPerformanceCost(newInfo);
-        considerInvalidatingCache(currentCost, newCost);
-    }
-
-    private void considerInvalidatingCache(double currentCost, PoolCostInfo newInfo)
-    {
-        if( !_cachedPercentileCostCutIsValid) {
-            return;
+            Entry newEntry = new Entry(poolAddress, newInfo, msg.getTagMap());
+            _hash.compute(poolName, (name, entry) -> {
+                if (entry == null) {
+                    _costs.add(newEntry.getPerformanceCost());
+                } else {
+                    _costs.replace(entry.getPerformanceCost(), newEntry.getPerformanceCost());
+                }
+                return newEntry;
+            });
         }
-
-        double newCost = getPerformanceCost(newInfo);
-        considerInvalidatingCache(currentCost, newCost);
     }
 
-    /* Check whether we should invalidate the cached.  We must do this when
-     * a pool changes its relationship to the cost threshold:
-     *       o  a pool with cost less than the cached value assumes a cost greater
-     *                  than the cached value,
-     *       o  a pool with cost greater than the cached value assumes a cost less
-     *                  than the cached value.
-     *       o  a pool with cost equal to the cached value assumes a cost less
-     *                  than or greater than the cached value.
+    /**
+     * Applies a modification to a copy of the cost information of a pool
+     * and publishes the result. Modifications of the same pool are
+     * serialized.
+     *
+     * @return false if the pool is unknown, true otherwise
      */
-    private void considerInvalidatingCache(double currentCost, double newCost)
+    private boolean modify(String poolName, Consumer<PoolCostInfo> modification)
     {
-        if( Math.signum(currentCost-_cachedPercentileCostCut) !=
-            Math.signum(newCost-_cachedPercentileCostCut)) {
-            _cachedPercentileCostCutIsValid = false;
-        }
+        return _hash.computeIfPresent(poolName, (name, entry) -> {
+            PoolCostInfo info = new PoolCostInfo(entry.getPoolCostInfo());
+            modification.accept(info);
+            Entry newEntry = entry.withPoolCostInfo(info);
+            _costs.replace(entry.getPerformanceCost(), newEntry.getPerformanceCost());
+            return newEntry;
+        }) != null;
     }
 
-    private double getPerformanceCost(PoolCostInfo info)
+    private static double getPerformanceCost(PoolCostInfo info)
     {
         CostCalculatable cost = new CostCalculationV5(info);
         cost.recalculate();
         return cost.getPerformanceCost();
     }
 
-    public synchronized void messageToForward(PoolIoFileMessage msg)
+    private static PoolCostInfo.PoolQueueInfo getMoverQueue(PoolCostInfo costInfo, String requestedQueueName)
     {
-        String poolName = msg.getPoolName();
-        Entry e = _hash.get(poolName);
-        if (e == null) {
-            return;
+        Map<String, NamedPoolQueueInfo> map = costInfo.getExtendedMoverHash();
+        if (map == null) {
+            return costInfo.getMoverQueue();
         }
+        NamedPoolQueueInfo queue = (requestedQueueName == null) ? null : map.get(requestedQueueName);
+        return (queue == null) ? map.get(costInfo.getDefaultQueueName()) : queue;
+    }
 
+    public void messageToForward(PoolIoFileMessage msg)
+    {
+        String poolName = msg.getPoolName();
         String requestedQueueName = msg.getIoQueueName();
 
-        PoolCostInfo costInfo = e.getPoolCostInfo();
-        double currentPerformanceCost = getPerformanceCost(costInfo);
-        Map<String, NamedPoolQueueInfo> map =
-            costInfo.getExtendedMoverHash();
-
-        PoolCostInfo.PoolQueueInfo queue;
-        PoolCostInfo.PoolSpaceInfo spaceInfo = costInfo.getSpaceInfo();
-
-        if (map == null) {
-            queue = costInfo.getMoverQueue();
-        } else {
-            requestedQueueName =
-                (requestedQueueName == null ||
-                 map.get(requestedQueueName) == null)
-                ? costInfo.getDefaultQueueName()
-                : requestedQueueName;
-            queue = map.get(requestedQueueName);
-        }
-
         int diff = 0;
         long pinned = 0;
         FileAttributes attributes = msg.getFileAttributes();
@@ -246,65 +246,39 @@ public class CostModuleV1
             }
         }
 
-        queue.modifyQueue(diff);
-        spaceInfo.modifyPinnedSpace(pinned);
-
-        considerInvalidatingCache(currentPerformanceCost, costInfo);
+        if (diff == 0 && pinned == 0) {
+            return;
+        }
 
-        xsay("Mover"+(requestedQueueName==null?"":("("+requestedQueueName+")")) , poolName, diff, pinned, msg);
+        int queueDiff = diff;
+        long pinnedDiff = pinned;
+        if (modify(poolName, costInfo -> {
+            getMoverQueue(costInfo, requestedQueueName).modifyQueue(queueDiff);
+            costInfo.getSpaceInfo().modifyPinnedSpace(pinnedDiff);
+        })) {
+            xsay("Mover"+(requestedQueueName==null?"":("("+requestedQueueName+")")) , poolName, diff, pinned, msg);
+        }
     }
 
-    public synchronized void messageToForward(DoorTransferFinishedMessage msg)
+    public void messageToForward(DoorTransferFinishedMessage msg)
     {
         String poolName = msg.getPoolName();
-        Entry e = _hash.get(poolName);
-        if (e == null) {
-            return;
-        }
-
-        PoolCostInfo costInfo = e.getPoolCostInfo();
-        double currentPerformanceCost = getPerformanceCost(costInfo);
         String requestedQueueName = msg.getIoQueueName();
 
-        Map<String, NamedPoolQueueInfo> map =
-            costInfo.getExtendedMoverHash();
-        PoolCostInfo.PoolQueueInfo queue;
-
-        if (map == null) {
-            queue = costInfo.getMoverQueue();
-        } else {
-            requestedQueueName =
-                (requestedQueueName == null) ||
-                (map.get(requestedQueueName) == null)
-                ? costInfo.getDefaultQueueName()
-                : requestedQueueName;
-
-            queue = map.get(requestedQueueName);
-        }
-
         int diff = -1;
         long pinned = 0;
 
-        queue.modifyQueue(diff);
-        considerInvalidatingCache(currentPerformanceCost, costInfo);
-        xsay("Mover"+(requestedQueueName==null?"":("("+requestedQueueName+")")), poolName, diff, pinned, msg);
+        if (modify(poolName, costInfo -> getMoverQueue(costInfo, requestedQueueName).modifyQueue(diff))) {
+            xsay("Mover"+(requestedQueueName==null?"":("("+requestedQueueName+")")), poolName, diff, pinned, msg);
+        }
     }
 
-    public synchronized void messageToForward(PoolFetchFileMessage msg)
+    public void messageToForward(PoolFetchFileMessage msg)
     {
-         String poolName = msg.getPoolName();
-         Entry e = _hash.get(poolName);
-         if (e == null) {
-             return;
-         }
-
-         PoolCostInfo costInfo = e.getPoolCostInfo();
-         double currentPerformanceCost = getPerformanceCost(costInfo);
-         PoolCostInfo.PoolQueueInfo queue = costInfo.getRestoreQueue();
-         PoolCostInfo.PoolSpaceInfo spaceInfo = costInfo.getSpaceInfo();
-
-         int diff;
-         long pinned;
+        String poolName = msg.getPoolName();
+
+        int diff;
+        long pinned;
         if (msg.isReply()) {
             diff = -1;
             pinned = 0;
@@ -317,96 +291,58 @@ public class CostModuleV1
                 pinned = 0;
             }
         }
-        queue.modifyQueue(diff);
-         spaceInfo.modifyPinnedSpace(pinned);
-         considerInvalidatingCache(currentPerformanceCost, costInfo);
-         xsay("Restore", poolName, diff, pinned, msg);
-    }
 
-    public synchronized void messageToForward(PoolMgrSelectPoolMsg msg)
-    {
-         if (!_magic) {
-             return;
-         }
-
-         if (!msg.isReply()) {
-             return;
-         }
-         String poolName = msg.getPoolName();
-         Entry e = _hash.get(poolName);
-         if (e == null) {
-             return;
-         }
-
-         String requestedQueueName = msg.getIoQueueName();
-
-         PoolCostInfo costInfo = e.getPoolCostInfo();
-         double currentPerformanceCost = getPerformanceCost(costInfo);
-         Map<String, NamedPoolQueueInfo> map =
-             costInfo.getExtendedMoverHash();
-         PoolCostInfo.PoolQueueInfo queue;
-         PoolCostInfo.PoolSpaceInfo spaceInfo = costInfo.getSpaceInfo();
-
-         if (map == null) {
-            queue = costInfo.getMoverQueue();
-         } else {
-            requestedQueueName =
-                (requestedQueueName == null) ||
-                (map.get(requestedQueueName) == null)
-                ? costInfo.getDefaultQueueName()
-                : requestedQueueName;
-            queue = map.get(requestedQueueName);
-         }
-
-         int diff = 1;
-         long pinned =
-             (msg instanceof PoolMgrSelectWritePoolMsg) ? ((PoolMgrSelectWritePoolMsg) msg).getPreallocated() : 0;
-         queue.modifyQueue(diff);
-         spaceInfo.modifyPinnedSpace(pinned);
-         considerInvalidatingCache(currentPerformanceCost, costInfo);
-         xsay("Mover (magic)"+(requestedQueueName==null?"":("("+requestedQueueName+")")), poolName, diff, pinned, msg);
+        if (modify(poolName, costInfo -> {
+            costInfo.getRestoreQueue().modifyQueue(diff);
+            costInfo.getSpaceInfo().modifyPinnedSpace(pinned);
+        })) {
+            xsay("Restore", poolName, diff, pinned, msg);
+        }
     }
 
-    public synchronized void messageToForward(Pool2PoolTransferMsg msg)
+    public void messageToForward(PoolMgrSelectPoolMsg msg)
     {
-        _log.debug( "Pool2PoolTransferMsg : reply="+msg.isReply());
+        if (!_magic) {
+            return;
+        }
 
-        String sourceName = msg.getSourcePoolName();
-        Entry source = _hash.get(sourceName);
-        if (source == null) {
+        if (!msg.isReply()) {
             return;
         }
 
-        PoolCostInfo sourceCostInfo = source.getPoolCostInfo();
-        double currentSourcePerformanceCost = getPerformanceCost(sourceCostInfo);
+        String poolName = msg.getPoolName();
+        String requestedQueueName = msg.getIoQueueName();
+
+        int diff = 1;
+        long pinned =
+            (msg instanceof PoolMgrSelectWritePoolMsg) ? ((PoolMgrSelectWritePoolMsg) msg).getPreallocated() : 0;
 
-        PoolCostInfo.PoolQueueInfo sourceQueue = sourceCostInfo.getP2pQueue();
+        if (modify(poolName, costInfo -> {
+            getMoverQueue(costInfo, requestedQueueName).modifyQueue(diff);
+            costInfo.getSpaceInfo().modifyPinnedSpace(pinned);
+        })) {
+            xsay("Mover (magic)"+(requestedQueueName==null?"":("("+requestedQueueName+")")), poolName, diff, pinned, msg);
+        }
+    }
+
+    public void messageToForward(Pool2PoolTransferMsg msg)
+    {
+        _log.debug( "Pool2PoolTransferMsg : reply="+msg.isReply());
 
+        String sourceName = msg.getSourcePoolName();
         String destinationName = msg.getDestinationPoolName();
-        Entry destination = _hash.get(destinationName);
-        if (destination == null) {
+        if (!_hash.containsKey(sourceName) || !_hash.containsKey(destinationName)) {
             return;
         }
 
-        PoolCostInfo destinationCostInfo = destination.getPoolCostInfo();
-        double currentDestinationPerformanceCost =
-            getPerformanceCost(destinationCostInfo);
-
-        PoolCostInfo.PoolQueueInfo destinationQueue =
-            destinationCostInfo.getP2pClientQueue();
-        PoolCostInfo.PoolSpaceInfo destinationSpaceInfo =
-            destinationCostInfo.getSpaceInfo();
-
         int diff = msg.isReply() ? -1 : 1;
         long pinned = msg.getFileAttributes().getSizeIfPresent().or(0L);
 
-        sourceQueue.modifyQueue(diff);
-        destinationQueue.modifyQueue(diff);
-        destinationSpaceInfo.modifyPinnedSpace(pinned);
-
-        considerInvalidatingCache(currentSourcePerformanceCost, sourceCostInfo);
-        considerInvalidatingCache(currentDestinationPerformanceCost,
-                destinationCostInfo);
+        modify(sourceName, costInfo -> costInfo.getP2pQueue().modifyQueue(diff));
+        modify(destinationName, costInfo -> {
+            costInfo.getP2pClientQueue().modifyQueue(diff);
+            costInfo.getSpaceInfo().modifyPinnedSpace(pinned);
+        });
 
         xsay("P2P client (magic)", destinationName, diff, pinned, msg);
         xsay("P2P server (magic)", sourceName, diff, 0, msg);
@@ -464,46 +400,15 @@ public class CostModuleV1
     }
 
    @Override
-   public synchronized double getPoolsPercentilePerformanceCost(double fraction) {
+   public double getPoolsPercentilePerformanceCost(double fraction) {
 
        if( fraction <= 0 || fraction >= 1) {
            throw new IllegalArgumentException("supplied fraction (" + Double.toString( fraction) +") not between 0 and 1");
        }
 
-       if( !_cachedPercentileCostCutIsValid || _cachedPercentileFraction != fraction) {
-           _cachedPercentileCostCut = calculatePercentileCostCut(fraction);
-           _cachedPercentileFraction = fraction;
-           _cachedPercentileCostCutIsValid = true;
-       }
-
-       return _cachedPercentileCostCut;
+       return _costs.percentile(fraction);
    }
 
-   private double calculatePercentileCostCut(double fraction)
-   {
-       if( _hash.isEmpty()) {
-           _log.debug( "no pools available");
-           return 0;
-       }
-
-       _log.debug( "{} pools available", _hash.size());
-
-       double poolCosts[] = new double[_hash.size()];
-
-       int idx=0;
-       for( Entry poolInfo : _hash.values()) {
-           poolCosts[idx] = getPerformanceCost(poolInfo.getPoolCostInfo());
-           idx++;
-       }
-
-       Arrays.sort(poolCosts);
-
-       return poolCosts [ (int) Math.floor(fraction * _hash.size())];
-   }
-
-
-
-
    @Override
    public boolean isActive(){ return _isActive ; }
 
@@ -552,33 +457,36 @@ public class CostModuleV1
      return "";
    }
    public static final String hh_cm_fake = "<poolName> [off] | [-cpu=<cpuCost>|off]" ;
-   public synchronized String ac_cm_fake_$_1_2( Args args ){
+   public String ac_cm_fake_$_1_2( Args args ){
       String poolName = args.argv(0) ;
-      Entry e = _hash.get(poolName);
+      if( args.argc() > 1 && !args.argv(1).equals("off") ){
+           throw new
+           IllegalArgumentException("Unknown argument : "+args.argv(1));
+      }
+
+      String val = args.getOpt("cpu") ;
+      Entry e = _hash.computeIfPresent(poolName, (name, entry) -> {
+          if (args.argc() > 1) {
+              return entry.withFakeCpu(-1.0);
+          } else if (val != null) {
+              return entry.withFakeCpu(Double.parseDouble(val));
+          }
+          return entry;
+      });
       if( e == null ) {
           throw new
                   IllegalArgumentException("Pool not found : " + poolName);
       }
 
       if( args.argc() > 1 ){
-        if( args.argv(1).equals("off") ){
-           e._fakeCpu   = -1.0 ;
-        }else{
-           throw new
-           IllegalArgumentException("Unknown argument : "+args.argv(1));
-        }
         return "Faked Costs switched off for "+poolName ;
       }
-      String val = args.getOpt("cpu") ;
-      if( val != null ) {
-          e._fakeCpu = Double.parseDouble(val);
-      }
 
       return poolName+" -cpu="+e._fakeCpu ;
    }
 
    public static final String hh_xcm_ls = "";
-   public synchronized Object ac_xcm_ls_$_0(Args args)
+   public Object ac_xcm_ls_$_0(Args args)
    {
        CostModulePoolInfoTable reply = new CostModulePoolInfoTable();
        for (Entry e : _hash.values() ){
@@ -588,7 +496,7 @@ public class CostModuleV1
    }
 
    public static final String hh_cm_ls = " -t | -r <pattern> # list all pools";
-   public synchronized String ac_cm_ls_$_0_1(Args args)
+   public String ac_cm_ls_$_0_1(Args args)
    {
        StringBuilder sb = new StringBuilder();
        boolean useTime   = args.hasOption("t");
@@ -604,7 +512,7 @@ public class CostModuleV1
                    if (e.getTagMap() != null) {
                        sb.append("Tag={").append(e.getTagMap()).append("};");
                    }
-                   sb.append(";CC=").append(getPerformanceCost(pool)).append(";");
+                   sb.append(";CC=").append(e.getPerformanceCost()).append(";");
                    sb.append("}").append("\n");
                }
                if (useTime) {
@@ -619,7 +527,7 @@ public class CostModuleV1
    }
 
     @Override
-    public synchronized Collection<PoolCostInfo> getPoolCostInfos()
+    public Collection<PoolCostInfo> getPoolCostInfos()
     {
         Collection<PoolCostInfo> costInfos = new ArrayList<>();
         for (Entry entry: _hash.values()) {
@@ -631,7 +539,7 @@ public class CostModuleV1
     }
 
     @Override @Nullable
-    public synchronized PoolCostInfo getPoolCostInfo(String poolName)
+    public PoolCostInfo getPoolCostInfo(String poolName)
     {
         Entry entry = _hash.get(poolName);
         if (entry != null && (entry.isValid() || !_update)) {
@@ -641,7 +549,7 @@ public class CostModuleV1
     }
 
     @Override @Nullable
-    public synchronized PoolInfo getPoolInfo(String pool)
+    public PoolInfo getPoolInfo(String pool)
     {
         Entry entry = _hash.get(pool);
         if (entry != null && (entry.isValid() || !_update)) {
@@ -651,8 +559,7 @@ public class CostModuleV1
     }
 
     @Override
-    public synchronized
-        Map<String,PoolInfo> getPoolInfoAsMap(Iterable<String> pools)
+    public Map<String,PoolInfo> getPoolInfoAsMap(Iterable<String> pools)
     {
         Map<String,PoolInfo> map = new HashMap<>();
         for (String pool: pools) {
@@ -670,10 +577,18 @@ public class CostModuleV1
         in.defaultReadObject();
         _handlers = new CellMessageDispatcher("messageToForward");
         _handlers.addMessageListener(this);
-    }
 
-    private synchronized void writeObject(ObjectOutputStream stream) throws IOException
-    {
-        stream.defaultWriteObject();
+        /* The performance cost of an entry is not serialized and the
+         * index is rebuilt.
+         */
+        Map<String, Entry> hash = new ConcurrentHashMap<>();
+        _costs = new PercentileIndex();
+        for (Map.Entry<String, Entry> e : _hash.entrySet()) {
+            Entry entry = e.getValue();
+            entry = entry.withPoolCostInfo(entry.getPoolCostInfo());
+            hash.put(e.getKey(), entry);
+            _costs.add(entry.getPerformanceCost());
+        }
+        _hash = hash;
     }
 }
\ No newline at end of file
@@ -0,0 +1,118 @@
+package diskCacheV111.poolManager;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Sorted multiset of performance costs supporting percentile queries.
+ *
+ * The costs are kept in a sorted array that is updated incrementally as
+ * the cost of individual pools changes, thus a percentile is determined
+ * without sorting the costs of all pools. Updates are serialized, while
+ * queries use optimistic reads and do not block in the common case.
+ */
+class PercentileIndex
+{
+    private final StampedLock _lock = new StampedLock();
+    private double[] _costs = new double[16];
+    private int _size;
+
+    public void add(double cost)
+    {
+        long stamp = _lock.writeLock();
+        try {
+            insert(cost);
+        } finally {
+            _lock.unlockWrite(stamp);
+        }
+    }
+
+    public void remove(double cost)
+    {
+        long stamp = _lock.writeLock();
+        try {
+            delete(cost);
+        } finally {
+            _lock.unlockWrite(stamp);
+        }
+    }
+
+    public void replace(double oldCost, double newCost)
+    {
+        if (Double.compare(oldCost, newCost) == 0) {
+            return;
+        }
+        long stamp = _lock.writeLock();
+        try {
+            delete(oldCost);
+            insert(newCost);
+        } finally {
+            _lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size()
+    {
+        long stamp = _lock.tryOptimisticRead();
+        int size = _size;
+        if (!_lock.validate(stamp)) {
+            stamp = _lock.readLock();
+            try {
+                size = _size;
+            } finally {
+                _lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the cost at the given fraction of the sorted costs, or zero
+     * if there are no costs.
+     */
+    public double percentile(double fraction)
+    {
+        checkArgument(fraction >= 0 && fraction < 1, "fraction must be in [0,1)");
+        long stamp = _lock.tryOptimisticRead();
+        double[] costs = _costs;
+        int size = _size;
+        int index = (int) Math.floor(fraction * size);
+        double cost = (index < size && index < costs.length) ? costs[index] : 0;
+        if (!_lock.validate(stamp)) {
+            stamp = _lock.readLock();
+            try {
+                size = _size;
+                cost = (size == 0) ? 0 : _costs[(int) Math.floor(fraction * size)];
+            } finally {
+                _lock.unlockRead(stamp);
+            }
+        }
+        return cost;
+    }
+
+    private void insert(double cost)
+    {
+        if (_size == _costs.length) {
+            _costs = Arrays.copyOf(_costs, _size * 2);
+        }
+        int index = Arrays.binarySearch(_costs, 0, _size, cost);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        System.arraycopy(_costs, index, _costs, index + 1, _size - index);
+        _costs[index] = cost;
+        _size++;
+    }
+
+    private void delete(double cost)
+    {
+        int index = Arrays.binarySearch(_costs, 0, _size, cost);
+        if (index < 0) {
+            throw new IllegalStateException("Cost " + cost + " is not in the index");
+        }
+        System.arraycopy(_costs, index + 1, _costs, index, _size - index - 1);
+        _size--;
+    }
+}
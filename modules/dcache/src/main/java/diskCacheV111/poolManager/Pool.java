@@ -18,14 +18,14 @@ import dmg.cells.nucleus.CellAddressCore;
 public class Pool extends PoolCore implements SelectionPool {
     private static final long serialVersionUID = 8108406418388363116L;
     final Map<String, PGroup> _pGroupList = new ConcurrentHashMap<>();
-    private boolean _enabled = true;
+    private volatile boolean _enabled = true;
     private volatile long _active;
-    private boolean _ping = true;
-    private long _serialId;
-    private boolean _rdOnly;
-    private ImmutableSet<String> _hsmInstances = ImmutableSet.of();
-    private PoolV2Mode _mode = new PoolV2Mode(PoolV2Mode.DISABLED);
-    private CellAddressCore _address;
+    private volatile boolean _ping = true;
+    private volatile long _serialId;
+    private volatile boolean _rdOnly;
+    private volatile ImmutableSet<String> _hsmInstances = ImmutableSet.of();
+    private volatile PoolV2Mode _mode = new PoolV2Mode(PoolV2Mode.DISABLED);
+    private volatile CellAddressCore _address;
 
     public Pool(String name) {
         super(name);
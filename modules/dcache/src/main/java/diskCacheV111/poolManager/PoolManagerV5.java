@@ -87,6 +87,8 @@ public class PoolManagerV5
 
     private PoolSelectionUnit _selectionUnit ;
     private SerializablePoolMonitor _poolMonitor;
+    private PoolSelectionCache _selectionCache;
+    private Runnable _onSelectionUnitChange;
 
     private CostModule   _costModule  ;
     private CellStub _poolStatusTopic;
@@ -125,6 +127,11 @@ public class PoolManagerV5
         _costModule = costModule;
     }
 
+    public void setPoolSelectionCache(PoolSelectionCache selectionCache)
+    {
+        _selectionCache = selectionCache;
+    }
+
     public void setPoolMonitor(SerializablePoolMonitor poolMonitor)
     {
         _poolMonitor = poolMonitor;
@@ -188,6 +195,8 @@ public class PoolManagerV5
         _log.info("Watchdog : {}", _watchdog);
 
         _poolMonitor.getPoolSelectionUnit().addChangeListener(_poolMonitorThread.ON_CHANGE);
+        _onSelectionUnitChange = _selectionCache::invalidate;
+        _selectionUnit.addChangeListener(_onSelectionUnitChange);
     }
 
     @Override
@@ -206,6 +215,9 @@ public class PoolManagerV5
             _poolMonitor.getPoolSelectionUnit().removeChangeListener(_poolMonitorThread.ON_CHANGE);
             _poolMonitorThread.interrupt();
         }
+        if (_onSelectionUnitChange != null) {
+            _selectionUnit.removeChangeListener(_onSelectionUnitChange);
+        }
         _executor.shutdown();
     }
 
@@ -590,11 +602,12 @@ public class PoolManagerV5
     {
         DirectionType accessType = msg.getAccessType();
         msg.setPoolList(PoolPreferenceLevel.fromPoolPreferenceLevelToList(
-           _selectionUnit.match(accessType,
-                                msg.getNetUnitName(),
-                                msg.getProtocolUnitName(),
-                                msg.getFileAttributes(),
-                                null)));
+           _selectionCache.match(_selectionUnit,
+                                 accessType,
+                                 msg.getNetUnitName(),
+                                 msg.getProtocolUnitName(),
+                                 msg.getFileAttributes(),
+                                 null)));
         msg.setSucceeded();
         return msg;
     }
@@ -57,6 +57,11 @@ public class PoolMonitorV5
     private CostModule        _costModule    ;
     private PartitionManager  _partitionManager ;
 
+    /* Only used within PoolManager; doors match against their own copy
+     * of the selection unit.
+     */
+    private transient PoolSelectionCache _selectionCache;
+
     @Override
     public PoolSelectionUnit getPoolSelectionUnit()
     {
@@ -90,6 +95,24 @@ public class PoolMonitorV5
         _partitionManager = partitionManager;
     }
 
+    public void setPoolSelectionCache(PoolSelectionCache selectionCache)
+    {
+        _selectionCache = selectionCache;
+    }
+
+    /**
+     * Matches a request against the pool selection unit, using the
+     * selection cache if available.
+     */
+    PoolPreferenceLevel[] match(DirectionType direction, String netUnitName, String protocolUnitName,
+                                FileAttributes fileAttributes, String linkGroup)
+    {
+        PoolSelectionCache cache = _selectionCache;
+        return (cache == null)
+               ? _selectionUnit.match(direction, netUnitName, protocolUnitName, fileAttributes, linkGroup)
+               : cache.match(_selectionUnit, direction, netUnitName, protocolUnitName, fileAttributes, linkGroup);
+    }
+
     public void messageToCostModule(CellMessage cellMessage)
     {
         _costModule.messageArrived(cellMessage);
@@ -134,11 +157,11 @@ public class PoolMonitorV5
         {
             String hostName = getHostName();
             String protocol = getProtocol();
-            return _selectionUnit.match(direction,
-                                        hostName,
-                                        protocol,
-                                        _fileAttributes,
-                                        _linkGroup);
+            return PoolMonitorV5.this.match(direction,
+                                            hostName,
+                                            protocol,
+                                            _fileAttributes,
+                                            _linkGroup);
         }
 
         @Override
@@ -158,7 +181,7 @@ public class PoolMonitorV5
         {
             String hostName = getHostName();
             String protocol = getProtocol();
-            PoolPreferenceLevel[] levels = _selectionUnit.match(DirectionType.WRITE,
+            PoolPreferenceLevel[] levels = PoolMonitorV5.this.match(DirectionType.WRITE,
                     hostName,
                     protocol,
                     _fileAttributes,
@@ -232,7 +255,7 @@ public class PoolMonitorV5
              */
             String hostName = getHostName();
             String protocol = getProtocol();
-            PoolPreferenceLevel[] level = _selectionUnit.match(DirectionType.READ,
+            PoolPreferenceLevel[] level = PoolMonitorV5.this.match(DirectionType.READ,
                     hostName,
                     protocol,
                     _fileAttributes,
@@ -435,11 +458,11 @@ public class PoolMonitorV5
             boolean isRequestSatisfiable = false;
             String hostName = getHostName();
             String protocol = getProtocol();
-            PoolPreferenceLevel[] levels = _selectionUnit.match(DirectionType.READ,
-                                                                hostName,
-                                                                protocol,
-                                                                _fileAttributes,
-                                                                _linkGroup);
+            PoolPreferenceLevel[] levels = PoolMonitorV5.this.match(DirectionType.READ,
+                                                                    hostName,
+                                                                    protocol,
+                                                                    _fileAttributes,
+                                                                    _linkGroup);
             for (PoolPreferenceLevel level: levels) {
                 List<String> pools = level.getPoolList();
                 if (!pools.isEmpty()) {
@@ -506,11 +529,11 @@ public class PoolMonitorV5
         }
 
         PoolPreferenceLevel[] levels =
-            _selectionUnit.match(DirectionType.READ,
-                                 hostName,
-                                 "*/*",
-                                 attributes,
-                                 null);
+            match(DirectionType.READ,
+                  hostName,
+                  "*/*",
+                  attributes,
+                  null);
 
         Collection<String> locations = attributes.getLocations();
         for (PoolPreferenceLevel level: levels) {
@@ -0,0 +1,244 @@
+package diskCacheV111.poolManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.PrintWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import diskCacheV111.poolManager.PoolSelectionUnit.DirectionType;
+
+import dmg.cells.nucleus.CellInfo;
+import dmg.cells.nucleus.CellInfoProvider;
+
+import org.dcache.vehicles.FileAttributes;
+
+/**
+ * Size bounded cache of pool selection unit match results.
+ *
+ * The result of {@link PoolSelectionUnit#match} only depends on the
+ * direction, the units derived from the request, the link group and the
+ * configuration of the pool selection unit. The cache is keyed on the
+ * former and must be invalidated whenever the latter changes, typically
+ * by registering {@link #invalidate} as a change listener of the pool
+ * selection unit.
+ *
+ * Since pools silently drop out of the selection when their heartbeat is
+ * overdue, cached results also expire after a configurable time.
+ *
+ * Entries are tagged with the generation of the cache at the time the
+ * match started. A result computed concurrently with an invalidation is
+ * thus never returned, even if it is inserted after the invalidation.
+ *
+ * Cached results are stored with immutable pool lists and every caller
+ * receives its own mutable copy, thus callers may modify the result.
+ */
+public class PoolSelectionCache implements CellInfoProvider
+{
+    private final AtomicLong _generation = new AtomicLong();
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final LongAdder _invalidations = new LongAdder();
+
+    private Cache<Key, Entry> _cache;
+    private long _size;
+    private long _timeout;
+    private TimeUnit _timeoutUnit;
+
+    public void setSize(long size)
+    {
+        _size = size;
+    }
+
+    public void setTimeout(long timeout)
+    {
+        _timeout = timeout;
+    }
+
+    public void setTimeoutUnit(TimeUnit unit)
+    {
+        _timeoutUnit = unit;
+    }
+
+    public void init()
+    {
+        _cache = CacheBuilder.newBuilder()
+                .maximumSize(_size)
+                .expireAfterWrite(_timeout, _timeoutUnit)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the result of matching the request against {@code psu},
+     * reusing a previous result for an identical request if possible.
+     */
+    public PoolPreferenceLevel[] match(PoolSelectionUnit psu, DirectionType type, String netUnitName,
+                                       String protocolUnitName, FileAttributes fileAttributes,
+                                       String linkGroupName)
+    {
+        if (_size == 0) {
+            return psu.match(type, netUnitName, protocolUnitName, fileAttributes, linkGroupName);
+        }
+
+        Key key = new Key(type, netUnitName, protocolUnitName, fileAttributes, linkGroupName);
+        long generation = _generation.get();
+        Entry entry = _cache.getIfPresent(key);
+        if (entry != null && entry.generation == generation) {
+            _hits.increment();
+            return copyOf(entry.levels);
+        }
+        _misses.increment();
+
+        PoolPreferenceLevel[] levels =
+                psu.match(type, netUnitName, protocolUnitName, fileAttributes, linkGroupName);
+        _cache.put(key, new Entry(generation, immutableCopyOf(levels)));
+        return levels;
+    }
+
+    private static PoolPreferenceLevel[] copyOf(PoolPreferenceLevel[] levels)
+    {
+        PoolPreferenceLevel[] copy = new PoolPreferenceLevel[levels.length];
+        for (int i = 0; i < levels.length; i++) {
+            copy[i] = new PoolPreferenceLevel(new ArrayList<>(levels[i].getPoolList()), levels[i].getTag());
+        }
+        return copy;
+    }
+
+    private static PoolPreferenceLevel[] immutableCopyOf(PoolPreferenceLevel[] levels)
+    {
+        PoolPreferenceLevel[] copy = new PoolPreferenceLevel[levels.length];
+        for (int i = 0; i < levels.length; i++) {
+            copy[i] = new PoolPreferenceLevel(ImmutableList.copyOf(levels[i].getPoolList()), levels[i].getTag());
+        }
+        return copy;
+    }
+
+    /**
+     * Discards all cached results.
+     */
+    public void invalidate()
+    {
+        _generation.incrementAndGet();
+        _invalidations.increment();
+        _cache.invalidateAll();
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        long hits = _hits.sum();
+        long misses = _misses.sum();
+        pw.println("Selection cache");
+        pw.println("             Size : " + _cache.size() + " of " + _size);
+        pw.println("          Timeout : " + _timeout + " " + _timeoutUnit.name().toLowerCase());
+        pw.println("             Hits : " + hits);
+        pw.println("           Misses : " + misses);
+        pw.println("         Hit rate : " + String.format("%.1f%%", (hits + misses == 0) ? 0.0 : 100.0 * hits / (hits + misses)));
+        pw.println("        Evictions : " + _cache.stats().evictionCount());
+        pw.println("    Invalidations : " + _invalidations);
+    }
+
+    @Override
+    public CellInfo getCellInfo(CellInfo info)
+    {
+        return info;
+    }
+
+    private static class Entry
+    {
+        final long generation;
+        final PoolPreferenceLevel[] levels;
+
+        Entry(long generation, PoolPreferenceLevel[] levels)
+        {
+            this.generation = generation;
+            this.levels = levels;
+        }
+    }
+
+    /**
+     * The parts of a match request the result depends on.
+     */
+    private static class Key
+    {
+        private final DirectionType type;
+        private final String netUnitName;
+        private final String protocolUnitName;
+        private final String storeUnitName;
+        private final String dCacheUnitName;
+        private final String linkGroupName;
+
+        /* Pools can only stage a file if they are connected to one of
+         * these HSM instances; only relevant for CACHE.
+         */
+        private final ImmutableSet<String> hsmInstances;
+
+        private final int hashCode;
+
+        Key(DirectionType type, String netUnitName, String protocolUnitName,
+            FileAttributes fileAttributes, String linkGroupName)
+        {
+            this.type = type;
+            this.netUnitName = netUnitName;
+            this.protocolUnitName = protocolUnitName;
+            this.storeUnitName = fileAttributes.getStorageClass() + "@" + fileAttributes.getHsm();
+            this.dCacheUnitName = fileAttributes.getCacheClass();
+            this.linkGroupName = linkGroupName;
+            this.hsmInstances = (type == DirectionType.CACHE) ? getHsmInstances(fileAttributes) : ImmutableSet.of();
+            this.hashCode = Objects.hash(type, netUnitName, protocolUnitName, storeUnitName,
+                                         dCacheUnitName, linkGroupName, hsmInstances);
+        }
+
+        private static ImmutableSet<String> getHsmInstances(FileAttributes fileAttributes)
+        {
+            Collection<URI> locations = fileAttributes.getStorageInfo().locations();
+            if (locations.isEmpty()) {
+                String hsm = fileAttributes.getHsm();
+                return (hsm == null) ? ImmutableSet.of() : ImmutableSet.of(hsm);
+            }
+            ImmutableSet.Builder<String> instances = ImmutableSet.builder();
+            for (URI location : locations) {
+                String authority = location.getAuthority();
+                if (authority != null) {
+                    instances.add(authority);
+                }
+            }
+            return instances.build();
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hashCode == other.hashCode
+                   && type == other.type
+                   && Objects.equals(netUnitName, other.netUnitName)
+                   && Objects.equals(protocolUnitName, other.protocolUnitName)
+                   && storeUnitName.equals(other.storeUnitName)
+                   && Objects.equals(dCacheUnitName, other.dCacheUnitName)
+                   && Objects.equals(linkGroupName, other.linkGroupName)
+                   && hsmInstances.equals(other.hsmInstances);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+    }
+}
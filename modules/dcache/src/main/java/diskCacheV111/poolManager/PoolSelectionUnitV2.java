@@ -15,7 +15,6 @@ import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.StringWriter;
-import java.net.URI;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -26,7 +25,6 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -87,6 +85,13 @@ public class PoolSelectionUnitV2
     private final Lock _psuReadLock = _psuReadWriteLock.readLock();
     private final Lock _psuWriteLock = _psuReadWriteLock.writeLock();
 
+    /**
+     * Compiled form of the current setup used by the select path. Pool
+     * selection does not lock; the snapshot is discarded whenever the write
+     * lock is released and recompiled on next use.
+     */
+    private transient volatile SelectionSnapshot _snapshot;
+
     private final NetHandler _netHandler = new NetHandler();
 
     @Override
@@ -560,15 +565,6 @@ public class PoolSelectionUnitV2
         return resultMap;
     }
 
-    private LinkMap match(LinkMap linkMap, Unit unit, LinkGroup linkGroup,
-                    DirectionType ioType) {
-        Map<String, Link> map = match(unit, linkGroup, ioType);
-        for (Link link : map.values()) {
-            linkMap.addLink(link);
-        }
-        return linkMap;
-    }
-
     @Override
     public PoolPreferenceLevel[] match(DirectionType type,  String netUnitName, String protocolUnitName,
                     FileAttributes fileAttributes, String linkGroupName) {
@@ -584,271 +580,8 @@ public class PoolSelectionUnitV2
                         variableMap, storageInfo.locations(), linkGroupName);
 
 
-        PoolPreferenceLevel[] result = null;
-        rlock();
-        try {
-            //
-            // resolve the unit from the unitname (or net unit mask)
-            //
-            // regexp code added by rw2 12/5/02
-            // original code is in the else
-            //
-            List<Unit> list = new ArrayList<>();
-            if (_useRegex) {
-                Unit universalCoverage = null;
-                Unit classCoverage = null;
-
-                for (Unit unit : _units.values()) {
-                    if (unit.getType() != STORE) {
-                        continue;
-                    }
-
-                    if (unit.getName().equals("*@*")) {
-                        universalCoverage = unit;
-                    } else if (unit.getName().equals("*@" + storeUnitName)) {
-                        classCoverage = unit;
-                    } else {
-                        if (Pattern.matches(unit.getName(), storeUnitName)) {
-                            list.add(unit);
-                            break;
-                        }
-                    }
-                }
-                //
-                // If a pattern matches then use it, fail over to a class,
-                // then universal. If nothing, throw exception
-                //
-                if (list.isEmpty()) {
-                    if (classCoverage != null) {
-                        list.add(classCoverage);
-                    } else if (universalCoverage != null) {
-                        list.add(universalCoverage);
-                    } else {
-                        throw new IllegalArgumentException(
-                                        "Unit not found : " + storeUnitName);
-                    }
-                }
-
-            } else {
-                Unit unit = _units.get(storeUnitName);
-                if (unit == null) {
-                    int ind = storeUnitName.lastIndexOf("@");
-                    if ((ind > 0) && (ind < (storeUnitName.length() - 1))) {
-                        String template = "*@"
-                                        + storeUnitName.substring(ind + 1);
-                        if ((unit = _units.get(template)) == null) {
-
-                            if ((unit = _units.get("*@*")) == null) {
-                                _log.debug("no matching storage unit found for: {}", storeUnitName);
-                                throw new IllegalArgumentException(
-                                                "Unit not found : " + storeUnitName);
-                            }
-                        }
-                    } else {
-                        throw new IllegalArgumentException(
-                                        "IllegalUnitFormat : " + storeUnitName);
-                    }
-                }
-                _log.debug("matching storage unit found for: {}", storeUnitName);
-                list.add(unit);
-            }
-            if (protocolUnitName != null) {
-
-                Unit unit = findProtocolUnit(protocolUnitName);
-                //
-                if (unit == null){
-                    _log.debug("no matching protocol unit found for: {}", protocolUnitName);
-                    throw new IllegalArgumentException("Unit not found : "
-                                    + protocolUnitName);
-                }
-                _log.debug("matching protocol unit found: {}", unit);
-                list.add(unit);
-            }
-            if (dCacheUnitName != null) {
-                Unit unit = _units.get(dCacheUnitName);
-                if (unit == null) {
-                    _log.debug("no matching dCache unit found for: {}", dCacheUnitName);
-                    throw new IllegalArgumentException("Unit not found : "
-                                    + dCacheUnitName);
-                }
-                _log.debug("matching dCache unit found: {}", unit);
-                list.add(unit);
-            }
-            if (netUnitName != null) {
-                try {
-                    Unit unit = _netHandler.match(netUnitName);
-                    if (unit == null) {
-                        _log.debug("no matching net unit found for: {}", netUnitName);
-                        throw new IllegalArgumentException(
-                                        "Unit not matched : " + netUnitName);
-                    }
-                    _log.debug("matching net unit found: {}" + unit);
-                    list.add(unit);
-                } catch (UnknownHostException uhe) {
-                    throw new IllegalArgumentException(
-                                    "NetUnit not resolved : " + netUnitName);
-                }
-            }
-            //
-            // match the requests ( logical AND )
-            //
-            //
-            // Map map = null ;
-            // while( units.hasNext() )map = match( map , (Unit)units.next() ) ;
-            // Iterator links = map.values().iterator() ;
-            //
-
-            //
-            // i) sort according to the type (read,write,cache)
-            // ii) the and is only OK if we have at least as many
-            // units (from the arguments) as required by the
-            // number of uGroupList(s).
-            // iii) check for the hashtable if required.
-            //
-            int fitCount = list.size();
-            Set<Link> sortedSet = new TreeSet<>(new LinkComparator(type));
-
-            //
-            // use subset on links if it's defined
-            //
-
-            LinkGroup linkGroup = null;
-            if (linkGroupName != null) {
-                linkGroup = _linkGroups.get(linkGroupName);
-                if (linkGroup == null) {
-                    _log.debug("LinkGroup not found : {}", linkGroupName );
-                    throw new IllegalArgumentException("LinkGroup not found : "
-                                    + linkGroupName);
-                }
-            }
-
-            //
-            // find all links that matches the specified list of units
-            //
-
-            LinkMap matchingLinks = new LinkMap();
-            for (Unit unit : list) {
-                matchingLinks = match(matchingLinks, unit, linkGroup, type);
-            }
-
-            Iterator<Link> linkIterator = matchingLinks.iterator();
-            while (linkIterator.hasNext()) {
-
-                Link link = linkIterator.next();
-                if ((link._uGroupList.size() <= fitCount)
-                                && ((variableMap == null) || link.exec(variableMap))) {
-
-                    sortedSet.add(link);
-                }
-            }
-            int pref = -1;
-            List<List<Link>> listList = new ArrayList<>();
-            List<Link> current = null;
-
-            switch (type) {
-
-                case READ:
-                    for (Link link : sortedSet) {
-                        if (link.getReadPref() < 1) {
-                            continue;
-                        }
-                        if (link.getReadPref() != pref) {
-                            listList.add(current = new ArrayList<>());
-                            pref = link.getReadPref();
-                        }
-                        current.add(link);
-                    }
-                    break;
-                case CACHE:
-                    for (Link link : sortedSet) {
-                        if (link.getCachePref() < 1) {
-                            continue;
-                        }
-                        if (link.getCachePref() != pref) {
-                            listList.add(current = new ArrayList<>());
-                            pref = link.getCachePref();
-                        }
-                        current.add(link);
-                    }
-                    break;
-                case P2P:
-                    for (Link link : sortedSet) {
-                        int tmpPref = link.getP2pPref() < 0 ? link.getReadPref()
-                                        : link.getP2pPref();
-                        if (tmpPref < 1) {
-                            continue;
-                        }
-                        if (tmpPref != pref) {
-                            listList.add(current = new ArrayList<>());
-                            pref = tmpPref;
-                        }
-                        current.add(link);
-                    }
-                    break;
-                case WRITE:
-                    for (Link link : sortedSet) {
-                        if (link.getWritePref() < 1) {
-                            continue;
-                        }
-                        if (link.getWritePref() != pref) {
-                            listList.add(current = new ArrayList<>());
-                            pref = link.getWritePref();
-                        }
-                        current.add(link);
-                    }
-            }
-            List<Link>[] x = listList.toArray(new List[listList.size()]);
-            result = new PoolPreferenceLevel[x.length];
-            //
-            // resolve the links to the pools
-            //
-            for (int i = 0; i < x.length; i++) {
-
-                List<Link> linkList = x[i];
-                List<String> resultList = new ArrayList<>();
-                String tag = null;
-
-                for (Link link : linkList) {
-                    //
-                    // get the link if available
-                    //
-                    if ((tag == null) && (link.getTag() != null)) {
-                        tag = link.getTag();
-                    }
-
-                    for (PoolCore poolCore : link._poolList.values()) {
-                        if (poolCore instanceof Pool) {
-                            Pool pool = (Pool) poolCore;
-                            _log.debug("Pool: {} can read from tape? : {}", pool, pool.canReadFromTape());
-                            if (((type == DirectionType.READ && pool.canRead())
-                                            || (type == DirectionType.CACHE && pool.canReadFromTape()
-                                            && poolCanStageFile(pool, fileAttributes))
-                                            || (type == DirectionType.WRITE && pool.canWrite())
-                                            || (type == DirectionType.P2P && pool.canWriteForP2P()))
-                                            && (_allPoolsActive || pool.isActive())) {
-                                resultList.add(pool.getName());
-                            }
-                        } else {
-                            for (Pool pool : ((PGroup)poolCore)._poolList.values()) {
-                                _log.debug("Pool: {} can read from tape? : {}", pool, pool.canReadFromTape());
-                                if (((type == DirectionType.READ && pool.canRead())
-                                                || (type == DirectionType.CACHE && pool.canReadFromTape()
-                                                && poolCanStageFile(pool, fileAttributes))
-                                                || (type == DirectionType.WRITE && pool.canWrite())
-                                                || (type == DirectionType.P2P && pool.canWriteForP2P()))
-                                                && (_allPoolsActive || pool.isActive())) {
-                                    resultList.add(pool.getName());
-                                }
-                            }
-                        }
-                    }
-                }
-                result[i] = new PoolPreferenceLevel(resultList, tag);
-            }
-
-        } finally {
-            runlock();
-        }
+        PoolPreferenceLevel[] result = getSnapshot().match(type, netUnitName, protocolUnitName,
+                                                           fileAttributes, linkGroupName);
 
         if( _log.isDebugEnabled() ) {
 
@@ -867,8 +600,8 @@ public class PoolSelectionUnitV2
 
     @Override
     public String getProtocolUnit(String protocolUnitName) {
-        Unit unit = findProtocolUnit(protocolUnitName);
-        return unit == null ? null : unit.getName();
+        SelectionSnapshot.CompiledUnit unit = getSnapshot().findProtocolUnit(protocolUnitName);
+        return unit == null ? null : unit.unit.getName();
     }
 
     //
@@ -937,17 +670,11 @@ public class PoolSelectionUnitV2
 
     @Override
     public String getNetIdentifier(String address) throws UnknownHostException {
-
-        rlock();
-        try {
-            NetUnit unit = _netHandler.match(address);
-            if (unit == null) {
-                return NO_NET;
-            }
-            return unit.getCanonicalName();
-        } finally {
-            runlock();
+        NetUnit unit = getSnapshot().matchNetUnit(address);
+        if (unit == null) {
+            return NO_NET;
         }
+        return unit.getCanonicalName();
     }
 
     /**
@@ -1133,18 +860,23 @@ public class PoolSelectionUnitV2
 
     public String setRegex(String onOff) {
         String retVal;
-        switch (onOff) {
-            case "on":
-                _useRegex = true;
-                retVal = "regex turned on";
-                break;
-            case "off":
-                _useRegex = false;
-                retVal = "regex turned off";
-                break;
-            default:
-                throw new IllegalArgumentException(
-                                "please set regex either on or off");
+        wlock();
+        try {
+            switch (onOff) {
+                case "on":
+                    _useRegex = true;
+                    retVal = "regex turned on";
+                    break;
+                case "off":
+                    _useRegex = false;
+                    retVal = "regex turned off";
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                                    "please set regex either on or off");
+            }
+        } finally {
+            wunlock();
         }
         return retVal;
     }
@@ -2390,24 +2122,6 @@ public class PoolSelectionUnitV2
      * Returns true if and only if the pool can stage the given file. That is
      * the only case if the file is located on an HSM connected to the pool.
      */
-    private boolean poolCanStageFile(Pool pool, FileAttributes file) {
-        boolean rc  = false;
-        if (file.getStorageInfo().locations().isEmpty()
-                        && pool.getHsmInstances().contains(file.getHsm())) {
-            // This is for backwards compatibility until all info
-            // extractors support URIs.
-            rc = true;
-        } else {
-            for (URI uri : file.getStorageInfo().locations()) {
-                if (pool.getHsmInstances().contains(uri.getAuthority())) {
-                    rc = true;
-                }
-            }
-        }
-        _log.debug("{}: matching hsm ({}) found?: {}", pool.getName(), file.getHsm(), rc);
-        return rc;
-    }
-
     @Override
     public Collection<SelectionPool> getPoolsByPoolGroup(String poolGroup)
                     throws NoSuchElementException {
@@ -2460,12 +2174,35 @@ public class PoolSelectionUnitV2
 
     protected void wunlock()
     {
+        _snapshot = null;
         _psuWriteLock.unlock();
         if (!_psuReadWriteLock.isWriteLockedByCurrentThread()) {
             _onChangeListeners.stream().forEach(Runnable::run);
         }
     }
 
+    /**
+     * Returns the compiled form of the current setup, compiling it if
+     * necessary.
+     */
+    private SelectionSnapshot getSnapshot()
+    {
+        SelectionSnapshot snapshot = _snapshot;
+        if (snapshot == null) {
+            rlock();
+            try {
+                snapshot = _snapshot;
+                if (snapshot == null) {
+                    snapshot = new SelectionSnapshot(_useRegex, _allPoolsActive, _units, _linkGroups, _netHandler);
+                    _snapshot = snapshot;
+                }
+            } finally {
+                runlock();
+            }
+        }
+        return snapshot;
+    }
+
     protected void rlock()
     {
         _psuReadLock.lock();
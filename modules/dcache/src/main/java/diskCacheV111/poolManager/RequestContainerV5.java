@@ -23,7 +23,14 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -91,8 +98,24 @@ public class RequestContainerV5
 
     private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("MM.dd HH:mm:ss");
 
-    private final Map<UOID, PoolRequestHandler>     _messageHash   = new HashMap<>() ;
-    private final Map<String, PoolRequestHandler>   _handlerHash   = new HashMap<>() ;
+    private final Map<UOID, PoolRequestHandler>     _messageHash   = new ConcurrentHashMap<>() ;
+    private final Map<String, PoolRequestHandler>   _handlerHash   = new ConcurrentHashMap<>() ;
+
+    /**
+     * Held shared while a request is sent to a pool and registered in
+     * _messageHash, and exclusively by messageArrived when no handler is
+     * registered for a reply. The UOID of a message is only known once the
+     * message is sent, thus a reply may arrive before the request is
+     * registered.
+     */
+    private final ReadWriteLock _sendLock = new ReentrantReadWriteLock();
+
+    /**
+     * TTL checks of request handlers ordered by the time they are due.
+     * Checks refer to handlers by name, so that checks outliving their
+     * handler do not keep it reachable.
+     */
+    private final DelayQueue<TtlCheck> _ttlChecks = new DelayQueue<>();
 
     private CellStub _billing;
     private CellStub _poolStub;
@@ -117,7 +140,7 @@ public class RequestContainerV5
     private PnfsHandler        _pnfsHandler;
 
     private Executor _executor;
-    private final Map<PnfsId, CacheException>            _selections       = new HashMap<>() ;
+    private final Map<PnfsId, CacheException>            _selections       = new ConcurrentHashMap<>() ;
     private PartitionManager   _partitionManager ;
     private volatile long               _checkFilePingTimer = 10 * 60 * 1000 ;
     /** value in milliseconds */
@@ -206,10 +229,17 @@ public class RequestContainerV5
     public void messageArrived(CellMessage envelope, Object message)
     {
         UOID uoid = envelope.getLastUOID();
-        PoolRequestHandler handler;
-
-        synchronized (_messageHash) {
-            handler = _messageHash.remove(uoid);
+        PoolRequestHandler handler = _messageHash.remove(uoid);
+        if (handler == null) {
+            /* The reply may have overtaken the registration of the request.
+             */
+            Lock lock = _sendLock.writeLock();
+            lock.lock();
+            try {
+                handler = _messageHash.remove(uoid);
+            } finally {
+                lock.unlock();
+            }
             if (handler == null) {
                 return;
             }
@@ -218,21 +248,23 @@ public class RequestContainerV5
         handler.mailForYou(message);
     }
 
+    /**
+     * Ticker sending alive commands to request handlers with requests
+     * whose time to live has been exceeded. Only handlers that are due
+     * are visited. A handler is reminded every ticker interval until it
+     * has expired its requests.
+     */
     @Override
     public void run()
     {
         while (!Thread.interrupted()) {
             try {
-                Thread.sleep(_ticketInterval) ;
-
-                List<PoolRequestHandler> list;
-                synchronized (_handlerHash) {
-                    list = new ArrayList<>(_handlerHash.values());
-                }
-                for (PoolRequestHandler handler: list) {
-                    if (handler != null) {
-                        handler.alive();
-                    }
+                TtlCheck check = _ttlChecks.take();
+                PoolRequestHandler handler = _handlerHash.get(check.name);
+                long now = System.currentTimeMillis();
+                if (handler != null && now > handler._nextTtlTimeout) {
+                    handler.alive();
+                    _ttlChecks.put(new TtlCheck(check.name, now + _ticketInterval));
                 }
             } catch (InterruptedException e) {
                 break;
@@ -249,12 +281,7 @@ public class RequestContainerV5
     public void poolStatusChanged(String poolName, int poolStatus) {
         _log.info("Restore Manager : got 'poolRestarted' for " + poolName);
         try {
-            List<PoolRequestHandler> list;
-            synchronized (_handlerHash) {
-                list = new ArrayList<>(_handlerHash.values());
-            }
-
-            for (PoolRequestHandler rph : list) {
+            for (PoolRequestHandler rph : _handlerHash.values()) {
 
                 if (rph == null) {
                     continue;
@@ -298,6 +325,8 @@ public class RequestContainerV5
        pw.println( "  Thread Controller : "+_executor ) ;
        pw.println( "    Maximum Retries : "+_maxRetries ) ;
        pw.println( "    Pool Ping Timer : "+(_checkFilePingTimer/1000) + " seconds" ) ;
+       pw.println( "   Pending Requests : "+_handlerHash.size() ) ;
+       pw.println( " Pending TTL Checks : "+_ttlChecks.size() ) ;
        pw.println( "           On Error : "+_onError ) ;
        pw.println( "          Allow p2p : "+( def._p2pAllowed ? "on" : "off" )+
                                           " oncost="+( def._p2pOnCost ? "on" : "off" )+
@@ -364,30 +393,28 @@ public class RequestContainerV5
     public static final String hh_rc_select = "[<pnfsId> [<errorNumber> [<errorMessage>]] [-remove]]" ;
     public String ac_rc_select_$_0_3( Args args ){
 
-       synchronized( _selections ){
-          if( args.argc() == 0 ){
-             StringBuilder sb = new StringBuilder() ;
-             for( Map.Entry<PnfsId, CacheException > entry: _selections.entrySet() ){
-
-                sb.append(entry.getKey().toString()).
-                   append("  ").
-                   append(entry.getValue().toString()).
-                   append("\n");
-             }
-             return sb.toString() ;
-          }
-          boolean remove = args.hasOption("remove") ;
-          PnfsId  pnfsId = new PnfsId(args.argv(0));
+       if( args.argc() == 0 ){
+          StringBuilder sb = new StringBuilder() ;
+          for( Map.Entry<PnfsId, CacheException > entry: _selections.entrySet() ){
 
-          if( remove ){
-             _selections.remove( pnfsId ) ;
-             return "" ;
+             sb.append(entry.getKey().toString()).
+                append("  ").
+                append(entry.getValue().toString()).
+                append("\n");
           }
-          int    errorNumber  = args.argc() > 1 ? Integer.parseInt(args.argv(1)) : 1 ;
-          String errorMessage = args.argc() > 2 ? args.argv(2) : ("Failed-"+errorNumber);
+          return sb.toString() ;
+       }
+       boolean remove = args.hasOption("remove") ;
+       PnfsId  pnfsId = new PnfsId(args.argv(0));
 
-          _selections.put( pnfsId , new CacheException(errorNumber,errorMessage) ) ;
+       if( remove ){
+          _selections.remove( pnfsId ) ;
+          return "" ;
        }
+       int    errorNumber  = args.argc() > 1 ? Integer.parseInt(args.argv(1)) : 1 ;
+       String errorMessage = args.argc() > 2 ? args.argv(2) : ("Failed-"+errorNumber);
+
+       _selections.put( pnfsId , new CacheException(errorNumber,errorMessage) ) ;
        return "" ;
     }
     public static final String hh_rc_set_warning_path = " # obsolete";
@@ -480,28 +507,17 @@ public class RequestContainerV5
     {
        boolean forceAll = args.hasOption("force-all") ;
        if( args.argv(0).equals("*") ){
-          List<PoolRequestHandler> all;
-          //
-          // Remember : we are not allowed to call 'retry' as long
-          // as we  are holding the _handlerHash lock.
-          //
-          synchronized( _handlerHash ){
-             all = new ArrayList<>( _handlerHash.values() ) ;
-          }
-          for (PoolRequestHandler rph : all) {
+          for (PoolRequestHandler rph : _handlerHash.values()) {
               if( forceAll || ( rph._currentRc != 0 ) ) {
                   rph.retry();
               }
           }
        }else{
-          PoolRequestHandler rph;
-          synchronized( _handlerHash ){
-             rph = _handlerHash.get(args.argv(0));
-             if( rph == null ) {
-                 throw new
-                         IllegalArgumentException("Not found : " + args
-                         .argv(0));
-             }
+          PoolRequestHandler rph = _handlerHash.get(args.argv(0));
+          if( rph == null ) {
+              throw new
+                      IllegalArgumentException("Not found : " + args
+                      .argv(0));
           }
           rph.retry() ;
        }
@@ -513,14 +529,10 @@ public class RequestContainerV5
        int    errorNumber = args.argc() > 1 ? Integer.parseInt(args.argv(1)) : 1;
        String errorString = args.argc() > 2 ? args.argv(2) : "Operator Intervention" ;
 
-       PoolRequestHandler rph;
-
-       synchronized( _handlerHash ){
-          rph = _handlerHash.get(args.argv(0));
-          if( rph == null ) {
-              throw new
-                      IllegalArgumentException("Not found : " + args.argv(0));
-          }
+       PoolRequestHandler rph = _handlerHash.get(args.argv(0));
+       if( rph == null ) {
+           throw new
+                   IllegalArgumentException("Not found : " + args.argv(0));
        }
        rph.failed(errorNumber,errorString) ;
        return "" ;
@@ -534,12 +546,7 @@ public class RequestContainerV5
        boolean isLongListing = args.hasOption("l");
 
        if( !args.hasOption("w") ){
-          List<PoolRequestHandler>    allRequestHandlers;
-          synchronized( _handlerHash ){
-              allRequestHandlers = new ArrayList<>( _handlerHash.values() ) ;
-          }
-
-          for( PoolRequestHandler h : allRequestHandlers ){
+          for( PoolRequestHandler h : _handlerHash.values() ){
 
               if( h == null ) {
                   continue;
@@ -558,12 +565,7 @@ public class RequestContainerV5
           }
        }else{
 
-           Map<UOID, PoolRequestHandler>  allPendingRequestHandlers   = new HashMap<>() ;
-          synchronized(_messageHash){
-              allPendingRequestHandlers.putAll( _messageHash ) ;
-          }
-
-          for (Map.Entry<UOID, PoolRequestHandler> requestHandler : allPendingRequestHandlers.entrySet()) {
+          for (Map.Entry<UOID, PoolRequestHandler> requestHandler : _messageHash.entrySet()) {
 
                 UOID uoid = requestHandler.getKey();
                 PoolRequestHandler h = requestHandler.getValue();
@@ -583,14 +585,9 @@ public class RequestContainerV5
     public static final String hh_xrc_ls = " # lists pending requests (binary)" ;
     public Object ac_xrc_ls( Args args ){
 
-       List<PoolRequestHandler> all;
-       synchronized( _handlerHash ){
-          all = new ArrayList<>( _handlerHash.values() ) ;
-       }
-
        List<RestoreHandlerInfo>          list = new ArrayList<>() ;
 
-       for( PoolRequestHandler h: all  ){
+       for( PoolRequestHandler h: _handlerHash.values()  ){
           if( h  == null ) {
               continue;
           }
@@ -634,12 +631,11 @@ public class RequestContainerV5
         String canonicalName = pnfsId +"@"+netName+"-"+protocolName+(enforceP2P?"-p2p":"")  ;
         //
         //
-        PoolRequestHandler handler;
         _log.info( "Adding request for : "+canonicalName ) ;
-        synchronized( _handlerHash ){
-           handler = _handlerHash.computeIfAbsent(canonicalName, n -> new PoolRequestHandler(pnfsId, n, allowedStates));
-           handler.addRequest(envelope) ;
-        }
+        PoolRequestHandler handler;
+        do {
+            handler = _handlerHash.computeIfAbsent(canonicalName, n -> new PoolRequestHandler(pnfsId, n, allowedStates));
+        } while (!handler.addRequest(envelope));
     }
 
 
@@ -679,6 +675,7 @@ public class RequestContainerV5
     private class PoolRequestHandler  {
 
         protected final PnfsId       _pnfsId;
+        /* Guarded by the handler. */
         protected final List<CellMessage>    _messages = new ArrayList<>() ;
         protected int _retryCounter;
         private final CDC _cdc = new CDC();
@@ -758,7 +755,14 @@ public class RequestContainerV5
          * Indicates the next time a TTL of a request message will be
          * exceeded.
          */
-        private long _nextTtlTimeout = Long.MAX_VALUE;
+        private volatile long _nextTtlTimeout = Long.MAX_VALUE;
+
+        /**
+         * Set once the handler has been removed from _handlerHash. No
+         * further requests are added to a closed handler. Guarded by
+         * the handler.
+         */
+        private boolean _isClosed;
 
         public PoolRequestHandler(PnfsId pnfsId, String canonicalName,
                                   Collection<RequestState> allowedStates)
@@ -773,22 +777,39 @@ public class RequestContainerV5
         // at any time.
         //...........................................................
         //
-        // add request is assumed to be synchronized by a higher level.
+        // returns false if the handler is closed, in which case the
+        // request has to be added to a new handler.
         //
-        public void addRequest( CellMessage message ){
+        public boolean addRequest( CellMessage message ){
+           synchronized (this) {
+              if (_isClosed) {
+                  return false;
+              }
 
-           _messages.add(message);
-           _stagingDenied = false;
+              _messages.add(message);
+              _stagingDenied = false;
 
-           long ttl = message.getTtl();
-           if (ttl < Long.MAX_VALUE) {
-               long timeout = System.currentTimeMillis() + ttl;
-               _nextTtlTimeout = Math.min(_nextTtlTimeout, timeout);
-           }
+              long ttl = message.getTtl();
+              if (ttl < Long.MAX_VALUE) {
+                  long timeout = System.currentTimeMillis() + ttl;
+                  if (timeout < _nextTtlTimeout) {
+                      _nextTtlTimeout = timeout;
+                      scheduleTtlCheck();
+                  }
+              }
 
-           if (_poolSelector != null) {
-               return;
+              if (_poolSelector != null) {
+                  return true;
+              }
+
+              initialize(message);
            }
+           add(null) ;
+           return true;
+        }
+
+        private void initialize(CellMessage message)
+        {
 
            PoolMgrSelectReadPoolMsg request =
                 (PoolMgrSelectReadPoolMsg)message.getMessageObject() ;
@@ -813,16 +834,16 @@ public class RequestContainerV5
                _poolMonitor.getPoolSelector(_fileAttributes,
                        _protocolInfo,
                        _linkGroup);
-           //
-           //
-           //
-           add(null) ;
         }
 
-        public List<CellMessage> getMessages() {
-            synchronized( _handlerHash ){
-                return new ArrayList<>(_messages);
-            }
+        private void scheduleTtlCheck()
+        {
+            /* The TTL is exceeded once the current time is past the timeout. */
+            _ttlChecks.put(new TtlCheck(_name, _nextTtlTimeout + 1));
+        }
+
+        public synchronized List<CellMessage> getMessages() {
+            return new ArrayList<>(_messages);
         }
 
         public String getPoolCandidate()
@@ -848,10 +869,14 @@ public class RequestContainerV5
             }
         }
 
+        private synchronized int getMessageCount() {
+            return _messages.size();
+        }
+
 	public RestoreHandlerInfo getRestoreHandlerInfo(){
 	   return new RestoreHandlerInfo(
 	          _name,
-		  _messages.size(),
+		  getMessageCount(),
 		  _retryCounter ,
                   _started ,
 		  getPoolCandidateState() ,
@@ -861,7 +886,7 @@ public class RequestContainerV5
 	}
         @Override
         public String toString(){
-           return _name+" m="+_messages.size()+" r="+
+           return _name+" m="+getMessageCount()+" r="+
                   _retryCounter+" ["+getPoolCandidateState()+"] ["+_status+"] "+
                   "{"+_currentRc+","+_currentRm+"}" ;
         }
@@ -919,9 +944,7 @@ public class RequestContainerV5
         //
         private void clearSteering() {
             if (_waitingFor != null) {
-                synchronized (_messageHash) {
-                  _messageHash.remove(_waitingFor);
-                }
+                _messageHash.remove(_waitingFor);
                 _waitingFor = null;
             }
         }
@@ -938,19 +961,26 @@ public class RequestContainerV5
                                         pool.getName(),
                                         _fileAttributes)
                                 );
-            synchronized( _messageHash ){
-                if( ( _maxRestore >=0 ) &&
-                    ( _messageHash.size() >= _maxRestore ) ) {
-                    return false;
-                }
+            /* The limit is not enforced strictly, as concurrent requests
+             * may pass the check at the same time.
+             */
+            if( ( _maxRestore >=0 ) &&
+                ( _messageHash.size() >= _maxRestore ) ) {
+                return false;
+            }
+            Lock lock = _sendLock.readLock();
+            lock.lock();
+            try {
                 sendMessage( cellMessage );
                 if( _waitingFor != null ) {
                     _messageHash.remove(_waitingFor);
                 }
                 _poolMonitor.messageToCostModule( cellMessage ) ;
                 _messageHash.put( _waitingFor = cellMessage.getUOID() , this ) ;
-                _status = "Staging "+ LocalDateTime.now().format(DATE_TIME_FORMAT);
+            } finally {
+                lock.unlock();
             }
+            _status = "Staging "+ LocalDateTime.now().format(DATE_TIME_FORMAT);
             return true ;
 	}
 	private void sendPool2PoolRequest(PoolInfo sourcePool, PoolInfo destPool)
@@ -962,15 +992,19 @@ public class RequestContainerV5
 	    CellMessage cellMessage =
                 new CellMessage(new CellPath(destPool.getAddress()), pool2pool);
 
-            synchronized( _messageHash ){
+            Lock lock = _sendLock.readLock();
+            lock.lock();
+            try {
                 sendMessage( cellMessage );
                 _poolMonitor.messageToCostModule( cellMessage ) ;
                 if( _waitingFor != null ) {
                     _messageHash.remove(_waitingFor);
                 }
                 _messageHash.put( _waitingFor = cellMessage.getUOID() , this ) ;
-                _status = "[P2P "+ LocalDateTime.now().format(DATE_TIME_FORMAT) +"]" ;
+            } finally {
+                lock.unlock();
             }
+            _status = "[P2P "+ LocalDateTime.now().format(DATE_TIME_FORMAT) +"]" ;
 	}
 
         /**
@@ -982,11 +1016,11 @@ public class RequestContainerV5
         private void expireRequests()
         {
             /* Access to _messages is controlled by a lock on
-             * _handlerHash.
+             * the handler.
              */
-            synchronized (_handlerHash) {
+            synchronized (this) {
                 long now = System.currentTimeMillis();
-                _nextTtlTimeout = Long.MAX_VALUE;
+                long nextTtlTimeout = Long.MAX_VALUE;
 
                 Iterator<CellMessage> i = _messages.iterator();
                 while (i.hasNext()) {
@@ -998,9 +1032,13 @@ public class RequestContainerV5
                                   + " because its time to live has been exceeded.");
                         i.remove();
                     } else if (ttl < Long.MAX_VALUE) {
-                        _nextTtlTimeout = Math.min(_nextTtlTimeout, now + ttl);
+                        nextTtlTimeout = Math.min(nextTtlTimeout, now + ttl);
                     }
                 }
+                _nextTtlTimeout = nextTtlTimeout;
+                if (nextTtlTimeout < Long.MAX_VALUE) {
+                    scheduleTtlCheck();
+                }
             }
         }
 
@@ -1013,9 +1051,18 @@ public class RequestContainerV5
             }
             //
 
-            Iterator<CellMessage> messages = _messages.iterator();
-            for (int i = 0; (i < count) && messages.hasNext(); i++) {
-                CellMessage m =  messages.next();
+            List<CellMessage> answered = new ArrayList<>();
+            boolean hasMore;
+            synchronized (this) {
+                Iterator<CellMessage> messages = _messages.iterator();
+                for (int i = 0; (i < count) && messages.hasNext(); i++) {
+                    answered.add(messages.next());
+                    messages.remove();
+                }
+                hasMore = messages.hasNext();
+            }
+
+            for (CellMessage m : answered) {
                 PoolMgrSelectReadPoolMsg rpm =
                     (PoolMgrSelectReadPoolMsg) m.getMessageObject();
                 rpm.setContext(_retryCounter + 1, _stageCandidateHost, _stageCandidatePool);
@@ -1032,9 +1079,8 @@ public class RequestContainerV5
                 if (!rpm.getSkipCostUpdate()) {
                     _poolMonitor.messageToCostModule(m);
                 }
-                messages.remove();
             }
-            return messages.hasNext();
+            return hasMore;
         }
         //
         // and the heart ...
@@ -1152,7 +1198,7 @@ public class RequestContainerV5
             /* Staging is allowed if just one of the requests has
              * permission to stage.
              */
-            for (CellMessage envelope: _messages) {
+            for (CellMessage envelope: getMessages()) {
                 try {
                     PoolMgrSelectReadPoolMsg msg =
                         (PoolMgrSelectReadPoolMsg) envelope.getMessageObject();
@@ -1324,15 +1370,11 @@ public class RequestContainerV5
 
               case ST_INIT :
                  _log.debug( "stateEngine: case ST_INIT");
-                 synchronized( _selections ){
-
-                    CacheException ce = _selections.get(_pnfsId) ;
-                    if( ce != null ){
-                       setError(ce.getRc(),ce.getMessage());
-                       nextStep(RequestState.ST_DONE , CONTINUE ) ;
-                       return ;
-                    }
-
+                 CacheException ce = _selections.get(_pnfsId) ;
+                 if( ce != null ){
+                    setError(ce.getRc(),ce.getMessage());
+                    nextStep(RequestState.ST_DONE , CONTINUE ) ;
+                    return ;
                  }
 
 
@@ -1646,11 +1688,11 @@ public class RequestContainerV5
 
                     clearSteering();
                     //
-                    // it is essential that we are not within any other
-                    // lock when trying to get the handlerHash lock.
+                    // once closed, no further requests are added.
                     //
-                    synchronized (_handlerHash) {
-                        _handlerHash.remove(_name);
+                    synchronized (this) {
+                        _isClosed = true;
+                        _handlerHash.remove(_name, this);
                     }
                     while (answerRequest(MAX_REQUEST_CLUMPING)) {
                         setError(CacheException.OUT_OF_DATE,
@@ -2073,13 +2115,9 @@ public class RequestContainerV5
                         long now = System.currentTimeMillis();
 
                         // Determine which pools to query
-                        List<PoolRequestHandler> list;
-                        synchronized (_handlerHash) {
-                            list = new ArrayList<>(_handlerHash.values());
-                        }
                         Multimap<CellAddressCore, PoolRequestHandler> p2pRequests = ArrayListMultimap.create();
                         Multimap<CellAddressCore, PoolRequestHandler> stageRequests = ArrayListMultimap.create();
-                        for (PoolRequestHandler handler : list) {
+                        for (PoolRequestHandler handler : _handlerHash.values()) {
                             if (handler._started < now - _checkFilePingTimer) {
                                 PoolInfo pool;
                                 switch (handler._state) {
@@ -2138,6 +2176,33 @@ public class RequestContainerV5
         }
     }
 
+    /**
+     * Reminder to check the TTL of the requests of a handler.
+     */
+    private static class TtlCheck implements Delayed
+    {
+        private final String name;
+        private final long due;
+
+        private TtlCheck(String name, long due)
+        {
+            this.name = name;
+            this.due = due;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit)
+        {
+            return unit.convert(due - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o)
+        {
+            return Long.compare(due, ((TtlCheck) o).due);
+        }
+    }
+
     private static class PingFailure
     {
         private final CellAddressCore pool;
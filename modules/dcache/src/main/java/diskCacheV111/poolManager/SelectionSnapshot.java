@@ -0,0 +1,441 @@
+package diskCacheV111.poolManager;
+
+import com.google.common.collect.Collections2;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigInteger;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import diskCacheV111.poolManager.PoolSelectionUnit.DirectionType;
+import diskCacheV111.poolManager.PoolSelectionUnit.SelectionLink;
+
+import org.dcache.vehicles.FileAttributes;
+
+import static java.util.Comparator.comparing;
+
+/**
+ * Immutable, precompiled form of the configuration of a pool selection unit.
+ *
+ * The candidate links of every unit, the pools reachable through every link
+ * and the link preferences are resolved when the snapshot is created, and
+ * net units are indexed by prefix length. A snapshot is thus safe to use
+ * without locking. The dynamic state of pools (mode, heartbeat, enabled) is
+ * not part of the configuration and is read from the pools when matching.
+ */
+final class SelectionSnapshot
+{
+    private static final Logger _log = LoggerFactory.getLogger(SelectionSnapshot.class);
+
+    private final boolean _useRegex;
+    private final boolean _allPoolsActive;
+
+    /** Compiled units by name. */
+    private final ImmutableMap<String, CompiledUnit> _units;
+
+    /** Compiled storage units in the iteration order of the configuration. */
+    private final ImmutableList<CompiledUnit> _storeUnits;
+
+    /** Names of the links of every link group. */
+    private final ImmutableMap<String, ImmutableSet<String>> _linkGroups;
+
+    private final NetIndex _netIndex;
+
+    SelectionSnapshot(boolean useRegex, boolean allPoolsActive, Map<String, Unit> units,
+                      Map<String, LinkGroup> linkGroups, NetHandler netHandler)
+    {
+        _useRegex = useRegex;
+        _allPoolsActive = allPoolsActive;
+
+        Map<Link, CompiledLink> links = new IdentityHashMap<>();
+        Map<Unit, CompiledUnit> compiled = new IdentityHashMap<>();
+        ImmutableMap.Builder<String, CompiledUnit> byName = ImmutableMap.builder();
+        ImmutableList.Builder<CompiledUnit> storeUnits = ImmutableList.builder();
+        for (Map.Entry<String, Unit> entry : units.entrySet()) {
+            CompiledUnit unit = new CompiledUnit(entry.getValue(), links);
+            compiled.put(entry.getValue(), unit);
+            byName.put(entry.getKey(), unit);
+            if (unit.unit.getType() == PoolSelectionUnitV2.STORE) {
+                storeUnits.add(unit);
+            }
+        }
+        _units = byName.build();
+        _storeUnits = storeUnits.build();
+
+        ImmutableMap.Builder<String, ImmutableSet<String>> groups = ImmutableMap.builder();
+        for (LinkGroup group : linkGroups.values()) {
+            groups.put(group.getName(),
+                       ImmutableSet.copyOf(Collections2.transform(group.getAllLinks(), SelectionLink::getName)));
+        }
+        _linkGroups = groups.build();
+
+        _netIndex = new NetIndex(netHandler, unit -> compiled.computeIfAbsent(unit, u -> new CompiledUnit(u, links)));
+    }
+
+    PoolPreferenceLevel[] match(DirectionType type, String netUnitName, String protocolUnitName,
+                                FileAttributes fileAttributes, String linkGroupName)
+    {
+        String storeUnitName = fileAttributes.getStorageClass() + "@" + fileAttributes.getHsm();
+        String dCacheUnitName = fileAttributes.getCacheClass();
+        Map<String, String> variableMap = fileAttributes.getStorageInfo().getMap();
+
+        List<CompiledUnit> units = new ArrayList<>(4);
+        units.add(findStoreUnit(storeUnitName));
+        if (protocolUnitName != null) {
+            CompiledUnit unit = findProtocolUnit(protocolUnitName);
+            if (unit == null) {
+                _log.debug("no matching protocol unit found for: {}", protocolUnitName);
+                throw new IllegalArgumentException("Unit not found : " + protocolUnitName);
+            }
+            units.add(unit);
+        }
+        if (dCacheUnitName != null) {
+            CompiledUnit unit = _units.get(dCacheUnitName);
+            if (unit == null) {
+                _log.debug("no matching dCache unit found for: {}", dCacheUnitName);
+                throw new IllegalArgumentException("Unit not found : " + dCacheUnitName);
+            }
+            units.add(unit);
+        }
+        if (netUnitName != null) {
+            try {
+                CompiledUnit unit = _netIndex.match(netUnitName);
+                if (unit == null) {
+                    _log.debug("no matching net unit found for: {}", netUnitName);
+                    throw new IllegalArgumentException("Unit not matched : " + netUnitName);
+                }
+                units.add(unit);
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("NetUnit not resolved : " + netUnitName);
+            }
+        }
+
+        ImmutableSet<String> linkGroup = null;
+        if (linkGroupName != null) {
+            linkGroup = _linkGroups.get(linkGroupName);
+            if (linkGroup == null) {
+                _log.debug("LinkGroup not found : {}", linkGroupName);
+                throw new IllegalArgumentException("LinkGroup not found : " + linkGroupName);
+            }
+        }
+
+        /* A link matches if every one of its unit groups is matched by one
+         * of the units (logical AND).
+         */
+        Map<CompiledLink, Integer> hits = new IdentityHashMap<>();
+        for (CompiledUnit unit : units) {
+            for (CompiledLink link : unit.links) {
+                if (linkGroup == null
+                    ? (type == DirectionType.READ || !link.isInLinkGroup)
+                    : linkGroup.contains(link.name)) {
+                    hits.merge(link, 1, Integer::sum);
+                }
+            }
+        }
+
+        int fitCount = units.size();
+        List<CompiledLink> links = new ArrayList<>();
+        for (Map.Entry<CompiledLink, Integer> entry : hits.entrySet()) {
+            CompiledLink link = entry.getKey();
+            if (entry.getValue() >= link.requiredUnits && link.requiredUnits <= fitCount
+                && link.getPreference(type) >= 1 && (variableMap == null || link.link.exec(variableMap))) {
+                links.add(link);
+            }
+        }
+        links.sort(comparing((CompiledLink link) -> -link.getPreference(type)).thenComparing(link -> link.name));
+
+        List<PoolPreferenceLevel> levels = new ArrayList<>();
+        int i = 0;
+        while (i < links.size()) {
+            int pref = links.get(i).getPreference(type);
+            List<String> pools = new ArrayList<>();
+            String tag = null;
+            for (; i < links.size() && links.get(i).getPreference(type) == pref; i++) {
+                CompiledLink link = links.get(i);
+                if (tag == null) {
+                    tag = link.tag;
+                }
+                for (Pool pool : link.pools) {
+                    if (isSelectable(pool, type, fileAttributes)) {
+                        pools.add(pool.getName());
+                    }
+                }
+            }
+            levels.add(new PoolPreferenceLevel(pools, tag));
+        }
+        return levels.toArray(new PoolPreferenceLevel[levels.size()]);
+    }
+
+    private boolean isSelectable(Pool pool, DirectionType type, FileAttributes fileAttributes)
+    {
+        if (!_allPoolsActive && !pool.isActive()) {
+            return false;
+        }
+        switch (type) {
+        case READ:
+            return pool.canRead();
+        case CACHE:
+            return pool.canReadFromTape() && poolCanStageFile(pool, fileAttributes);
+        case WRITE:
+            return pool.canWrite();
+        case P2P:
+            return pool.canWriteForP2P();
+        default:
+            return false;
+        }
+    }
+
+    private static boolean poolCanStageFile(Pool pool, FileAttributes file)
+    {
+        boolean rc  = false;
+        if (file.getStorageInfo().locations().isEmpty()
+            && pool.getHsmInstances().contains(file.getHsm())) {
+            // This is for backwards compatibility until all info
+            // extractors support URIs.
+            rc = true;
+        } else {
+            for (URI uri : file.getStorageInfo().locations()) {
+                if (pool.getHsmInstances().contains(uri.getAuthority())) {
+                    rc = true;
+                }
+            }
+        }
+        _log.debug("{}: matching hsm ({}) found?: {}", pool.getName(), file.getHsm(), rc);
+        return rc;
+    }
+
+    private CompiledUnit findStoreUnit(String storeUnitName)
+    {
+        if (_useRegex) {
+            CompiledUnit universalCoverage = null;
+            CompiledUnit classCoverage = null;
+            for (CompiledUnit unit : _storeUnits) {
+                String name = unit.unit.getName();
+                if (name.equals("*@*")) {
+                    universalCoverage = unit;
+                } else if (name.equals("*@" + storeUnitName)) {
+                    classCoverage = unit;
+                } else if (Pattern.matches(name, storeUnitName)) {
+                    return unit;
+                }
+            }
+            if (classCoverage != null) {
+                return classCoverage;
+            }
+            if (universalCoverage != null) {
+                return universalCoverage;
+            }
+            throw new IllegalArgumentException("Unit not found : " + storeUnitName);
+        }
+
+        CompiledUnit unit = _units.get(storeUnitName);
+        if (unit == null) {
+            int ind = storeUnitName.lastIndexOf("@");
+            if ((ind <= 0) || (ind == storeUnitName.length() - 1)) {
+                throw new IllegalArgumentException("IllegalUnitFormat : " + storeUnitName);
+            }
+            unit = _units.get("*@" + storeUnitName.substring(ind + 1));
+            if (unit == null) {
+                unit = _units.get("*@*");
+                if (unit == null) {
+                    _log.debug("no matching storage unit found for: {}", storeUnitName);
+                    throw new IllegalArgumentException("Unit not found : " + storeUnitName);
+                }
+            }
+        }
+        return unit;
+    }
+
+    /**
+     * Returns the protocol unit for a protocol of the form
+     * &lt;protocol&gt;/&lt;version&gt;, trying &lt;protocol&gt;/&lt;version&gt;,
+     * &lt;protocol&gt;/* and *&#47;* in that order.
+     */
+    CompiledUnit findProtocolUnit(String protocolUnitName)
+    {
+        if ((protocolUnitName == null) || (protocolUnitName.length() == 0)) {
+            return null;
+        }
+        int position = protocolUnitName.indexOf('/');
+        if ((position <= 0) || (position == (protocolUnitName.length() - 1))) {
+            throw new IllegalArgumentException("Not a valid protocol specification : " + protocolUnitName);
+        }
+        CompiledUnit unit = _units.get(protocolUnitName);
+        if (unit == null) {
+            unit = _units.get(protocolUnitName.substring(0, position) + "/*");
+            if (unit == null) {
+                unit = _units.get("*/*");
+            }
+        }
+        return unit;
+    }
+
+    NetUnit matchNetUnit(String address) throws UnknownHostException
+    {
+        CompiledUnit unit = _netIndex.match(address);
+        return (unit == null) ? null : (NetUnit) unit.unit;
+    }
+
+    /**
+     * A unit with its candidate links.
+     */
+    static final class CompiledUnit
+    {
+        final Unit unit;
+        final ImmutableList<CompiledLink> links;
+
+        CompiledUnit(Unit unit, Map<Link, CompiledLink> compiled)
+        {
+            this.unit = unit;
+            Map<String, CompiledLink> links = new HashMap<>();
+            for (UGroup group : unit._uGroupList.values()) {
+                for (Link link : group._linkList.values()) {
+                    links.put(link.getName(), compiled.computeIfAbsent(link, CompiledLink::new));
+                }
+            }
+            this.links = ImmutableList.copyOf(links.values());
+        }
+    }
+
+    /**
+     * A link with its preferences and the pools it points to.
+     */
+    private static final class CompiledLink
+    {
+        final Link link;
+        final String name;
+        final String tag;
+        final int requiredUnits;
+        final int readPref;
+        final int writePref;
+        final int cachePref;
+        final int p2pPref;
+        final boolean isInLinkGroup;
+        final ImmutableList<Pool> pools;
+
+        CompiledLink(Link link)
+        {
+            this.link = link;
+            name = link.getName();
+            tag = link.getTag();
+            requiredUnits = link._uGroupList.size();
+            readPref = link.getReadPref();
+            writePref = link.getWritePref();
+            cachePref = link.getCachePref();
+            p2pPref = (link.getP2pPref() < 0) ? readPref : link.getP2pPref();
+            isInLinkGroup = link.getLinkGroup() != null;
+
+            ImmutableList.Builder<Pool> pools = ImmutableList.builder();
+            for (PoolCore poolCore : link._poolList.values()) {
+                if (poolCore instanceof Pool) {
+                    pools.add((Pool) poolCore);
+                } else {
+                    pools.addAll(((PGroup) poolCore)._poolList.values());
+                }
+            }
+            this.pools = pools.build();
+        }
+
+        int getPreference(DirectionType type)
+        {
+            switch (type) {
+            case READ:
+                return readPref;
+            case CACHE:
+                return cachePref;
+            case P2P:
+                return p2pPref;
+            case WRITE:
+                return writePref;
+            default:
+                throw new IllegalArgumentException("Wrong direction: " + type);
+            }
+        }
+    }
+
+    /**
+     * Index of net units. Unlike NetHandler, only prefix lengths for which
+     * net units are defined are probed, most specific first.
+     */
+    private static final class NetIndex
+    {
+        private final long[] _masks;
+        private final ImmutableList<ImmutableMap<Long, CompiledUnit>> _nets;
+        private final BigInteger[] _masksV6;
+        private final ImmutableList<ImmutableMap<BigInteger, CompiledUnit>> _netsV6;
+
+        NetIndex(NetHandler handler, Function<Unit, CompiledUnit> compiler)
+        {
+            List<Long> masks = new ArrayList<>();
+            ImmutableList.Builder<ImmutableMap<Long, CompiledUnit>> nets = ImmutableList.builder();
+            for (int bits = 0; bits < handler._netList.length; bits++) {
+                Map<Long, NetUnit> map = handler._netList[bits];
+                if (map != null && !map.isEmpty()) {
+                    masks.add(~((1L << bits) - 1));
+                    nets.add(compile(map, compiler));
+                }
+            }
+            _masks = masks.stream().mapToLong(Long::longValue).toArray();
+            _nets = nets.build();
+
+            List<BigInteger> masksV6 = new ArrayList<>();
+            ImmutableList.Builder<ImmutableMap<BigInteger, CompiledUnit>> netsV6 = ImmutableList.builder();
+            for (int bits = 0; bits < handler._netListV6.length; bits++) {
+                Map<BigInteger, NetUnit> map = handler._netListV6[bits];
+                if (map != null && !map.isEmpty()) {
+                    masksV6.add(BigInteger.ONE.shiftLeft(bits).subtract(BigInteger.ONE).not());
+                    netsV6.add(compile(map, compiler));
+                }
+            }
+            _masksV6 = masksV6.toArray(new BigInteger[masksV6.size()]);
+            _netsV6 = netsV6.build();
+        }
+
+        private static <K> ImmutableMap<K, CompiledUnit> compile(Map<K, NetUnit> map,
+                                                                 Function<Unit, CompiledUnit> compiler)
+        {
+            ImmutableMap.Builder<K, CompiledUnit> builder = ImmutableMap.builder();
+            map.forEach((key, unit) -> builder.put(key, compiler.apply(unit)));
+            return builder.build();
+        }
+
+        CompiledUnit match(String inetAddress) throws UnknownHostException
+        {
+            InetAddress address = InetAddress.getByName(inetAddress);
+            if (address instanceof Inet4Address) {
+                long addr = 0;
+                for (byte b : address.getAddress()) {
+                    addr = (addr << 8) | (b & 0xff);
+                }
+                for (int i = 0; i < _masks.length; i++) {
+                    CompiledUnit unit = _nets.get(i).get(addr & _masks[i]);
+                    if (unit != null) {
+                        return unit;
+                    }
+                }
+            } else {
+                BigInteger addr = new BigInteger(address.getAddress());
+                for (int i = 0; i < _masksV6.length; i++) {
+                    CompiledUnit unit = _netsV6.get(i).get(addr.and(_masksV6[i]));
+                    if (unit != null) {
+                        return unit;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
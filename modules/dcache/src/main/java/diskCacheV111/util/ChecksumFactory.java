@@ -1,11 +1,14 @@
 package diskCacheV111.util;
 
+import com.google.common.util.concurrent.RateLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Set;
@@ -36,6 +39,40 @@ public abstract class ChecksumFactory
     public abstract Checksum computeChecksum(File file, double throughputLimit)
         throws IOException, InterruptedException;
 
+    /**
+     * Compute the checksum of the data read from a channel.
+     *
+     * The data is read into the given buffer, which may be a large direct
+     * buffer reused between calls. If a rate limiter is given, every chunk
+     * read is charged against it before it is digested, thus several
+     * threads may share a single throughput budget.
+     *
+     * @param channel  the channel to read from.
+     * @param buffer   the buffer to read into.
+     * @param limiter  bytes/second limiter, or null for no limit.
+     * @return         the computed checksum.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public Checksum computeChecksum(ReadableByteChannel channel, ByteBuffer buffer, RateLimiter limiter)
+        throws IOException, InterruptedException
+    {
+        MessageDigest digest = create();
+        buffer.clear();
+        while (channel.read(buffer) >= 0) {
+            buffer.flip();
+            if (limiter != null && buffer.hasRemaining()) {
+                limiter.acquire(buffer.remaining());
+            }
+            digest.update(buffer);
+            buffer.clear();
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return create(digest.digest());
+    }
+
     public static ChecksumFactory getFactory(ChecksumType type)
         throws NoSuchAlgorithmException
     {
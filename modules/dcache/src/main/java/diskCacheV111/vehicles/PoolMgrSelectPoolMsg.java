@@ -2,10 +2,15 @@ package diskCacheV111.vehicles;
 
 import javax.annotation.Nonnull;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.EnumSet;
 
 import diskCacheV111.poolManager.RequestContainerV5;
 
+import dmg.cells.nucleus.MessageCodecs;
+
 import org.dcache.vehicles.FileAttributes;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -18,7 +23,7 @@ public class PoolMgrSelectPoolMsg extends PoolMgrGetPoolMsg {
     private String       _ioQueueName;
     private String       _pnfsPath;
     private String       _linkGroup;
-    private final EnumSet<RequestContainerV5.RequestState> _allowedStates;
+    private EnumSet<RequestContainerV5.RequestState> _allowedStates;
 
     private boolean _skipCostUpdate;
     private String _transferPath;
@@ -38,6 +43,34 @@ public class PoolMgrSelectPoolMsg extends PoolMgrGetPoolMsg {
         _allowedStates = checkNotNull(allowedStates);
     }
 
+    protected PoolMgrSelectPoolMsg(DataInput in) throws IOException
+    {
+        super(in);
+        _protocolInfo = (ProtocolInfo) MessageCodecs.readObject(in);
+        _ioQueueName = MessageCodecs.readString(in);
+        _pnfsPath = MessageCodecs.readString(in);
+        _linkGroup = MessageCodecs.readString(in);
+        _allowedStates = MessageCodecs.readEnumSet(in, RequestContainerV5.RequestState.class);
+        _skipCostUpdate = in.readBoolean();
+        _transferPath = MessageCodecs.readString(in);
+        if (_protocolInfo == null || _allowedStates == null) {
+            throw new IOException("Invalid pool selection encoding");
+        }
+    }
+
+    @Override
+    protected void writeTo(DataOutput out) throws IOException
+    {
+        super.writeTo(out);
+        MessageCodecs.writeObject(out, _protocolInfo);
+        MessageCodecs.writeString(out, _ioQueueName);
+        MessageCodecs.writeString(out, _pnfsPath);
+        MessageCodecs.writeString(out, _linkGroup);
+        MessageCodecs.writeEnumSet(out, _allowedStates);
+        out.writeBoolean(_skipCostUpdate);
+        MessageCodecs.writeString(out, _transferPath);
+    }
+
     public void setSkipCostUpdate(boolean value)
     {
         _skipCostUpdate = value;
@@ -84,4 +117,13 @@ public class PoolMgrSelectPoolMsg extends PoolMgrGetPoolMsg {
         return _allowedStates;
     }
 
+    @Override
+    public PoolMgrSelectPoolMsg copyForDelivery()
+    {
+        PoolMgrSelectPoolMsg copy = (PoolMgrSelectPoolMsg) super.copyForDelivery();
+        copy._protocolInfo = copyOf(_protocolInfo);
+        copy._allowedStates = EnumSet.copyOf(_allowedStates);
+        return copy;
+    }
+
 }
@@ -2,11 +2,16 @@
 
 package diskCacheV111.vehicles;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.EnumSet;
 
 import diskCacheV111.poolManager.RequestContainerV5;
 
+import dmg.cells.nucleus.MessageCodecs;
+
 import org.dcache.namespace.FileAttribute;
 import org.dcache.vehicles.FileAttributes;
 
@@ -77,6 +82,29 @@ public class PoolMgrSelectReadPoolMsg extends PoolMgrSelectPoolMsg
         _context = (context == null) ? new Context() : context;
     }
 
+    protected PoolMgrSelectReadPoolMsg(DataInput in) throws IOException
+    {
+        super(in);
+        if (in.readBoolean()) {
+            int retryCounter = in.readInt();
+            String previousStageHost = MessageCodecs.readString(in);
+            String previousStagePool = MessageCodecs.readString(in);
+            _context = new Context(retryCounter, previousStageHost, previousStagePool);
+        }
+    }
+
+    @Override
+    protected void writeTo(DataOutput out) throws IOException
+    {
+        super.writeTo(out);
+        out.writeBoolean(_context != null);
+        if (_context != null) {
+            out.writeInt(_context.getRetryCounter());
+            MessageCodecs.writeString(out, _context.getPreviousStageHost());
+            MessageCodecs.writeString(out, _context.getPreviousStagePool());
+        }
+    }
+
     public static EnumSet<FileAttribute> getRequiredAttributes()
     {
         EnumSet<FileAttribute> attributes = REQUIRED_ATTRIBUTES.clone();
@@ -0,0 +1,37 @@
+package diskCacheV111.vehicles;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import dmg.cells.nucleus.MessageCodec;
+
+/**
+ * Encodes {@link PoolMgrSelectReadPoolMsg} without Java serialization.
+ */
+public class PoolMgrSelectReadPoolMsgCodec implements MessageCodec<PoolMgrSelectReadPoolMsg>
+{
+    @Override
+    public int getId()
+    {
+        return 4;
+    }
+
+    @Override
+    public Class<PoolMgrSelectReadPoolMsg> getMessageClass()
+    {
+        return PoolMgrSelectReadPoolMsg.class;
+    }
+
+    @Override
+    public void writeTo(PoolMgrSelectReadPoolMsg message, DataOutput out) throws IOException
+    {
+        message.writeTo(out);
+    }
+
+    @Override
+    public PoolMgrSelectReadPoolMsg readFrom(DataInput in) throws IOException
+    {
+        return new PoolMgrSelectReadPoolMsg(in);
+    }
+}
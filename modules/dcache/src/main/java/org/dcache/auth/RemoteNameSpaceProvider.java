@@ -203,7 +203,16 @@ public class RemoteNameSpaceProvider implements NameSpaceProvider
             Range<Integer> range, Set<FileAttribute> attrs, ListHandler handler)
             throws CacheException
     {
-        try (DirectoryStream stream = _handler.list(subject, Restrictions.none(), FsPath.create(path), glob, range, attrs)) {
+        list(subject, path, glob, range, null, attrs, handler);
+    }
+
+    @Override
+    public void list(Subject subject, String path, Glob glob,
+            Range<Integer> range, String cookie, Set<FileAttribute> attrs, ListHandler handler)
+            throws CacheException
+    {
+        try (DirectoryStream stream = _handler.list(subject, Restrictions.none(), FsPath.create(path), glob, range,
+                                                    cookie, attrs)) {
             for (DirectoryEntry entry : stream) {
                 handler.addEntry(entry.getName(), entry.getFileAttributes());
             }
@@ -129,6 +129,8 @@ public class Domain
         String domainName = getName();
         CDC.reset(SYSTEM_CELL_NAME, domainName);
         SystemCell systemCell = SystemCell.create(domainName, createCuratorFramework());
+        systemCell.getNucleus().setPassByReferenceEnabled(
+                Boolean.parseBoolean(_properties.getValue(PROPERTY_LOCAL_DELIVERY_BY_REFERENCE)));
         systemCell.start().get();
         _log.info("Starting {}", domainName);
 
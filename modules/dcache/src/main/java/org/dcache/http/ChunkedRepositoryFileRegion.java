@@ -0,0 +1,81 @@
+package org.dcache.http;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.FileRegion;
+import io.netty.handler.stream.ChunkedInput;
+
+import org.dcache.pool.repository.RepositoryChannel;
+
+/**
+ * ChunkedInput producing a range of a RepositoryChannel as a sequence of
+ * bounded {@link RepositoryFileRegion}s.
+ *
+ * Sending a range as several regions rather than as a single region keeps
+ * zero-copy transfers observable by handlers that track the completion of
+ * writes, such as the IdleStateHandler, which would otherwise consider a
+ * long running transfer of a single region as idle.
+ */
+public class ChunkedRepositoryFileRegion implements ChunkedInput<FileRegion>
+{
+    private final RepositoryChannel _channel;
+    private final long _endOffset;
+    private final long _regionSize;
+    private long _offset;
+
+    public ChunkedRepositoryFileRegion(RepositoryChannel channel,
+                                       long offset,
+                                       long length,
+                                       long regionSize)
+    {
+        if (channel == null) {
+            throw new NullPointerException("Channel must not be null");
+        }
+
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset: " + offset +
+                                               " (expected: 0 or greater)");
+        }
+
+        if (length < 0) {
+            throw new IllegalArgumentException("length: " + length +
+                                               " (expected: 0 or greater)");
+        }
+
+        if (regionSize <= 0) {
+            throw new IllegalArgumentException("regionSize: " + regionSize +
+                                               " (expected: 1 or greater)");
+        }
+
+        _channel = channel;
+        _offset = offset;
+        _endOffset = offset + length;
+        _regionSize = regionSize;
+    }
+
+    /**
+     * The channel is owned by the mover and may be reused for further
+     * requests on a keep-alive connection, thus close is a no-op.
+     */
+    @Override
+    public void close() throws Exception
+    {
+    }
+
+    @Override
+    public boolean isEndOfInput() throws Exception
+    {
+        return _offset >= _endOffset || !_channel.isOpen();
+    }
+
+    @Override
+    public FileRegion readChunk(ChannelHandlerContext ctx) throws Exception
+    {
+        long offset = _offset;
+        if (offset >= _endOffset) {
+            return null;
+        }
+        long count = Math.min(_regionSize, _endOffset - offset);
+        _offset = offset + count;
+        return new RepositoryFileRegion(_channel, offset, count);
+    }
+}
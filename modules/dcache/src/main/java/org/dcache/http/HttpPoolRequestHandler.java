@@ -20,7 +20,6 @@ import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.handler.codec.http.QueryStringDecoder;
-import io.netty.handler.stream.ChunkedInput;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import org.slf4j.Logger;
@@ -77,6 +76,13 @@ public class HttpPoolRequestHandler extends HttpRequestHandler
     // See RFC 2045 for definition of 'tspecials'
     private static final CharMatcher TSPECIAL = CharMatcher.anyOf("()<>@,;:\\\"/[]?=");
 
+    /**
+     * Maximum size of the file regions used for zero-copy transfers. Every
+     * region completes with a write event, which keeps the idle timeout of
+     * the connection from expiring during long transfers.
+     */
+    static final long FILE_REGION_SIZE = 4 << 20;
+
     /**
      * The mover channels that were opened.
      */
@@ -90,6 +96,12 @@ public class HttpPoolRequestHandler extends HttpRequestHandler
 
     private final int _chunkSize;
 
+    /**
+     * Whether downloads may be sent as FileRegions using zero-copy
+     * transfers.
+     */
+    private final boolean _isZeroCopyEnabled;
+
     /**
      * The file being uploaded. Even though we only keep the file open
      * for the processing of a single HTTP message, that one message may
@@ -98,10 +110,12 @@ public class HttpPoolRequestHandler extends HttpRequestHandler
      */
     private NettyTransferService<HttpProtocolInfo>.NettyMoverChannel _writeChannel;
 
-    public HttpPoolRequestHandler(NettyTransferService<HttpProtocolInfo> server, int chunkSize)
+    public HttpPoolRequestHandler(NettyTransferService<HttpProtocolInfo> server, int chunkSize,
+                                  boolean isZeroCopyEnabled)
     {
         _server = server;
         _chunkSize = chunkSize;
+        _isZeroCopyEnabled = isZeroCopyEnabled;
     }
 
     private static ByteBuf createMultipartFragmentMarker(long lower, long upper, long total)
@@ -518,7 +532,8 @@ public class HttpPoolRequestHandler extends HttpRequestHandler
 
     /**
      * Read the resources requested in HTTP-request from the pool. Return a
-     * ChunkedInput pointing to the requested portions of the file.
+     * ChunkedInput of FileRegions or, if zero-copy transfers are not possible,
+     * of buffers pointing to the requested portions of the file.
      *
      * Renew the keep-alive heartbeat, meaning that the last transferred time
      * will be updated, resetting the keep-alive timeout.
@@ -528,15 +543,18 @@ public class HttpPoolRequestHandler extends HttpRequestHandler
      *                   file
      * @param upperRange The upper delimiter of the requested byte range of the
      *                   file
-     * @return ChunkedInput View upon the file suitable for sending with
-     *         netty and representing the requested parts.
+     * @return View upon the file suitable for sending with netty and
+     *         representing the requested parts.
      */
-    private ChunkedInput read(NettyTransferService<HttpProtocolInfo>.NettyMoverChannel file,
-                              long lowerRange, long upperRange)
+    private Object read(NettyTransferService<HttpProtocolInfo>.NettyMoverChannel file,
+                        long lowerRange, long upperRange)
     {
         /* need to count position 0 as well */
         long length = (upperRange - lowerRange) + 1;
 
+        if (_isZeroCopyEnabled && file.isZeroCopySupported()) {
+            return new ChunkedRepositoryFileRegion(file, lowerRange, length, FILE_REGION_SIZE);
+        }
         return new ReusableChunkedNioFile(file, lowerRange, length, _chunkSize);
     }
 
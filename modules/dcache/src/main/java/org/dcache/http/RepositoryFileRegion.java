@@ -0,0 +1,108 @@
+package org.dcache.http;
+
+import io.netty.channel.FileRegion;
+import io.netty.util.AbstractReferenceCounted;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+import org.dcache.pool.repository.RepositoryChannel;
+
+/**
+ * FileRegion backed by a RepositoryChannel.
+ *
+ * Allows netty to send a range of a file using
+ * {@link RepositoryChannel#transferTo}, i.e. without copying the data
+ * through user space buffers when the channel supports zero-copy
+ * transfers. Unlike DefaultFileRegion, releasing the region does not
+ * close the channel, as the channel is owned by the mover and may be
+ * reused for further requests on a keep-alive connection.
+ */
+public class RepositoryFileRegion extends AbstractReferenceCounted implements FileRegion
+{
+    private final RepositoryChannel _channel;
+    private final long _position;
+    private final long _count;
+    private long _transferred;
+
+    public RepositoryFileRegion(RepositoryChannel channel, long position, long count)
+    {
+        if (channel == null) {
+            throw new NullPointerException("Channel must not be null");
+        }
+
+        if (position < 0) {
+            throw new IllegalArgumentException("position: " + position +
+                                               " (expected: 0 or greater)");
+        }
+
+        if (count < 0) {
+            throw new IllegalArgumentException("count: " + count +
+                                               " (expected: 0 or greater)");
+        }
+
+        _channel = channel;
+        _position = position;
+        _count = count;
+    }
+
+    @Override
+    public long position()
+    {
+        return _position;
+    }
+
+    @Override
+    public long transfered()
+    {
+        return _transferred;
+    }
+
+    @Override
+    public long count()
+    {
+        return _count;
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel target, long position) throws IOException
+    {
+        long count = _count - position;
+        if (count < 0 || position < 0) {
+            throw new IllegalArgumentException("position out of range: " + position +
+                                               " (expected: 0 - " + (_count - 1) + ')');
+        }
+        if (count == 0) {
+            return 0L;
+        }
+
+        long written = _channel.transferTo(_position + position, count, target);
+        if (written > 0) {
+            _transferred += written;
+        } else if (_position + position >= _channel.size()) {
+            throw new IOException("File shrank during transfer: " +
+                                  (_position + position) + " >= " + _channel.size());
+        }
+        return written;
+    }
+
+    @Override
+    public FileRegion retain()
+    {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public FileRegion retain(int increment)
+    {
+        super.retain(increment);
+        return this;
+    }
+
+    @Override
+    protected void deallocate()
+    {
+        /* The channel is closed by the mover. */
+    }
+}
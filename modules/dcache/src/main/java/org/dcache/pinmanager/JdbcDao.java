@@ -40,6 +40,7 @@ import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import diskCacheV111.util.PnfsId;
@@ -50,6 +51,7 @@ import org.dcache.util.SqlGlob;
 
 import static java.util.Arrays.asList;
 import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
 
 @ParametersAreNonnullByDefault
 public class JdbcDao extends JdbcDaoSupport implements PinDao
@@ -140,6 +142,13 @@ public class JdbcDao extends JdbcDaoSupport implements PinDao
         return getJdbcTemplate().update("DELETE FROM pins WHERE " + c.getPredicate(), c.getArgumentsAsArray());
     }
 
+    @Override
+    public int delete(Collection<Pin> pins)
+    {
+        List<Object[]> ids = pins.stream().map(pin -> new Object[] { pin.getPinId() }).collect(toList());
+        return IntStream.of(getJdbcTemplate().batchUpdate("DELETE FROM pins WHERE id = ?", ids)).sum();
+    }
+
     @Override
     public void foreach(PinCriterion criterion, InterruptibleConsumer<Pin> f)
             throws InterruptedException
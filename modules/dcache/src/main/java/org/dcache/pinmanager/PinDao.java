@@ -7,6 +7,7 @@ import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import javax.security.auth.Subject;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -102,6 +103,19 @@ public interface PinDao
         return delete(where().id(pin.getPinId()));
     }
 
+    /**
+     * Deletes the given pins.
+     *
+     * @return The number of pins deleted
+     */
+    default int delete(Collection<Pin> pins) {
+        int n = 0;
+        for (Pin pin : pins) {
+            n += delete(pin);
+        }
+        return n;
+    }
+
     /**
      * Performs the given action for every pin matching the selection criterion.
      */
@@ -52,6 +52,9 @@ public class PinManager
     private CellAddressCore address;
     private LeaderLatch leaderLatch;
     private String zkPath;
+    private int unpinBatchSize;
+    private int unpinConcurrency;
+    private UnpinProcessor unpinProcessor;
 
     @Override
     public void setCuratorFramework(CuratorFramework client)
@@ -111,6 +114,29 @@ public class PinManager
         return expirationPeriodUnit;
     }
 
+    /**
+     * Maximum number of pins on a pool unpinned with a single message.
+     */
+    @Required
+    public void setUnpinBatchSize(int batchSize)
+    {
+        unpinBatchSize = batchSize;
+    }
+
+    /**
+     * Maximum number of unpin batches processed concurrently.
+     */
+    @Required
+    public void setUnpinConcurrency(int concurrency)
+    {
+        unpinConcurrency = concurrency;
+    }
+
+    public UnpinProcessor getUnpinProcessor()
+    {
+        return unpinProcessor;
+    }
+
     @Required
     public void setServiceName(String serviceName)
     {
@@ -120,6 +146,7 @@ public class PinManager
     @Override
     public void afterStart()
     {
+        unpinProcessor = new UnpinProcessor(dao, poolStub, poolMonitor, unpinBatchSize, unpinConcurrency);
         try {
             leaderLatch = new LeaderLatch(client, zkPath, address.toString());
             leaderLatch.addListener(new LeaderListener());
@@ -171,7 +198,7 @@ public class PinManager
     private class LeaderListener implements LeaderLatchListener
     {
         private final FireAndForgetTask unpinTask =
-                new FireAndForgetTask(new UnpinProcessor(dao, poolStub, poolMonitor));
+                new FireAndForgetTask(unpinProcessor);
         private final ExpirationTask expirationTask =
                 new ExpirationTask();
         private ScheduledFuture<?> unpinFuture;
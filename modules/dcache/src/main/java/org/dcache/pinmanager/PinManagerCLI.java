@@ -7,6 +7,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -91,6 +92,15 @@ public class PinManagerCLI
         _dao = dao;
     }
 
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        UnpinProcessor unpinProcessor = _pinManager.getUnpinProcessor();
+        if (unpinProcessor != null) {
+            unpinProcessor.getInfo(pw);
+        }
+    }
+
     private Future<PinManagerPinMessage>
         pin(PnfsId pnfsId, String requestId, long lifetime)
         throws CacheException
@@ -8,14 +8,23 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.jdo.JDOException;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
 import diskCacheV111.poolManager.PoolSelectionUnit;
 import diskCacheV111.util.CacheException;
-import diskCacheV111.vehicles.PoolSetStickyMessage;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.PoolClearStickyMessage;
 
 import dmg.cells.nucleus.CellPath;
 
@@ -24,108 +33,197 @@ import org.dcache.cells.CellStub;
 import org.dcache.pinmanager.model.Pin;
 import org.dcache.poolmanager.PoolMonitor;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
 /**
  * Performs the work of unpinning files.
  *
  * When an unpin request is received a pin is put into state
  * UNPINNING. The actual work to unpin a file is performed
  * independently of the unpin request.
+ *
+ * Pins are unpinned in batches. Pins on the same pool are grouped
+ * and the sticky flags of a batch are cleared with a single message
+ * to the pool. Several batches, typically for different pools, are
+ * processed concurrently, and the pins of a batch are deleted from
+ * the database in a single round trip.
  */
 public class UnpinProcessor implements Runnable
 {
     private static final Logger _logger =
         LoggerFactory.getLogger(UnpinProcessor.class);
 
-    private static final int MAX_RUNNING = 1000;
-
     private final PinDao _dao;
     private final CellStub _poolStub;
     private final PoolMonitor _poolMonitor;
+    private final int _batchSize;
+    private final int _maxRunning;
+
+    private final LongAdder _unpinned = new LongAdder();
+    private final LongAdder _failed = new LongAdder();
+    private final LongAdder _skipped = new LongAdder();
+    private final LongAdder _batches = new LongAdder();
+    private final LongAdder _failedBatches = new LongAdder();
+    private final AtomicLong _runStarted = new AtomicLong();
+    private final AtomicLong _lastRunDuration = new AtomicLong(-1);
+    private final AtomicLong _runScanned = new AtomicLong();
+    private final AtomicLong _runCompleted = new AtomicLong();
 
     public UnpinProcessor(PinDao dao, CellStub poolStub,
-                          PoolMonitor poolMonitor)
+                          PoolMonitor poolMonitor, int batchSize, int maxRunning)
     {
         _dao = dao;
         _poolStub = poolStub;
         _poolMonitor = poolMonitor;
+        _batchSize = batchSize;
+        _maxRunning = maxRunning;
     }
 
     @Override
     public void run()
     {
-        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final ExecutorService executor = Executors.newFixedThreadPool(_maxRunning);
+        long start = System.currentTimeMillis();
+        _runStarted.set(start);
+        _runScanned.set(0);
+        _runCompleted.set(0);
         try {
-            Semaphore idle = new Semaphore(MAX_RUNNING);
+            Semaphore idle = new Semaphore(_maxRunning);
             unpin(idle, executor);
-            idle.acquire(MAX_RUNNING);
+            idle.acquire(_maxRunning);
         } catch (InterruptedException e) {
             _logger.debug(e.toString());
         } catch (JDOException | DataAccessException e) {
             _logger.error("Database failure while unpinning: {}",
                           e.getMessage());
         } catch (RemoteConnectFailureException e) {
-            _logger.error("Remote connection failure while unpinning: {)", e.getMessage());
+            _logger.error("Remote connection failure while unpinning: {}", e.getMessage());
         } catch (RuntimeException e) {
             _logger.error("Unexpected failure while unpinning", e);
         } finally {
             executor.shutdown();
+            _lastRunDuration.set(System.currentTimeMillis() - start);
+            _runStarted.set(0);
         }
     }
 
     @Transactional
     protected void unpin(final Semaphore idle, final Executor executor) throws InterruptedException
     {
-        _dao.foreach(_dao.where().state(Pin.State.UNPINNING), pin -> upin(idle, executor, pin));
+        Map<String, List<Pin>> batches = new HashMap<>();
+        List<Pin> orphans = new ArrayList<>();
+        _dao.foreach(_dao.where().state(Pin.State.UNPINNING), pin -> {
+            _runScanned.incrementAndGet();
+            if (pin.getPool() == null || pin.getSticky() == null) {
+                orphans.add(pin);
+                if (orphans.size() >= _batchSize) {
+                    delete(orphans);
+                    orphans.clear();
+                }
+            } else {
+                List<Pin> batch = batches.computeIfAbsent(pin.getPool(), pool -> new ArrayList<>());
+                batch.add(pin);
+                if (batch.size() >= _batchSize) {
+                    batches.remove(pin.getPool());
+                    clearStickyFlags(idle, pin.getPool(), batch, executor);
+                }
+            }
+        });
+        delete(orphans);
+        for (Map.Entry<String, List<Pin>> batch : batches.entrySet()) {
+            clearStickyFlags(idle, batch.getKey(), batch.getValue(), executor);
+        }
     }
 
-    private void upin(Semaphore idle, Executor executor, Pin pin) throws InterruptedException
+    private void delete(List<Pin> pins)
     {
-        if (pin.getPool() == null) {
-            _dao.delete(pin);
-        } else {
-            clearStickyFlag(idle, pin, executor);
+        if (!pins.isEmpty()) {
+            _dao.delete(pins);
+            _unpinned.add(pins.size());
+            _runCompleted.addAndGet(pins.size());
         }
     }
 
-    private void clearStickyFlag(final Semaphore idle, final Pin pin, Executor executor)
+    private void clearStickyFlags(final Semaphore idle, String poolName, final List<Pin> pins,
+                                  Executor executor)
         throws InterruptedException
     {
-        PoolSelectionUnit.SelectionPool pool = _poolMonitor.getPoolSelectionUnit().getPool(pin.getPool());
+        PoolSelectionUnit.SelectionPool pool = _poolMonitor.getPoolSelectionUnit().getPool(poolName);
         if (pool == null || !pool.isActive()) {
-            _logger.warn("Unable to clear sticky flag because pool {} is unavailable", pin.getPool());
+            _logger.warn("Unable to clear sticky flags because pool {} is unavailable", poolName);
+            _skipped.add(pins.size());
+            _runCompleted.addAndGet(pins.size());
             return;
         }
 
         idle.acquire();
-        PoolSetStickyMessage msg =
-            new PoolSetStickyMessage(pin.getPool(),
-                                     pin.getPnfsId(),
-                                     false,
-                                     pin.getSticky(),
-                                     0);
+        _batches.increment();
+        PoolClearStickyMessage msg =
+            new PoolClearStickyMessage(poolName,
+                                       pins.stream()
+                                               .map(pin -> new PoolClearStickyMessage.Sticky(pin.getPnfsId(),
+                                                                                             pin.getSticky()))
+                                               .collect(Collectors.toList()));
         CellStub.addCallback(_poolStub.send(new CellPath(pool.getAddress()), msg),
-                             new AbstractMessageCallback<PoolSetStickyMessage>()
+                             new AbstractMessageCallback<PoolClearStickyMessage>()
                              {
                                  @Override
-                                 public void success(PoolSetStickyMessage msg)
+                                 public void success(PoolClearStickyMessage msg)
                                  {
-                                     idle.release();
-                                     _dao.delete(pin);
+                                     try {
+                                         Map<PnfsId, Integer> failures = msg.getFailures();
+                                         List<Pin> cleared = new ArrayList<>(pins.size());
+                                         for (Pin pin : pins) {
+                                             Integer rc = failures.get(pin.getPnfsId());
+                                             if (rc == null || rc == CacheException.FILE_NOT_IN_REPOSITORY) {
+                                                 cleared.add(pin);
+                                             } else {
+                                                 _logger.warn("Failed to clear sticky flag of {} on {} [{}]",
+                                                              pin.getPnfsId(), poolName, rc);
+                                                 _failed.increment();
+                                                 _runCompleted.incrementAndGet();
+                                             }
+                                         }
+                                         delete(cleared);
+                                     } catch (JDOException | DataAccessException e) {
+                                         _logger.error("Database failure while unpinning: {}",
+                                                       e.getMessage());
+                                     } finally {
+                                         idle.release();
+                                     }
                                  }
 
                                  @Override
                                  public void failure(int rc, Object error)
                                  {
                                      idle.release();
-                                     switch (rc) {
-                                     case CacheException.FILE_NOT_IN_REPOSITORY:
-                                         _dao.delete(pin);
-                                         break;
-                                     default:
-                                         _logger.warn("Failed to clear sticky flag: {} [{}]", error, rc);
-                                         break;
-                                     }
+                                     _failedBatches.increment();
+                                     _failed.add(pins.size());
+                                     _runCompleted.addAndGet(pins.size());
+                                     _logger.warn("Failed to clear {} sticky flags on {}: {} [{}]",
+                                                  pins.size(), poolName, error, rc);
                                  }
                              }, executor);
     }
+
+    public void getInfo(PrintWriter pw)
+    {
+        pw.println("Unpinning:");
+        pw.println("  Batch size          : " + _batchSize);
+        pw.println("  Concurrent batches  : " + _maxRunning);
+        long started = _runStarted.get();
+        if (started > 0) {
+            pw.println("  Current run         : " + _runCompleted.get() + " of " + _runScanned.get() +
+                       " pins done in " + MILLISECONDS.toSeconds(System.currentTimeMillis() - started) + " s");
+        }
+        long duration = _lastRunDuration.get();
+        if (duration >= 0) {
+            pw.println("  Last run duration   : " + duration + " ms");
+        }
+        pw.println("  Unpinned            : " + _unpinned.sum());
+        pw.println("  Failed              : " + _failed.sum());
+        pw.println("  Skipped (pool down) : " + _skipped.sum());
+        pw.println("  Batches sent        : " + _batches.sum());
+        pw.println("  Batches failed      : " + _failedBatches.sum());
+    }
 }
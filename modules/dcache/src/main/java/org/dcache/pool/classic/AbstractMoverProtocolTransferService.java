@@ -39,6 +39,8 @@ import dmg.cells.nucleus.CellPath;
 import org.dcache.pool.FaultAction;
 import org.dcache.pool.FaultEvent;
 import org.dcache.pool.FaultListener;
+import org.dcache.pool.movers.ByteBufferPool;
+import org.dcache.pool.movers.ByteBufferPoolAware;
 import org.dcache.pool.movers.Mover;
 import org.dcache.pool.movers.MoverFactory;
 import org.dcache.pool.movers.MoverProtocol;
@@ -60,6 +62,7 @@ public abstract class AbstractMoverProtocolTransferService
     private FaultListener _faultListener;
     private ChecksumModule _checksumModule;
     private PostTransferService _postTransferService;
+    private ByteBufferPool _byteBufferPool;
 
     @Required
     public void setFaultListener(FaultListener faultListener)
@@ -79,6 +82,14 @@ public abstract class AbstractMoverProtocolTransferService
         _postTransferService = postTransferService;
     }
 
+    /**
+     * Buffer pool injected into movers implementing ByteBufferPoolAware.
+     */
+    public void setByteBufferPool(ByteBufferPool byteBufferPool)
+    {
+        _byteBufferPool = byteBufferPool;
+    }
+
     @Override
     public Mover<?> createMover(ReplicaDescriptor handle, PoolIoFileMessage message, CellPath pathToDoor)
             throws CacheException
@@ -86,6 +97,9 @@ public abstract class AbstractMoverProtocolTransferService
         ProtocolInfo info = message.getProtocolInfo();
         try {
             MoverProtocol moverProtocol = createMoverProtocol(info);
+            if (moverProtocol instanceof ByteBufferPoolAware && _byteBufferPool != null) {
+                ((ByteBufferPoolAware) moverProtocol).setByteBufferPool(_byteBufferPool);
+            }
             return new MoverProtocolMover(handle, message, pathToDoor, this, moverProtocol, _checksumModule);
         } catch (InvocationTargetException e) {
             throw new CacheException(27, "Could not create mover for " + info, e.getTargetException());
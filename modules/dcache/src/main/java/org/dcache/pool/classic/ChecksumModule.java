@@ -26,7 +26,9 @@ import diskCacheV111.util.CacheException;
 import diskCacheV111.util.ChecksumFactory;
 import diskCacheV111.util.FileCorruptedCacheException;
 
+import org.dcache.pool.movers.ChecksumChannel;
 import org.dcache.pool.repository.ReplicaDescriptor;
+import org.dcache.pool.repository.RepositoryChannel;
 import org.dcache.util.Checksum;
 
 /**
@@ -83,6 +85,16 @@ public interface ChecksumModule
     ChecksumFactory getPreferredChecksumFactory(ReplicaDescriptor handle)
             throws NoSuchAlgorithmException, CacheException;
 
+    /**
+     * Returns a channel that computes a checksum of the data written to
+     * the given channel while the file is being written to the pool.
+     *
+     * @param channel A channel to the replica being written
+     * @param factory The checksum to compute
+     * @return A channel wrapping {@code channel}
+     */
+    ChecksumChannel createChecksumChannel(RepositoryChannel channel, ChecksumFactory factory);
+
     /**
      * Applies the post-transfer checksum policy.
      *
@@ -19,16 +19,19 @@ package org.dcache.pool.classic;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.RateLimiter;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 import diskCacheV111.util.CacheException;
@@ -41,7 +44,9 @@ import dmg.util.command.Option;
 
 import dmg.cells.nucleus.AbstractCellComponent;
 import dmg.cells.nucleus.CellCommandListener;
+import org.dcache.pool.movers.ChecksumChannel;
 import org.dcache.pool.repository.ReplicaDescriptor;
+import org.dcache.pool.repository.RepositoryChannel;
 import org.dcache.util.Checksum;
 import org.dcache.util.ChecksumType;
 import org.dcache.util.Checksums;
@@ -65,11 +70,37 @@ public class ChecksumModuleV1
 
     private ChecksumScanner _scanner;
 
+    private boolean _isPipelineEnabled;
+    private Executor _pipelineExecutor;
+    private int _pipelineCapacity;
+
     public void setChecksumScanner(ChecksumScanner scanner)
     {
         _scanner = scanner;
     }
 
+    /**
+     * Whether on-transfer checksums are computed in a checksum pipeline
+     * rather than by the thread writing the data.
+     */
+    public void setPipelineEnabled(boolean enabled)
+    {
+        _isPipelineEnabled = enabled;
+    }
+
+    public void setPipelineExecutor(Executor executor)
+    {
+        _pipelineExecutor = executor;
+    }
+
+    /**
+     * Maximum number of bytes queued in the checksum pipeline of a transfer.
+     */
+    public void setPipelineCapacity(int capacity)
+    {
+        _pipelineCapacity = capacity;
+    }
+
     public synchronized ChecksumType getDefaultChecksumType()
     {
         return _defaultChecksumType;
@@ -111,6 +142,7 @@ public class ChecksumModuleV1
     public synchronized void getInfo(PrintWriter pw)
     {
         pw.println("          Checksum type : " + _defaultChecksumType);
+        pw.println("      Checksum pipeline : " + (_isPipelineEnabled ? "on" : "off"));
         pw.print(" Checkum calculation on : transfer ");
         for (PolicyFlag flag: _policy) {
             switch (flag) {
@@ -191,7 +223,8 @@ public class ChecksumModuleV1
 
         @Option(name = "limit",
                 category = "Scrubber options",
-                usage = "Checksum computation throughput limit.",
+                usage = "Throughput limit of background checksum verification. " +
+                        "The limit is shared by all scrubber threads.",
                 valueSpec = "<MiB/s>|off")
         String limit;
 
@@ -368,6 +401,14 @@ public class ChecksumModuleV1
         return ChecksumFactory.getFactory(existingChecksumsByPreference, getDefaultChecksumType());
     }
 
+    @Override
+    public ChecksumChannel createChecksumChannel(RepositoryChannel channel, ChecksumFactory factory)
+    {
+        return _isPipelineEnabled
+                ? new ChecksumChannel(channel, factory, _pipelineExecutor, _pipelineCapacity)
+                : new ChecksumChannel(channel, factory);
+    }
+
     @Override
     public void enforcePostTransferPolicy(
             ReplicaDescriptor handle, Iterable<Checksum> actualChecksums)
@@ -418,10 +459,23 @@ public class ChecksumModuleV1
         return verifyChecksum(file, expectedChecksums, Double.POSITIVE_INFINITY);
     }
 
-    public Iterable<Checksum> verifyChecksumWithThroughputLimit(ReplicaDescriptor handle)
+    /**
+     * Verifies the checksum of a replica by reading it into the given buffer.
+     *
+     * @param limiter bytes/second limiter shared with other verifications,
+     *                or null for no limit
+     */
+    public Iterable<Checksum> verifyChecksum(ReplicaDescriptor handle, ByteBuffer buffer, RateLimiter limiter)
             throws IOException, InterruptedException, NoSuchAlgorithmException, CacheException
     {
-        return verifyChecksum(handle.getFile(), handle.getChecksums(), getThroughputLimit());
+        Iterable<Checksum> expectedChecksums = handle.getChecksums();
+        ChecksumFactory factory = ChecksumFactory.getFactory(expectedChecksums, getDefaultChecksumType());
+        Iterable<Checksum> actualChecksums;
+        try (RepositoryChannel channel = handle.createChannel()) {
+            actualChecksums = Collections.singleton(factory.computeChecksum(channel, buffer, limiter));
+        }
+        compareChecksums(expectedChecksums, actualChecksums);
+        return actualChecksums;
     }
 
     private Iterable<Checksum> verifyChecksum(File file, Iterable<Checksum> expectedChecksums, double throughputLimit)
@@ -1,13 +1,18 @@
 package org.dcache.pool.classic;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
@@ -16,8 +21,15 @@ import java.util.Date;
 import java.util.EnumSet;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import diskCacheV111.util.CacheException;
 import diskCacheV111.util.FileCorruptedCacheException;
@@ -30,6 +42,7 @@ import dmg.util.command.Argument;
 import dmg.util.command.Command;
 import org.dcache.alarms.AlarmMarkerFactory;
 import org.dcache.alarms.PredefinedAlarm;
+import org.dcache.pool.movers.ByteBufferPool;
 import org.dcache.pool.repository.EntryState;
 import org.dcache.pool.repository.IllegalTransitionException;
 import org.dcache.pool.repository.ReplicaDescriptor;
@@ -37,6 +50,7 @@ import org.dcache.pool.repository.Repository;
 import org.dcache.pool.repository.Repository.OpenFlags;
 import org.dcache.util.Checksum;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class ChecksumScanner
@@ -51,10 +65,17 @@ public class ChecksumScanner
 
     private Repository _repository;
     private ChecksumModuleV1 _csm;
+    private IoQueueManager _ioQueueManager;
+    private ByteBufferPool _byteBufferPool;
     private String poolName;
 
     private File _scrubberStateFile;
 
+    private int _threads = 1;
+    private int _bufferSize = 4 * 1024 * 1024;
+    private boolean _isBackoffEnabled = true;
+    private long _backoffDelay = TimeUnit.SECONDS.toMillis(5);
+
     /** Errors found while running 'csm check'.
      */
     private final Map<PnfsId,Iterable<Checksum>> _bad =
@@ -89,49 +110,184 @@ public class ChecksumScanner
         this.poolName = poolName;
     }
 
+    public void setIoQueueManager(IoQueueManager ioQueueManager)
+    {
+        _ioQueueManager = ioQueueManager;
+    }
+
+    public void setByteBufferPool(ByteBufferPool byteBufferPool)
+    {
+        _byteBufferPool = byteBufferPool;
+    }
+
+    private ByteBufferPool.Lease leaseBuffer()
+    {
+        return (_byteBufferPool != null)
+               ? _byteBufferPool.lease("Scrubber", _bufferSize)
+               : ByteBufferPool.unpooled(ByteBuffer.allocateDirect(_bufferSize));
+    }
+
+    /**
+     * Number of threads verifying replicas concurrently.
+     */
+    public void setThreads(int threads)
+    {
+        checkArgument(threads > 0, "Number of threads must be positive");
+        _threads = threads;
+    }
+
+    /**
+     * Size of the direct buffer each thread reads replicas into.
+     */
+    public void setBufferSize(int bufferSize)
+    {
+        checkArgument(bufferSize > 0, "Buffer size must be positive");
+        _bufferSize = bufferSize;
+    }
+
+    /**
+     * Whether the scrubber pauses while movers are queued.
+     */
+    public void setBackoffEnabled(boolean enabled)
+    {
+        _isBackoffEnabled = enabled;
+    }
+
+    @VisibleForTesting
+    void setBackoffDelay(long delay, TimeUnit unit)
+    {
+        _backoffDelay = unit.toMillis(delay);
+    }
+
+    /**
+     * Runs a single scrubber pass over the given replicas in the calling
+     * thread.
+     */
+    @VisibleForTesting
+    void scrub(PnfsId[] ids) throws InterruptedException, NoSuchAlgorithmException, IOException
+    {
+        _scrubber.scanFiles(ids);
+    }
+
+    /**
+     * Returns the replica up to which the scrubber has verified all
+     * replicas, or null if no such replica exists.
+     */
+    @VisibleForTesting
+    PnfsId getScrubberCheckpoint()
+    {
+        return _scrubber._lastFileChecked;
+    }
+
+    /**
+     * Verification of a single replica by one of the verification threads.
+     */
+    @FunctionalInterface
+    private interface Verifier
+    {
+        void verify(PnfsId id, ByteBuffer buffer)
+                throws CacheException, InterruptedException, IOException, NoSuchAlgorithmException;
+    }
+
+    /**
+     * Verifies a list of replicas using {@code _threads} concurrent threads,
+     * each reading replicas into its own direct buffer. Replicas are handed
+     * out in list order. The listener is called with the index of every
+     * replica once the replica has been verified.
+     *
+     * If any thread fails, the remaining threads are interrupted and the
+     * failure is propagated to the caller.
+     */
+    private void verifyInParallel(String name, PnfsId[] ids, Verifier verifier, IndexListener listener)
+            throws InterruptedException, IOException, NoSuchAlgorithmException
+    {
+        AtomicInteger next = new AtomicInteger();
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(name + "-%d").build();
+        ExecutorService executor = Executors.newFixedThreadPool(_threads, threadFactory);
+        try {
+            CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+            for (int i = 0; i < _threads; i++) {
+                completionService.submit(() -> {
+                    try (ByteBufferPool.Lease lease = leaseBuffer()) {
+                        int index;
+                        while ((index = next.getAndIncrement()) < ids.length) {
+                            verifier.verify(ids[index], lease.buffer());
+                            listener.verified(index);
+                        }
+                    }
+                    return null;
+                });
+            }
+            for (int i = 0; i < _threads; i++) {
+                try {
+                    completionService.take().get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    Throwables.propagateIfPossible(cause, IOException.class, NoSuchAlgorithmException.class);
+                    Throwables.propagateIfInstanceOf(cause, InterruptedException.class);
+                    throw Throwables.propagate(cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @FunctionalInterface
+    private interface IndexListener
+    {
+        void verified(int index);
+    }
+
     private class FullScan extends Singleton
     {
-        private volatile int _totalCount;
-        private volatile int _badCount;
-        private volatile int _unableCount;
+        private final AtomicInteger _totalCount = new AtomicInteger();
+        private final AtomicInteger _badCount = new AtomicInteger();
+        private final AtomicInteger _unableCount = new AtomicInteger();
 
         public FullScan()
         {
             super("FullScan");
         }
 
+        private void verify(PnfsId id, ByteBuffer buffer)
+                throws InterruptedException, IOException, NoSuchAlgorithmException
+        {
+            try {
+                ReplicaDescriptor handle =
+                    _repository.openEntry(id, EnumSet.of(OpenFlags.NOATIME));
+                try {
+                    _csm.verifyChecksum(handle, buffer, null);
+                } finally {
+                    handle.close();
+                }
+            } catch (FileNotInCacheException | NotInTrashCacheException e) {
+                /* It was removed before we could get it. No problem.
+                 */
+            } catch (FileCorruptedCacheException e) {
+                _bad.put(id, e.getActualChecksums().get());
+                _badCount.incrementAndGet();
+            } catch (CacheException e) {
+                _log.warn("csm scan command unable to verify {}: {}", id, e.getMessage());
+                _unableCount.incrementAndGet();
+            } catch (IOException e) {
+                _unableCount.incrementAndGet();
+                throw new IOException("failed to read " + id + ": " + e.getMessage(), e);
+            }
+        }
+
         @Override
         public void runIt() throws Exception
         {
             stopScrubber();
             try {
-                _totalCount = _badCount = 0;
+                _totalCount.set(0);
+                _badCount.set(0);
+                _unableCount.set(0);
                 _bad.clear();
 
-                for (PnfsId id: _repository) {
-                    try {
-                        ReplicaDescriptor handle =
-                            _repository.openEntry(id, EnumSet.of(OpenFlags.NOATIME));
-                        try {
-                            _csm.verifyChecksum(handle);
-                        } finally {
-                            handle.close();
-                        }
-                    } catch (FileNotInCacheException | NotInTrashCacheException e) {
-                        /* It was removed before we could get it. No problem.
-                         */
-                    } catch (FileCorruptedCacheException e) {
-                        _bad.put(id, e.getActualChecksums().get());
-                        _badCount++;
-                    } catch (CacheException e) {
-                        _log.warn("csm scan command unable to verify {}: {}", id, e.getMessage());
-                        _unableCount++;
-                    } catch (IOException e) {
-                        _unableCount++;
-                        throw new IOException("failed to read " + id + ": " + e.getMessage(), e);
-                    }
-                    _totalCount++;
-                }
+                PnfsId[] ids = Iterables.toArray(_repository, PnfsId.class);
+                verifyInParallel("FullScan", ids, this::verify, index -> _totalCount.incrementAndGet());
             } catch (IOException e) {
                 _log.error("Aborting 'cms check' full-scan: {}", e.getMessage());
                 setAbortMessage("failure in underlying storage: " + e.getMessage());
@@ -215,15 +371,29 @@ public class ChecksumScanner
         private final long FAILURE_RATELIMIT_DELAY =
             TimeUnit.SECONDS.toMillis(10);
 
-        private volatile int _badCount;
+        private final AtomicInteger _badCount = new AtomicInteger();
+        private final AtomicInteger _totalCount = new AtomicInteger();
+        private final AtomicInteger _unableCount = new AtomicInteger();
         private volatile int _numFiles;
-        private volatile int _totalCount;
-        private volatile int _unableCount;
 
-        private PnfsId _lastFileChecked;
+        /**
+         * Number of verifier threads waiting for queued movers.
+         */
+        private final AtomicInteger _backingOff = new AtomicInteger();
+
+        /**
+         * All files up to and including this one have been checked.
+         */
+        private volatile PnfsId _lastFileChecked;
         private long _lastCheckpoint;
         private long _lastStart;
 
+        /**
+         * Throughput budget shared by all scrubber threads. Null if
+         * throughput is not limited.
+         */
+        private RateLimiter _rateLimiter;
+
         public Scrubber()
         {
             super("Scrubber");
@@ -350,11 +520,11 @@ public class ChecksumScanner
                     try {
                         PnfsId[] toScan = getFilesToVerify();
                         _numFiles = toScan.length;
-                        _badCount = 0;
-                        _totalCount = 0;
-                        _unableCount = 0;
+                        _badCount.set(0);
+                        _totalCount.set(0);
+                        _unableCount.set(0);
                         scanFiles(toScan);
-                        if (_badCount > 0) {
+                        if (_badCount.get() > 0) {
                             _log.warn("Finished scrubbing. Found {} bad files of {}",
                                        _badCount, _numFiles);
                         }
@@ -414,7 +584,7 @@ public class ChecksumScanner
          * Save state information only every <code>CHECKPOINT_INTERVAL</code>
          * period.
          */
-        private void checkpointIfNeeded()
+        private synchronized void checkpointIfNeeded()
         {
             if (System.currentTimeMillis() - _lastCheckpoint > CHECKPOINT_INTERVAL) {
                 saveState();
@@ -422,59 +592,115 @@ public class ChecksumScanner
             }
         }
 
+        /**
+         * Returns the limiter enforcing the current throughput limit of the
+         * checksum module, or null if throughput is not limited.
+         */
+        private synchronized RateLimiter getRateLimiter()
+        {
+            double limit = _csm.getThroughputLimit();
+            if (Double.isInfinite(limit)) {
+                _rateLimiter = null;
+            } else if (_rateLimiter == null) {
+                _rateLimiter = RateLimiter.create(limit);
+            } else if (_rateLimiter.getRate() != limit) {
+                _rateLimiter.setRate(limit);
+            }
+            return _rateLimiter;
+        }
+
+        /**
+         * Blocks while movers are queued on this pool, giving clients
+         * priority over scrubbing.
+         */
+        private void awaitIdleMovers() throws InterruptedException
+        {
+            if (_isBackoffEnabled && _ioQueueManager != null && _ioQueueManager.getQueueSize() > 0) {
+                _backingOff.incrementAndGet();
+                try {
+                    do {
+                        Thread.sleep(_backoffDelay);
+                    } while (_isBackoffEnabled && _ioQueueManager.getQueueSize() > 0);
+                } finally {
+                    _backingOff.decrementAndGet();
+                }
+            }
+        }
+
         private void scanFiles(PnfsId[] repository)
                 throws InterruptedException, NoSuchAlgorithmException, IOException
         {
-            for (PnfsId id : repository) {
-                try {
-                    if (_repository.getState(id) == EntryState.CACHED ||
-                            _repository.getState(id) == EntryState.PRECIOUS) {
-                        ReplicaDescriptor handle =
-                            _repository.openEntry(id, EnumSet.of(OpenFlags.NOATIME));
-                        try {
-                            _csm.verifyChecksumWithThroughputLimit(handle);
-                        } finally {
-                            handle.close();
-                        }
+            /* Files are verified concurrently, so completion is tracked
+             * per file. The checkpoint is the last file before the first
+             * file not yet verified, such that a restart never skips a file.
+             */
+            boolean[] isVerified = new boolean[repository.length];
+            int[] lowWatermark = { -1 };
+            verifyInParallel("Scrubber", repository, this::verify, index -> {
+                synchronized (isVerified) {
+                    isVerified[index] = true;
+                    while (lowWatermark[0] + 1 < isVerified.length && isVerified[lowWatermark[0] + 1]) {
+                        lowWatermark[0]++;
                     }
-                } catch (FileCorruptedCacheException e) {
-                    _badCount++;
-                    _log.error(AlarmMarkerFactory.getMarker(PredefinedAlarm.CHECKSUM,
-                                                            id.toString(),
-                                                            poolName),
-                                    "Marking {} on {} as BROKEN: {}",
-                                    id,
-                                    poolName,
-                                    e.getMessage());
-                    try {
-                        _repository.setState(id, EntryState.BROKEN);
-                    } catch (IllegalTransitionException | CacheException f) {
-                        _log.warn("Failed to mark {} as BROKEN: {}", id, f.getMessage());
+                    if (lowWatermark[0] >= 0) {
+                        _lastFileChecked = repository[lowWatermark[0]];
                     }
-                } catch (IOException e) {
-                    _unableCount++;
-                    throw new IOException("Unable to read " + id + ": " + e.getMessage(), e);
-                } catch (FileNotInCacheException | NotInTrashCacheException e) {
-                    /* It was removed before we could get it. No problem.
-                     */
-                } catch (CacheException e) {
-                    _log.warn("Scrubber unable to verify {}: {}", id, e.getMessage());
-                    _unableCount++;
                 }
-                _lastFileChecked = id;
-                _totalCount++;
+                _totalCount.incrementAndGet();
                 checkpointIfNeeded();
-            }
+            });
             _lastFileChecked = null;
         }
 
+        private void verify(PnfsId id, ByteBuffer buffer)
+                throws InterruptedException, NoSuchAlgorithmException, IOException
+        {
+            awaitIdleMovers();
+            try {
+                if (_repository.getState(id) == EntryState.CACHED ||
+                        _repository.getState(id) == EntryState.PRECIOUS) {
+                    ReplicaDescriptor handle =
+                        _repository.openEntry(id, EnumSet.of(OpenFlags.NOATIME));
+                    try {
+                        _csm.verifyChecksum(handle, buffer, getRateLimiter());
+                    } finally {
+                        handle.close();
+                    }
+                }
+            } catch (FileCorruptedCacheException e) {
+                _badCount.incrementAndGet();
+                _log.error(AlarmMarkerFactory.getMarker(PredefinedAlarm.CHECKSUM,
+                                                        id.toString(),
+                                                        poolName),
+                                "Marking {} on {} as BROKEN: {}",
+                                id,
+                                poolName,
+                                e.getMessage());
+                try {
+                    _repository.setState(id, EntryState.BROKEN);
+                } catch (IllegalTransitionException | CacheException f) {
+                    _log.warn("Failed to mark {} as BROKEN: {}", id, f.getMessage());
+                }
+            } catch (IOException e) {
+                _unableCount.incrementAndGet();
+                throw new IOException("Unable to read " + id + ": " + e.getMessage(), e);
+            } catch (FileNotInCacheException | NotInTrashCacheException e) {
+                /* It was removed before we could get it. No problem.
+                 */
+            } catch (CacheException e) {
+                _log.warn("Scrubber unable to verify {}: {}", id, e.getMessage());
+                _unableCount.incrementAndGet();
+            }
+        }
+
         @Override
         public String toString()
         {
             return super.toString() + " processed "
                 + _totalCount + " of " + _numFiles + " files: "
                 + _badCount + " corrupt, "
-                + _unableCount + " unable to check";
+                + _unableCount + " unable to check"
+                + (_backingOff.get() > 0 ? " (paused while movers are queued)" : "");
         }
     }
 
@@ -53,6 +53,7 @@ import diskCacheV111.vehicles.Pool2PoolTransferMsg;
 import diskCacheV111.vehicles.PoolAcceptFileMessage;
 import diskCacheV111.vehicles.PoolCheckFreeSpaceMessage;
 import diskCacheV111.vehicles.PoolCheckable;
+import diskCacheV111.vehicles.PoolClearStickyMessage;
 import diskCacheV111.vehicles.PoolDeliverFileMessage;
 import diskCacheV111.vehicles.PoolFetchFileMessage;
 import diskCacheV111.vehicles.PoolFileCheckable;
@@ -1286,6 +1287,26 @@ public class PoolV4
         return msg;
     }
 
+    public PoolClearStickyMessage messageArrived(PoolClearStickyMessage msg)
+        throws CacheException, InterruptedException
+    {
+        if (_poolMode.isDisabled(PoolV2Mode.DISABLED_STRICT)) {
+            _log.warn("PoolClearStickyMessage request rejected due to "
+                      + _poolMode);
+            throw new CacheException(CacheException.POOL_DISABLED, "Pool is disabled");
+        }
+
+        for (PoolClearStickyMessage.Sticky sticky : msg.getStickies()) {
+            try {
+                _repository.setSticky(sticky.getPnfsId(), sticky.getOwner(), 0, true);
+            } catch (CacheException e) {
+                msg.setFailed(sticky.getPnfsId(), e.getRc());
+            }
+        }
+        msg.setSucceeded();
+        return msg;
+    }
+
     public PoolQueryRepositoryMsg messageArrived(PoolQueryRepositoryMsg msg)
         throws CacheException, InterruptedException
     {
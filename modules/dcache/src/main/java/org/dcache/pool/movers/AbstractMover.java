@@ -74,6 +74,7 @@ public abstract class AbstractMover<P extends ProtocolInfo, M extends AbstractMo
     protected final String _transferPath;
     protected volatile int _errorCode;
     protected volatile String _errorMessage = "";
+    private final ChecksumModule _checksumModule;
     private final ChecksumFactory _checksumFactory;
     private volatile ChecksumChannel _checksumChannel;
 
@@ -96,6 +97,7 @@ public abstract class AbstractMover<P extends ProtocolInfo, M extends AbstractMo
         _pathToDoor = pathToDoor;
         _handle = handle;
         _transferService = transferService;
+        _checksumModule = checksumModule;
         _checksumFactory = getChecksumFactoryFor(checksumModule, handle);
     }
 
@@ -255,7 +257,7 @@ public abstract class AbstractMover<P extends ProtocolInfo, M extends AbstractMo
             channel = _handle.createChannel();
             if (getIoMode() == IoMode.WRITE) {
                 try {
-                    channel = _checksumChannel = new ChecksumChannel(channel, _checksumFactory);
+                    channel = _checksumChannel = _checksumModule.createChecksumChannel(channel, _checksumFactory);
                 } catch (Throwable t) {
                     /* This should only happen in case of JVM Errors or if the checksum digest cannot be
                      * instantiated (which, barring bugs, should never happen).
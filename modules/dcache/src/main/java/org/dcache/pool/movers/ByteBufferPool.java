@@ -0,0 +1,61 @@
+package org.dcache.pool.movers;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of I/O buffers for movers.
+ *
+ * Buffers are leased on behalf of a protocol and must be returned by
+ * closing the lease once the mover no longer uses the buffer. Buffers
+ * must not be used after the lease has been closed.
+ */
+public interface ByteBufferPool
+{
+    /**
+     * Leases a buffer with a capacity of exactly {@code size} bytes. The
+     * buffer is cleared.
+     *
+     * Leasing never fails for lack of pooled memory. If the protocol has
+     * exhausted its quota, a buffer is allocated outside the pool.
+     *
+     * @param protocol name of the protocol the buffer is used for
+     * @param size capacity of the buffer
+     */
+    Lease lease(String protocol, int size);
+
+    /**
+     * Returns a lease for a buffer not managed by any pool. Closing the
+     * lease has no effect.
+     */
+    static Lease unpooled(ByteBuffer buffer)
+    {
+        return new Lease()
+        {
+            @Override
+            public ByteBuffer buffer()
+            {
+                return buffer;
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+    }
+
+    /**
+     * A buffer leased from a ByteBufferPool.
+     */
+    interface Lease extends AutoCloseable
+    {
+        ByteBuffer buffer();
+
+        /**
+         * Returns the buffer to the pool. Closing a lease more than once
+         * has no effect.
+         */
+        @Override
+        void close();
+    }
+}
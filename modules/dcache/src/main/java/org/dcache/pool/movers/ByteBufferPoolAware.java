@@ -0,0 +1,10 @@
+package org.dcache.pool.movers;
+
+/**
+ * Implemented by movers that draw their I/O buffers from the pool wide
+ * ByteBufferPool. The pool is injected before the transfer starts.
+ */
+public interface ByteBufferPoolAware
+{
+    void setByteBufferPool(ByteBufferPool pool);
+}
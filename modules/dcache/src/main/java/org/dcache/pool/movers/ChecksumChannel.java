@@ -9,20 +9,32 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import diskCacheV111.util.Adler32;
 import diskCacheV111.util.ChecksumFactory;
 
 import org.dcache.pool.repository.RepositoryChannel;
 import org.dcache.util.Checksum;
+import org.dcache.util.ChecksumType;
+import org.dcache.util.SequentialExecutor;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.Lists.newArrayList;
 
@@ -30,6 +42,16 @@ import static com.google.common.collect.Lists.newArrayList;
  * A wrapper for RepositoryChannel that computes a digest
  * on the fly during write as long as all writes are
  * sequential.
+ *
+ * Data written out of order is read back from the inner channel once the
+ * gap before it has been filled. For Adler-32 this is avoided by digesting
+ * every contiguous segment on its own and combining the checksums of
+ * adjacent segments arithmetically.
+ *
+ * If created with an executor, digest updates are not performed by the
+ * writing thread. Instead the written data is copied to a bounded checksum
+ * pipeline that is consumed in order by a single task on that executor,
+ * allowing receiving data and computing the checksum to overlap.
  */
 public class ChecksumChannel implements RepositoryChannel
 {
@@ -67,10 +89,16 @@ public class ChecksumChannel implements RepositoryChannel
      */
     private Range<Long> _fileStartRange = Range.openClosed(0L, 0L);
 
+    /**
+     * Checksums of contiguous segments indexed by the segment start, or null
+     * if the checksum type does not allow segments to be combined.
+     */
+    private final NavigableMap<Long, Segment> _segments;
+
     /**
      * Flag to indicate whether it is still possible to calculated a checksum
      */
-    private boolean _isChecksumViable = true;
+    private volatile boolean _isChecksumViable = true;
 
     /**
      * Flag to indicate whether we still allow writing to the channel.
@@ -83,26 +111,99 @@ public class ChecksumChannel implements RepositoryChannel
      */
     private final ReadWriteLock _checksumLock = new ReentrantReadWriteLock(false);
 
+    /**
+     * Zeros shared by all channels. Channels only read from it through
+     * their own duplicate.
+     */
+    private static final ByteBuffer ZEROS = ByteBuffer.allocate(256 * 1024);
+
+    /**
+     * Maximum size of the buffers used to copy data into the checksum pipeline.
+     */
+    private static final int PIPELINE_BUFFER_SIZE = 256 * 1024;
+
     /**
      * Buffer to be used for reading data back from the inner channel for
-     * checksum calculations.
+     * checksum calculations. Allocated on first use, as most channels
+     * are written sequentially and never read back.
      */
     @VisibleForTesting
-    ByteBuffer _readBackBuffer = ByteBuffer.allocate(256 * 1024);
+    ByteBuffer _readBackBuffer;
 
     /**
      * Buffer to be used for feeding the checksum digester with 0s to fill up
      * gaps in ranges.
      */
     @VisibleForTesting
-    ByteBuffer _zerosBuffer = ByteBuffer.allocate(256 * 1024);
+    ByteBuffer _zerosBuffer = ZEROS.duplicate();
+
+    /**
+     * Executor consuming the checksum pipeline in order, or null if the
+     * checksum is updated by the writing thread.
+     */
+    private final Executor _pipeline;
+
+    /**
+     * Maximum number of bytes queued in the checksum pipeline.
+     */
+    private final int _pipelineCapacity;
+
+    /**
+     * Permits for bytes that may be added to the checksum pipeline.
+     */
+    private final Semaphore _pipelineSpace;
+
+    /**
+     * Size of the buffers used to copy data into the checksum pipeline.
+     */
+    private final int _pipelineBufferSize;
+
+    /**
+     * Buffers that have been digested and may be reused for copying data
+     * into the checksum pipeline. As the pipeline never holds more than
+     * {@code _pipelineCapacity} bytes, at most {@code _pipelineCapacity /
+     * _pipelineBufferSize} buffers are allocated. These are heap buffers,
+     * as MessageDigest copies direct buffers through a temporary array.
+     */
+    @VisibleForTesting
+    final Queue<ByteBuffer> _pipelineBuffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * First error encountered by the checksum pipeline.
+     */
+    private volatile IOException _pipelineError;
 
     public ChecksumChannel(RepositoryChannel inner,
                            ChecksumFactory checksumFactory)
     {
+        this(inner, checksumFactory, null, 0);
+    }
+
+    /**
+     * Creates a ChecksumChannel that computes the checksum in a pipeline
+     * executed by {@code executor}. Writes block while more than
+     * {@code pipelineCapacity} bytes are waiting to be digested.
+     *
+     * @param inner channel to which all operations are delegated
+     * @param checksumFactory factory for the checksum to compute
+     * @param executor executor for the checksum pipeline, or null to update
+     *                 the checksum in the writing thread
+     * @param pipelineCapacity maximum number of bytes queued in the pipeline
+     */
+    public ChecksumChannel(RepositoryChannel inner,
+                           ChecksumFactory checksumFactory,
+                           Executor executor,
+                           int pipelineCapacity)
+    {
+        checkArgument(executor == null || pipelineCapacity > 0, "Pipeline capacity must be positive");
         _channel = inner;
         _checksumFactory = checksumFactory;
         _digest = _checksumFactory.create();
+        _segments = (checksumFactory.getType() == ChecksumType.ADLER32) ? new TreeMap<>() : null;
+        _pipeline = (executor == null) ? null : new SequentialExecutor(executor);
+        _pipelineCapacity = pipelineCapacity;
+        _pipelineSpace = (executor == null) ? null : new Semaphore(pipelineCapacity);
+        _pipelineBufferSize = Math.min(pipelineCapacity, PIPELINE_BUFFER_SIZE);
     }
 
     @Override
@@ -130,12 +231,13 @@ public class ChecksumChannel implements RepositoryChannel
         lock.lock();
         try {
             checkState(_isWritable, "ChecksumChannel must not be written to after getChecksum");
+            checkPipeline();
 
             int bytes;
             if (_isChecksumViable) {
                 ByteBuffer readOnly = buffer.asReadOnlyBuffer();
                 bytes = _channel.write(buffer, position);
-                updateChecksum(readOnly, position, bytes);
+                digest(readOnly, position, bytes);
             } else {
                 bytes = _channel.write(buffer, position);
             }
@@ -185,6 +287,7 @@ public class ChecksumChannel implements RepositoryChannel
         lock.lock();
         try {
             checkState(_isWritable, "ChecksumChannel must not be written to after getChecksum");
+            checkPipeline();
 
             int bytes;
             if (_isChecksumViable) {
@@ -206,6 +309,7 @@ public class ChecksumChannel implements RepositoryChannel
         lock.lock();
         try {
             checkState(_isWritable, "ChecksumChannel must not be written to after getChecksum");
+            checkPipeline();
 
             long bytes = 0;
             if (_isChecksumViable) {
@@ -236,7 +340,14 @@ public class ChecksumChannel implements RepositoryChannel
     @Override
     public void close() throws IOException
     {
-        _channel.close();
+        try {
+            awaitPipeline();
+        } catch (InterruptedException e) {
+            _isChecksumViable = false;
+            Thread.currentThread().interrupt();
+        } finally {
+            _channel.close();
+        }
     }
 
     @Override
@@ -284,6 +395,19 @@ public class ChecksumChannel implements RepositoryChannel
         try {
             _isWritable = false;
 
+            awaitPipeline();
+            if (_pipelineError != null) {
+                _log.info("Unable to generate checksum: {}", _pipelineError.toString());
+                return null;
+            }
+            if (!_isChecksumViable) {
+                return null;
+            }
+
+            if (_segments != null) {
+                return _checksumFactory.create(toBytes(combineSegments()));
+            }
+
             if (_dataRangeSet.asRanges().size() != 1 || _fileStartRange.isEmpty()) {
                 feedZerosToDigesterForRangeGaps();
             }
@@ -292,11 +416,39 @@ public class ChecksumChannel implements RepositoryChannel
         } catch (IOException e) {
             _log.info("Unable to generate checksum of sparse file: {}", e.toString());
             return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * Returns the Adler-32 checksum of the file by combining the checksums
+     * of all segments. Gaps between segments are treated as zeros.
+     */
+    private synchronized long combineSegments() throws IOException
+    {
+        long adler = 1L;
+        long end = 0L;
+        for (Segment segment : _segments.values()) {
+            adler = Adler32.combine(adler, Adler32.zeros(segment.start - end), segment.start - end);
+            adler = Adler32.combine(adler, segment.adler, segment.end - segment.start);
+            end = segment.end;
+        }
+        long size = size();
+        if (size > end) {
+            adler = Adler32.combine(adler, Adler32.zeros(size - end), size - end);
+        }
+        return adler;
+    }
+
+    private static byte[] toBytes(long adler)
+    {
+        return new byte[] { (byte) (adler >> 24), (byte) (adler >> 16), (byte) (adler >> 8), (byte) adler };
+    }
+
     private void feedZerosToDigesterForRangeGaps() throws IOException {
         ArrayList<Range<Long>> complement = newArrayList(_dataRangeSet.complement().subRangeSet(Range.closed(0L, size())).asRanges());
         complement.sort((r1, r2) -> r1.lowerEndpoint().compareTo(r2.lowerEndpoint()));
@@ -319,11 +471,100 @@ public class ChecksumChannel implements RepositoryChannel
         ByteBuffer readOnly = src.asReadOnlyBuffer();
         long updatePosition = position();
         writtenBytes = _channel.write(src);
-        updateChecksum(readOnly, updatePosition, writtenBytes);
+        digest(readOnly, updatePosition, writtenBytes);
 
         return writtenBytes;
     }
 
+    /**
+     * Updates the checksum with data that has been written to the inner
+     * channel, either directly or by adding it to the checksum pipeline.
+     */
+    private void digest(ByteBuffer buffer, long position, int bytes) throws IOException
+    {
+        if (_pipeline == null) {
+            updateChecksum(buffer, position, bytes);
+            return;
+        }
+        if (bytes == 0) {
+            return;
+        }
+
+        /* The caller may reuse its buffer once the write returns, thus the
+         * data is copied into pipeline buffers before being queued.
+         */
+        buffer.limit(buffer.position() + bytes);
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int length = Math.min(buffer.remaining(), _pipelineBufferSize);
+            try {
+                _pipelineSpace.acquire(length);
+            } catch (InterruptedException e) {
+                _isChecksumViable = false;
+                throw new InterruptedIOException("Interrupted while waiting for checksum computation");
+            }
+
+            ByteBuffer slice = _pipelineBuffers.poll();
+            if (slice == null) {
+                slice = ByteBuffer.allocate(_pipelineBufferSize);
+            }
+            ByteBuffer data = buffer.duplicate();
+            data.limit(data.position() + length);
+            slice.put(data).flip();
+            buffer.position(data.position());
+
+            enqueue(slice, offset, length);
+            offset += length;
+        }
+    }
+
+    private void enqueue(ByteBuffer slice, long position, int length)
+    {
+        Runnable recycle = () -> {
+            slice.clear();
+            _pipelineBuffers.offer(slice);
+            _pipelineSpace.release(length);
+        };
+        try {
+            _pipeline.execute(() -> {
+                try {
+                    if (_isChecksumViable && _pipelineError == null) {
+                        updateChecksum(slice, position, length);
+                    }
+                } catch (IOException e) {
+                    _pipelineError = e;
+                } finally {
+                    recycle.run();
+                }
+            });
+        } catch (RuntimeException e) {
+            recycle.run();
+            throw e;
+        }
+    }
+
+    /**
+     * Fails if the checksum pipeline has failed.
+     */
+    private void checkPipeline() throws IOException
+    {
+        IOException error = _pipelineError;
+        if (error != null) {
+            throw new IOException("Checksum computation failed: " + error.getMessage(), error);
+        }
+    }
+
+    /**
+     * Waits until all data in the checksum pipeline has been digested.
+     */
+    private void awaitPipeline() throws InterruptedException
+    {
+        if (_pipeline != null) {
+            _pipelineSpace.acquire(_pipelineCapacity);
+            _pipelineSpace.release(_pipelineCapacity);
+        }
+    }
+
     /**
      * @param buffer buffer containing the data
      * @param position position of the data in the target file
@@ -349,6 +590,10 @@ public class ChecksumChannel implements RepositoryChannel
         }
 
         _dataRangeSet.add(writeRange);
+        if (_segments != null) {
+            addSegment(buffer, position);
+            return;
+        }
         if (!_fileStartRange.isConnected(writeRange)) {
             return;
         }
@@ -361,6 +606,9 @@ public class ChecksumChannel implements RepositoryChannel
         _digest.update(buffer);
         long bytesToRead = digestEnd - digestStart;
         long lastBytesRead;
+        if (bytesToRead > 0 && _readBackBuffer == null) {
+            _readBackBuffer = ByteBuffer.allocate(256 * 1024);
+        }
         for (long totalBytesRead = 0; totalBytesRead < bytesToRead; totalBytesRead += lastBytesRead) {
             _readBackBuffer.clear();
             long limit = Math.min(_readBackBuffer.capacity(), bytesToRead - totalBytesRead);
@@ -373,4 +621,52 @@ public class ChecksumChannel implements RepositoryChannel
             _digest.update(_readBackBuffer);
         }
     }
+
+    /**
+     * Computes the Adler-32 checksum of the data in {@code buffer} and merges
+     * it with the segments immediately before and after it.
+     */
+    private void addSegment(ByteBuffer buffer, long position)
+    {
+        long length = buffer.remaining();
+        java.util.zip.Adler32 adler = new java.util.zip.Adler32();
+        adler.update(buffer);
+        Segment segment = new Segment(position, position + length, adler.getValue());
+
+        Map.Entry<Long, Segment> before = _segments.lowerEntry(position);
+        if (before != null && before.getValue().end == segment.start) {
+            before.getValue().append(segment);
+            segment = before.getValue();
+        } else {
+            _segments.put(segment.start, segment);
+        }
+
+        Segment after = _segments.remove(segment.end);
+        if (after != null) {
+            segment.append(after);
+        }
+    }
+
+    /**
+     * A contiguous range of written data and its Adler-32 checksum.
+     */
+    private static class Segment
+    {
+        final long start;
+        long end;
+        long adler;
+
+        Segment(long start, long end, long adler)
+        {
+            this.start = start;
+            this.end = end;
+            this.adler = adler;
+        }
+
+        void append(Segment segment)
+        {
+            adler = Adler32.combine(adler, segment.adler, segment.end - segment.start);
+            end = segment.end;
+        }
+    }
 }
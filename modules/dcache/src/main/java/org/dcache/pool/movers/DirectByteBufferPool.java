@@ -0,0 +1,345 @@
+package org.dcache.pool.movers;
+
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import dmg.cells.nucleus.AbstractCellComponent;
+import dmg.cells.nucleus.CellCommandListener;
+import dmg.util.command.Argument;
+import dmg.util.command.Command;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * ByteBufferPool of direct buffers shared by all movers of a pool.
+ *
+ * Buffers are pooled in size classes that are powers of two between
+ * {@link #MIN_BUFFER_SIZE} and {@link #MAX_BUFFER_SIZE}. A lease is served
+ * from the smallest size class large enough for the request. The total
+ * amount of direct memory allocated by the pool, whether in use or free,
+ * is bounded by the capacity of the pool. If the capacity is exhausted,
+ * free buffers of other size classes are released to make room.
+ *
+ * Every protocol may be limited to a quota of direct memory in use. Leases
+ * that cannot be served within the capacity or the quota, and leases
+ * larger than the largest size class, are served with heap buffers and
+ * are counted as allocation failures.
+ */
+public class DirectByteBufferPool
+    extends AbstractCellComponent
+    implements ByteBufferPool, CellCommandListener
+{
+    public static final int MIN_BUFFER_SIZE = 64 * 1024;
+    public static final int MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+
+    private static final int SIZE_CLASSES =
+            Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE / MIN_BUFFER_SIZE) + 1;
+
+    private final List<Deque<ByteBuffer>> _free = new ArrayList<>(SIZE_CLASSES);
+
+    private final ConcurrentMap<String, Usage> _usage = new ConcurrentHashMap<>();
+
+    /**
+     * Bytes of direct memory allocated by the pool, both in use and free.
+     */
+    private final AtomicLong _allocated = new AtomicLong();
+
+    private volatile long _capacity;
+
+    private volatile long _defaultQuota = Long.MAX_VALUE;
+
+    public DirectByteBufferPool()
+    {
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            _free.add(new ConcurrentLinkedDeque<>());
+        }
+    }
+
+    /**
+     * Maximum number of bytes of direct memory allocated by the pool.
+     */
+    public void setCapacity(long capacity)
+    {
+        checkArgument(capacity >= 0, "Capacity must not be negative");
+        _capacity = capacity;
+    }
+
+    public long getCapacity()
+    {
+        return _capacity;
+    }
+
+    /**
+     * Maximum number of bytes of direct memory a protocol without an explicit
+     * quota may have in use.
+     */
+    public void setDefaultQuota(long quota)
+    {
+        checkArgument(quota >= 0, "Quota must not be negative");
+        _defaultQuota = quota;
+    }
+
+    private static int sizeClass(int size)
+    {
+        if (size <= MIN_BUFFER_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros((size - 1) / MIN_BUFFER_SIZE);
+    }
+
+    private static int sizeOf(int sizeClass)
+    {
+        return MIN_BUFFER_SIZE << sizeClass;
+    }
+
+    private Usage getUsage(String protocol)
+    {
+        return _usage.computeIfAbsent(protocol, p -> new Usage());
+    }
+
+    @Override
+    public Lease lease(String protocol, int size)
+    {
+        checkArgument(size >= 0, "Size must not be negative");
+        Usage usage = getUsage(protocol);
+        usage.leases.increment();
+
+        if (size > MAX_BUFFER_SIZE) {
+            usage.failures.increment();
+            return ByteBufferPool.unpooled(ByteBuffer.allocate(size));
+        }
+
+        int sizeClass = sizeClass(size);
+        int classSize = sizeOf(sizeClass);
+        if (!usage.reserve(classSize, getQuota(usage))) {
+            usage.failures.increment();
+            return ByteBufferPool.unpooled(ByteBuffer.allocate(size));
+        }
+
+        ByteBuffer buffer = _free.get(sizeClass).pollFirst();
+        if (buffer == null) {
+            buffer = allocate(sizeClass);
+            if (buffer == null) {
+                usage.release(classSize);
+                usage.failures.increment();
+                return ByteBufferPool.unpooled(ByteBuffer.allocate(size));
+            }
+        }
+        usage.updateHighWaterMark();
+        return new PooledLease(usage, sizeClass, buffer, size);
+    }
+
+    private long getQuota(Usage usage)
+    {
+        long quota = usage.quota;
+        return (quota < 0) ? _defaultQuota : quota;
+    }
+
+    /**
+     * Allocates a new direct buffer of the given size class, releasing free
+     * buffers of other size classes if needed to stay within the capacity.
+     * Returns null if the capacity or the direct memory of the JVM is
+     * exhausted.
+     */
+    private ByteBuffer allocate(int sizeClass)
+    {
+        int size = sizeOf(sizeClass);
+        while (true) {
+            long allocated = _allocated.get();
+            if (allocated + size <= _capacity) {
+                if (_allocated.compareAndSet(allocated, allocated + size)) {
+                    try {
+                        return ByteBuffer.allocateDirect(size);
+                    } catch (OutOfMemoryError e) {
+                        /* The direct memory limit of the JVM is lower than
+                         * the capacity.
+                         */
+                        _allocated.addAndGet(-size);
+                        return null;
+                    }
+                }
+            } else if (!evict()) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Drops a free buffer, preferring large ones. The memory of the buffer
+     * is reclaimed by the garbage collector. Returns false if there are
+     * no free buffers.
+     */
+    private boolean evict()
+    {
+        for (int i = SIZE_CLASSES - 1; i >= 0; i--) {
+            ByteBuffer buffer = _free.get(i).pollLast();
+            if (buffer != null) {
+                _allocated.addAndGet(-buffer.capacity());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void release(int sizeClass, ByteBuffer buffer)
+    {
+        buffer.clear();
+        _free.get(sizeClass).offerFirst(buffer);
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        pw.println("Capacity  : " + _capacity);
+        pw.println("Allocated : " + _allocated.get());
+        pw.println("Free      : " + getFreeBytes());
+        if (!_usage.isEmpty()) {
+            pw.format("%-12s %12s %12s %10s %10s %12s\n",
+                      "Protocol", "In use", "High water", "Leases", "Failures", "Quota");
+            for (Map.Entry<String, Usage> entry : new TreeMap<>(_usage).entrySet()) {
+                Usage usage = entry.getValue();
+                long quota = getQuota(usage);
+                pw.format("%-12s %12d %12d %10d %10d %12s\n",
+                          entry.getKey(), usage.inUse.get(), usage.highWaterMark.get(),
+                          usage.leases.sum(), usage.failures.sum(),
+                          (quota == Long.MAX_VALUE) ? "-" : String.valueOf(quota));
+            }
+        }
+    }
+
+    private long getFreeBytes()
+    {
+        long free = 0;
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            free += (long) _free.get(i).size() * sizeOf(i);
+        }
+        return free;
+    }
+
+    @Override
+    public void printSetup(PrintWriter pw)
+    {
+        for (Map.Entry<String, Usage> entry : new TreeMap<>(_usage).entrySet()) {
+            long quota = entry.getValue().quota;
+            if (quota >= 0) {
+                pw.println("buffer pool set quota " + entry.getKey() + " " + quota);
+            }
+        }
+    }
+
+    @Command(name = "buffer pool set quota",
+            hint = "limit direct buffer memory used by a protocol",
+            description = "Limits the number of bytes of pooled direct buffers " +
+                    "a protocol may have in use at any time. Movers exceeding " +
+                    "the quota use heap buffers instead.")
+    public class SetQuotaCommand implements Callable<String>
+    {
+        @Argument(index = 0,
+                usage = "Name of the protocol, e.g. DCap.")
+        String protocol;
+
+        @Argument(index = 1, valueSpec = "BYTES|off",
+                usage = "Maximum number of bytes in use, or off to apply the default quota.")
+        String quota;
+
+        @Override
+        public String call() throws IllegalArgumentException
+        {
+            long value;
+            if (quota.equals("off")) {
+                value = -1;
+            } else {
+                value = Long.parseLong(quota);
+                if (value < 0) {
+                    throw new IllegalArgumentException("Quota must not be negative");
+                }
+            }
+            getUsage(protocol).quota = value;
+            return "";
+        }
+    }
+
+    /**
+     * Buffer usage of a single protocol.
+     */
+    private static class Usage
+    {
+        final AtomicLong inUse = new AtomicLong();
+        final AtomicLong highWaterMark = new AtomicLong();
+        final LongAdder leases = new LongAdder();
+        final LongAdder failures = new LongAdder();
+
+        /**
+         * Quota in bytes, or -1 if the default quota applies.
+         */
+        volatile long quota = -1;
+
+        boolean reserve(long size, long quota)
+        {
+            while (true) {
+                long current = inUse.get();
+                if (current + size > quota) {
+                    return false;
+                }
+                if (inUse.compareAndSet(current, current + size)) {
+                    return true;
+                }
+            }
+        }
+
+        void updateHighWaterMark()
+        {
+            highWaterMark.accumulateAndGet(inUse.get(), Math::max);
+        }
+
+        void release(long size)
+        {
+            inUse.addAndGet(-size);
+        }
+    }
+
+    private class PooledLease implements Lease
+    {
+        private final Usage _usage;
+        private final int _sizeClass;
+        private final ByteBuffer _pooled;
+        private final ByteBuffer _buffer;
+        private boolean _isClosed;
+
+        PooledLease(Usage usage, int sizeClass, ByteBuffer pooled, int size)
+        {
+            _usage = usage;
+            _sizeClass = sizeClass;
+            _pooled = pooled;
+            pooled.clear().limit(size);
+            _buffer = pooled.slice();
+        }
+
+        @Override
+        public ByteBuffer buffer()
+        {
+            return _buffer;
+        }
+
+        @Override
+        public synchronized void close()
+        {
+            if (!_isClosed) {
+                _isClosed = true;
+                _usage.release(_pooled.capacity());
+                release(_sizeClass, _pooled);
+            }
+        }
+    }
+}
@@ -286,6 +286,11 @@ public class MoverChannel<T extends ProtocolInfo> implements RepositoryChannel
         }
     }
 
+    @Override
+    public boolean isZeroCopySupported() {
+        return _channel.isZeroCopySupported();
+    }
+
     public IoMode getIoMode() {
         return _mode;
     }
@@ -77,6 +77,12 @@ public class MoverChannelDecorator<T extends ProtocolInfo> implements Repository
         return channel.transferFrom(src, position, count);
     }
 
+    @Override
+    public boolean isZeroCopySupported()
+    {
+        return channel.isZeroCopySupported();
+    }
+
     @Override
     public int write(ByteBuffer buffer, long position) throws IOException
     {
@@ -107,7 +107,7 @@ import org.dcache.util.PortRange;
 import org.dcache.vehicles.FileAttributes;
 
 public class RemoteGsiftpTransferProtocol
-    implements MoverProtocol,ChecksumMover,DataBlocksRecipient
+    implements MoverProtocol,ChecksumMover,DataBlocksRecipient,ByteBufferPoolAware
 {
     private static final Logger _log =
         LoggerFactory.getLogger(RemoteGsiftpTransferProtocol.class);
@@ -129,6 +129,7 @@ public class RemoteGsiftpTransferProtocol
     private long _previousUpdateEndOffset;
 
     private RepositoryChannel _fileChannel;
+    private ByteBufferPool _bufferPool;
     private GridftpClient _client;
     private GridftpClient.Checksum _ftpCksm;
 
@@ -328,12 +329,14 @@ public class RemoteGsiftpTransferProtocol
                 return null;
             }
 
-            ByteBuffer buffer = ByteBuffer.allocate(128*1024);
-            _fileChannel.position(_previousUpdateEndOffset);
-            while (_fileChannel.read(buffer) >= 0) {
-                buffer.flip();
-                _transferMessageDigest.update(buffer);
-                buffer.clear();
+            try (ByteBufferPool.Lease lease = leaseBuffer(128 * 1024)) {
+                ByteBuffer buffer = lease.buffer();
+                _fileChannel.position(_previousUpdateEndOffset);
+                while (_fileChannel.read(buffer) >= 0) {
+                    buffer.flip();
+                    _transferMessageDigest.update(buffer);
+                    buffer.clear();
+                }
             }
 
             return _checksumFactory.create(_transferMessageDigest.digest());
@@ -343,6 +346,19 @@ public class RemoteGsiftpTransferProtocol
         }
     }
 
+    @Override
+    public void setByteBufferPool(ByteBufferPool pool)
+    {
+        _bufferPool = pool;
+    }
+
+    private ByteBufferPool.Lease leaseBuffer(int size)
+    {
+        return (_bufferPool != null)
+               ? _bufferPool.lease("RemoteGsiftpTransfer", size)
+               : ByteBufferPool.unpooled(ByteBuffer.allocate(size));
+    }
+
     private ChecksumFactory getChecksumFactory(RemoteGsiftpTransferProtocolInfo remoteGsiftpProtocolInfo)
     {
         try {
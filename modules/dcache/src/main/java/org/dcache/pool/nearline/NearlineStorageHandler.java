@@ -117,6 +117,7 @@ public class NearlineStorageHandler extends AbstractCellComponent implements Cel
     private final FlushRequestContainer flushRequests = new FlushRequestContainer();
     private final StageRequestContainer stageRequests = new StageRequestContainer();
     private final RemoveRequestContainer removeRequests = new RemoveRequestContainer();
+    private final RecallScheduler recallScheduler = new RecallScheduler();
 
     private ScheduledExecutorService scheduledExecutor;
     private ListeningExecutorService executor;
@@ -139,6 +140,7 @@ public class NearlineStorageHandler extends AbstractCellComponent implements Cel
     public void setScheduledExecutor(ScheduledExecutorService executor)
     {
         this.scheduledExecutor = checkNotNull(executor);
+        recallScheduler.setExecutor(executor);
     }
 
     @Required
@@ -238,12 +240,14 @@ public class NearlineStorageHandler extends AbstractCellComponent implements Cel
         pw.append("    delete     " + "").print(getActiveRemoveJobs());
         pw.append("/").print(getRemoveQueueSize());
         pw.println();
+        recallScheduler.getInfo(pw);
     }
 
     @Override
     public void printSetup(PrintWriter pw)
     {
         pw.append("rh set timeout ").println(TimeUnit.MILLISECONDS.toSeconds(stageTimeout));
+        pw.append("rh set window ").println(TimeUnit.MILLISECONDS.toSeconds(recallScheduler.getWindow()));
         pw.append("st set timeout ").println(TimeUnit.MILLISECONDS.toSeconds(flushTimeout));
         pw.append("rm set timeout ").println(TimeUnit.MILLISECONDS.toSeconds(removeTimeout));
         synchronized(suppressedStoreErrors) {
@@ -688,7 +692,7 @@ public class NearlineStorageHandler extends AbstractCellComponent implements Cel
         @Override
         protected void submit(NearlineStorage storage, Iterable<StageRequestImpl> requests)
         {
-            storage.stage(transform(requests, Functions.<StageRequest>identity()));
+            recallScheduler.submit(storage, requests);
         }
     }
 
@@ -1004,6 +1008,17 @@ public class NearlineStorageHandler extends AbstractCellComponent implements Cel
             return super.activate();
         }
 
+        @Override
+        public void cancel()
+        {
+            super.cancel();
+
+            /* Requests held by the recall scheduler are unknown to the nearline storage. */
+            if (recallScheduler.remove(this)) {
+                failed(new CancellationException());
+            }
+        }
+
         @Override
         public File getFile()
         {
@@ -1154,6 +1169,30 @@ public class NearlineStorageHandler extends AbstractCellComponent implements Cel
         }
     }
 
+    @Command(name = "rh set window",
+            hint = "set restore batching window",
+            description = "Set how long restore requests are held before being passed to the " +
+                    "nearline storage. Requests held are grouped by the tape volume of the file " +
+                    "and passed on volume by volume, ordered by the position of the files on " +
+                    "the volume. This reduces tape mounts and seeks at the expense of latency. " +
+                    "Only files whose HSM location names a volume are held. A window of zero " +
+                    "passes restore requests on immediately.")
+    class RestoreSetWindowCommand implements Callable<String>
+    {
+        @Argument(metaVar = "seconds")
+        long window;
+
+        @Override
+        public String call() throws IllegalArgumentException
+        {
+            recallScheduler.setWindow(TimeUnit.SECONDS.toMillis(window));
+            if (window == 0) {
+                recallScheduler.flush();
+            }
+            return "";
+        }
+    }
+
     @Command(name = "rh kill",
             hint = "kill restore request",
             description = "Remove an HSM restore request.")
@@ -0,0 +1,321 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.nearline;
+
+import com.google.common.base.Splitter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.vehicles.StorageInfo;
+
+import org.dcache.pool.nearline.spi.NearlineStorage;
+import org.dcache.pool.nearline.spi.StageRequest;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Orders stage requests by tape volume and position on the volume.
+ *
+ * Stage requests arriving in random order cause the nearline storage to mount
+ * and position tapes repeatedly. The scheduler holds requests for a configurable
+ * window, grouping them by the volume named in the HSM location of the file.
+ * When the window of a volume expires, its requests are submitted to the nearline
+ * storage together, ordered by their position on the volume.
+ *
+ * The volume is taken from the {@code volume} query parameter of the location URI
+ * and the position from the {@code position} or {@code location} parameter, as used
+ * by Enstore. Requests for files without a volume are submitted immediately, as
+ * are all requests if the window is zero.
+ */
+class RecallScheduler
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecallScheduler.class);
+
+    private static final Comparator<String> POSITION_ORDER =
+            Comparator.nullsLast(Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder()));
+
+    private final Map<Key, Batch> batches = new HashMap<>();
+    private final Map<NearlineStorage, String> lastVolume = new HashMap<>();
+
+    private ScheduledExecutorService executor;
+    private long window;
+
+    private long batchCount;
+    private long fileCount;
+    private long maxBatchSize;
+    private long reusedMounts;
+
+    public synchronized void setExecutor(ScheduledExecutorService executor)
+    {
+        this.executor = checkNotNull(executor);
+    }
+
+    /**
+     * Sets the time in milliseconds requests are held to build up batches.
+     */
+    public synchronized void setWindow(long millis)
+    {
+        checkArgument(millis >= 0, "Window must not be negative");
+        window = millis;
+    }
+
+    public synchronized long getWindow()
+    {
+        return window;
+    }
+
+    /**
+     * Submits requests to the nearline storage, holding those with a known volume
+     * until the window of that volume expires.
+     */
+    public void submit(NearlineStorage storage, Iterable<? extends StageRequest> requests)
+    {
+        List<StageRequest> immediate = new ArrayList<>();
+        synchronized (this) {
+            for (StageRequest request : requests) {
+                Map<String, String> location = (window > 0) ? getLocation(request) : null;
+                String volume = (location == null) ? null : location.get("volume");
+                if (volume == null) {
+                    immediate.add(request);
+                } else {
+                    Key key = new Key(storage, volume);
+                    Batch batch = batches.get(key);
+                    if (batch == null) {
+                        batch = new Batch();
+                        batch.future = executor.schedule(() -> send(key), window, TimeUnit.MILLISECONDS);
+                        batches.put(key, batch);
+                    }
+                    String position = location.get("position");
+                    batch.add(request, (position == null) ? location.get("location") : position);
+                }
+            }
+        }
+        if (!immediate.isEmpty()) {
+            storage.stage(immediate);
+        }
+    }
+
+    /**
+     * Removes a held request. Returns true if the request was held, false if it was
+     * already submitted to the nearline storage.
+     */
+    public synchronized boolean remove(StageRequest request)
+    {
+        Iterator<Map.Entry<Key, Batch>> iterator = batches.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, Batch> entry = iterator.next();
+            Batch batch = entry.getValue();
+            if (batch.remove(request)) {
+                if (batch.isEmpty()) {
+                    batch.future.cancel(false);
+                    iterator.remove();
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Submits all held requests without waiting for their window to expire.
+     */
+    public void flush()
+    {
+        List<Key> keys;
+        synchronized (this) {
+            keys = new ArrayList<>(batches.keySet());
+        }
+        keys.forEach(this::send);
+    }
+
+    public synchronized void getInfo(PrintWriter pw)
+    {
+        int held = 0;
+        for (Batch batch : batches.values()) {
+            held += batch.requests.size();
+        }
+        pw.println("  Recall scheduling");
+        pw.append("    Window        : ").print(TimeUnit.MILLISECONDS.toSeconds(window));
+        pw.println(" seconds");
+        pw.append("    Held          : ").print(held);
+        pw.append(" files on ").print(batches.size());
+        pw.println(" volumes");
+        pw.append("    Batches       : ").println(batchCount);
+        pw.append("    Batched files : ").print(fileCount);
+        pw.append(" (average ").print((batchCount == 0) ? 0 : fileCount / batchCount);
+        pw.append(", max ").print(maxBatchSize);
+        pw.println(")");
+        pw.append("    Mount reuse   : ").print(reusedMounts);
+        pw.append(" files (").print((fileCount == 0) ? 0 : 100 * reusedMounts / fileCount);
+        pw.println("%)");
+    }
+
+    private void send(Key key)
+    {
+        List<StageRequest> requests;
+        synchronized (this) {
+            Batch batch = batches.remove(key);
+            if (batch == null) {
+                return;
+            }
+            batch.future.cancel(false);
+            requests = batch.sorted();
+
+            /* All but the first file of a batch share the mount of the first, and so
+             * does the first if the previous batch was for the same volume.
+             */
+            int size = requests.size();
+            batchCount++;
+            fileCount += size;
+            maxBatchSize = Math.max(maxBatchSize, size);
+            reusedMounts += size - 1;
+            if (key.volume.equals(lastVolume.put(key.storage, key.volume))) {
+                reusedMounts++;
+            }
+        }
+        try {
+            key.storage.stage(requests);
+        } catch (RuntimeException e) {
+            /* Nobody else would learn about the failure of a held batch. */
+            LOGGER.error("Failed to submit stage requests: {}", e.toString());
+            for (StageRequest request : requests) {
+                request.failed(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the query parameters of the first location of the file identifying
+     * a volume, or null if there is no such location.
+     */
+    private static Map<String, String> getLocation(StageRequest request)
+    {
+        StorageInfo storageInfo = request.getFileAttributes().getStorageInfo();
+        for (URI uri : storageInfo.locations()) {
+            String query = uri.getQuery();
+            if (query != null) {
+                Map<String, String> parameters = new HashMap<>();
+                for (String parameter : Splitter.on('&').omitEmptyStrings().split(query)) {
+                    int i = parameter.indexOf('=');
+                    if (i > 0) {
+                        parameters.put(parameter.substring(0, i), parameter.substring(i + 1));
+                    }
+                }
+                if (parameters.containsKey("volume")) {
+                    return parameters;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static class Key
+    {
+        private final NearlineStorage storage;
+        private final String volume;
+
+        Key(NearlineStorage storage, String volume)
+        {
+            this.storage = storage;
+            this.volume = volume;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return storage.equals(that.storage) && volume.equals(that.volume);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(storage, volume);
+        }
+    }
+
+    /**
+     * Requests held for a single volume, in arrival order.
+     */
+    private static class Batch
+    {
+        private final List<StageRequest> requests = new ArrayList<>();
+        private final List<String> positions = new ArrayList<>();
+        private ScheduledFuture<?> future;
+
+        void add(StageRequest request, String position)
+        {
+            requests.add(request);
+            positions.add(position);
+        }
+
+        boolean remove(StageRequest request)
+        {
+            int i = requests.indexOf(request);
+            if (i < 0) {
+                return false;
+            }
+            requests.remove(i);
+            positions.remove(i);
+            return true;
+        }
+
+        boolean isEmpty()
+        {
+            return requests.isEmpty();
+        }
+
+        /**
+         * Returns the requests ordered by position. Requests without a position
+         * follow in arrival order.
+         */
+        List<StageRequest> sorted()
+        {
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < requests.size(); i++) {
+                order.add(i);
+            }
+            order.sort(Comparator.comparing(positions::get, POSITION_ORDER));
+            List<StageRequest> sorted = new ArrayList<>(requests.size());
+            for (int i : order) {
+                sorted.add(requests.get(i));
+            }
+            return sorted;
+        }
+    }
+}
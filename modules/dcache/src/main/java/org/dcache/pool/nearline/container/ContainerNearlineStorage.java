@@ -0,0 +1,618 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.nearline.container;
+
+import com.google.common.base.Splitter;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.InvalidMessageCacheException;
+
+import org.dcache.pool.nearline.spi.FlushRequest;
+import org.dcache.pool.nearline.spi.NearlineStorage;
+import org.dcache.pool.nearline.spi.RemoveRequest;
+import org.dcache.pool.nearline.spi.StageRequest;
+import org.dcache.util.BoundedExecutor;
+import org.dcache.util.Checksum;
+import org.dcache.vehicles.FileAttributes;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * NearlineStorage packing many small files into container files.
+ *
+ * Files to flush are grouped by storage class. Once the files of a storage class
+ * add up to the target container size, or the oldest of them has waited for the
+ * configured delay, they are written to a single tar file in the configured
+ * directory. The directory is typically on a file system backed by tape, which
+ * thus sees few large files rather than many small ones.
+ *
+ * The location of a file records the container, the offset of the file's data
+ * within the container, its size and the number of files in the container:
+ *
+ * <pre>
+ *     TYPE://NAME/CONTAINER?offset=OFFSET&amp;size=SIZE&amp;count=COUNT
+ * </pre>
+ *
+ * A file is staged by reading its data directly at the recorded offset, thus
+ * without reading the rest of the container. Containers are plain tar files and
+ * may be unpacked with standard tools should the need arise.
+ *
+ * Files cannot be removed from a container individually. Removed files are
+ * recorded in a journal next to the container, and the container is deleted
+ * once all of its files have been removed.
+ */
+public class ContainerNearlineStorage implements NearlineStorage
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContainerNearlineStorage.class);
+
+    public static final String DIRECTORY = "directory";
+    public static final String SIZE = "size";
+    public static final String DELAY = "delay";
+    public static final String CONCURRENT_PUTS = "c:puts";
+    public static final String CONCURRENT_GETS = "c:gets";
+
+    private static final long DEFAULT_SIZE = 10L * 1024 * 1024 * 1024;
+    private static final long DEFAULT_DELAY = 300;
+    private static final int DEFAULT_FLUSH_THREADS = 2;
+    private static final int DEFAULT_STAGE_THREADS = 10;
+
+    private static final int RECORD_SIZE = 512;
+    private static final String CONTAINER_SUFFIX = ".tar";
+    private static final String INCOMPLETE_SUFFIX = ".incomplete";
+    private static final String REMOVED_SUFFIX = ".removed";
+
+    private final String type;
+    private final String name;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final BoundedExecutor flushExecutor = new BoundedExecutor(executor, DEFAULT_FLUSH_THREADS);
+    private final BoundedExecutor stageExecutor = new BoundedExecutor(executor, DEFAULT_STAGE_THREADS);
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    /** Files waiting to be flushed, by storage class. Guarded by itself. */
+    private final Map<String, Batch> batches = new HashMap<>();
+
+    /** Stage requests queued or being processed. */
+    private final Map<UUID, Stage> stages = new ConcurrentHashMap<>();
+
+    private volatile File directory;
+    private volatile long size = DEFAULT_SIZE;
+    private volatile long delay = TimeUnit.SECONDS.toMillis(DEFAULT_DELAY);
+
+    public ContainerNearlineStorage(String type, String name)
+    {
+        this.type = type;
+        this.name = name;
+        timer.scheduleWithFixedDelay(this::flushExpiredBatches, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void configure(Map<String, String> properties) throws IllegalArgumentException
+    {
+        String directory = properties.get(DIRECTORY);
+        checkArgument(directory != null, "directory attribute is required");
+        File dir = new File(directory);
+        checkArgument(dir.isDirectory(), directory + " is not a directory");
+
+        String size = properties.get(SIZE);
+        String delay = properties.get(DELAY);
+        long newSize = (size != null) ? Long.parseLong(size) : DEFAULT_SIZE;
+        long newDelay = (delay != null) ? Long.parseLong(delay) : DEFAULT_DELAY;
+        checkArgument(newSize > 0, "size must be positive");
+        checkArgument(newDelay >= 0, "delay must not be negative");
+
+        this.directory = dir;
+        this.size = newSize;
+        this.delay = TimeUnit.SECONDS.toMillis(newDelay);
+        configureThreadPoolSize(flushExecutor, properties.get(CONCURRENT_PUTS), DEFAULT_FLUSH_THREADS);
+        configureThreadPoolSize(stageExecutor, properties.get(CONCURRENT_GETS), DEFAULT_STAGE_THREADS);
+    }
+
+    @Override
+    public void flush(Iterable<FlushRequest> requests)
+    {
+        List<Batch> full = new ArrayList<>();
+        synchronized (batches) {
+            for (FlushRequest request : requests) {
+                FileAttributes attributes = request.getFileAttributes();
+                String storageClass = attributes.getStorageClass() + '@' + attributes.getHsm();
+                Batch batch = batches.computeIfAbsent(storageClass, key -> new Batch());
+                batch.add(request, attributes.getSize());
+                if (batch.size >= size) {
+                    batches.remove(storageClass);
+                    full.add(batch);
+                }
+            }
+        }
+        full.forEach(this::write);
+    }
+
+    @Override
+    public void stage(Iterable<StageRequest> requests)
+    {
+        /* Files of the same container are read in the order of their offsets. */
+        List<Member> members = new ArrayList<>();
+        for (StageRequest request : requests) {
+            try {
+                members.add(new Member(request, getLocation(request.getFileAttributes())));
+            } catch (CacheException e) {
+                request.failed(e);
+            }
+        }
+        members.sort(null);
+        for (Member member : members) {
+            Stage stage = new Stage(member);
+            stage.future = stageExecutor.submit(stage::run);
+            stages.put(member.request.getId(), stage);
+            if (stage.isFinished) {
+                stages.remove(member.request.getId(), stage);
+            }
+        }
+    }
+
+    @Override
+    public void remove(Iterable<RemoveRequest> requests)
+    {
+        for (RemoveRequest request : requests) {
+            flushExecutor.execute(() -> {
+                try {
+                    request.activate().get();
+                    removeMember(new Location(request.getUri()));
+                    request.completed(null);
+                } catch (ExecutionException e) {
+                    request.failed((Exception) e.getCause());
+                } catch (InterruptedException e) {
+                    request.failed(new CancellationException());
+                } catch (CacheException | IOException | RuntimeException e) {
+                    request.failed(e);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void cancel(UUID uuid)
+    {
+        Stage stage = stages.get(uuid);
+        if (stage != null) {
+            stage.cancel();
+            return;
+        }
+
+        /* Files already being written to a container are not cancelled. */
+        FlushRequest cancelled = null;
+        synchronized (batches) {
+            for (Batch batch : batches.values()) {
+                cancelled = batch.remove(uuid);
+                if (cancelled != null) {
+                    break;
+                }
+            }
+        }
+        if (cancelled != null) {
+            cancelled.failed(new CancellationException());
+        }
+    }
+
+    @Override
+    public void shutdown()
+    {
+        timer.shutdown();
+        List<Batch> pending;
+        synchronized (batches) {
+            pending = new ArrayList<>(batches.values());
+            batches.clear();
+        }
+        for (Batch batch : pending) {
+            for (FlushRequest request : batch.requests) {
+                request.failed(new CancellationException());
+            }
+        }
+        stages.values().forEach(Stage::cancel);
+        flushExecutor.shutdown();
+        stageExecutor.shutdown();
+        executor.shutdown();
+    }
+
+    private void flushExpiredBatches()
+    {
+        long deadline = System.currentTimeMillis() - delay;
+        List<Batch> expired = new ArrayList<>();
+        synchronized (batches) {
+            Iterator<Batch> iterator = batches.values().iterator();
+            while (iterator.hasNext()) {
+                Batch batch = iterator.next();
+                if (batch.createdAt <= deadline) {
+                    iterator.remove();
+                    expired.add(batch);
+                }
+            }
+        }
+        expired.forEach(this::write);
+    }
+
+    private void write(Batch batch)
+    {
+        flushExecutor.execute(() -> {
+            try {
+                writeContainer(batch.requests);
+            } catch (RuntimeException e) {
+                LOGGER.error("Bug detected while writing container", e);
+                batch.requests.forEach(request -> request.failed(e));
+            }
+        });
+    }
+
+    /**
+     * Writes the files of a batch to a new container. The container is written
+     * under a temporary name and renamed once it has been written to disk.
+     * Requests failing activation are left out of the container.
+     */
+    private void writeContainer(List<FlushRequest> requests)
+    {
+        List<FlushRequest> members = new ArrayList<>();
+        for (FlushRequest request : requests) {
+            try {
+                request.activate().get();
+                members.add(request);
+            } catch (ExecutionException e) {
+                request.failed((Exception) e.getCause());
+            } catch (InterruptedException e) {
+                request.failed(new CancellationException());
+            }
+        }
+        if (members.isEmpty()) {
+            return;
+        }
+
+        String container = UUID.randomUUID() + CONTAINER_SUFFIX;
+        File file = new File(directory, container);
+        File incomplete = new File(directory, container + INCOMPLETE_SUFFIX);
+        List<URI> locations = new ArrayList<>();
+        try {
+            try (FileOutputStream out = new FileOutputStream(incomplete);
+                 TarArchiveOutputStream tar = new TarArchiveOutputStream(out)) {
+                tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_STAR);
+
+                /* Names are short and sizes are binary encoded when exceeding the octal
+                 * field, hence every header occupies a single record and the offset of
+                 * each file's data follows from the sizes of the preceding files.
+                 */
+                long offset = 0;
+                for (FlushRequest request : members) {
+                    File data = request.getFile();
+                    long length = data.length();
+                    long expected = request.getFileAttributes().getSize();
+                    if (length != expected) {
+                        throw new CacheException("Size of " + data + " is " + length + " but expected " + expected);
+                    }
+                    TarArchiveEntry entry = new TarArchiveEntry(request.getFileAttributes().getPnfsId().toString());
+                    entry.setSize(length);
+                    tar.putArchiveEntry(entry);
+                    Files.copy(data.toPath(), tar);
+                    tar.closeArchiveEntry();
+
+                    offset += RECORD_SIZE;
+                    locations.add(new Location(container, offset, length, members.size()).toUri(type, name));
+                    offset += (length + RECORD_SIZE - 1) / RECORD_SIZE * RECORD_SIZE;
+                }
+                tar.finish();
+                tar.flush();
+                out.getChannel().force(true);
+            }
+            verify(incomplete, members, locations);
+            Files.move(incomplete.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | CacheException | URISyntaxException e) {
+            LOGGER.warn("Failed to write container {}: {}", file, e.toString());
+            try {
+                Files.deleteIfExists(incomplete.toPath());
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            for (FlushRequest request : members) {
+                request.failed(e);
+            }
+            return;
+        }
+
+        LOGGER.info("Wrote {} files to container {}.", members.size(), file);
+        for (int i = 0; i < members.size(); i++) {
+            members.get(i).completed(Collections.singleton(locations.get(i)));
+        }
+    }
+
+    /**
+     * Checks that the header of each file is found where its location says it is.
+     */
+    private void verify(File container, List<FlushRequest> members, List<URI> locations)
+            throws IOException, CacheException
+    {
+        try (FileChannel channel = FileChannel.open(container.toPath(), StandardOpenOption.READ)) {
+            for (int i = 0; i < members.size(); i++) {
+                Location location = new Location(locations.get(i));
+                ByteBuffer header = ByteBuffer.allocate(RECORD_SIZE);
+                while (header.hasRemaining()) {
+                    if (channel.read(header, location.offset - RECORD_SIZE + header.position()) < 0) {
+                        throw new CacheException("Container " + container + " is truncated");
+                    }
+                }
+                TarArchiveEntry entry = new TarArchiveEntry(header.array());
+                String pnfsId = members.get(i).getFileAttributes().getPnfsId().toString();
+                if (!entry.getName().equals(pnfsId) || entry.getSize() != location.size) {
+                    throw new CacheException("Container " + container + " has unexpected layout at offset " + location.offset);
+                }
+            }
+        }
+    }
+
+    private void read(Member member)
+    {
+        StageRequest request = member.request;
+        Location location = member.location;
+        try {
+            request.activate().get();
+            request.allocate().get();
+            File container = new File(directory, location.container);
+            try (FileChannel in = openContainer(container, request);
+                 FileChannel out = FileChannel.open(request.getFile().toPath(), StandardOpenOption.WRITE,
+                                                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                if (in.size() < location.offset + location.size) {
+                    throw new CacheException(CacheException.BROKEN_ON_TAPE,
+                                             "Container " + container + " is too short for " +
+                                             request.getFileAttributes().getPnfsId());
+                }
+                long position = 0;
+                while (position < location.size) {
+                    position += in.transferTo(location.offset + position, location.size - position, out);
+                }
+            }
+            request.completed(Collections.<Checksum>emptySet());
+        } catch (ExecutionException e) {
+            request.failed((Exception) e.getCause());
+        } catch (InterruptedException | ClosedByInterruptException e) {
+            request.failed(new CancellationException());
+        } catch (CacheException | IOException | RuntimeException e) {
+            request.failed(e);
+        }
+    }
+
+    private static FileChannel openContainer(File container, StageRequest request)
+            throws CacheException, IOException
+    {
+        try {
+            return FileChannel.open(container.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new CacheException(CacheException.BROKEN_ON_TAPE,
+                                     "Container " + container + " is missing for " +
+                                     request.getFileAttributes().getPnfsId());
+        }
+    }
+
+    private void removeMember(Location location) throws IOException
+    {
+        File container = new File(directory, location.container);
+        File removed = new File(directory, location.container + REMOVED_SUFFIX);
+        synchronized (this) {
+            if (!container.exists()) {
+                return;
+            }
+            try (OutputStream out = new FileOutputStream(removed, true)) {
+                out.write((location.offset + "\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            }
+            Set<String> offsets = new HashSet<>(Files.readAllLines(removed.toPath(), StandardCharsets.US_ASCII));
+            if (offsets.size() >= location.count) {
+                LOGGER.info("Deleting container {} as all its files have been removed.", container);
+                Files.delete(container.toPath());
+                Files.delete(removed.toPath());
+            }
+        }
+    }
+
+    private Location getLocation(FileAttributes attributes) throws CacheException
+    {
+        for (URI uri : attributes.getStorageInfo().locations()) {
+            if (uri.getScheme().equals(type) && uri.getAuthority().equals(name)) {
+                return new Location(uri);
+            }
+        }
+        throw new CacheException(CacheException.BROKEN_ON_TAPE,
+                                 "File not on nearline storage: " + attributes.getPnfsId());
+    }
+
+    private static void configureThreadPoolSize(BoundedExecutor executor, String configuration, int defaultValue)
+    {
+        int n = (configuration != null) ? Integer.parseInt(configuration) : defaultValue;
+        executor.setMaximumPoolSize(n);
+    }
+
+    /**
+     * Files of a storage class waiting to be written to a container.
+     */
+    private static class Batch
+    {
+        private final long createdAt = System.currentTimeMillis();
+        private final List<FlushRequest> requests = new ArrayList<>();
+        private long size;
+
+        void add(FlushRequest request, long length)
+        {
+            requests.add(request);
+            size += length;
+        }
+
+        FlushRequest remove(UUID id)
+        {
+            Iterator<FlushRequest> iterator = requests.iterator();
+            while (iterator.hasNext()) {
+                FlushRequest request = iterator.next();
+                if (request.getId().equals(id)) {
+                    iterator.remove();
+                    size -= request.getFileAttributes().getSize();
+                    return request;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Location of a file within a container.
+     */
+    static class Location
+    {
+        final String container;
+        final long offset;
+        final long size;
+        final int count;
+
+        Location(String container, long offset, long size, int count)
+        {
+            this.container = container;
+            this.offset = offset;
+            this.size = size;
+            this.count = count;
+        }
+
+        Location(URI uri) throws InvalidMessageCacheException
+        {
+            String path = uri.getPath();
+            String query = uri.getQuery();
+            if (path == null || path.length() < 2 || path.indexOf('/', 1) >= 0 || query == null) {
+                throw new InvalidMessageCacheException("Invalid nearline storage URI: " + uri);
+            }
+            try {
+                Map<String, String> parameters =
+                        Splitter.on('&').omitEmptyStrings().withKeyValueSeparator('=').split(query);
+                container = path.substring(1);
+                offset = Long.parseLong(parameters.get("offset"));
+                size = Long.parseLong(parameters.get("size"));
+                count = Integer.parseInt(parameters.get("count"));
+            } catch (IllegalArgumentException e) {
+                throw new InvalidMessageCacheException("Invalid nearline storage URI: " + uri);
+            }
+        }
+
+        URI toUri(String type, String name) throws URISyntaxException
+        {
+            return new URI(type, name, '/' + container, "offset=" + offset + "&size=" + size + "&count=" + count, null);
+        }
+    }
+
+    /**
+     * A stage request and the location of its file.
+     */
+    private static class Member implements Comparable<Member>
+    {
+        final StageRequest request;
+        final Location location;
+
+        Member(StageRequest request, Location location)
+        {
+            this.request = request;
+            this.location = location;
+        }
+
+        @Override
+        public int compareTo(Member other)
+        {
+            int c = location.container.compareTo(other.location.container);
+            return (c != 0) ? c : Long.compare(location.offset, other.location.offset);
+        }
+    }
+
+    /**
+     * A stage request submitted to the stage executor.
+     *
+     * A request cancelled while still queued is never run and is thus failed
+     * by the canceller; a request cancelled while running is interrupted and
+     * failed by the reader.
+     */
+    private class Stage
+    {
+        final Member member;
+        final AtomicBoolean isStarted = new AtomicBoolean();
+        volatile boolean isFinished;
+        volatile Future<?> future;
+
+        Stage(Member member)
+        {
+            this.member = member;
+        }
+
+        void run()
+        {
+            if (isStarted.compareAndSet(false, true)) {
+                try {
+                    read(member);
+                } finally {
+                    isFinished = true;
+                    stages.remove(member.request.getId(), this);
+                }
+            }
+        }
+
+        void cancel()
+        {
+            if (isStarted.compareAndSet(false, true)) {
+                stages.remove(member.request.getId(), this);
+                future.cancel(false);
+                member.request.failed(new CancellationException());
+            } else {
+                future.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.nearline.coprocess;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.util.CacheException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A long lived helper process exchanging requests and replies over its standard
+ * input and output.
+ *
+ * Every request is a single line consisting of a request id followed by the
+ * request arguments. Every reply is a single line starting with the id of the
+ * request it replies to, followed by either {@code OK} and a list of results, or
+ * by {@code ERR}, an error code and an error message. Requests may be answered in
+ * any order. A request may be cancelled by sending a line with its id followed by
+ * {@code cancel}, in response to which the helper should fail the request.
+ *
+ * Fields are separated by single spaces. Spaces, line breaks and percent signs
+ * within arguments and results are percent encoded. Output on standard error is
+ * logged.
+ *
+ * The helper is started on the first request and restarted on the next request
+ * should it terminate. When the helper terminates, all of its outstanding requests
+ * fail. On shutdown its standard input is closed, after which the helper is
+ * expected to exit. A helper failing to exit in time is killed, failing any
+ * requests it has not answered yet.
+ */
+class Coprocess
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(Coprocess.class);
+
+    private static final long TERMINATION_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    private final String name;
+    private final List<String> command;
+
+    private Instance instance;
+
+    Coprocess(String name, List<String> command)
+    {
+        this.name = name;
+        this.command = command;
+    }
+
+    public List<String> getCommand()
+    {
+        return command;
+    }
+
+    /**
+     * Sends a request to the helper, starting the helper if necessary.
+     *
+     * @return future of the results of the request
+     */
+    public ListenableFuture<List<String>> submit(String id, List<String> arguments) throws IOException
+    {
+        List<String> fields = new ArrayList<>();
+        fields.add(id);
+        fields.addAll(arguments);
+
+        SettableFuture<List<String>> future = SettableFuture.create();
+        synchronized (this) {
+            if (instance == null || !instance.isAlive()) {
+                instance = new Instance();
+            }
+            instance.submit(id, future, fields);
+        }
+        return future;
+    }
+
+    /**
+     * Asks the helper to cancel a request. The request fails once the helper
+     * replies.
+     */
+    public synchronized void cancel(String id)
+    {
+        if (instance != null) {
+            try {
+                instance.cancel(id);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to cancel request {} of {}: {}", id, name, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Waits for the helper to answer all outstanding requests and then closes
+     * it as by {@link #close}. The helper is closed even if interrupted while
+     * waiting.
+     */
+    public void drain() throws InterruptedException
+    {
+        Instance instance;
+        synchronized (this) {
+            instance = this.instance;
+        }
+        try {
+            if (instance != null) {
+                instance.awaitIdle();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Closes the standard input of the helper and waits for it to exit. The
+     * helper is killed if it fails to exit in time.
+     */
+    public void close() throws InterruptedException
+    {
+        Instance instance;
+        synchronized (this) {
+            instance = this.instance;
+            this.instance = null;
+        }
+        if (instance != null) {
+            instance.close();
+        }
+    }
+
+    static String encode(String s)
+    {
+        return s.replace("%", "%25").replace(" ", "%20").replace("\n", "%0A").replace("\r", "%0D");
+    }
+
+    static String decode(String s)
+    {
+        return s.replace("%0D", "\r").replace("%0A", "\n").replace("%20", " ").replace("%25", "%");
+    }
+
+    /**
+     * A single incarnation of the helper process.
+     */
+    private class Instance
+    {
+        private final Process process;
+        private final Writer writer;
+        private final Map<String, SettableFuture<List<String>>> requests = new ConcurrentHashMap<>();
+
+        Instance() throws IOException
+        {
+            LOGGER.info("Starting {}: {}", name, command);
+            process = new ProcessBuilder(command).start();
+            writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), UTF_8));
+            Thread stdout = new Thread(this::readReplies, name + "-stdout");
+            stdout.setDaemon(true);
+            stdout.start();
+            Thread stderr = new Thread(this::readErrors, name + "-stderr");
+            stderr.setDaemon(true);
+            stderr.start();
+        }
+
+        boolean isAlive()
+        {
+            return process.isAlive();
+        }
+
+        void submit(String id, SettableFuture<List<String>> future, List<String> fields) throws IOException
+        {
+            requests.put(id, future);
+            try {
+                write(fields);
+            } catch (IOException e) {
+                requests.remove(id);
+                requestsChanged();
+                throw e;
+            }
+        }
+
+        void cancel(String id) throws IOException
+        {
+            if (requests.containsKey(id)) {
+                List<String> fields = new ArrayList<>();
+                fields.add(id);
+                fields.add("cancel");
+                write(fields);
+            }
+        }
+
+        /**
+         * Waits until all requests have been answered or the helper has terminated.
+         */
+        synchronized void awaitIdle() throws InterruptedException
+        {
+            while (!requests.isEmpty() && process.isAlive()) {
+                wait();
+            }
+        }
+
+        private synchronized void requestsChanged()
+        {
+            notifyAll();
+        }
+
+        void close() throws InterruptedException
+        {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOGGER.debug("Failed to close standard input of {}: {}", name, e.getMessage());
+            }
+            if (!process.waitFor(TERMINATION_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("{} did not exit in time and was killed.", name);
+                process.destroyForcibly();
+            }
+        }
+
+        private void write(List<String> fields) throws IOException
+        {
+            List<String> encoded = new ArrayList<>(fields.size());
+            for (String field : fields) {
+                encoded.add(encode(field));
+            }
+            synchronized (writer) {
+                writer.write(Joiner.on(' ').join(encoded));
+                writer.write('\n');
+                writer.flush();
+            }
+        }
+
+        private void readReplies()
+        {
+            try (BufferedReader reader =
+                         new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    processReply(line);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Failed to read from {}: {}", name, e.getMessage());
+            } finally {
+                terminated();
+            }
+        }
+
+        private void processReply(String line)
+        {
+            List<String> fields = Splitter.on(' ').limit(3).splitToList(line);
+            SettableFuture<List<String>> future =
+                    (fields.size() < 2) ? null : requests.remove(decode(fields.get(0)));
+            if (future == null) {
+                LOGGER.warn("Unexpected reply from {}: {}", name, line);
+                return;
+            }
+            requestsChanged();
+            String rest = (fields.size() < 3) ? "" : fields.get(2);
+            switch (fields.get(1)) {
+            case "OK":
+                List<String> results = new ArrayList<>();
+                for (String result : Splitter.on(' ').omitEmptyStrings().split(rest)) {
+                    results.add(decode(result));
+                }
+                future.set(results);
+                break;
+            case "ERR":
+                List<String> error = Splitter.on(' ').limit(2).splitToList(rest);
+                int rc;
+                try {
+                    rc = Integer.parseInt(error.get(0));
+                } catch (NumberFormatException e) {
+                    rc = CacheException.DEFAULT_ERROR_CODE;
+                }
+                future.setException(new CacheException(rc, decode((error.size() < 2) ? rest : error.get(1))));
+                break;
+            default:
+                LOGGER.warn("Malformed reply from {}: {}", name, line);
+                future.setException(new CacheException(2, "Malformed reply from " + name + ": " + line));
+                break;
+            }
+        }
+
+        private void readErrors()
+        {
+            try (BufferedReader reader =
+                         new BufferedReader(new InputStreamReader(process.getErrorStream(), UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    LOGGER.warn("{}: {}", name, line);
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Failed to read standard error of {}: {}", name, e.getMessage());
+            }
+        }
+
+        private void terminated()
+        {
+            try {
+                int rc = process.waitFor();
+                if (!requests.isEmpty()) {
+                    LOGGER.warn("{} terminated with exit code {}.", name, rc);
+                }
+                CacheException cause = new CacheException(3, name + " terminated with exit code " + rc);
+                requests.values().forEach(future -> future.setException(cause));
+                requests.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                requestsChanged();
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.nearline.coprocess;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.vehicles.StorageInfos;
+
+import org.dcache.pool.nearline.AbstractBlockingNearlineStorage;
+import org.dcache.pool.nearline.spi.FlushRequest;
+import org.dcache.pool.nearline.spi.NearlineRequest;
+import org.dcache.pool.nearline.spi.RemoveRequest;
+import org.dcache.pool.nearline.spi.StageRequest;
+import org.dcache.util.BoundedExecutor;
+import org.dcache.util.CDCExecutorServiceDecorator;
+import org.dcache.util.Checksum;
+import org.dcache.vehicles.FileAttributes;
+
+import static java.util.Arrays.asList;
+
+/**
+ * NearlineStorage implementation passing requests to a long lived HSM helper process.
+ *
+ * Unlike {@link org.dcache.pool.nearline.script.ScriptNearlineStorage}, which forks a
+ * script for every request, the helper is started once per nearline storage and
+ * receives requests on its standard input, replying on its standard output. Several
+ * requests are in flight at once. The arguments of a request are those the HSM script
+ * would have been called with:
+ *
+ * <pre>
+ *     ID put PNFSID PATH -si=STORAGEINFO [OPTIONS]
+ *     ID get PNFSID PATH -si=STORAGEINFO [-uri=URI]... [OPTIONS]
+ *     ID remove -uri=URI [OPTIONS]
+ * </pre>
+ *
+ * A successful put is answered with the locations of the file, a successful get with
+ * the checksums of the file in dCache checksum notation (e.g. {@code 1:0badc0de}).
+ * See {@link Coprocess} for the framing of messages.
+ */
+public class CoprocessNearlineStorage extends AbstractBlockingNearlineStorage
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(CoprocessNearlineStorage.class);
+
+    public static final String COMMAND = "command";
+    public static final String CONCURRENT_PUTS = "c:puts";
+    public static final String CONCURRENT_GETS = "c:gets";
+    public static final String CONCURRENT_REMOVES = "c:removes";
+    private static final int DEFAULT_FLUSH_THREADS = 100;
+    private static final int DEFAULT_STAGE_THREADS = 100;
+    private static final int DEFAULT_REMOVE_THREADS = 1;
+    private static final long CANCEL_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    private static final Collection<String> PROPERTIES = asList(COMMAND, CONCURRENT_PUTS, CONCURRENT_GETS, CONCURRENT_REMOVES);
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CDCExecutorServiceDecorator<BoundedExecutor> flushExecutor =
+            new CDCExecutorServiceDecorator<>(new BoundedExecutor(executor, DEFAULT_FLUSH_THREADS));
+    private final CDCExecutorServiceDecorator<BoundedExecutor> stageExecutor =
+            new CDCExecutorServiceDecorator<>(new BoundedExecutor(executor, DEFAULT_STAGE_THREADS));
+    private final CDCExecutorServiceDecorator<BoundedExecutor> removeExecutor =
+            new CDCExecutorServiceDecorator<>(new BoundedExecutor(executor, DEFAULT_REMOVE_THREADS));
+
+    private volatile Coprocess coprocess;
+    private volatile List<String> options;
+
+    public CoprocessNearlineStorage(String type, String name)
+    {
+        super(type, name);
+    }
+
+    @Override
+    protected Executor getFlushExecutor()
+    {
+        return flushExecutor;
+    }
+
+    @Override
+    protected Executor getStageExecutor()
+    {
+        return stageExecutor;
+    }
+
+    @Override
+    protected Executor getRemoveExecutor()
+    {
+        return removeExecutor;
+    }
+
+    @Override
+    protected Set<URI> flush(FlushRequest request) throws Exception
+    {
+        FileAttributes attributes = request.getFileAttributes();
+        List<String> arguments = new ArrayList<>();
+        arguments.add("put");
+        arguments.add(attributes.getPnfsId().toString());
+        arguments.add(request.getFile().getPath());
+        arguments.add("-si=" + StorageInfos.extractFrom(attributes));
+        arguments.addAll(options);
+
+        Set<URI> locations = new HashSet<>();
+        for (String uri : call(request, arguments)) {
+            try {
+                locations.add(new URI(uri));
+            } catch (URISyntaxException e) {
+                throw new CacheException(2, "HSM helper produced bad URI: " + e.getMessage(), e);
+            }
+        }
+        return locations;
+    }
+
+    @Override
+    protected Set<Checksum> stage(StageRequest request) throws Exception
+    {
+        FileAttributes attributes = request.getFileAttributes();
+        List<String> arguments = new ArrayList<>();
+        arguments.add("get");
+        arguments.add(attributes.getPnfsId().toString());
+        arguments.add(request.getFile().getPath());
+        arguments.add("-si=" + StorageInfos.extractFrom(attributes));
+        for (URI uri : getLocations(attributes)) {
+            arguments.add("-uri=" + uri);
+        }
+        arguments.addAll(options);
+
+        Set<Checksum> checksums = new HashSet<>();
+        for (String checksum : call(request, arguments)) {
+            try {
+                checksums.add(Checksum.parseChecksum(checksum));
+            } catch (IllegalArgumentException e) {
+                throw new CacheException(2, "HSM helper produced bad checksum: " + e.getMessage(), e);
+            }
+        }
+        return checksums;
+    }
+
+    @Override
+    protected void remove(RemoveRequest request) throws Exception
+    {
+        List<String> arguments = new ArrayList<>();
+        arguments.add("remove");
+        arguments.add("-uri=" + request.getUri());
+        arguments.addAll(options);
+        call(request, arguments);
+    }
+
+    @Override
+    public synchronized void configure(Map<String, String> properties)
+    {
+        if (!properties.containsKey(COMMAND)) {
+            throw new IllegalArgumentException("command option must be defined");
+        }
+        List<String> command = asList(properties.get(COMMAND));
+        options = buildOptions(properties);
+
+        configureThreadPoolSize(flushExecutor.delegate(), properties.get(CONCURRENT_PUTS), DEFAULT_FLUSH_THREADS);
+        configureThreadPoolSize(stageExecutor.delegate(), properties.get(CONCURRENT_GETS), DEFAULT_STAGE_THREADS);
+        configureThreadPoolSize(removeExecutor.delegate(), properties.get(CONCURRENT_REMOVES), DEFAULT_REMOVE_THREADS);
+
+        /* The previous helper is closed once it has answered the requests already sent to it. */
+        Coprocess previous = coprocess;
+        if (previous == null || !previous.getCommand().equals(command)) {
+            coprocess = new Coprocess(name, command);
+            if (previous != null) {
+                executor.execute(() -> drainQuietly(previous));
+            }
+        }
+    }
+
+    @Override
+    public void shutdown()
+    {
+        super.shutdown();
+        flushExecutor.shutdown();
+        stageExecutor.shutdown();
+        removeExecutor.shutdown();
+        executor.shutdown();
+        Coprocess coprocess = this.coprocess;
+        if (coprocess != null) {
+            closeQuietly(coprocess);
+        }
+    }
+
+    /**
+     * Sends a request to the helper and waits for the reply. If interrupted, the
+     * request is cancelled and the helper is given a bounded time to reply, so
+     * that the request is not failed while the helper is still working on it.
+     * Should the helper complete the request regardless, its result is returned.
+     */
+    private List<String> call(NearlineRequest<?> request, List<String> arguments) throws Exception
+    {
+        String id = request.getId().toString();
+        Coprocess coprocess = this.coprocess;
+        ListenableFuture<List<String>> future = coprocess.submit(id, arguments);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            coprocess.cancel(id);
+            try {
+                return future.get(CANCEL_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException | TimeoutException suppressed) {
+                throw e;
+            }
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), CacheException.class);
+            throw e;
+        }
+    }
+
+    private void closeQuietly(Coprocess coprocess)
+    {
+        try {
+            coprocess.close();
+        } catch (InterruptedException e) {
+            LOGGER.warn("Interrupted while waiting for HSM helper of {} to exit.", name);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainQuietly(Coprocess coprocess)
+    {
+        try {
+            coprocess.drain();
+        } catch (InterruptedException e) {
+            LOGGER.warn("Interrupted while waiting for HSM helper of {} to complete its requests.", name);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void configureThreadPoolSize(BoundedExecutor executor, String configuration, int defaultValue)
+    {
+        int n = (configuration != null) ? Integer.parseInt(configuration) : defaultValue;
+        executor.setMaximumPoolSize(n);
+    }
+
+    private List<String> buildOptions(Map<String, String> properties)
+    {
+        List<String> options = new ArrayList<>();
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            if (!PROPERTIES.contains(entry.getKey())) {
+                options.add("-" + entry.getKey() + (Strings.isNullOrEmpty(entry.getValue()) ? "" : "=" + entry.getValue()));
+            }
+        }
+        return options;
+    }
+}
@@ -325,7 +325,7 @@ class Companion
             throws IOException
     {
         try (RepositoryChannel channel = handle.createChannel();
-             ChecksumChannel checksumChannel = new ChecksumChannel(channel, checksumFactory)) {
+             ChecksumChannel checksumChannel = _checksumModule.createChecksumChannel(channel, checksumFactory)) {
 
             HttpGet get = new HttpGet(uri);
             get.addHeader(HttpHeaders.CONNECTION, HTTP.CONN_CLOSE);
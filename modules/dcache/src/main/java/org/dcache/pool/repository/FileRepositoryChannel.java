@@ -213,4 +213,9 @@ public class FileRepositoryChannel implements RepositoryChannel {
     public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
         return _fileChannel.transferFrom(src, position, count);
     }
+
+    @Override
+    public boolean isZeroCopySupported() {
+        return true;
+    }
 }
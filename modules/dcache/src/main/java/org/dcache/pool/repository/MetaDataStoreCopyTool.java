@@ -15,6 +15,8 @@ public class MetaDataStoreCopyTool
     private static final Logger _log =
         LoggerFactory.getLogger(MetaDataStoreCopyTool.class);
 
+    private static final int PROGRESS_INTERVAL = 10000;
+
     static MetaDataStore createStore(Class<? extends MetaDataStore> clazz,
                                      FileStore fileStore, File poolDir)
         throws NoSuchMethodException, InstantiationException,
@@ -44,19 +46,32 @@ public class MetaDataStoreCopyTool
             createStore(Class.forName(args[2]).asSubclass(MetaDataStore.class), fileStore, poolDir);
         fromStore.init();
         toStore.init();
+        try {
+            if (!toStore.index(MetaDataStore.IndexOption.META_ONLY).isEmpty()) {
+                System.err.println("ERROR: Target store is not empty");
+                System.exit(1);
+            }
 
-        if (!toStore.index(MetaDataStore.IndexOption.META_ONLY).isEmpty()) {
-            System.err.println("ERROR: Target store is not empty");
-            System.exit(1);
-        }
-
-        Collection<PnfsId> ids = fromStore.index(MetaDataStore.IndexOption.META_ONLY);
-        int size = ids.size();
-        int count = 1;
-        for (PnfsId id: ids) {
-            _log.info("Copying {} ({} of {})", id, count, size);
-            toStore.copy(fromStore.get(id));
-            count++;
+            Collection<PnfsId> ids = fromStore.index(MetaDataStore.IndexOption.META_ONLY);
+            int size = ids.size();
+            int count = 1;
+            for (PnfsId id: ids) {
+                MetaDataRecord record = fromStore.get(id);
+                if (record == null) {
+                    _log.warn("Skipping {} as it has no data file ({} of {})", id, count, size);
+                } else {
+                    _log.debug("Copying {} ({} of {})", id, count, size);
+                    toStore.copy(record);
+                }
+                if (count % PROGRESS_INTERVAL == 0) {
+                    _log.info("Copied {} of {} entries", count, size);
+                }
+                count++;
+            }
+            _log.info("Copied {} entries", size);
+        } finally {
+            toStore.close();
+            fromStore.close();
         }
     }
 }
@@ -221,4 +221,21 @@ public interface RepositoryChannel
      */
     long transferFrom(ReadableByteChannel src, long position, long count)
         throws IOException;
+
+    /**
+     * Returns whether {@link #transferTo} hands the data to the target
+     * channel without passing it through user space buffers, e.g. by
+     * using sendfile.
+     *
+     * Channels that have to inspect or transform the data they read,
+     * or that do not have a file descriptor to transfer from, return
+     * false. Movers should only prefer {@code transferTo} over reading
+     * into a buffer when this method returns true.
+     *
+     * @return true if {@code transferTo} avoids copying the data
+     */
+    default boolean isZeroCopySupported()
+    {
+        return false;
+    }
 }
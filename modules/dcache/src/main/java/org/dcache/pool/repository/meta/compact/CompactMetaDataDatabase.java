@@ -0,0 +1,112 @@
+package org.dcache.pool.repository.meta.compact;
+
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.DiskOrderedCursor;
+import com.sleepycat.je.DiskOrderedCursorConfig;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.EnvironmentFailureException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Properties;
+
+/**
+ * CompactMetaDataDatabase encapsulates the initialisation of the
+ * Berkeley DB used by CompactMetaDataRepository.
+ *
+ * In contrast to MetaDataRepositoryDatabase, no class catalog is used:
+ * keys are the binary form of the PNFS ID and values are encoded by
+ * ReplicaStateBinding and StorageInfoBinding.
+ */
+public class CompactMetaDataDatabase
+{
+    private static final Logger _log =
+        LoggerFactory.getLogger("logger.org.dcache.repository");
+
+    private static final String STATE_STORE = "replica_state";
+    private static final String STORAGE_INFO_STORE = "replica_storage_info";
+
+    private final Environment env;
+    private final Database stateDatabase;
+    private final Database storageInfoDatabase;
+    private boolean _failed;
+    private boolean _closed;
+
+    public CompactMetaDataDatabase(Properties properties, File homeDirectory, boolean readonly)
+        throws DatabaseException
+    {
+        EnvironmentConfig envConfig = new EnvironmentConfig(properties);
+        envConfig.setTransactional(true);
+        envConfig.setAllowCreate(true);
+        envConfig.setReadOnly(readonly);
+
+        env = new Environment(homeDirectory, envConfig);
+
+        envConfig.setExceptionListener(event -> {
+            if (event.getException() instanceof EnvironmentFailureException && !env.isValid()) {
+                setFailed();
+                _log.error("Pool restart required due to Berkeley DB failure: " + event.getException().getMessage());
+            }
+        });
+
+        DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setTransactional(true);
+        dbConfig.setAllowCreate(true);
+        dbConfig.setReadOnly(readonly);
+
+        stateDatabase = env.openDatabase(null, STATE_STORE, dbConfig);
+        storageInfoDatabase = env.openDatabase(null, STORAGE_INFO_STORE, dbConfig);
+    }
+
+    private synchronized void setFailed()
+    {
+        _failed = true;
+    }
+
+    public synchronized boolean isFailed()
+    {
+        return _failed;
+    }
+
+    public synchronized void close()
+        throws DatabaseException
+    {
+        if (!_closed) {
+            storageInfoDatabase.close();
+            stateDatabase.close();
+            env.close();
+            _closed = true;
+        }
+    }
+
+    public final Environment getEnvironment()
+    {
+        return env;
+    }
+
+    public final Database getStateDatabase()
+    {
+        return stateDatabase;
+    }
+
+    public final Database getStorageInfoDatabase()
+    {
+        return storageInfoDatabase;
+    }
+
+    /**
+     * Opens a cursor returning the keys of both databases in disk order.
+     * This is the fastest way to scan the databases, but a key may be
+     * returned twice.
+     */
+    public DiskOrderedCursor openKeyCursor()
+    {
+        DiskOrderedCursorConfig config = new DiskOrderedCursorConfig();
+        config.setKeysOnly(true);
+        return env.openDiskOrderedCursor(new Database[]{stateDatabase, storageInfoDatabase}, config);
+    }
+}
@@ -0,0 +1,433 @@
+package org.dcache.pool.repository.meta.compact;
+
+import com.google.common.base.Stopwatch;
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.DiskOrderedCursor;
+import com.sleepycat.je.EnvironmentFailureException;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationFailureException;
+import com.sleepycat.je.OperationStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.DiskErrorCacheException;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.StorageInfo;
+
+import dmg.cells.nucleus.EnvironmentAware;
+
+import org.dcache.pool.repository.DuplicateEntryException;
+import org.dcache.pool.repository.FileStore;
+import org.dcache.pool.repository.MetaDataRecord;
+import org.dcache.pool.repository.MetaDataStore;
+import org.dcache.util.ConfigurationMapFactoryBean;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Berkeley DB based MetaDataRepository implementation using a compact
+ * binary record format.
+ *
+ * In contrast to BerkeleyDBMetaDataRepository, records are not stored as
+ * serialized Java objects. Keys are the binary form of the PNFS ID, the
+ * replica state is encoded by ReplicaStateBinding and storage info by
+ * StorageInfoBinding. This makes records several times smaller and
+ * avoids the cost of Java serialization when the pool reads its
+ * inventory. The creation time of replicas is persisted too.
+ *
+ * The database is stored in a subdirectory of the pool directory
+ * called 'meta-compact'. Existing pools can be converted with
+ * MetaDataStoreCopyTool.
+ *
+ * As with BerkeleyDBMetaDataRepository, only the state of a replica is
+ * kept in memory; storage info is read from the database on demand.
+ */
+public class CompactMetaDataRepository
+    implements MetaDataStore, EnvironmentAware
+{
+    private static final Logger _log =
+        LoggerFactory.getLogger(CompactMetaDataRepository.class);
+
+    private static final String DIRECTORY_NAME = "meta-compact";
+
+    private static final String REMOVING_REDUNDANT_META_DATA =
+            "Removing redundant meta data for %s.";
+
+    private static final TupleBinding<ReplicaState> STATE_BINDING = new ReplicaStateBinding();
+    private static final TupleBinding<StorageInfo> STORAGE_INFO_BINDING = new StorageInfoBinding();
+
+    /**
+     * The file store for which we hold the meta data.
+     */
+    private final FileStore _fileStore;
+    private final boolean _readOnly;
+
+    /**
+     * The Berkeley DB database to use.
+     */
+    private CompactMetaDataDatabase _database;
+
+    /**
+     * Directory containing the database.
+     */
+    private final File _dir;
+
+    /**
+     * Berkeley DB configuration properties.
+     */
+    private final Properties _properties = new Properties();
+
+    /**
+     * Opens a compact meta data repository. If the database does not
+     * exist yet, then it is created. If the 'meta-compact' directory
+     * does not exist, it is created.
+     */
+    public CompactMetaDataRepository(FileStore fileStore,
+                                     File directory)
+            throws FileNotFoundException
+    {
+        this(fileStore, directory, false);
+    }
+
+    public CompactMetaDataRepository(FileStore fileStore,
+                                     File directory,
+                                     boolean readOnly)
+            throws FileNotFoundException
+    {
+        _fileStore = fileStore;
+        _readOnly = readOnly;
+        _dir = new File(directory, DIRECTORY_NAME);
+
+        if (!_dir.exists()) {
+            if (!_dir.mkdir()) {
+                throw new FileNotFoundException("Failed to create directory: " + _dir);
+            }
+        } else if (!_dir.isDirectory()) {
+            throw new FileNotFoundException("No such directory: " + _dir);
+        }
+    }
+
+    @Override
+    public void setEnvironment(Map<String, Object> environment)
+    {
+        ConfigurationMapFactoryBean factory = new ConfigurationMapFactoryBean();
+        factory.setEnvironment(environment);
+        factory.setPrefix("pool.plugins.meta.db");
+        factory.buildMap();
+        _properties.clear();
+        _properties.putAll(factory.getObject());
+    }
+
+    @Override
+    public void init() throws CacheException
+    {
+        try {
+            _database = new CompactMetaDataDatabase(_properties, _dir, _readOnly);
+        } catch (DatabaseException e) {
+            throw new CacheException(CacheException.PANIC, "Failed to open Berkeley DB database: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Set<PnfsId> index(IndexOption... options) throws CacheException
+    {
+        try {
+            List<IndexOption> indexOptions = asList(options);
+
+            if (indexOptions.contains(IndexOption.META_ONLY)) {
+                return collectKeys();
+            }
+
+            Stopwatch watch = Stopwatch.createStarted();
+            Set<PnfsId> files = _fileStore.index();
+            _log.info("Indexed {} entries in {} in {}.", files.size(), _fileStore, watch);
+
+            watch.reset().start();
+            Set<PnfsId> records = collectKeys();
+            _log.info("Indexed {} entries in {} in {}.", records.size(), _dir, watch);
+
+            if (indexOptions.contains(IndexOption.ALLOW_REPAIR)) {
+                for (PnfsId id : records) {
+                    if (!files.contains(id)) {
+                        _log.warn(String.format(REMOVING_REDUNDANT_META_DATA, id));
+                        DatabaseEntry key = toKey(id);
+                        _database.getStateDatabase().delete(null, key);
+                        _database.getStorageInfoDatabase().delete(null, key);
+                    }
+                }
+            }
+
+            return files;
+        } catch (EnvironmentFailureException e) {
+            throw failure("Meta data lookup failed", e);
+        } catch (OperationFailureException e) {
+            throw new CacheException("Meta data lookup failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Scans the keys of the database in disk order.
+     */
+    private Set<PnfsId> collectKeys()
+    {
+        Set<PnfsId> ids = new HashSet<>();
+        DatabaseEntry key = new DatabaseEntry();
+        DatabaseEntry data = new DatabaseEntry();
+        try (DiskOrderedCursor cursor = _database.openKeyCursor()) {
+            while (cursor.getNext(key, data, null) == OperationStatus.SUCCESS) {
+                ids.add(toPnfsId(key));
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public MetaDataRecord get(PnfsId id) throws CacheException
+    {
+        File file = _fileStore.get(id);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        ReplicaState state = getState(id);
+        return (state == null)
+                ? new CacheRepositoryEntryImpl(this, id)
+                : new CacheRepositoryEntryImpl(this, id, state);
+    }
+
+    /**
+     * TODO: The entry is not persistent yet!
+     */
+    @Override
+    public MetaDataRecord create(PnfsId id)
+            throws CacheException
+    {
+        File dataFile = _fileStore.get(id);
+        if (dataFile.exists()) {
+            throw new DuplicateEntryException(id);
+        }
+        delete(id);
+        return new CacheRepositoryEntryImpl(this, id);
+    }
+
+    @Override
+    public MetaDataRecord copy(MetaDataRecord entry)
+        throws CacheException
+    {
+        return new CacheRepositoryEntryImpl(this, entry);
+    }
+
+    @Override
+    public void remove(PnfsId id) throws CacheException
+    {
+        File f = _fileStore.get(id);
+        if (!f.delete() && f.exists()) {
+            throw new DiskErrorCacheException("Failed to delete " + id);
+        }
+        delete(id);
+    }
+
+    private void delete(PnfsId id) throws CacheException
+    {
+        try {
+            DatabaseEntry key = toKey(id);
+            _database.getStateDatabase().delete(null, key);
+            _database.getStorageInfoDatabase().delete(null, key);
+        } catch (EnvironmentFailureException e) {
+            throw failure("Meta data update failed", e);
+        } catch (OperationFailureException e) {
+            throw new CacheException("Meta data update failed: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized boolean isOk()
+    {
+        if (!_fileStore.isOk()) {
+            return false;
+        }
+
+        File tmp = new File(_dir, ".repository_is_ok");
+        try {
+            Files.deleteIfExists(tmp.toPath());
+            tmp.deleteOnExit();
+
+            if (!tmp.createNewFile() || !tmp.exists()) {
+                _log.error("Could not create " + tmp);
+                return false;
+            }
+
+            if (_database.isFailed()) {
+                return false;
+            }
+
+            return true;
+        } catch (IOException e) {
+            _log.error("Failed to touch " + tmp + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Requests a data file from the CacheRepository. Used by the
+     * entries to obtain a data file.
+     */
+    File getDataFile(PnfsId id)
+    {
+        return _fileStore.get(id);
+    }
+
+    ReplicaState getState(PnfsId id) throws CacheException
+    {
+        try {
+            DatabaseEntry data = new DatabaseEntry();
+            if (_database.getStateDatabase().get(null, toKey(id), data, LockMode.READ_COMMITTED) != OperationStatus.SUCCESS) {
+                return null;
+            }
+            return STATE_BINDING.entryToObject(data);
+        } catch (EnvironmentFailureException e) {
+            throw failure("Meta data lookup failed", e);
+        } catch (OperationFailureException e) {
+            throw new CacheException("Meta data lookup failed: " + e.getMessage(), e);
+        } catch (IllegalArgumentException e) {
+            _log.warn("Ignoring unreadable state of {}: {}", id, e.getMessage());
+            return null;
+        }
+    }
+
+    void putState(PnfsId id, ReplicaState state) throws CacheException
+    {
+        put(_database.getStateDatabase(), id, STATE_BINDING, state);
+    }
+
+    StorageInfo getStorageInfo(PnfsId id) throws CacheException
+    {
+        try {
+            DatabaseEntry data = new DatabaseEntry();
+            if (_database.getStorageInfoDatabase().get(null, toKey(id), data, LockMode.READ_COMMITTED) != OperationStatus.SUCCESS) {
+                return null;
+            }
+            return STORAGE_INFO_BINDING.entryToObject(data);
+        } catch (EnvironmentFailureException e) {
+            throw failure("Meta data lookup failed", e);
+        } catch (OperationFailureException e) {
+            throw new CacheException("Meta data lookup failed: " + e.getMessage(), e);
+        } catch (IllegalArgumentException e) {
+            _log.warn("Ignoring unreadable storage info of {}: {}", id, e.getMessage());
+            return null;
+        }
+    }
+
+    void putStorageInfo(PnfsId id, StorageInfo info) throws CacheException
+    {
+        put(_database.getStorageInfoDatabase(), id, STORAGE_INFO_BINDING, info);
+    }
+
+    void removeStorageInfo(PnfsId id) throws CacheException
+    {
+        try {
+            _database.getStorageInfoDatabase().delete(null, toKey(id));
+        } catch (EnvironmentFailureException e) {
+            throw failure("Meta data update failed", e);
+        } catch (OperationFailureException e) {
+            throw new CacheException("Meta data update failed: " + e.getMessage(), e);
+        }
+    }
+
+    private <T> void put(Database database, PnfsId id, TupleBinding<T> binding, T value) throws CacheException
+    {
+        try {
+            DatabaseEntry data = new DatabaseEntry();
+            binding.objectToEntry(value, data);
+            database.put(null, toKey(id), data);
+        } catch (EnvironmentFailureException e) {
+            throw failure("Meta data update failed", e);
+        } catch (OperationFailureException e) {
+            throw new CacheException("Meta data update failed: " + e.getMessage(), e);
+        }
+    }
+
+    private CacheException failure(String message, EnvironmentFailureException e)
+    {
+        if (!isValid()) {
+            return new DiskErrorCacheException(message + " and a pool restart is required: " + e.getMessage(), e);
+        }
+        return new CacheException(message + ": " + e.getMessage(), e);
+    }
+
+    private static DatabaseEntry toKey(PnfsId id)
+    {
+        return new DatabaseEntry(id.getBytes());
+    }
+
+    private static PnfsId toPnfsId(DatabaseEntry key)
+    {
+        int offset = key.getOffset();
+        return new PnfsId(Arrays.copyOfRange(key.getData(), offset, offset + key.getSize()));
+    }
+
+    /** Closes the database. */
+    @Override
+    public void close()
+    {
+        try {
+            _database.close();
+        } catch (DatabaseException e) {
+            _log.error("Ignored: Could not close database: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the path
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("[data=%s;meta=%s]", _fileStore, _dir);
+    }
+
+    /**
+     * Provides the amount of free space on the file system containing
+     * the data files.
+     */
+    @Override
+    public long getFreeSpace()
+    {
+        return _fileStore.getFreeSpace();
+    }
+
+    /**
+     * Provides the total amount of space on the file system
+     * containing the data files.
+     */
+    @Override
+    public long getTotalSpace()
+    {
+        return _fileStore.getTotalSpace();
+    }
+
+    public boolean isValid()
+    {
+        return _database.getEnvironment().isValid();
+    }
+
+    public File getPath()
+    {
+        return _dir;
+    }
+}
@@ -0,0 +1,39 @@
+package org.dcache.pool.repository.meta.compact;
+
+import com.google.common.collect.ImmutableList;
+
+import org.dcache.pool.repository.EntryState;
+import org.dcache.pool.repository.StickyRecord;
+
+/**
+ * The persistent state of a replica, as stored in the state database of
+ * CompactMetaDataRepository.
+ */
+class ReplicaState
+{
+    private final EntryState _state;
+    private final long _creationTime;
+    private final ImmutableList<StickyRecord> _sticky;
+
+    ReplicaState(EntryState state, long creationTime, ImmutableList<StickyRecord> sticky)
+    {
+        _state = state;
+        _creationTime = creationTime;
+        _sticky = sticky;
+    }
+
+    public EntryState getState()
+    {
+        return _state;
+    }
+
+    public long getCreationTime()
+    {
+        return _creationTime;
+    }
+
+    public ImmutableList<StickyRecord> stickyRecords()
+    {
+        return _sticky;
+    }
+}
@@ -0,0 +1,87 @@
+package org.dcache.pool.repository.meta.compact;
+
+import com.google.common.collect.ImmutableList;
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+
+import org.dcache.pool.repository.EntryState;
+import org.dcache.pool.repository.StickyRecord;
+
+/**
+ * Binary encoding of ReplicaState.
+ *
+ * A record consists of a format version, the entry state, the creation
+ * time and the sticky records. Entry states are encoded by explicit codes
+ * rather than by ordinal, such that reordering EntryState does not
+ * invalidate existing databases.
+ */
+class ReplicaStateBinding extends TupleBinding<ReplicaState>
+{
+    private static final byte VERSION = 1;
+
+    /**
+     * Entry states indexed by their code. Codes must never be reused.
+     */
+    private static final EntryState[] STATES = {
+            EntryState.NEW,
+            EntryState.FROM_CLIENT,
+            EntryState.FROM_POOL,
+            EntryState.FROM_STORE,
+            EntryState.BROKEN,
+            EntryState.CACHED,
+            EntryState.PRECIOUS,
+            EntryState.REMOVED,
+            EntryState.DESTROYED
+    };
+
+    @Override
+    public ReplicaState entryToObject(TupleInput input)
+    {
+        byte version = input.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported replica state format: " + version);
+        }
+        byte code = input.readByte();
+        if (code < 0 || code >= STATES.length) {
+            throw new IllegalArgumentException("Unsupported entry state code: " + code);
+        }
+        EntryState state = STATES[code];
+        long creationTime = input.readLong();
+        int count = input.readPackedInt();
+        ImmutableList<StickyRecord> sticky;
+        if (count == 0) {
+            sticky = ImmutableList.of();
+        } else {
+            ImmutableList.Builder<StickyRecord> builder = ImmutableList.builder();
+            for (int i = 0; i < count; i++) {
+                builder.add(new StickyRecord(input.readString().intern(), input.readLong()));
+            }
+            sticky = builder.build();
+        }
+        return new ReplicaState(state, creationTime, sticky);
+    }
+
+    @Override
+    public void objectToEntry(ReplicaState object, TupleOutput output)
+    {
+        output.writeByte(VERSION);
+        output.writeByte(codeOf(object.getState()));
+        output.writeLong(object.getCreationTime());
+        output.writePackedInt(object.stickyRecords().size());
+        for (StickyRecord record : object.stickyRecords()) {
+            output.writeString(record.owner());
+            output.writeLong(record.expire());
+        }
+    }
+
+    private static int codeOf(EntryState state)
+    {
+        for (int i = 0; i < STATES.length; i++) {
+            if (STATES[i] == state) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported entry state: " + state);
+    }
+}
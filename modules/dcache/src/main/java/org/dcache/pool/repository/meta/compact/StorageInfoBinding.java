@@ -0,0 +1,175 @@
+package org.dcache.pool.repository.meta.compact;
+
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+import java.util.Map;
+
+import diskCacheV111.util.AccessLatency;
+import diskCacheV111.util.RetentionPolicy;
+import diskCacheV111.vehicles.GenericStorageInfo;
+import diskCacheV111.vehicles.StorageInfo;
+
+/**
+ * Binary encoding of StorageInfo.
+ *
+ * GenericStorageInfo, which is what pools receive for all new files, is
+ * encoded field by field. Other StorageInfo implementations fall back to
+ * Java serialization.
+ */
+class StorageInfoBinding extends TupleBinding<StorageInfo>
+{
+    private static final byte GENERIC = 1;
+    private static final byte SERIALIZED = 2;
+
+    private static final int IS_NEW = 1;
+    private static final int IS_STORED = 1 << 1;
+    private static final int IS_SET_HSM = 1 << 2;
+    private static final int IS_SET_STORAGE_CLASS = 1 << 3;
+    private static final int IS_SET_BITFILE_ID = 1 << 4;
+    private static final int IS_SET_ADD_LOCATION = 1 << 5;
+
+    @Override
+    public StorageInfo entryToObject(TupleInput input)
+    {
+        byte format = input.readByte();
+        switch (format) {
+        case GENERIC:
+            return readGeneric(input);
+        case SERIALIZED:
+            return readSerialized(input);
+        default:
+            throw new IllegalArgumentException("Unsupported storage info format: " + format);
+        }
+    }
+
+    @Override
+    public void objectToEntry(StorageInfo info, TupleOutput output)
+    {
+        if (info.getClass() == GenericStorageInfo.class) {
+            output.writeByte(GENERIC);
+            writeGeneric(info, output);
+        } else {
+            output.writeByte(SERIALIZED);
+            writeSerialized(info, output);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void writeGeneric(StorageInfo info, TupleOutput output)
+    {
+        output.writeString(info.getHsm());
+        output.writeString(info.getStorageClass());
+        output.writeString(info.getCacheClass());
+        output.writeString(info.getBitfileId());
+
+        int flags = 0;
+        if (info.isCreatedOnly()) {
+            flags |= IS_NEW;
+        }
+        if (info.isStored()) {
+            flags |= IS_STORED;
+        }
+        if (info.isSetHsm()) {
+            flags |= IS_SET_HSM;
+        }
+        if (info.isSetStorageClass()) {
+            flags |= IS_SET_STORAGE_CLASS;
+        }
+        if (info.isSetBitFileId()) {
+            flags |= IS_SET_BITFILE_ID;
+        }
+        if (info.isSetAddLocation()) {
+            flags |= IS_SET_ADD_LOCATION;
+        }
+        output.writePackedInt(flags);
+
+        AccessLatency accessLatency = info.getLegacyAccessLatency();
+        output.writePackedInt(accessLatency == null ? -1 : accessLatency.getId());
+        RetentionPolicy retentionPolicy = info.getLegacyRetentionPolicy();
+        output.writePackedInt(retentionPolicy == null ? -1 : retentionPolicy.getId());
+        output.writePackedLong(info.getLegacySize());
+
+        Map<String, String> keys = info.getMap();
+        output.writePackedInt(keys.size());
+        for (Map.Entry<String, String> entry : keys.entrySet()) {
+            output.writeString(entry.getKey());
+            output.writeString(entry.getValue());
+        }
+
+        output.writePackedInt(info.locations().size());
+        for (URI location : info.locations()) {
+            output.writeString(location.toString());
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static StorageInfo readGeneric(TupleInput input)
+    {
+        GenericStorageInfo info = new GenericStorageInfo(intern(input.readString()), intern(input.readString()));
+        info.setCacheClass(intern(input.readString()));
+        info.setBitfileId(input.readString());
+
+        int flags = input.readPackedInt();
+        info.setIsNew((flags & IS_NEW) != 0);
+        info.setIsStored((flags & IS_STORED) != 0);
+        info.isSetHsm((flags & IS_SET_HSM) != 0);
+        info.isSetStorageClass((flags & IS_SET_STORAGE_CLASS) != 0);
+        info.isSetBitFileId((flags & IS_SET_BITFILE_ID) != 0);
+        info.isSetAddLocation((flags & IS_SET_ADD_LOCATION) != 0);
+
+        int accessLatency = input.readPackedInt();
+        info.setLegacyAccessLatency(accessLatency == -1 ? null : AccessLatency.getAccessLatency(accessLatency));
+        int retentionPolicy = input.readPackedInt();
+        info.setLegacyRetentionPolicy(retentionPolicy == -1 ? null : RetentionPolicy.getRetentionPolicy(retentionPolicy));
+        info.setLegacySize(input.readPackedLong());
+
+        int keys = input.readPackedInt();
+        for (int i = 0; i < keys; i++) {
+            info.setKey(input.readString().intern(), input.readString());
+        }
+
+        int locations = input.readPackedInt();
+        for (int i = 0; i < locations; i++) {
+            info.addLocation(URI.create(input.readString()));
+        }
+        return info;
+    }
+
+    private static void writeSerialized(StorageInfo info, TupleOutput output)
+    {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(info);
+            }
+            output.writePackedInt(bytes.size());
+            output.writeFast(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to serialize storage info: " + e.getMessage(), e);
+        }
+    }
+
+    private static StorageInfo readSerialized(TupleInput input)
+    {
+        byte[] bytes = new byte[input.readPackedInt()];
+        input.readFast(bytes);
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (StorageInfo) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalArgumentException("Failed to deserialize storage info: " + e.getMessage(), e);
+        }
+    }
+
+    private static String intern(String s)
+    {
+        return (s == null) ? null : s.intern();
+    }
+}
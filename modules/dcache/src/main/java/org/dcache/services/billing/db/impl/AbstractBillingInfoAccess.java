@@ -62,34 +62,56 @@ package org.dcache.services.billing.db.impl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import dmg.cells.nucleus.CellInfo;
+import dmg.cells.nucleus.CellInfoProvider;
 
 import org.dcache.services.billing.db.IBillingInfoAccess;
 import org.dcache.services.billing.db.exceptions.RetryException;
 import org.dcache.services.billing.histograms.data.IHistogramData;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
 /**
  * Framework for database access; uses a blocking queue and N consumer
- * threads to process requests; consumer drains the queue up to max,
- * for batching.  Commit is implemented by the store.
+ * threads per record type to process requests; consumers drain their
+ * queue up to max, for batching.  Commit is implemented by the store.
+ *
+ * <p>Records are partitioned by type, so that every batch contains
+ * records of a single type only. This allows the store to insert a batch
+ * using a single batched statement rather than interleaving inserts into
+ * different tables, and prevents a slow table from holding up the inserts
+ * into the others.
  *
  * @author arossi
  */
-public abstract class AbstractBillingInfoAccess implements IBillingInfoAccess {
+public abstract class AbstractBillingInfoAccess
+                implements IBillingInfoAccess, CellInfoProvider {
     class Consumer extends Thread {
-        private Consumer(String name) {
+        private final Partition partition;
+
+        private Consumer(String name, Partition partition) {
             super(name);
+            this.partition = partition;
         }
 
         public void run() {
+            BlockingQueue<IHistogramData> queue = partition.queue;
             try {
                 while (!isInterrupted()) {
-                    Collection<IHistogramData> data = new ArrayList<>();
+                    List<IHistogramData> data = new ArrayList<>();
 
                     /*
                      * take() blocks until non-empty
@@ -103,7 +125,7 @@ public abstract class AbstractBillingInfoAccess implements IBillingInfoAccess {
                      */
                     logger.trace("calling queue.drainTo(), queue size {}",
                                  queue.size());
-                    queue.drainTo(data, maxBatchSize);
+                    queue.drainTo(data, maxBatchSize - 1);
 
                     if (isInterrupted()) {
                         break;
@@ -111,14 +133,13 @@ public abstract class AbstractBillingInfoAccess implements IBillingInfoAccess {
 
                     try {
                         logger.trace("calling commit");
-                        commit(data);
-                        committed.addAndGet(data.size());
+                        partition.commit(data);
                     } catch (RetryException t) {
                         logger.warn("commit failed; retrying once ...");
                         try {
-                            commit(data);
-                            committed.addAndGet(data.size());
+                            partition.commit(data);
                         } catch (RetryException t1) {
+                            partition.failed.add(data.size());
                             logger.error("commit retry failed, {} inserts have "
                                                          + "been lost",
                                          data.size());
@@ -132,66 +153,131 @@ public abstract class AbstractBillingInfoAccess implements IBillingInfoAccess {
         }
     }
 
+    /**
+     * Queue, consumers and statistics of a single record type.
+     */
+    private class Partition {
+        private final BlockingQueue<IHistogramData> queue =
+                        new LinkedBlockingQueue<>(maxQueueSize);
+        private final List<Consumer> consumers = new ArrayList<>();
+        private final LongAdder committed = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder batches = new LongAdder();
+        private final LongAdder commitTime = new LongAdder();
+        private final AtomicLong maxCommitTime = new AtomicLong();
+        private final AtomicLong maxBatch = new AtomicLong();
+
+        private Partition(String name) {
+            for (int i = 0; i < numberOfConsumers; i++) {
+                consumers.add(new Consumer(name + " data consumer " + i, this));
+            }
+        }
+
+        private void start() {
+            consumers.stream().forEach(Consumer::start);
+        }
+
+        private void commit(List<IHistogramData> data) throws RetryException {
+            long start = System.nanoTime();
+            AbstractBillingInfoAccess.this.commit(data);
+            long elapsed = System.nanoTime() - start;
+            committed.add(data.size());
+            batches.increment();
+            commitTime.add(elapsed);
+            maxCommitTime.accumulateAndGet(elapsed, Math::max);
+            maxBatch.accumulateAndGet(data.size(), Math::max);
+        }
+    }
+
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-    private final AtomicLong dropped   = new AtomicLong(0);
-    private final AtomicLong committed = new AtomicLong(0);
+    private final ConcurrentMap<Class<?>, Partition> partitions =
+                    new ConcurrentHashMap<>();
 
-    private BlockingQueue<IHistogramData> queue;
-    private List<Consumer>                consumers;
-    private int                           maxQueueSize;
-    private int                           maxBatchSize;
-    private int                           numberOfConsumers;
-    private boolean                       dropMessagesAtLimit;
+    private volatile boolean                      closed;
+    private int                                   maxQueueSize;
+    private int                                   maxBatchSize;
+    private int                                   numberOfConsumers;
+    private boolean                               dropMessagesAtLimit;
 
     public void close() {
-        if (consumers != null) {
-            consumers.stream().forEach(Consumer::interrupt);
-            consumers.stream().forEach((consumer) -> {
-                try {
-                    consumer.join();
-                } catch (InterruptedException e) {
-                    logger.trace("join on consumers interrupted");
-                }
-            });
+        /*
+         * Closing and taking the snapshot under the lock guarding partition
+         * creation ensures that no partition is started after the snapshot.
+         */
+        List<Consumer> consumers = new ArrayList<>();
+        synchronized (partitions) {
+            closed = true;
+            partitions.values().stream().forEach((p) -> consumers.addAll(p.consumers));
         }
+        consumers.stream().forEach(Consumer::interrupt);
+        consumers.stream().forEach((consumer) -> {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                logger.trace("join on consumers interrupted");
+            }
+        });
         logger.trace("{} close exiting", this);
     }
 
     public long getCommittedMessages() {
-        return committed.get();
+        return partitions.values().stream().mapToLong((p) -> p.committed.sum()).sum();
     }
 
     public long getDroppedMessages() {
-        return dropped.get();
+        return partitions.values().stream().mapToLong((p) -> p.dropped.sum()).sum();
     }
 
     public long getInsertQueueSize() {
-        return queue.size();
+        return partitions.values().stream().mapToLong((p) -> p.queue.size()).sum();
     }
 
     public void initialize() {
         logger.debug("access type: {}", this.getClass().getName());
-        queue = new LinkedBlockingQueue<>(maxQueueSize);
-        consumers = new ArrayList<>();
-        for (int i = 0; i < numberOfConsumers; i++) {
-            consumers.add(new Consumer("histogram data consumer " + i));
-        }
-        consumers.stream().forEach(Consumer::start);
     }
 
     public void put(IHistogramData data) {
-        if (!dropMessagesAtLimit) {
+        Partition partition = getPartition(data.getClass());
+        if (partition == null) {
+            processDroppedData(data);
+        } else if (!dropMessagesAtLimit) {
             try {
-                queue.put(data);
+                partition.queue.put(data);
             } catch (InterruptedException t) {
-                processInterrupted(data);
+                processInterrupted(partition, data);
             }
-        } else if (!queue.offer(data)) {
-            processDroppedData(data);
+        } else if (!partition.queue.offer(data)) {
+            processDroppedData(partition, data);
         }
     }
 
+    /**
+     * Returns the partition of a record type, creating and starting it on
+     * first use. Returns null once the store has been closed.
+     */
+    private Partition getPartition(Class<?> type) {
+        if (closed) {
+            return null;
+        }
+        Partition partition = partitions.get(type);
+        if (partition == null) {
+            synchronized (partitions) {
+                if (closed) {
+                    return null;
+                }
+                partition = partitions.get(type);
+                if (partition == null) {
+                    partition = new Partition(type.getSimpleName());
+                    partitions.put(type, partition);
+                    partition.start();
+                }
+            }
+        }
+        return partition;
+    }
+
     public void setDropMessagesAtLimit(boolean dropMessagesAtLimit) {
         this.dropMessagesAtLimit = dropMessagesAtLimit;
     }
@@ -204,29 +290,72 @@ public abstract class AbstractBillingInfoAccess implements IBillingInfoAccess {
         this.maxQueueSize = maxQueueSize;
     }
 
+    /**
+     * @param numberOfConsumers number of consumers per record type.
+     */
     public void setNumberOfConsumers(int numberOfConsumers) {
         this.numberOfConsumers = numberOfConsumers;
     }
 
+    @Override
+    public void getInfo(PrintWriter pw) {
+        pw.println("Inserts:");
+        pw.println("  Max queue size per type : " + maxQueueSize);
+        pw.println("  Max batch size          : " + maxBatchSize);
+        pw.println("  Consumers per type      : " + numberOfConsumers);
+        Map<String, Partition> sorted = new TreeMap<>();
+        partitions.forEach((type, p) -> sorted.put(type.getSimpleName(), p));
+        if (!sorted.isEmpty()) {
+            pw.format("  %-16s %8s %12s %8s %8s %10s %9s %9s %10s %10s\n",
+                      "Type", "Queue", "Committed", "Dropped", "Failed",
+                      "Batches", "Avg batch", "Max batch", "Avg ms", "Max ms");
+            sorted.forEach((name, p) -> {
+                long batches = p.batches.sum();
+                long committed = p.committed.sum();
+                pw.format("  %-16s %8d %12d %8d %8d %10d %9d %9d %10.1f %10.1f\n",
+                          name, p.queue.size(), committed, p.dropped.sum(),
+                          p.failed.sum(), batches,
+                          (batches == 0) ? 0 : committed / batches,
+                          p.maxBatch.get(),
+                          (batches == 0) ? 0.0 : toMillis(p.commitTime.sum() / batches),
+                          toMillis(p.maxCommitTime.get()));
+            });
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return NANOSECONDS.toMicros(nanos) / 1000.0;
+    }
+
+    @Override
+    public CellInfo getCellInfo(CellInfo info) {
+        return info;
+    }
+
     /**
-     * Storage-implementation dependent.
+     * Storage-implementation dependent. All records of a batch are of the
+     * same type.
      */
     public abstract void commit(Collection<IHistogramData> data)
                     throws RetryException;
 
     private void processDroppedData(IHistogramData data) {
-        dropped.incrementAndGet();
+        logger.info("billing database is closed; {} has been dropped", data);
+    }
+
+    private void processDroppedData(Partition partition, IHistogramData data) {
+        partition.dropped.increment();
         logger.info("encountered max queue limit; "
                                     + "{} entries have been dropped",
-                    dropped.get());
+                    getDroppedMessages());
         logger.debug("queue limit prevented storage of {}", data);
     }
 
-    private void processInterrupted(IHistogramData data) {
-        dropped.incrementAndGet();
+    private void processInterrupted(Partition partition, IHistogramData data) {
+        partition.dropped.increment();
         logger.warn("queueing of data was interrupted; "
                                     + "{} entries have been dropped",
-                    dropped.get());
+                    getDroppedMessages());
         logger.debug("failed to store {}", data);
     }
 }
@@ -109,6 +109,11 @@ public class DataNucleusBillingInfo extends AbstractBillingInfoAccess {
         }
     }
 
+    /**
+     * Persists a batch of records of the same type in a single
+     * transaction. With statement batching enabled in the persistence
+     * unit, the records are inserted using a single batched statement.
+     */
     @Override
     public void commit(Collection<IHistogramData> data)
                     throws RetryException {
@@ -73,6 +73,26 @@ public interface DirectoryListSource
                          Set<FileAttribute> attrs)
         throws InterruptedException, CacheException;
 
+    /**
+     * Lists the content of a directory starting after the entry named
+     * by a cookie. Entries are returned in name order and the range is
+     * relative to the first entry after the cookie. To page through a
+     * directory, the name of the last entry of one page is used as the
+     * cookie for the next page.
+     *
+     * @param subject The Subject of the user performing the operation
+     * @param path Path to directory to list
+     * @param glob Glob to limit the result set; may be null
+     * @param range The range of entries to return; may be null
+     * @param cookie Name after which to continue the listing; may be null
+     * @param attrs The file attributes to query for each entry
+     * @return A DirectoryStream of the entries in the directory
+     */
+    DirectoryStream list(Subject subject, Restriction restriction, FsPath path,
+                         Glob pattern, Range<Integer> range, String cookie,
+                         Set<FileAttribute> attrs)
+        throws InterruptedException, CacheException;
+
     /**
      * Prints a file using a DirectoryListPrinter.
      *
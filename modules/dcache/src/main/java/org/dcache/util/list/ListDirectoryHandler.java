@@ -99,10 +99,24 @@ public class ListDirectoryHandler
         list(Subject subject, Restriction restriction, FsPath path, Glob pattern,
                 Range<Integer> range, Set<FileAttribute> attributes)
                 throws InterruptedException, CacheException
+    {
+        return list(subject, restriction, path, pattern, range, null, attributes);
+    }
+
+    /**
+     * Like {@link #list(Subject, Restriction, FsPath, Glob, Range, Set)},
+     * but continues the listing after the entry named by {@code cookie}.
+     */
+    @Override
+    public DirectoryStream
+        list(Subject subject, Restriction restriction, FsPath path, Glob pattern,
+                Range<Integer> range, String cookie, Set<FileAttribute> attributes)
+                throws InterruptedException, CacheException
     {
         String dir = path.toString();
         PnfsListDirectoryMessage msg =
             new PnfsListDirectoryMessage(dir, pattern, range, attributes);
+        msg.setCookie(cookie);
         UUID uuid = msg.getUUID();
         boolean success = false;
         Stream stream = new Stream(dir, uuid);
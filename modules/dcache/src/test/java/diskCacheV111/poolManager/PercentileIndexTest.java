@@ -0,0 +1,80 @@
+package diskCacheV111.poolManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PercentileIndexTest
+{
+    private PercentileIndex index;
+
+    @Before
+    public void setUp()
+    {
+        index = new PercentileIndex();
+    }
+
+    @Test
+    public void shouldReturnZeroWhenEmpty()
+    {
+        assertThat(index.percentile(0.5), is(0.0));
+    }
+
+    @Test
+    public void shouldReturnPercentileOfSortedCosts()
+    {
+        index.add(3.0);
+        index.add(1.0);
+        index.add(2.0);
+
+        assertThat(index.percentile(0.001), is(1.0));
+        assertThat(index.percentile(0.334), is(2.0));
+        assertThat(index.percentile(0.999), is(3.0));
+    }
+
+    @Test
+    public void shouldReplaceCost()
+    {
+        index.add(1.0);
+        index.add(2.0);
+
+        index.replace(1.0, 3.0);
+
+        assertThat(index.size(), is(2));
+        assertThat(index.percentile(0.001), is(2.0));
+        assertThat(index.percentile(0.5), is(3.0));
+    }
+
+    @Test
+    public void shouldRemoveOnlyOneOfEqualCosts()
+    {
+        index.add(1.0);
+        index.add(1.0);
+
+        index.remove(1.0);
+
+        assertThat(index.size(), is(1));
+        assertThat(index.percentile(0.5), is(1.0));
+    }
+
+    @Test
+    public void shouldGrowBeyondInitialCapacity()
+    {
+        for (int i = 100; i > 0; i--) {
+            index.add(i);
+        }
+
+        assertThat(index.size(), is(100));
+        assertThat(index.percentile(0.0), is(1.0));
+        assertThat(index.percentile(0.95), is(96.0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldFailToRemoveUnknownCost()
+    {
+        index.add(1.0);
+        index.remove(2.0);
+    }
+}
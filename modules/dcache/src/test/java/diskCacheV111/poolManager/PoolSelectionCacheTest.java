@@ -0,0 +1,140 @@
+package diskCacheV111.poolManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.poolManager.PoolSelectionUnit.DirectionType;
+import diskCacheV111.pools.PoolV2Mode;
+import diskCacheV111.vehicles.GenericStorageInfo;
+import diskCacheV111.vehicles.StorageInfos;
+
+import dmg.util.CommandInterpreter;
+
+import org.dcache.vehicles.FileAttributes;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PoolSelectionCacheTest
+{
+    private final CountingSelectionUnit _psu = new CountingSelectionUnit();
+    private final PoolSelectionCache _cache = new PoolSelectionCache();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        PoolSelectionUnitCommands commands = new PoolSelectionUnitCommands();
+        commands.setPsuAccess(_psu);
+        CommandInterpreter ci = new CommandInterpreter(commands);
+        ci.command("psu set allpoolsactive on");
+        ci.command("psu create unit -store *@*");
+        ci.command("psu create unit -net 0.0.0.0/0.0.0.0");
+        ci.command("psu create ugroup any");
+        ci.command("psu addto ugroup any *@*");
+        ci.command("psu addto ugroup any 0.0.0.0/0.0.0.0");
+        ci.command("psu create pool pool1");
+        _psu.getPool("pool1").setPoolMode(new PoolV2Mode(PoolV2Mode.ENABLED));
+        ci.command("psu create pgroup pools");
+        ci.command("psu addto pgroup pools pool1");
+        ci.command("psu create link any-link any");
+        ci.command("psu set link any-link -readpref=10 -writepref=10 -cachepref=10");
+        ci.command("psu add link any-link pools");
+
+        _psu.addChangeListener(_cache::invalidate);
+        _cache.setSize(100);
+        _cache.setTimeout(1);
+        _cache.setTimeoutUnit(TimeUnit.HOURS);
+        _cache.init();
+    }
+
+    private static FileAttributes fileAttributes(String storageClass)
+    {
+        FileAttributes attributes = new FileAttributes();
+        StorageInfos.injectInto(new GenericStorageInfo("osm", storageClass), attributes);
+        return attributes;
+    }
+
+    private PoolPreferenceLevel[] match(DirectionType type, String storageClass)
+    {
+        return _cache.match(_psu, type, "131.169.1.1", null, fileAttributes(storageClass), null);
+    }
+
+    @Test
+    public void shouldReuseResultForIdenticalRequest()
+    {
+        PoolPreferenceLevel[] first = match(DirectionType.READ, "h1:u1");
+        PoolPreferenceLevel[] second = match(DirectionType.READ, "h1:u1");
+
+        assertThat(_psu.matches, is(1));
+        assertThat(second.length, is(1));
+        assertThat(second[0].getPoolList(), is(first[0].getPoolList()));
+    }
+
+    @Test
+    public void shouldNotShareResultsBetweenCallers()
+    {
+        PoolPreferenceLevel[] first = match(DirectionType.READ, "h1:u1");
+        first[0].getPoolList().clear();
+        first[0] = null;
+
+        PoolPreferenceLevel[] second = match(DirectionType.READ, "h1:u1");
+        second[0].getPoolList().remove("pool1");
+
+        PoolPreferenceLevel[] third = match(DirectionType.READ, "h1:u1");
+
+        assertThat(_psu.matches, is(1));
+        assertThat(third[0].getPoolList(), is(Collections.singletonList("pool1")));
+    }
+
+    @Test
+    public void shouldMatchDifferentRequestsSeparately()
+    {
+        match(DirectionType.READ, "h1:u1");
+        match(DirectionType.WRITE, "h1:u1");
+        match(DirectionType.READ, "h1:u2");
+
+        assertThat(_psu.matches, is(3));
+    }
+
+    @Test
+    public void shouldInvalidateOnConfigurationChange()
+    {
+        match(DirectionType.READ, "h1:u1");
+        _psu.createPool("pool2", false, false);
+
+        PoolPreferenceLevel[] levels = match(DirectionType.READ, "h1:u1");
+
+        assertThat(_psu.matches, is(2));
+        assertThat(levels.length, is(1));
+    }
+
+    @Test
+    public void shouldInvalidateOnRegexChange()
+    {
+        match(DirectionType.READ, "h1:u1");
+        _psu.setRegex("on");
+
+        match(DirectionType.READ, "h1:u1");
+
+        assertThat(_psu.matches, is(2));
+    }
+
+    private static class CountingSelectionUnit extends PoolSelectionUnitV2
+    {
+        private static final long serialVersionUID = 1L;
+
+        int matches;
+
+        @Override
+        public PoolPreferenceLevel[] match(DirectionType type, String netUnitName,
+                                           String protocolUnitName, FileAttributes fileAttributes,
+                                           String linkGroupName)
+        {
+            matches++;
+            return super.match(type, netUnitName, protocolUnitName, fileAttributes, linkGroupName);
+        }
+    }
+}
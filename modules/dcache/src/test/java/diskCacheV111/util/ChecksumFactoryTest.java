@@ -0,0 +1,80 @@
+package diskCacheV111.util;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.dcache.util.Checksum;
+import org.dcache.util.ChecksumType;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ChecksumFactoryTest
+{
+    private File file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        byte[] data = new byte[100_000];
+        new Random(42).nextBytes(data);
+        file = File.createTempFile("ChecksumFactoryTest", null);
+        Files.write(file.toPath(), data);
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    private Checksum computeFromChannel(ChecksumType type, ByteBuffer buffer, RateLimiter limiter)
+            throws Exception
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            return ChecksumFactory.getFactory(type).computeChecksum(channel, buffer, limiter);
+        }
+    }
+
+    @Test
+    public void shouldComputeAdler32UsingDirectBuffer() throws Exception
+    {
+        ChecksumFactory factory = ChecksumFactory.getFactory(ChecksumType.ADLER32);
+        assertThat(computeFromChannel(ChecksumType.ADLER32, ByteBuffer.allocateDirect(4096), null),
+                   is(factory.computeChecksum(file)));
+    }
+
+    @Test
+    public void shouldComputeMd5UsingDirectBuffer() throws Exception
+    {
+        ChecksumFactory factory = ChecksumFactory.getFactory(ChecksumType.MD5_TYPE);
+        assertThat(computeFromChannel(ChecksumType.MD5_TYPE, ByteBuffer.allocateDirect(4096), null),
+                   is(factory.computeChecksum(file)));
+    }
+
+    @Test
+    public void shouldComputeChecksumUsingHeapBuffer() throws Exception
+    {
+        ChecksumFactory factory = ChecksumFactory.getFactory(ChecksumType.ADLER32);
+        assertThat(computeFromChannel(ChecksumType.ADLER32, ByteBuffer.allocate(1000), null),
+                   is(factory.computeChecksum(file)));
+    }
+
+    @Test
+    public void shouldComputeChecksumWithRateLimit() throws Exception
+    {
+        ChecksumFactory factory = ChecksumFactory.getFactory(ChecksumType.ADLER32);
+        RateLimiter limiter = RateLimiter.create(10_000_000);
+        assertThat(computeFromChannel(ChecksumType.ADLER32, ByteBuffer.allocateDirect(8192), limiter),
+                   is(factory.computeChecksum(file)));
+    }
+}
@@ -0,0 +1,275 @@
+package diskCacheV111.vehicles;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import javax.security.auth.Subject;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import diskCacheV111.poolManager.RequestContainerV5.RequestState;
+import diskCacheV111.util.AccessLatency;
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.util.RetentionPolicy;
+
+import dmg.cells.nucleus.CellAddressCore;
+import dmg.cells.nucleus.CellMessage;
+import dmg.cells.nucleus.CellPath;
+
+import org.dcache.auth.FQANPrincipal;
+import org.dcache.auth.GidPrincipal;
+import org.dcache.auth.UidPrincipal;
+import org.dcache.auth.UserNamePrincipal;
+import org.dcache.namespace.FileAttribute;
+import org.dcache.namespace.FileType;
+import org.dcache.util.Checksum;
+import org.dcache.util.ChecksumType;
+import org.dcache.vehicles.FileAttributes;
+import org.dcache.vehicles.PnfsGetFileAttributes;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class MessageCodecTest
+{
+    private static final PnfsId PNFSID = new PnfsId("0000A1B2C3D4E5F60718293A4B5C6D7E8F90");
+
+    private static FileAttributes fileAttributes()
+    {
+        FileAttributes attributes = new FileAttributes();
+        attributes.setPnfsId(PNFSID);
+        attributes.setSize(1L << 30);
+        attributes.setFileType(FileType.REGULAR);
+        attributes.setMode(0644);
+        attributes.setOwner(1000);
+        attributes.setGroup(100);
+        attributes.setModificationTime(1476793200000L);
+        attributes.setStorageInfo(new GenericStorageInfo("osm", "atlas:raw"));
+        attributes.setStorageClass("atlas:raw");
+        attributes.setCacheClass(null);
+        attributes.setHsm("osm");
+        attributes.setLocations(Arrays.asList("pool-a", "pool-b"));
+        attributes.setAccessLatency(AccessLatency.NEARLINE);
+        attributes.setRetentionPolicy(RetentionPolicy.CUSTODIAL);
+        attributes.setChecksums(Collections.singleton(new Checksum(ChecksumType.ADLER32, "0a1b2c3d")));
+        attributes.setFlags(ImmutableMap.of("uid", "1000", "gid", "1000"));
+        return attributes;
+    }
+
+    private static Subject subject()
+    {
+        Subject subject = new Subject();
+        subject.getPrincipals().add(new UidPrincipal(1000));
+        subject.getPrincipals().add(new GidPrincipal(100, true));
+        subject.getPrincipals().add(new GidPrincipal(200, false));
+        subject.getPrincipals().add(new UserNamePrincipal("alice"));
+        subject.getPrincipals().add(new FQANPrincipal("/atlas/Role=production", true));
+        return subject;
+    }
+
+    private static DCapProtocolInfo protocolInfo()
+    {
+        return new DCapProtocolInfo("DCap", 3, 0, new InetSocketAddress("192.0.2.1", 22125));
+    }
+
+    /**
+     * Encodes a message object as the cell nucleus does, verifies that a
+     * codec rather than Java serialization was used and decodes it again.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends Serializable> T roundTrip(T message)
+    {
+        CellMessage encoded = new CellMessage(new CellPath("destination"), message).encode();
+        assertThat(encoded.isDecodableWith(Collections.emptySet()), is(false));
+        Object decoded = encoded.decode().getMessageObject();
+        assertThat(decoded, is(instanceOf(message.getClass())));
+        return (T) decoded;
+    }
+
+    private static void assertSameFileAttributes(FileAttributes actual, FileAttributes expected)
+    {
+        assertThat(actual.getDefinedAttributes(), is(expected.getDefinedAttributes()));
+        assertThat(actual.toString(), is(expected.toString()));
+    }
+
+    private static void assertSameMessage(Message actual, Message expected)
+    {
+        assertThat(actual.getReplyRequired(), is(expected.getReplyRequired()));
+        assertThat(actual.isReply(), is(expected.isReply()));
+        assertThat(actual.getReturnCode(), is(expected.getReturnCode()));
+        assertThat(actual.getId(), is(expected.getId()));
+        assertThat(actual.getSubject(), is(expected.getSubject()));
+    }
+
+    @Test
+    public void shouldEncodePnfsGetFileAttributes()
+    {
+        PnfsGetFileAttributes message =
+                new PnfsGetFileAttributes(PNFSID, EnumSet.of(FileAttribute.SIZE, FileAttribute.STORAGEINFO));
+        message.setSubject(subject());
+        message.setId(42);
+        message.setUpdateAtime(true);
+        message.setPnfsPath("/pnfs/example.org/data/file");
+
+        PnfsGetFileAttributes decoded = roundTrip(message);
+
+        assertSameMessage(decoded, message);
+        assertThat(decoded.getPnfsId(), is(PNFSID));
+        assertThat(decoded.getPnfsPath(), is("/pnfs/example.org/data/file"));
+        assertThat(decoded.getRequestedAttributes(), is(message.getRequestedAttributes()));
+        assertThat(decoded.getUpdateAtime(), is(true));
+        assertThat(decoded.getRestriction(), is(message.getRestriction()));
+        assertThat(decoded.getAccessMask(), is(message.getAccessMask()));
+        assertThat(decoded.getFileAttributes(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldEncodePnfsGetFileAttributesReply()
+    {
+        PnfsGetFileAttributes message =
+                new PnfsGetFileAttributes(PNFSID, EnumSet.of(FileAttribute.SIZE, FileAttribute.STORAGEINFO));
+        message.setFileAttributes(fileAttributes());
+        message.setSucceeded();
+
+        PnfsGetFileAttributes decoded = roundTrip(message);
+
+        assertSameMessage(decoded, message);
+        assertSameFileAttributes(decoded.getFileAttributes(), message.getFileAttributes());
+    }
+
+    @Test
+    public void shouldEncodeFailedReply()
+    {
+        PnfsGetFileAttributes message =
+                new PnfsGetFileAttributes(PNFSID, EnumSet.of(FileAttribute.SIZE));
+        message.setFailed(CacheException.FILE_NOT_FOUND, new CacheException("No such file"));
+
+        PnfsGetFileAttributes decoded = roundTrip(message);
+
+        assertSameMessage(decoded, message);
+        assertThat(decoded.getErrorObject(), is(instanceOf(CacheException.class)));
+    }
+
+    @Test
+    public void shouldEncodePoolMgrSelectReadPoolMsg()
+    {
+        PoolMgrSelectReadPoolMsg message =
+                new PoolMgrSelectReadPoolMsg(fileAttributes(), protocolInfo(), null,
+                                             EnumSet.of(RequestState.ST_INIT, RequestState.ST_POOL_2_POOL));
+        message.setSubject(subject());
+        message.setContext(2, "host.example.org", "pool-c");
+        message.setIoQueueName("regular");
+        message.setBillingPath("/pnfs/example.org/data/file");
+        message.setLinkGroup("lg");
+        message.setSkipCostUpdate(true);
+        message.setPoolName("pool-a");
+        message.setPoolAddress(new CellAddressCore("pool-a", "poolDomain"));
+
+        PoolMgrSelectReadPoolMsg decoded = roundTrip(message);
+
+        assertSameMessage(decoded, message);
+        assertSameFileAttributes(decoded.getFileAttributes(), message.getFileAttributes());
+        assertThat(decoded.getProtocolInfo().toString(), is(message.getProtocolInfo().toString()));
+        assertThat(decoded.getAllowedStates(), is(message.getAllowedStates()));
+        assertThat(decoded.getContext().getRetryCounter(), is(2));
+        assertThat(decoded.getContext().getPreviousStageHost(), is("host.example.org"));
+        assertThat(decoded.getContext().getPreviousStagePool(), is("pool-c"));
+        assertThat(decoded.getIoQueueName(), is("regular"));
+        assertThat(decoded.getBillingPath(), is("/pnfs/example.org/data/file"));
+        assertThat(decoded.getTransferPath(), is("/pnfs/example.org/data/file"));
+        assertThat(decoded.getLinkGroup(), is("lg"));
+        assertThat(decoded.getSkipCostUpdate(), is(true));
+        assertThat(decoded.getPoolName(), is("pool-a"));
+        assertThat(decoded.getPoolAddress(), is(new CellAddressCore("pool-a", "poolDomain")));
+    }
+
+    @Test
+    public void copyForDeliveryShouldNotShareMutableState()
+    {
+        PoolMgrSelectReadPoolMsg message =
+                new PoolMgrSelectReadPoolMsg(fileAttributes(), protocolInfo(), null,
+                                             EnumSet.of(RequestState.ST_INIT, RequestState.ST_POOL_2_POOL));
+        message.setFailed(CacheException.FILE_NOT_IN_REPOSITORY, new CacheException("failed"));
+
+        PoolMgrSelectReadPoolMsg copy = (PoolMgrSelectReadPoolMsg) message.copyForDelivery();
+        copy.getAllowedStates().add(RequestState.ST_STAGE);
+        ((CacheException) copy.getErrorObject()).addSuppressed(new CacheException("suppressed"));
+
+        assertThat(message.getAllowedStates(), is(EnumSet.of(RequestState.ST_INIT, RequestState.ST_POOL_2_POOL)));
+        assertThat(((CacheException) message.getErrorObject()).getSuppressed().length, is(0));
+        assertThat(copy.getErrorObject().toString(), is(message.getErrorObject().toString()));
+    }
+
+    @Test
+    public void shouldEncodePoolDeliverFileMessage()
+    {
+        PoolDeliverFileMessage message = new PoolDeliverFileMessage("pool-a", protocolInfo(), fileAttributes());
+        message.setSubject(subject());
+        message.setIoQueueName("regular");
+        message.setInitiator("door:DCap-door@doorDomain:1476793200000");
+        message.setBillingPath("/pnfs/example.org/data/file");
+        message.setTransferPath("/data/file");
+        message.setMoverId(7);
+        message.setForceSourceMode(true);
+        message.setPool2Pool();
+
+        PoolDeliverFileMessage decoded = roundTrip(message);
+
+        assertSameMessage(decoded, message);
+        assertSameFileAttributes(decoded.getFileAttributes(), message.getFileAttributes());
+        assertThat(decoded.getPoolName(), is("pool-a"));
+        assertThat(decoded.getProtocolInfo().toString(), is(message.getProtocolInfo().toString()));
+        assertThat(decoded.getIoQueueName(), is("regular"));
+        assertThat(decoded.getInitiator(), is("door:DCap-door@doorDomain:1476793200000"));
+        assertThat(decoded.getBillingPath(), is("/pnfs/example.org/data/file"));
+        assertThat(decoded.getTransferPath(), is("/data/file"));
+        assertThat(decoded.getMoverId(), is(7));
+        assertThat(decoded.isForceSourceMode(), is(true));
+        assertThat(decoded.isPool2Pool(), is(true));
+    }
+
+    @Test
+    public void shouldEncodePoolAcceptFileMessage()
+    {
+        PoolAcceptFileMessage message =
+                new PoolAcceptFileMessage("pool-a", protocolInfo(), fileAttributes(), 4096);
+
+        PoolAcceptFileMessage decoded = roundTrip(message);
+
+        assertSameMessage(decoded, message);
+        assertSameFileAttributes(decoded.getFileAttributes(), message.getFileAttributes());
+        assertThat(decoded.getPreallocated(), is(4096L));
+    }
+
+    @Test
+    public void shouldUseJavaSerializationForSubclasses()
+    {
+        PoolMgrReplicateFileMsg message = new PoolMgrReplicateFileMsg(fileAttributes(), protocolInfo());
+
+        CellMessage encoded = new CellMessage(new CellPath("destination"), message).encode();
+
+        assertThat(encoded.isDecodableWith(Collections.emptySet()), is(true));
+    }
+
+    @Test
+    public void shouldConvertToJavaSerializationForPeersWithoutCodec()
+    {
+        PnfsGetFileAttributes message =
+                new PnfsGetFileAttributes(PNFSID, EnumSet.of(FileAttribute.SIZE));
+        CellMessage encoded = new CellMessage(new CellPath("destination"), message).encode();
+
+        CellMessage converted = encoded.withSerializedMessageObject();
+
+        assertThat(converted.isDecodableWith(Collections.emptySet()), is(true));
+        assertThat(converted.getUOID(), is(encoded.getUOID()));
+        PnfsGetFileAttributes decoded = (PnfsGetFileAttributes) converted.decode().getMessageObject();
+        assertThat(decoded.getPnfsId(), is(PNFSID));
+    }
+}
@@ -11,6 +11,7 @@ import com.google.common.util.concurrent.Futures;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.http.DefaultFullHttpRequest;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
@@ -94,7 +95,7 @@ public class HttpPoolRequestHandlerTests
     public void setup()
     {
         _server = mock(NettyTransferService.class);
-        _handler = new HttpPoolRequestHandler(_server, SOME_CHUNK_SIZE);
+        _handler = new HttpPoolRequestHandler(_server, SOME_CHUNK_SIZE, false);
         _channel = new EmbeddedChannel(_handler);
         _files = Maps.newHashMap();
         _additionalWrites = new ArrayList<>();
@@ -160,6 +161,39 @@ public class HttpPoolRequestHandlerTests
         assertThat(_additionalWrites.get(1), instanceOf(LastHttpContent.class));
     }
 
+    @Test
+    public void shouldDeliverFileInBoundedRegionsIfZeroCopyIsEnabled()
+            throws Exception
+    {
+        _handler = new HttpPoolRequestHandler(_server, SOME_CHUNK_SIZE, true);
+        _channel = new EmbeddedChannel(_handler);
+        long size = 2 * HttpPoolRequestHandler.FILE_REGION_SIZE + 100;
+        givenPoolHas(file("/path/to/file").withSize(size));
+        givenDoorHasOrganisedReadOf(file("/path/to/file").with(SOME_UUID));
+
+        whenClientMakes(a(GET).
+                forUri("/path/to/file?dcache-http-uuid="+SOME_UUID));
+
+        assertThat(_response.getStatus(), is(OK));
+        assertThat(_additionalWrites, hasSize(2));
+        assertThat(_additionalWrites.get(0), instanceOf(ChunkedRepositoryFileRegion.class));
+        assertThat(_additionalWrites.get(1), instanceOf(LastHttpContent.class));
+
+        ChunkedRepositoryFileRegion input = (ChunkedRepositoryFileRegion) _additionalWrites.get(0);
+        List<FileRegion> regions = new ArrayList<>();
+        while (!input.isEndOfInput()) {
+            regions.add(input.readChunk(null));
+        }
+        assertThat(regions, hasSize(3));
+        long position = 0;
+        for (FileRegion region : regions) {
+            assertThat(region.position(), is(position));
+            assertThat(region.count(), lessThanOrEqualTo(HttpPoolRequestHandler.FILE_REGION_SIZE));
+            position += region.count();
+        }
+        assertThat(position, is(size));
+    }
+
     @Test
     public void shouldDeliverCompleteFileWithChecksumIfReceivesRequestForWholeFileWithChecksum()
             throws Exception
@@ -486,6 +520,8 @@ public class HttpPoolRequestHandlerTests
             mock(NettyTransferService.NettyMoverChannel.class);
 
         given(channel.size()).willReturn(file.getSize());
+        given(channel.isOpen()).willReturn(true);
+        given(channel.isZeroCopySupported()).willReturn(true);
 
         given(channel.getIoMode()).willReturn(IoMode.READ);
         given(channel.getProtocolInfo())
@@ -0,0 +1,82 @@
+package org.dcache.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.dcache.pool.repository.FileRepositoryChannel;
+import org.dcache.pool.repository.RepositoryChannel;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class RepositoryFileRegionTest
+{
+    private File file;
+    private byte[] data;
+    private RepositoryChannel channel;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        data = new byte[100_000];
+        new Random(42).nextBytes(data);
+        file = File.createTempFile("RepositoryFileRegionTest", null);
+        Files.write(file.toPath(), data);
+        channel = new FileRepositoryChannel(file, "r");
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        channel.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldSupportZeroCopyForFiles()
+    {
+        assertThat(channel.isZeroCopySupported(), is(true));
+    }
+
+    @Test
+    public void shouldTransferRange() throws IOException
+    {
+        RepositoryFileRegion region = new RepositoryFileRegion(channel, 1000, 50_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel target = Channels.newChannel(out);
+
+        while (region.transfered() < region.count()) {
+            region.transferTo(target, region.transfered());
+        }
+
+        assertThat(out.toByteArray(), is(Arrays.copyOfRange(data, 1000, 51_000)));
+        assertThat(channel.position(), is(0L));
+    }
+
+    @Test
+    public void shouldNotCloseChannelWhenReleased() throws IOException
+    {
+        RepositoryFileRegion region = new RepositoryFileRegion(channel, 0, data.length);
+        region.release();
+
+        assertThat(region.refCnt(), is(0));
+        assertThat(channel.isOpen(), is(true));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldFailIfFileIsShorterThanRegion() throws IOException
+    {
+        RepositoryFileRegion region = new RepositoryFileRegion(channel, data.length, 10);
+        region.transferTo(Channels.newChannel(new ByteArrayOutputStream()), 0);
+    }
+}
@@ -21,6 +21,7 @@ import java.util.Objects;
 import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Delayed;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
@@ -40,6 +41,7 @@ import diskCacheV111.util.PnfsId;
 import diskCacheV111.vehicles.DCapProtocolInfo;
 import diskCacheV111.vehicles.GenericStorageInfo;
 import diskCacheV111.vehicles.Message;
+import diskCacheV111.vehicles.PoolClearStickyMessage;
 import diskCacheV111.vehicles.PoolMgrSelectReadPoolMsg;
 import diskCacheV111.vehicles.PoolSetStickyMessage;
 import diskCacheV111.vehicles.ProtocolInfo;
@@ -63,6 +65,7 @@ import org.dcache.poolmanager.PoolMonitor;
 import org.dcache.poolmanager.PoolSelector;
 import org.dcache.vehicles.FileAttributes;
 
+import static java.util.Arrays.asList;
 import static java.util.stream.Collectors.toList;
 import static org.dcache.pinmanager.model.Pin.State.PINNED;
 import static org.dcache.pinmanager.model.Pin.State.UNPINNING;
@@ -298,6 +301,51 @@ public class PinManagerTests
         assertEquals(pin.getSticky(), newPin.getSticky());
     }
 
+    @Test
+    public void testUnpinProcessorClearsStickyFlagsInBatches()
+    {
+        TestDao dao = new TestDao();
+        Pin pin1 = createUnpinningPin(dao, PNFS_ID1, POOL1);
+        Pin pin2 = createUnpinningPin(dao, PNFS_ID2, POOL1);
+        Pin pin3 = createUnpinningPin(dao, PNFS_ID3, POOL1);
+        Pin pin4 = createUnpinningPin(dao, PNFS_ID1, null);
+
+        Pool pool = new Pool(POOL1);
+        pool.setActive(true);
+        pool.setAddress(new CellAddressCore(POOL1));
+        PoolMonitor poolMonitor = mock(PoolMonitor.class, RETURNS_DEEP_STUBS);
+        when(poolMonitor.getPoolSelectionUnit().getPool(POOL1)).thenReturn(pool);
+
+        List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+        CellStub poolStub = new TestStub(new CellAddressCore("PinManager")) {
+                public PoolClearStickyMessage messageArrived(PoolClearStickyMessage msg)
+                {
+                    batches.add(msg.getStickies().size());
+                    msg.setFailed(PNFS_ID2, CacheException.FILE_NOT_IN_REPOSITORY);
+                    msg.setFailed(PNFS_ID3, CacheException.ERROR_IO_DISK);
+                    return msg;
+                }
+            };
+
+        new UnpinProcessor(dao, poolStub, poolMonitor, 2, 1).run();
+
+        assertEquals(asList(2, 1), batches);
+        assertNull(dao.get(dao.where().id(pin1.getPinId())));
+        assertNull(dao.get(dao.where().id(pin2.getPinId())));
+        assertEquals(UNPINNING, dao.get(dao.where().id(pin3.getPinId())).getState());
+        assertNull(dao.get(dao.where().id(pin4.getPinId())));
+    }
+
+    private Pin createUnpinningPin(PinDao dao, PnfsId pnfsId, String pool)
+    {
+        return dao.create(dao.set()
+                                  .subject(Subjects.ROOT)
+                                  .pnfsId(pnfsId)
+                                  .pool(pool)
+                                  .sticky((pool == null) ? null : STICKY1)
+                                  .state(UNPINNING));
+    }
+
     <T extends Comparable<T>> void assertBetween(T lower, T upper, T actual)
     {
         String message =
@@ -325,7 +373,7 @@ public class PinManagerTests
 class TestDao implements PinDao
 {
     long _counter;
-    Map<Long,Pin> _pins = new HashMap<>();
+    Map<Long,Pin> _pins = new ConcurrentHashMap<>();
 
     @Override
     public PinCriterion where()
@@ -0,0 +1,166 @@
+package org.dcache.pool.classic;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.repository.EntryState;
+import org.dcache.pool.repository.ReplicaDescriptor;
+import org.dcache.pool.repository.Repository;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.any;
+import static org.mockito.BDDMockito.anySetOf;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.mock;
+
+public class ChecksumScannerTest
+{
+    private static final int FILES = 200;
+    private static final int THREADS = 4;
+
+    private final Map<ReplicaDescriptor, PnfsId> _handles = new ConcurrentHashMap<>();
+    private final Map<PnfsId, AtomicInteger> _verifications = new ConcurrentHashMap<>();
+    private final List<String> _checkpointViolations = new CopyOnWriteArrayList<>();
+    private final AtomicInteger _highestCheckpoint = new AtomicInteger(-1);
+
+    private final PnfsId[] _ids = new PnfsId[FILES];
+    private final Map<PnfsId, Integer> _indexOf = new HashMap<>();
+
+    private ChecksumScanner _scanner;
+    private IoQueueManager _ioQueueManager;
+    private File _stateFile;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        for (int i = 0; i < FILES; i++) {
+            _ids[i] = new PnfsId(String.format("0000%032X", i));
+            _indexOf.put(_ids[i], i);
+        }
+
+        Repository repository = mock(Repository.class);
+        given(repository.getState(any(PnfsId.class))).willReturn(EntryState.CACHED);
+        given(repository.openEntry(any(PnfsId.class), anySetOf(Repository.OpenFlags.class))).willAnswer(invocation -> {
+            ReplicaDescriptor handle = mock(ReplicaDescriptor.class);
+            _handles.put(handle, (PnfsId) invocation.getArguments()[0]);
+            return handle;
+        });
+
+        ChecksumModuleV1 csm = mock(ChecksumModuleV1.class);
+        given(csm.getThroughputLimit()).willReturn(Double.POSITIVE_INFINITY);
+        given(csm.verifyChecksum(any(ReplicaDescriptor.class), any(ByteBuffer.class), any())).willAnswer(invocation -> {
+            PnfsId id = _handles.get((ReplicaDescriptor) invocation.getArguments()[0]);
+            checkCheckpointBefore(id);
+            Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+            checkCheckpointBefore(id);
+            _verifications.computeIfAbsent(id, key -> new AtomicInteger()).incrementAndGet();
+            return Collections.emptyList();
+        });
+
+        _ioQueueManager = mock(IoQueueManager.class);
+        _stateFile = File.createTempFile("ChecksumScannerTest", ".state");
+
+        _scanner = new ChecksumScanner();
+        _scanner.setRepository(repository);
+        _scanner.setChecksumModule(csm);
+        _scanner.setIoQueueManager(_ioQueueManager);
+        _scanner.setScrubberStateFile(_stateFile);
+        _scanner.setThreads(THREADS);
+        _scanner.setBufferSize(1024);
+        _scanner.setBackoffDelay(10, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown()
+    {
+        _stateFile.delete();
+    }
+
+    /**
+     * Records a violation if the checkpoint has reached a file that is
+     * still being verified.
+     */
+    private void checkCheckpointBefore(PnfsId id)
+    {
+        PnfsId checkpoint = _scanner.getScrubberCheckpoint();
+        if (checkpoint != null) {
+            int index = _indexOf.get(checkpoint);
+            _highestCheckpoint.accumulateAndGet(index, Math::max);
+            if (index >= _indexOf.get(id)) {
+                _checkpointViolations.add("checkpoint " + checkpoint + " passed " + id);
+            }
+        }
+    }
+
+    private void assertEveryFileVerifiedOnce()
+    {
+        assertThat(_verifications.size(), is(FILES));
+        for (AtomicInteger count : _verifications.values()) {
+            assertThat(count.get(), is(1));
+        }
+    }
+
+    @Test
+    public void shouldVerifyEveryFileOnce() throws Exception
+    {
+        _scanner.scrub(_ids);
+
+        assertEveryFileVerifiedOnce();
+    }
+
+    @Test
+    public void shouldNeverCheckpointPastUnverifiedFile() throws Exception
+    {
+        _scanner.scrub(_ids);
+
+        assertThat(_checkpointViolations, is(empty()));
+        assertThat(_highestCheckpoint.get(), is(greaterThan(0)));
+    }
+
+    @Test
+    public void shouldBackOffWhileMoversAreQueued() throws Exception
+    {
+        AtomicBoolean isBusy = new AtomicBoolean(true);
+        given(_ioQueueManager.getQueueSize()).willAnswer(invocation -> isBusy.get() ? 1 : 0);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Void> scrub = executor.submit(() -> {
+                _scanner.scrub(_ids);
+                return null;
+            });
+
+            Thread.sleep(200);
+            assertThat(_verifications.isEmpty(), is(true));
+
+            isBusy.set(false);
+            scrub.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEveryFileVerifiedOnce();
+    }
+}
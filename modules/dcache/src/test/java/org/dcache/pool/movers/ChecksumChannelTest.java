@@ -14,6 +14,10 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 import diskCacheV111.util.ChecksumFactory;
 
@@ -299,6 +303,129 @@ public class ChecksumChannelTest {
         assertThat(chksumChannel.getChecksum(), equalTo(expectedChecksum));
     }
 
+    @Test
+    public void shouldSucceedIfAdler32WrittenOutOfOrder() throws IOException, NoSuchAlgorithmException {
+        try (ChecksumChannel channel = createChannel(ChecksumType.ADLER32, null)) {
+            int[] blockorder = getRandomPermutationOfBlockOrder();
+            for (int i = 0; i < blockcount; i++) {
+                channel.write(buffers[blockorder[i]], blockorder[i] * blocksize);
+            }
+
+            assertThat(channel.getChecksum(), equalTo(getExpectedChecksum(ChecksumType.ADLER32)));
+        }
+    }
+
+    @Test
+    public void shouldFillUpRangeGapsWithZerosForAdler32() throws IOException, NoSuchAlgorithmException {
+        try (ChecksumChannel channel = createChannel(ChecksumType.ADLER32, null)) {
+            Map<Long, ByteBuffer> nonZeroBlocksFromByteArray = getNonZeroBlocksFromByteArray(data);
+            for (Long position : nonZeroBlocksFromByteArray.keySet()) {
+                channel.write(nonZeroBlocksFromByteArray.get(position), position);
+            }
+
+            assertThat(channel.getChecksum(), equalTo(getExpectedChecksum(ChecksumType.ADLER32)));
+        }
+    }
+
+    @Test
+    public void shouldReturnNullDigestOnOverlappingAdler32Writes() throws IOException, NoSuchAlgorithmException {
+        try (ChecksumChannel channel = createChannel(ChecksumType.ADLER32, null)) {
+            channel.write(buffers[1], blocksize);
+            channel.write(buffers[0], blocksize - 1);
+
+            assertThat(channel.getChecksum(), equalTo(null));
+        }
+    }
+
+    @Test
+    public void shouldSucceedIfWrittenOutOfOrderWithPipeline() throws IOException, NoSuchAlgorithmException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try (ChecksumChannel channel = createChannel(ChecksumType.MD5_TYPE, executor)) {
+            channel._readBackBuffer = ByteBuffer.allocate(2);
+            int[] blockorder = getRandomPermutationOfBlockOrder();
+            for (int i = 0; i < blockcount; i++) {
+                channel.write(buffers[blockorder[i]], blockorder[i] * blocksize);
+            }
+
+            assertThat(channel.getChecksum(), equalTo(expectedChecksum));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldSucceedIfAdler32WrittenByMultipleThreadsWithPipeline()
+            throws IOException, NoSuchAlgorithmException, InterruptedException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        AtomicReference<IOException> error = new AtomicReference<>();
+        try (ChecksumChannel channel = createChannel(ChecksumType.ADLER32, executor)) {
+            int[] blockorder = getRandomPermutationOfBlockOrder();
+            List<Thread> writers = newArrayList();
+            for (int i = 0; i < blockcount; i++) {
+                ByteBuffer block = buffers[blockorder[i]];
+                long position = blockorder[i] * blocksize;
+                writers.add(new Thread(() -> {
+                    try {
+                        channel.write(block, position);
+                    } catch (IOException e) {
+                        error.compareAndSet(null, e);
+                    }
+                }));
+            }
+
+            writers.forEach(Thread::start);
+
+            for (Thread writer: writers) {
+                writer.join();
+            }
+            if (error.get() != null) {
+                throw new AssertionError("Write failed: " + error.get(), error.get());
+            }
+
+            assertThat(channel.getChecksum(), equalTo(getExpectedChecksum(ChecksumType.ADLER32)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldReturnNullDigestOnDoubleWritesWithPipeline() throws IOException, NoSuchAlgorithmException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try (ChecksumChannel channel = createChannel(ChecksumType.MD5_TYPE, executor)) {
+            channel.write(buffers[0], 0);
+            buffers[0].rewind();
+            channel.write(buffers[0], 0);
+
+            assertThat(channel.getChecksum(), equalTo(null));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldReusePipelineBuffersForLargeWrites() throws IOException, NoSuchAlgorithmException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try (ChecksumChannel channel = createChannel(ChecksumType.MD5_TYPE, executor)) {
+            channel.write(ByteBuffer.wrap(data), 0);
+
+            assertThat(channel.getChecksum(), equalTo(expectedChecksum));
+            assertThat(channel._pipelineBuffers.size(), is(1));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private ChecksumChannel createChannel(ChecksumType type, Executor executor)
+            throws IOException, NoSuchAlgorithmException {
+        ChecksumFactory checksumFactory = ChecksumFactory.getFactory(type);
+        return new ChecksumChannel(new FileRepositoryChannel(testFile, "rw"), checksumFactory, executor, 2 * blocksize);
+    }
+
+    private Checksum getExpectedChecksum(ChecksumType type) throws NoSuchAlgorithmException {
+        ChecksumFactory checksumFactory = ChecksumFactory.getFactory(type);
+        return checksumFactory.create(checksumFactory.create().digest(data));
+    }
+
     private Map<Long, ByteBuffer> getNonZeroBlocksFromByteArray(byte[] bytes) {
         Map<Long, ByteBuffer> result = new TreeMap<>();
         for (int position = 0; position < bytes.length; position++) {
@@ -0,0 +1,120 @@
+package org.dcache.pool.movers;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class DirectByteBufferPoolTest
+{
+    private static final int MIB = 1024 * 1024;
+
+    private DirectByteBufferPool pool;
+
+    @Before
+    public void setUp()
+    {
+        pool = new DirectByteBufferPool();
+        pool.setCapacity(4 * MIB);
+    }
+
+    private String info()
+    {
+        StringWriter out = new StringWriter();
+        pool.getInfo(new PrintWriter(out));
+        return out.toString();
+    }
+
+    @Test
+    public void shouldLeaseDirectBufferOfRequestedSize()
+    {
+        try (ByteBufferPool.Lease lease = pool.lease("DCap", 100_000)) {
+            ByteBuffer buffer = lease.buffer();
+            assertThat(buffer.isDirect(), is(true));
+            assertThat(buffer.capacity(), is(100_000));
+            assertThat(buffer.position(), is(0));
+            assertThat(buffer.limit(), is(100_000));
+        }
+    }
+
+    @Test
+    public void shouldReuseReleasedBuffers()
+    {
+        ByteBufferPool.Lease first = pool.lease("DCap", MIB);
+        first.buffer().put((byte) 1);
+        first.close();
+
+        try (ByteBufferPool.Lease second = pool.lease("DCap", MIB)) {
+            assertThat(second.buffer().isDirect(), is(true));
+            assertThat(second.buffer().position(), is(0));
+        }
+        assertThat(info(), containsString("Allocated : " + MIB));
+    }
+
+    @Test
+    public void shouldFallBackToHeapWhenCapacityIsExhausted()
+    {
+        try (ByteBufferPool.Lease first = pool.lease("DCap", 4 * MIB);
+             ByteBufferPool.Lease second = pool.lease("DCap", MIB)) {
+            assertThat(first.buffer().isDirect(), is(true));
+            assertThat(second.buffer().isDirect(), is(false));
+            assertThat(second.buffer().capacity(), is(MIB));
+        }
+    }
+
+    @Test
+    public void shouldEvictFreeBuffersOfOtherSizesWhenCapacityIsExhausted()
+    {
+        pool.lease("DCap", 4 * MIB).close();
+
+        try (ByteBufferPool.Lease lease = pool.lease("DCap", MIB)) {
+            assertThat(lease.buffer().isDirect(), is(true));
+        }
+    }
+
+    @Test
+    public void shouldEnforceProtocolQuota() throws Exception
+    {
+        DirectByteBufferPool.SetQuotaCommand command = pool.new SetQuotaCommand();
+        command.protocol = "DCap";
+        command.quota = String.valueOf(MIB);
+        command.call();
+
+        try (ByteBufferPool.Lease first = pool.lease("DCap", MIB);
+             ByteBufferPool.Lease second = pool.lease("DCap", MIB);
+             ByteBufferPool.Lease other = pool.lease("Scrubber", MIB)) {
+            assertThat(first.buffer().isDirect(), is(true));
+            assertThat(second.buffer().isDirect(), is(false));
+            assertThat(other.buffer().isDirect(), is(true));
+        }
+
+        StringWriter setup = new StringWriter();
+        pool.printSetup(new PrintWriter(setup));
+        assertThat(setup.toString(), is("buffer pool set quota DCap " + MIB + "\n"));
+    }
+
+    @Test
+    public void shouldServeOversizedLeasesFromHeap()
+    {
+        try (ByteBufferPool.Lease lease = pool.lease("DCap", DirectByteBufferPool.MAX_BUFFER_SIZE + 1)) {
+            assertThat(lease.buffer().isDirect(), is(false));
+        }
+    }
+
+    @Test
+    public void shouldReportUsage()
+    {
+        ByteBufferPool.Lease lease = pool.lease("DCap", MIB);
+        pool.lease("DCap", 8 * MIB).close();
+        lease.close();
+        lease.close();
+
+        assertThat(info(), containsString(String.format("%-12s %12d %12d %10d %10d %12s",
+                                                        "DCap", 0, MIB, 2, 1, "-")));
+    }
+}
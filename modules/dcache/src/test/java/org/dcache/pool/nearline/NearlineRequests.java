@@ -0,0 +1,167 @@
+package org.dcache.pool.nearline;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Set;
+import java.util.UUID;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.GenericStorageInfo;
+
+import org.dcache.pool.nearline.spi.FlushRequest;
+import org.dcache.pool.nearline.spi.RemoveRequest;
+import org.dcache.pool.nearline.spi.StageRequest;
+import org.dcache.util.Checksum;
+import org.dcache.vehicles.FileAttributes;
+
+/**
+ * Nearline requests for testing nearline storage implementations.
+ *
+ * Requests are activated and allocated immediately and record their outcome
+ * in a future.
+ */
+public class NearlineRequests
+{
+    private NearlineRequests()
+    {
+    }
+
+    public static PnfsId pnfsId(int i)
+    {
+        return new PnfsId(String.format("%036X", i));
+    }
+
+    public static FileAttributes attributes(String hsm, PnfsId pnfsId)
+    {
+        FileAttributes attributes = new FileAttributes();
+        attributes.setPnfsId(pnfsId);
+        attributes.setStorageInfo(new GenericStorageInfo(hsm, "test:tape"));
+        attributes.setStorageClass("test:tape");
+        attributes.setHsm(hsm);
+        return attributes;
+    }
+
+    public abstract static class TestRequest<T>
+    {
+        public final UUID id = UUID.randomUUID();
+        public final SettableFuture<T> result = SettableFuture.create();
+
+        public UUID getId()
+        {
+            return id;
+        }
+
+        public long getDeadline()
+        {
+            return Long.MAX_VALUE;
+        }
+
+        public ListenableFuture<Void> activate()
+        {
+            return Futures.immediateFuture(null);
+        }
+
+        public void failed(Exception cause)
+        {
+            result.setException(cause);
+        }
+
+        public void failed(int rc, String msg)
+        {
+            result.setException(new CacheException(rc, msg));
+        }
+
+        public void completed(T value)
+        {
+            result.set(value);
+        }
+    }
+
+    public static class TestFlushRequest extends TestRequest<Set<URI>> implements FlushRequest
+    {
+        public final FileAttributes attributes;
+        public final File file;
+
+        public TestFlushRequest(FileAttributes attributes, File file)
+        {
+            this.attributes = attributes;
+            this.file = file;
+        }
+
+        @Override
+        public File getFile()
+        {
+            return file;
+        }
+
+        @Override
+        public FileAttributes getFileAttributes()
+        {
+            return attributes;
+        }
+
+        @Override
+        public ListenableFuture<String> activateWithPath()
+        {
+            return Futures.immediateFuture("/test");
+        }
+
+        @Override
+        public void completed(Set<URI> locations)
+        {
+            locations.forEach(attributes.getStorageInfo()::addLocation);
+            super.completed(locations);
+        }
+    }
+
+    public static class TestStageRequest extends TestRequest<Set<Checksum>> implements StageRequest
+    {
+        public final FileAttributes attributes;
+        public final File file;
+
+        public TestStageRequest(FileAttributes attributes, File file)
+        {
+            this.attributes = attributes;
+            this.file = file;
+        }
+
+        @Override
+        public File getFile()
+        {
+            return file;
+        }
+
+        @Override
+        public FileAttributes getFileAttributes()
+        {
+            return attributes;
+        }
+
+        @Override
+        public ListenableFuture<Void> allocate()
+        {
+            return Futures.immediateFuture(null);
+        }
+    }
+
+    public static class TestRemoveRequest extends TestRequest<Void> implements RemoveRequest
+    {
+        public final URI uri;
+
+        public TestRemoveRequest(URI uri)
+        {
+            this.uri = uri;
+        }
+
+        @Override
+        public URI getUri()
+        {
+            return uri;
+        }
+    }
+}
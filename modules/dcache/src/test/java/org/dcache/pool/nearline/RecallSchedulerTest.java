@@ -0,0 +1,240 @@
+package org.dcache.pool.nearline;
+
+import com.google.common.collect.Iterables;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.vehicles.GenericStorageInfo;
+import diskCacheV111.vehicles.StorageInfo;
+
+import org.dcache.pool.nearline.NearlineRequests.TestStageRequest;
+import org.dcache.pool.nearline.spi.FlushRequest;
+import org.dcache.pool.nearline.spi.NearlineStorage;
+import org.dcache.pool.nearline.spi.RemoveRequest;
+import org.dcache.pool.nearline.spi.StageRequest;
+import org.dcache.vehicles.FileAttributes;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class RecallSchedulerTest
+{
+    private ScheduledExecutorService executor;
+    private RecallScheduler scheduler;
+    private RecordingNearlineStorage storage;
+
+    @Before
+    public void setUp()
+    {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        scheduler = new RecallScheduler();
+        scheduler.setExecutor(executor);
+        storage = new RecordingNearlineStorage();
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldSubmitImmediatelyWithoutWindow()
+    {
+        StageRequest request = request("enstore://enstore/?volume=VOL1&location=0000_000000000_0000002");
+
+        scheduler.submit(storage, Arrays.asList(request));
+
+        assertThat(storage.batches.size(), is(1));
+        assertThat(storage.batches.get(0), is(Arrays.asList(request)));
+    }
+
+    @Test
+    public void shouldSubmitImmediatelyWithoutVolume()
+    {
+        scheduler.setWindow(TimeUnit.HOURS.toMillis(1));
+        StageRequest request = request("osm://osm/?store=h1&bfid=1234");
+
+        scheduler.submit(storage, Arrays.asList(request));
+
+        assertThat(storage.batches.size(), is(1));
+    }
+
+    @Test
+    public void shouldHoldRequestsUntilFlushed()
+    {
+        scheduler.setWindow(TimeUnit.HOURS.toMillis(1));
+
+        StageRequest request = request("enstore://enstore/?volume=VOL1&location=0000_000000000_0000002");
+
+        scheduler.submit(storage, Arrays.asList(request));
+
+        assertThat(storage.batches, is(empty()));
+
+        scheduler.flush();
+
+        assertThat(storage.batches, is(Arrays.asList(Arrays.asList(request))));
+    }
+
+    @Test
+    public void shouldGroupByVolumeAndOrderByPosition()
+    {
+        scheduler.setWindow(TimeUnit.HOURS.toMillis(1));
+        StageRequest a3 = request("enstore://enstore/?volume=VOL1&location=0000_000000000_0000003");
+        StageRequest b1 = request("hsm://hsm/?volume=VOL2&position=1");
+        StageRequest a1 = request("enstore://enstore/?volume=VOL1&location=0000_000000000_0000001");
+        StageRequest b10 = request("hsm://hsm/?volume=VOL2&position=10");
+        StageRequest b2 = request("hsm://hsm/?volume=VOL2&position=2");
+
+        scheduler.submit(storage, Arrays.asList(a3, b1, a1));
+        scheduler.submit(storage, Arrays.asList(b10, b2));
+        scheduler.flush();
+
+        assertThat(storage.batches.size(), is(2));
+        assertThat(storage.batches.contains(Arrays.asList(a1, a3)), is(true));
+        assertThat(storage.batches.contains(Arrays.asList(b1, b2, b10)), is(true));
+    }
+
+    @Test
+    public void shouldSubmitWhenWindowExpires() throws Exception
+    {
+        scheduler.setWindow(10);
+
+        scheduler.submit(storage, Arrays.asList(request("hsm://hsm/?volume=VOL1&position=1")));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (storage.count() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(storage.count(), is(1));
+    }
+
+    @Test
+    public void shouldNotSubmitRemovedRequest()
+    {
+        scheduler.setWindow(TimeUnit.HOURS.toMillis(1));
+        StageRequest request = request("hsm://hsm/?volume=VOL1&position=1");
+        scheduler.submit(storage, Arrays.asList(request));
+
+        assertThat(scheduler.remove(request), is(true));
+        scheduler.flush();
+
+        assertThat(storage.batches, is(empty()));
+        assertThat(scheduler.remove(request), is(false));
+    }
+
+    @Test
+    public void shouldFailBatchIfSubmissionFails() throws Exception
+    {
+        scheduler.setWindow(TimeUnit.HOURS.toMillis(1));
+        TestStageRequest first = request("hsm://hsm/?volume=VOL1&position=1");
+        TestStageRequest second = request("hsm://hsm/?volume=VOL1&position=2");
+        storage.failure = new IllegalStateException("broken");
+        scheduler.submit(storage, Arrays.asList(first, second));
+
+        scheduler.flush();
+
+        assertThat(failureOf(first), is((Throwable) storage.failure));
+        assertThat(failureOf(second), is((Throwable) storage.failure));
+    }
+
+    @Test
+    public void shouldReportMountReuse()
+    {
+        scheduler.setWindow(TimeUnit.HOURS.toMillis(1));
+        scheduler.submit(storage, Arrays.asList(request("hsm://hsm/?volume=VOL1&position=1"),
+                                                request("hsm://hsm/?volume=VOL1&position=2")));
+        scheduler.flush();
+        scheduler.submit(storage, Arrays.asList(request("hsm://hsm/?volume=VOL1&position=3")));
+        scheduler.flush();
+
+        StringWriter info = new StringWriter();
+        scheduler.getInfo(new PrintWriter(info));
+
+        assertThat(info.toString(), containsString("Batches       : 2"));
+        assertThat(info.toString(), containsString("Batched files : 3 (average 1, max 2)"));
+        assertThat(info.toString(), containsString("Mount reuse   : 2 files (66%)"));
+    }
+
+    private static Throwable failureOf(TestStageRequest request) throws InterruptedException
+    {
+        try {
+            request.result.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    private static TestStageRequest request(String location)
+    {
+        StorageInfo storageInfo = new GenericStorageInfo("hsm", "test:tape");
+        storageInfo.addLocation(URI.create(location));
+        FileAttributes attributes = new FileAttributes();
+        attributes.setStorageInfo(storageInfo);
+        return new TestStageRequest(attributes, null);
+    }
+
+    private static class RecordingNearlineStorage implements NearlineStorage
+    {
+        private final List<List<StageRequest>> batches = new ArrayList<>();
+        private RuntimeException failure;
+
+        synchronized int count()
+        {
+            return batches.size();
+        }
+
+        @Override
+        public void flush(Iterable<FlushRequest> requests)
+        {
+        }
+
+        @Override
+        public synchronized void stage(Iterable<StageRequest> requests)
+        {
+            if (failure != null) {
+                throw failure;
+            }
+            List<StageRequest> batch = new ArrayList<>();
+            Iterables.addAll(batch, requests);
+            batches.add(batch);
+        }
+
+        @Override
+        public void remove(Iterable<RemoveRequest> requests)
+        {
+        }
+
+        @Override
+        public void cancel(UUID uuid)
+        {
+        }
+
+        @Override
+        public void configure(Map<String, String> properties)
+        {
+        }
+
+        @Override
+        public void shutdown()
+        {
+        }
+    }
+}
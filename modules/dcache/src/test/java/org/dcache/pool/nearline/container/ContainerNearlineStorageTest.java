@@ -0,0 +1,266 @@
+package org.dcache.pool.nearline.container;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.nearline.NearlineRequests.TestFlushRequest;
+import org.dcache.pool.nearline.NearlineRequests.TestRemoveRequest;
+import org.dcache.pool.nearline.NearlineRequests.TestStageRequest;
+import org.dcache.vehicles.FileAttributes;
+
+import static org.dcache.pool.nearline.NearlineRequests.attributes;
+import static org.dcache.pool.nearline.NearlineRequests.pnfsId;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ContainerNearlineStorageTest
+{
+    private Path root;
+    private File pool;
+    private File hsm;
+    private ContainerNearlineStorage storage;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        root = Files.createTempDirectory("ContainerNearlineStorageTest");
+        pool = Files.createDirectory(root.resolve("pool")).toFile();
+        hsm = Files.createDirectory(root.resolve("hsm")).toFile();
+        storage = new ContainerNearlineStorage("osm", "container");
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        storage.shutdown();
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void shouldPackFilesIntoSingleContainerAndStageThemIndividually() throws Exception
+    {
+        storage.configure(ImmutableMap.of(ContainerNearlineStorage.DIRECTORY, hsm.getPath(),
+                                          ContainerNearlineStorage.DELAY, "0"));
+        List<TestFlushRequest> flushes = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            flushes.add(flushRequest(i, 700 + i * 300));
+        }
+
+        storage.flush(new ArrayList<>(flushes));
+
+        for (TestFlushRequest flush : flushes) {
+            flush.result.get(10, TimeUnit.SECONDS);
+        }
+        assertThat(containers().length, is(1));
+        assertThat(listContainer(containers()[0]), is(Arrays.asList(pnfsId(0).toString(), pnfsId(1).toString(),
+                                                                     pnfsId(2).toString(), pnfsId(3).toString(),
+                                                                     pnfsId(4).toString())));
+
+        List<TestStageRequest> stages = new ArrayList<>();
+        List<byte[]> expected = new ArrayList<>();
+        for (TestFlushRequest flush : flushes) {
+            expected.add(Files.readAllBytes(flush.file.toPath()));
+            flush.file.delete();
+            stages.add(new TestStageRequest(flush.attributes, flush.file));
+        }
+
+        storage.stage(new ArrayList<>(stages));
+
+        for (int i = 0; i < stages.size(); i++) {
+            stages.get(i).result.get(10, TimeUnit.SECONDS);
+            assertThat(Arrays.equals(Files.readAllBytes(stages.get(i).file.toPath()), expected.get(i)),
+                       is(true));
+        }
+    }
+
+    @Test
+    public void shouldWriteContainerOnceTargetSizeIsReached() throws Exception
+    {
+        storage.configure(ImmutableMap.of(ContainerNearlineStorage.DIRECTORY, hsm.getPath(),
+                                          ContainerNearlineStorage.SIZE, "2500",
+                                          ContainerNearlineStorage.DELAY, "3600"));
+        List<TestFlushRequest> flushes = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            flushes.add(flushRequest(i, 1000));
+        }
+
+        storage.flush(new ArrayList<>(flushes));
+
+        for (int i = 0; i < 3; i++) {
+            URI location = flushes.get(i).result.get(10, TimeUnit.SECONDS).iterator().next();
+            assertThat(location.getQuery().endsWith("&size=1000&count=3"), is(true));
+        }
+        assertThat(flushes.get(3).result.isDone(), is(false));
+
+        storage.cancel(flushes.get(3).id);
+
+        try {
+            flushes.get(3).result.get(10, TimeUnit.SECONDS);
+            fail("Flush should have been cancelled");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause() instanceof CancellationException, is(true));
+        }
+    }
+
+    @Test
+    public void shouldSeparateStorageClasses() throws Exception
+    {
+        storage.configure(ImmutableMap.of(ContainerNearlineStorage.DIRECTORY, hsm.getPath(),
+                                          ContainerNearlineStorage.DELAY, "0"));
+        TestFlushRequest first = flushRequest(1, 10);
+        TestFlushRequest second = flushRequest(2, 10);
+        second.attributes.setStorageClass("other:class");
+
+        storage.flush(Arrays.asList(first, second));
+
+        URI firstLocation = first.result.get(10, TimeUnit.SECONDS).iterator().next();
+        URI secondLocation = second.result.get(10, TimeUnit.SECONDS).iterator().next();
+        assertThat(firstLocation.getPath().equals(secondLocation.getPath()), is(false));
+    }
+
+    @Test
+    public void shouldDeleteContainerOnceAllFilesAreRemoved() throws Exception
+    {
+        storage.configure(ImmutableMap.of(ContainerNearlineStorage.DIRECTORY, hsm.getPath(),
+                                          ContainerNearlineStorage.DELAY, "0"));
+        TestFlushRequest first = flushRequest(1, 10);
+        TestFlushRequest second = flushRequest(2, 10);
+        storage.flush(Arrays.asList(first, second));
+        URI firstLocation = first.result.get(10, TimeUnit.SECONDS).iterator().next();
+        URI secondLocation = second.result.get(10, TimeUnit.SECONDS).iterator().next();
+
+        TestRemoveRequest remove = new TestRemoveRequest(firstLocation);
+        storage.remove(Arrays.asList(remove));
+        remove.result.get(10, TimeUnit.SECONDS);
+        assertThat(containers().length, is(1));
+
+        remove = new TestRemoveRequest(secondLocation);
+        storage.remove(Arrays.asList(remove));
+        remove.result.get(10, TimeUnit.SECONDS);
+        assertThat(containers().length, is(0));
+    }
+
+    @Test
+    public void shouldFailCancelledQueuedStage() throws Exception
+    {
+        storage.configure(ImmutableMap.of(ContainerNearlineStorage.DIRECTORY, hsm.getPath(),
+                                          ContainerNearlineStorage.DELAY, "0",
+                                          ContainerNearlineStorage.CONCURRENT_GETS, "1"));
+        TestFlushRequest first = flushRequest(1, 10);
+        TestFlushRequest second = flushRequest(2, 10);
+        storage.flush(Arrays.asList(first, second));
+        first.result.get(10, TimeUnit.SECONDS);
+        second.result.get(10, TimeUnit.SECONDS);
+
+        SettableFuture<Void> activation = SettableFuture.create();
+        TestStageRequest running = new TestStageRequest(first.attributes, first.file) {
+            @Override
+            public ListenableFuture<Void> activate()
+            {
+                return activation;
+            }
+        };
+        TestStageRequest queued = new TestStageRequest(second.attributes, second.file);
+        storage.stage(Arrays.asList(running, queued));
+
+        storage.cancel(queued.id);
+
+        try {
+            queued.result.get(10, TimeUnit.SECONDS);
+            fail("Stage should have been cancelled");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause() instanceof CancellationException, is(true));
+        }
+        activation.set(null);
+        running.result.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldReportMissingContainerAsBrokenOnTape() throws Exception
+    {
+        storage.configure(ImmutableMap.of(ContainerNearlineStorage.DIRECTORY, hsm.getPath(),
+                                          ContainerNearlineStorage.DELAY, "0"));
+        TestFlushRequest flush = flushRequest(1, 10);
+        storage.flush(Arrays.asList(flush));
+        flush.result.get(10, TimeUnit.SECONDS);
+        containers()[0].delete();
+
+        TestStageRequest stage = new TestStageRequest(flush.attributes, flush.file);
+        storage.stage(Arrays.asList(stage));
+
+        try {
+            stage.result.get(10, TimeUnit.SECONDS);
+            fail("Stage should have failed");
+        } catch (ExecutionException e) {
+            assertThat(((CacheException) e.getCause()).getRc(), is(CacheException.BROKEN_ON_TAPE));
+        }
+    }
+
+    @Test(expected = CacheException.class)
+    public void shouldRejectInvalidLocation() throws Exception
+    {
+        new ContainerNearlineStorage.Location(URI.create("osm://container/a/b?offset=1"));
+    }
+
+    private File[] containers()
+    {
+        return hsm.listFiles((dir, name) -> name.endsWith(".tar"));
+    }
+
+    private static List<String> listContainer(File container) throws IOException
+    {
+        List<String> names = new ArrayList<>();
+        try (TarArchiveInputStream in = new TarArchiveInputStream(new FileInputStream(container))) {
+            TarArchiveEntry entry;
+            while ((entry = in.getNextTarEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+
+    private TestFlushRequest flushRequest(int i, int length) throws IOException
+    {
+        File file = createFile(pnfsId(i), length);
+        FileAttributes attributes = attributes("osm", pnfsId(i));
+        attributes.setSize(file.length());
+        return new TestFlushRequest(attributes, file);
+    }
+
+    private File createFile(PnfsId pnfsId, int length) throws IOException
+    {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + pnfsId.hashCode());
+        }
+        File file = new File(pool, pnfsId.toString());
+        Files.write(file.toPath(), data);
+        return file;
+    }
+}
@@ -0,0 +1,190 @@
+package org.dcache.pool.nearline.coprocess;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Resources;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.nearline.NearlineRequests;
+import org.dcache.pool.nearline.NearlineRequests.TestFlushRequest;
+import org.dcache.pool.nearline.NearlineRequests.TestRemoveRequest;
+import org.dcache.pool.nearline.NearlineRequests.TestStageRequest;
+import org.dcache.util.Checksum;
+import org.dcache.vehicles.FileAttributes;
+
+import static org.dcache.pool.nearline.NearlineRequests.pnfsId;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CoprocessNearlineStorageTest
+{
+    private File helper;
+    private CoprocessNearlineStorage storage;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        helper = File.createTempFile("CoprocessNearlineStorageTest", ".sh");
+        Files.write(helper.toPath(), Resources.toByteArray(Resources.getResource(getClass(), "helper.sh")));
+        helper.setExecutable(true);
+
+        storage = new CoprocessNearlineStorage("stub", "stub");
+        storage.configure(ImmutableMap.of(CoprocessNearlineStorage.COMMAND, helper.getPath(),
+                                          CoprocessNearlineStorage.CONCURRENT_GETS, "5"));
+    }
+
+    @After
+    public void tearDown()
+    {
+        storage.shutdown();
+        helper.delete();
+    }
+
+    @Test
+    public void shouldFlushAllFilesThroughSingleHelper() throws Exception
+    {
+        List<TestFlushRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            requests.add(flushRequest(pnfsId(i)));
+        }
+
+        storage.flush(new ArrayList<>(requests));
+
+        String pid = null;
+        for (TestFlushRequest request : requests) {
+            Set<URI> locations = request.result.get(10, TimeUnit.SECONDS);
+            assertThat(locations.size(), is(1));
+            String query = locations.iterator().next().getQuery();
+            assertThat(query.endsWith("pnfsid=" + request.attributes.getPnfsId()), is(true));
+            String requestPid = query.substring(0, query.indexOf('&'));
+            if (pid == null) {
+                pid = requestPid;
+            }
+            assertThat(requestPid, is(pid));
+        }
+    }
+
+    @Test
+    public void shouldHaveSeveralStagesInFlight() throws Exception
+    {
+        List<TestStageRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            requests.add(stageRequest(pnfsId(i)));
+        }
+
+        storage.stage(new ArrayList<>(requests));
+
+        for (TestStageRequest request : requests) {
+            Set<Checksum> checksums = request.result.get(10, TimeUnit.SECONDS);
+            assertThat(checksums, is(Collections.singleton(Checksum.parseChecksum("1:0badc0de"))));
+        }
+    }
+
+    @Test
+    public void shouldFailStageWithErrorOfHelper() throws Exception
+    {
+        TestStageRequest request = stageRequest(new PnfsId("000000000000000000000000000000000BAD"));
+
+        storage.stage(Collections.singleton(request));
+
+        try {
+            request.result.get(10, TimeUnit.SECONDS);
+            fail("Stage should have failed");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause() instanceof CacheException, is(true));
+            assertThat(((CacheException) e.getCause()).getRc(), is(42));
+            assertThat(e.getCause().getMessage(), is("no such file"));
+        }
+    }
+
+    @Test
+    public void shouldFailStageCancelledByHelper() throws Exception
+    {
+        TestStageRequest request = stageRequest(pnfsId(1));
+        storage.stage(Collections.singleton(request));
+
+        storage.cancel(request.id);
+
+        try {
+            request.result.get(10, TimeUnit.SECONDS);
+            fail("Stage should have been cancelled");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause() instanceof CancellationException, is(true));
+        }
+    }
+
+    @Test
+    public void shouldRemoveFile() throws Exception
+    {
+        TestRemoveRequest request = new TestRemoveRequest(URI.create("stub://stub/?pnfsid=0000"));
+
+        storage.remove(Collections.singleton(request));
+
+        request.result.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldRestartHelperAfterReconfiguration() throws Exception
+    {
+        TestFlushRequest first = flushRequest(pnfsId(1));
+        storage.flush(Collections.singleton(first));
+        URI before = first.result.get(10, TimeUnit.SECONDS).iterator().next();
+
+        File copy = new File(helper.getPath() + ".copy");
+        Files.copy(helper.toPath(), copy.toPath());
+        copy.setExecutable(true);
+        try {
+            storage.configure(ImmutableMap.of(CoprocessNearlineStorage.COMMAND, copy.getPath()));
+            TestFlushRequest second = flushRequest(pnfsId(1));
+            storage.flush(Collections.singleton(second));
+            URI after = second.result.get(10, TimeUnit.SECONDS).iterator().next();
+
+            assertThat(before.equals(after), is(false));
+        } finally {
+            copy.delete();
+        }
+    }
+
+    @Test
+    public void shouldEncodeFields()
+    {
+        String field = "a b%c\nd";
+
+        assertThat(Coprocess.encode(field), is("a%20b%25c%0Ad"));
+        assertThat(Coprocess.decode(Coprocess.encode(field)), is(field));
+    }
+
+    private static TestFlushRequest flushRequest(PnfsId pnfsId)
+    {
+        return new TestFlushRequest(attributes(pnfsId), new File("/pool/data", pnfsId.toString()));
+    }
+
+    private static TestStageRequest stageRequest(PnfsId pnfsId)
+    {
+        return new TestStageRequest(attributes(pnfsId), new File("/pool/data", pnfsId.toString()));
+    }
+
+    private static FileAttributes attributes(PnfsId pnfsId)
+    {
+        FileAttributes attributes = NearlineRequests.attributes("stub", pnfsId);
+        attributes.getStorageInfo().addLocation(URI.create("stub://stub/?pnfsid=" + pnfsId));
+        return attributes;
+    }
+}
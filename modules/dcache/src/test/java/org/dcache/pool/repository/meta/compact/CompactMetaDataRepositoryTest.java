@@ -0,0 +1,197 @@
+package org.dcache.pool.repository.meta.compact;
+
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.GenericStorageInfo;
+import diskCacheV111.vehicles.OSMStorageInfo;
+import diskCacheV111.vehicles.StorageInfo;
+import diskCacheV111.vehicles.StorageInfos;
+
+import org.dcache.pool.repository.EntryState;
+import org.dcache.pool.repository.FlatFileStore;
+import org.dcache.pool.repository.MetaDataRecord;
+import org.dcache.pool.repository.MetaDataStore.IndexOption;
+import org.dcache.pool.repository.StickyRecord;
+import org.dcache.vehicles.FileAttributes;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class CompactMetaDataRepositoryTest
+{
+    private static final PnfsId ID1 = new PnfsId("000000000000000000000000000000000001");
+    private static final PnfsId ID2 = new PnfsId("000000000000000000000000000000000002");
+
+    private Path dir;
+    private FlatFileStore fileStore;
+    private CompactMetaDataRepository store;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory("CompactMetaDataRepositoryTest");
+        fileStore = new FlatFileStore(dir.toFile());
+        store = open();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        store.close();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException
+            {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private CompactMetaDataRepository open() throws Exception
+    {
+        CompactMetaDataRepository repository = new CompactMetaDataRepository(fileStore, dir.toFile());
+        repository.init();
+        return repository;
+    }
+
+    private MetaDataRecord create(PnfsId id, StorageInfo info) throws CacheException
+    {
+        MetaDataRecord record = store.create(id);
+        record.touch();
+        FileAttributes attributes = new FileAttributes();
+        attributes.setPnfsId(id);
+        StorageInfos.injectInto(info, attributes);
+        record.setFileAttributes(attributes);
+        record.setState(EntryState.FROM_CLIENT);
+        return record;
+    }
+
+    @Test
+    public void shouldPersistStateAndStickyRecords() throws Exception
+    {
+        MetaDataRecord record = create(ID1, new GenericStorageInfo("osm", "atlas:raw"));
+        record.setState(EntryState.PRECIOUS);
+        record.setSticky("system", -1, false);
+        record.setSticky("pin", 4711, false);
+        long creationTime = record.getCreationTime();
+
+        store.close();
+        store = open();
+
+        MetaDataRecord reloaded = store.get(ID1);
+        assertThat(reloaded.getState(), is(EntryState.PRECIOUS));
+        assertThat(reloaded.getCreationTime(), is(creationTime));
+        assertThat(reloaded.stickyRecords(),
+                   containsInAnyOrder(new StickyRecord("system", -1), new StickyRecord("pin", 4711)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownEntryStateCode()
+    {
+        TupleOutput output = new TupleOutput();
+        output.writeByte(1);
+        output.writeByte(-1);
+        output.writeLong(0);
+        output.writePackedInt(0);
+
+        new ReplicaStateBinding().entryToObject(new TupleInput(output.toByteArray()));
+    }
+
+    @Test
+    public void shouldPersistGenericStorageInfo() throws Exception
+    {
+        GenericStorageInfo info = new GenericStorageInfo("osm", "atlas:raw");
+        info.setCacheClass("disk");
+        info.setKey("store", "atlas");
+        info.setKey("group", "raw");
+        info.addLocation(URI.create("osm://osm/?store=atlas&group=raw&bfid=1234"));
+        info.setIsNew(false);
+        create(ID1, info);
+
+        store.close();
+        store = open();
+
+        StorageInfo reloaded = StorageInfos.extractFrom(store.get(ID1).getFileAttributes());
+        assertThat(reloaded, is(instanceOf(GenericStorageInfo.class)));
+        assertThat(reloaded, is(equalTo(info)));
+        assertThat(reloaded.getHsm(), is("osm"));
+        assertThat(reloaded.getStorageClass(), is("atlas:raw"));
+        assertThat(reloaded.getCacheClass(), is("disk"));
+        assertThat(reloaded.getMap(), is(equalTo(info.getMap())));
+        assertThat(reloaded.locations(), is(equalTo(info.locations())));
+        assertThat(reloaded.isCreatedOnly(), is(false));
+        assertThat(reloaded.isStored(), is(true));
+    }
+
+    @Test
+    public void shouldPersistOtherStorageInfo() throws Exception
+    {
+        OSMStorageInfo info = new OSMStorageInfo("atlas", "raw");
+        create(ID1, info);
+
+        store.close();
+        store = open();
+
+        StorageInfo reloaded = StorageInfos.extractFrom(store.get(ID1).getFileAttributes());
+        assertThat(reloaded, is(instanceOf(OSMStorageInfo.class)));
+        assertThat(reloaded.getStorageClass(), is(info.getStorageClass()));
+    }
+
+    @Test
+    public void shouldIndexRecords() throws Exception
+    {
+        create(ID1, new GenericStorageInfo("osm", "atlas:raw"));
+        create(ID2, new GenericStorageInfo("osm", "atlas:user"));
+
+        assertThat(store.index(), containsInAnyOrder(ID1, ID2));
+        assertThat(store.index(IndexOption.META_ONLY), containsInAnyOrder(ID1, ID2));
+    }
+
+    @Test
+    public void shouldRemoveRecords() throws Exception
+    {
+        create(ID1, new GenericStorageInfo("osm", "atlas:raw"));
+        create(ID2, new GenericStorageInfo("osm", "atlas:user"));
+
+        store.remove(ID1);
+
+        assertThat(store.get(ID1), is(nullValue()));
+        assertThat(store.index(IndexOption.META_ONLY), contains(ID2));
+    }
+
+    @Test
+    public void shouldRemoveRedundantMetaDataOnRepair() throws Exception
+    {
+        create(ID1, new GenericStorageInfo("osm", "atlas:raw"));
+        create(ID2, new GenericStorageInfo("osm", "atlas:user"));
+        File file = fileStore.get(ID2);
+        assertThat(file.delete(), is(true));
+
+        assertThat(store.index(IndexOption.ALLOW_REPAIR), contains(ID1));
+        assertThat(store.index(IndexOption.META_ONLY), contains(ID1));
+    }
+}
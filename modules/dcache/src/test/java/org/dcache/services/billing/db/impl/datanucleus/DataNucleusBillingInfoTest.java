@@ -0,0 +1,168 @@
+package org.dcache.services.billing.db.impl.datanucleus;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Resources;
+import org.datanucleus.api.jdo.JDOPersistenceManagerFactory;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Map;
+
+import org.dcache.services.billing.db.data.DoorRequestData;
+import org.dcache.services.billing.db.data.MoverData;
+import org.dcache.services.billing.db.data.PnfsBaseInfo;
+import org.dcache.services.billing.db.data.StorageData;
+import org.dcache.services.billing.text.BillingParserBuilder;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Replays a billing log into an in-memory HSQLDB database.
+ */
+public class DataNucleusBillingInfoTest
+{
+    private static final ImmutableMap<String,String> FORMATS =
+            ImmutableMap.of(
+                    "mover-info-message", "$date$ [$cellType$:$cellName$:$type$] [$pnfsid$,$filesize$] [$path$] $if(storage)$$storage.storageClass$@$storage.hsm$$else$<Unknown>$endif$ $transferred$ $connectionTime$ $created$ {$protocol$} [$initiator$] {$rc$:\"$message$\"}",
+                    "remove-file-info-message", "$date$ [$cellType$:$cellName$:$type$] [$pnfsid$,$filesize$] [$path$] $if(storage)$$storage.storageClass$@$storage.hsm$$else$<Unknown>$endif$ {$rc$:\"$message$\"}",
+                    "door-request-info-message", "$date$ [$cellType$:$cellName$:$type$] [\"$owner$\":$uid$:$gid$:$client$] [$pnfsid$,$filesize$] [$path$] $if(storage)$$storage.storageClass$@$storage.hsm$$else$<Unknown>$endif$ $transactionTime$ $queuingTime$ {$rc$:\"$message$\"}",
+                    "storage-info-message", "$date$ [$cellType$:$cellName$:$type$] [$pnfsid$,$filesize$] [$path$] $if(storage)$$storage.storageClass$@$storage.hsm$$else$<Unknown>$endif$ $transferTime$ $queuingTime$ {$rc$:\"$message$\"}");
+
+    private static final int REPLAYS = 200;
+
+    private JDOPersistenceManagerFactory pmf;
+    private DataNucleusBillingInfo access;
+    private List<String> log;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        JDBCDataSource dataSource = new JDBCDataSource();
+        dataSource.setUrl("jdbc:hsqldb:mem:billing");
+        dataSource.setUser("sa");
+        dataSource.setPassword("");
+
+        pmf = new JDOPersistenceManagerFactory(
+                ImmutableMap.of("datanucleus.PersistenceUnitName", "Billing",
+                                "datanucleus.autoCreateSchema", "true",
+                                "datanucleus.rdbms.CheckExistTablesOrViews", "true"));
+        pmf.setConnectionFactory(dataSource);
+
+        access = new DataNucleusBillingInfo();
+        access.setMaxQueueSize(1000);
+        access.setMaxBatchSize(50);
+        access.setNumberOfConsumers(2);
+        access.setDropMessagesAtLimit(false);
+        access.setPersistenceManagerFactory(pmf);
+        access.initialize();
+
+        log = Resources.readLines(Resources.getResource(getClass(), "billing.log"),
+                                  StandardCharsets.UTF_8);
+    }
+
+    @After
+    public void tearDown()
+    {
+        access.close();
+        access.remove(MoverData.class);
+        access.remove(DoorRequestData.class);
+        access.remove(StorageData.class);
+        pmf.close();
+    }
+
+    @Test
+    public void shouldCommitAllRecordsOfReplayedLog() throws Exception
+    {
+        Function<String,Map<String,String>> parser =
+                new BillingParserBuilder(FORMATS).addAllAttributes().buildToMap();
+
+        int records = 0;
+        for (int i = 0; i < REPLAYS; i++) {
+            for (String line : log) {
+                PnfsBaseInfo data = toRecord(parser.apply(line));
+                if (data != null) {
+                    access.put(data);
+                    records++;
+                }
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (access.getCommittedMessages() < records && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+
+        assertThat(access.getCommittedMessages(), is((long) records));
+        assertThat(access.getDroppedMessages(), is(0L));
+        assertThat(access.getInsertQueueSize(), is(0L));
+        assertThat(access.get(MoverData.class).size(), is(3 * REPLAYS));
+        assertThat(access.get(DoorRequestData.class).size(), is(3 * REPLAYS));
+        assertThat(access.get(StorageData.class).size(), is(3 * REPLAYS));
+
+        StringWriter info = new StringWriter();
+        access.getInfo(new PrintWriter(info));
+        assertThat(info.toString(), containsString("MoverData"));
+        assertThat(info.toString(), containsString("DoorRequestData"));
+        assertThat(info.toString(), containsString("StorageData"));
+    }
+
+    private static PnfsBaseInfo toRecord(Map<String,String> values) throws ParseException
+    {
+        PnfsBaseInfo data;
+        switch (values.get("type")) {
+        case "transfer":
+            MoverData mover = new MoverData();
+            mover.setTransferSize(Long.valueOf(values.get("transferred")));
+            mover.setConnectionTime(Long.valueOf(values.get("connectionTime")));
+            mover.setIsNew(Boolean.valueOf(values.get("created")));
+            mover.setProtocol(values.get("protocol"));
+            mover.setInitiator(values.get("initiator"));
+            mover.setP2p(false);
+            mover.setFullSize(Long.valueOf(values.get("filesize")));
+            mover.setStorageClass(values.get("storage.storageClass") + "@" + values.get("storage.hsm"));
+            data = mover;
+            break;
+        case "request":
+            DoorRequestData door = new DoorRequestData();
+            door.setOwner(values.get("owner"));
+            door.setMappedUID(Integer.valueOf(values.get("uid")));
+            door.setMappedGID(Integer.valueOf(values.get("gid")));
+            door.setClient(values.get("client"));
+            door.setPath(values.get("path"));
+            door.setConnectionTime(Long.valueOf(values.get("transactionTime")));
+            door.setQueuedTime(Long.valueOf(values.get("queuingTime")));
+            data = door;
+            break;
+        case "restore":
+        case "store":
+            StorageData storage = new StorageData();
+            storage.setConnectionTime(Long.valueOf(values.get("transferTime")));
+            storage.setQueuedTime(Long.valueOf(values.get("queuingTime")));
+            storage.setFullSize(Long.valueOf(values.get("filesize")));
+            storage.setStorageClass(values.get("storage.storageClass") + "@" + values.get("storage.hsm"));
+            data = storage;
+            break;
+        default:
+            return null;
+        }
+        data.setDateStamp(new SimpleDateFormat("yyyy MM.dd HH:mm:ss").parse("2013 " + values.get("date")));
+        data.setCellName(values.get("cellName"));
+        data.setAction(values.get("type"));
+        data.setPnfsID(values.get("pnfsid"));
+        data.setErrorCode(Integer.valueOf(values.get("rc")));
+        data.setErrorMessage(values.get("message"));
+        return data;
+    }
+}
@@ -3,19 +3,23 @@ package org.dcache.tests.poolmanager;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.net.InetSocketAddress;
 import java.util.Arrays;
 
 import diskCacheV111.poolManager.CostModuleV1;
 import diskCacheV111.pools.CostCalculationV5;
 import diskCacheV111.pools.PoolCostInfo;
 import diskCacheV111.pools.PoolV2Mode;
+import diskCacheV111.vehicles.DCapProtocolInfo;
 import diskCacheV111.vehicles.PoolManagerPoolUpMessage;
+import diskCacheV111.vehicles.PoolMgrSelectPoolMsg;
 
 import dmg.cells.nucleus.CellAddressCore;
 import dmg.cells.nucleus.CellMessage;
 import dmg.cells.nucleus.CellPath;
 
 import org.dcache.pool.classic.IoQueueManager;
+import org.dcache.vehicles.FileAttributes;
 
 import static org.junit.Assert.*;
 
@@ -243,6 +247,66 @@ public class CostModuleTest {
         assertPercentileCost( FRACTION_JUST_BELOW_ONE, perfCost [2]);
     }
 
+    @Test
+    public void testPoolSelectionDoesNotModifyPublishedCost() {
+
+        _costModule.messageArrived(
+                buildEnvelope(POOL_ADDRESS),
+                buildPoolUpMessageWithCostAndQueue(
+                        POOL_NAME,
+                        100, 20, 30, 50,
+                        0, 100, 0,
+                        0, 0, 0,
+                        0, 0, 0));
+
+        PoolCostInfo before = _costModule.getPoolCostInfo( POOL_NAME);
+        double costBefore = getPerformanceCostOfPercentileFile( POOL_NAME);
+
+        PoolMgrSelectPoolMsg reply =
+                new PoolMgrSelectPoolMsg( new FileAttributes(),
+                        new DCapProtocolInfo( "DCap", 3, 0, new InetSocketAddress( "127.0.0.1", 17)));
+        reply.setPoolName( POOL_NAME);
+        reply.setReply();
+        _costModule.messageToForward( reply);
+
+        PoolCostInfo after = _costModule.getPoolCostInfo( POOL_NAME);
+
+        assertEquals( "published cost modified", 0,
+                      before.getExtendedMoverHash().get(IoQueueManager.DEFAULT_QUEUE).getActive());
+        assertEquals( "mover queue not updated", 1,
+                      after.getExtendedMoverHash().get(IoQueueManager.DEFAULT_QUEUE).getActive());
+        assertTrue( "perf cost not increased", getPerformanceCostOfPercentileFile( POOL_NAME) > costBefore);
+        assertPercentileCost( FRACTION_HALF, getPerformanceCostOfPercentileFile( POOL_NAME));
+    }
+
+    @Test
+    public void testPercentileAfterPoolDisabled() {
+
+        _costModule.messageArrived(
+                buildEnvelope(POOL_ADDRESS),
+                buildPoolUpMessageWithCostAndQueue(
+                        POOL_NAME,
+                        100, 20, 30, 50,
+                        0, 100, 0,
+                        0, 0, 0,
+                        0, 0, 0));
+        _costModule.messageArrived(
+                buildEnvelope(POOL_ADDRESS_2),
+                buildPoolUpMessageWithCostAndQueue(
+                        POOL_NAME_2,
+                        100, 20, 30, 50,
+                        20, 100, 0,
+                        0, 0, 0,
+                        0, 0, 0));
+
+        double pool1PerfCost = getPerformanceCostOfPercentileFile( POOL_NAME);
+
+        _costModule.messageArrived(
+                buildEnvelope(POOL_ADDRESS_2), buildEmptyPoolUpMessage( POOL_NAME_2, PoolV2Mode.DISABLED));
+
+        assertPercentileCost( FRACTION_JUST_BELOW_ONE, pool1PerfCost);
+    }
+
     /*
      *  SUPPORT METHODS FOR BUILDING MESSAGES AND ASSERTING
      */
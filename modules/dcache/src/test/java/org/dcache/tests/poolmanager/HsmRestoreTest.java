@@ -6,6 +6,8 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.ArrayList;
@@ -14,7 +16,15 @@ import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import diskCacheV111.poolManager.CostModuleV1;
 import diskCacheV111.poolManager.PoolMonitorV5;
@@ -106,7 +116,7 @@ public class HsmRestoreTest {
         _rc.ac_rc_set_retry_$_1(new Args("0"));
         _rc.setStageConfigurationFile(null);
         _rc.setPnfsHandler(_pnfsHandler);
-        __messages = new ArrayList<>();
+        __messages = new CopyOnWriteArrayList<>();
     }
 
     @Test
@@ -510,6 +520,159 @@ public class HsmRestoreTest {
                    stageRequests2.get() != 0);
     }
 
+    @Test
+    public void testConcurrentRequestsShareSingleStage() throws Exception {
+
+        preparePools();
+        FileAttributes attributes = fileAttributes(new PnfsId("000000000000000000000000000000000001"));
+
+        final AtomicInteger stageRequests = new AtomicInteger(0);
+        MessageAction messageAction = new StageMessageAction(stageRequests);
+        _cell.registerAction("pool1", PoolFetchFileMessage.class, messageAction);
+        _cell.registerAction("pool2", PoolFetchFileMessage.class, messageAction);
+
+        int requests = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    sendSelectReadPool(attributes, Long.MAX_VALUE);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("Unexpected number of stage requests", 1, stageRequests.get());
+        assertEquals("Requests not joined in one handler",
+                     Collections.singletonList(requests), getRequestsPerHandler());
+    }
+
+    @Test
+    public void testExpiredRequestsAreDiscarded() throws Exception {
+
+        preparePools();
+        FileAttributes attributes = fileAttributes(new PnfsId("000000000000000000000000000000000001"));
+
+        final AtomicInteger stageRequests = new AtomicInteger(0);
+        MessageAction messageAction = new StageMessageAction(stageRequests);
+        _cell.registerAction("pool1", PoolFetchFileMessage.class, messageAction);
+        _cell.registerAction("pool2", PoolFetchFileMessage.class, messageAction);
+
+        sendSelectReadPool(attributes, 100);
+        assertEquals("Request not queued", Collections.singletonList(1), getRequestsPerHandler());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!getRequestsPerHandler().equals(Collections.singletonList(0)) ||
+               !getInfo().contains("Pending TTL Checks : 0")) {
+            assertTrue("Request was not expired", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals("Unexpected number of stage requests", 1, stageRequests.get());
+    }
+
+    @Test
+    public void testRestoreLimit() throws Exception {
+
+        preparePools();
+        FileAttributes attributes1 = fileAttributes(new PnfsId("000000000000000000000000000000000001"));
+        FileAttributes attributes2 = fileAttributes(new PnfsId("000000000000000000000000000000000002"));
+
+        final AtomicInteger stageRequests = new AtomicInteger(0);
+        MessageAction messageAction = new StageMessageAction(stageRequests);
+        _cell.registerAction("pool1", PoolFetchFileMessage.class, messageAction);
+        _cell.registerAction("pool2", PoolFetchFileMessage.class, messageAction);
+        _cell.registerAction("door", PoolMgrSelectReadPoolMsg.class, messageAction);
+
+        _rc.ac_rc_set_max_restore_$_1(new Args("1"));
+
+        sendSelectReadPool(attributes1, Long.MAX_VALUE);
+        sendSelectReadPool(attributes2, Long.MAX_VALUE);
+
+        assertEquals("Restore limit exceeded", 1,
+                     __messages.stream().filter(m -> m.getMessageObject() instanceof PoolFetchFileMessage).count());
+    }
+
+    /**
+     * Returns the attributes of a tape file without disk locations.
+     */
+    private FileAttributes fileAttributes(PnfsId pnfsId) throws Exception {
+        StorageInfo storageInfo = new OSMStorageInfo("h1", "rawd");
+        storageInfo.addLocation(new URI("osm://osm?"));
+        storageInfo.setIsNew(false);
+
+        FileAttributes attributes = new FileAttributes();
+        StorageInfos.injectInto(storageInfo, attributes);
+        attributes.setPnfsId(pnfsId);
+        attributes.setLocations(Collections.<String>emptyList());
+        attributes.setSize(5);
+        attributes.setAccessLatency(StorageInfo.DEFAULT_ACCESS_LATENCY);
+        attributes.setRetentionPolicy(StorageInfo.DEFAULT_RETENTION_POLICY);
+        attributes.setChecksums(Collections.emptySet());
+        return attributes;
+    }
+
+    /**
+     * Prepares two pools connected to an HSM.
+     */
+    private void preparePools() throws Exception {
+        List<String> pools = new ArrayList<>(2);
+        pools.add("pool1");
+        pools.add("pool2");
+        PoolMonitorHelper.prepareSelectionUnit(_selectionUnit, _access, pools);
+
+        long serialId = System.currentTimeMillis();
+        PoolV2Mode poolMode = new PoolV2Mode(PoolV2Mode.ENABLED);
+        Set<String> connectedHSM = Collections.singleton("osm");
+        for (String pool : pools) {
+            PoolCostInfo poolCostInfo = new PoolCostInfo(pool, IoQueueManager.DEFAULT_QUEUE);
+            poolCostInfo.setSpaceUsage(100, 20, 30, 50);
+            poolCostInfo.setQueueSizes(0, 10, 0, 0, 10, 0);
+            poolCostInfo.addExtendedMoverQueueSizes(IoQueueManager.DEFAULT_QUEUE, 0, 10, 0, 0, 0);
+
+            CellMessage envelope = new CellMessage(new CellAddressCore("irrelevant"), null);
+            envelope.addSourceAddress(new CellAddressCore(pool));
+            PoolManagerPoolUpMessage poolUpMessage = new PoolManagerPoolUpMessage(pool, serialId, poolMode, poolCostInfo);
+
+            prepareSelectionUnit(pool, poolMode, connectedHSM);
+            _costModule.messageArrived(envelope, poolUpMessage);
+        }
+    }
+
+    private void sendSelectReadPool(FileAttributes attributes, long ttl) throws Exception {
+        PoolMgrSelectReadPoolMsg selectReadPool = new PoolMgrSelectReadPoolMsg(attributes, _protocolInfo, null);
+        CellMessage cellMessage = new CellMessage(new CellAddressCore("PoolManager"), selectReadPool);
+        cellMessage.getSourcePath().add(new CellAddressCore("door", "local"));
+        cellMessage.setTtl(ttl);
+        _rc.messageArrived(cellMessage, selectReadPool);
+    }
+
+    /**
+     * Returns the number of queued requests of every restore handler.
+     */
+    private List<Integer> getRequestsPerHandler() {
+        List<Integer> requests = new ArrayList<>();
+        Matcher matcher = Pattern.compile(" m=(\\d+) ").matcher(_rc.ac_rc_ls_$_0_1(new Args("")));
+        while (matcher.find()) {
+            requests.add(Integer.parseInt(matcher.group(1)));
+        }
+        return requests;
+    }
+
+    private String getInfo() {
+        StringWriter info = new StringWriter();
+        _rc.getInfo(new PrintWriter(info));
+        return info.toString();
+    }
+
     private void prepareSelectionUnit(String pool,
             PoolV2Mode poolMode, Set<String> connectedHSM) {
         _selectionUnit.getPool(pool).setHsmInstances(connectedHSM);
@@ -324,6 +324,30 @@ public class PoolSelectionUnitTest {
     }
 
 
+    /*
+     * test case: check that changes to the configuration are visible to subsequent matches
+     */
+    @Test
+    public void testMatchAfterReconfiguration() throws CommandException {
+
+        _ci.command("psu set allpoolsactive on");
+        FileAttributes fileAttributes = new FileAttributes();
+        StorageInfos.injectInto(GenericStorageInfo.valueOf("*", "*"), fileAttributes);
+
+        PoolPreferenceLevel[] preference =
+            _psu.match(DirectionType.READ, "131.169.214.149", null, fileAttributes, null);
+        assertEquals("default-read", preference[0].getPoolList().get(0));
+
+        _ci.command("psu create pool extra-read");
+        _psu.getPool("extra-read").setPoolMode(new PoolV2Mode(PoolV2Mode.ENABLED));
+        _ci.command("psu addto pgroup default-read-pools extra-read");
+
+        preference =
+            _psu.match(DirectionType.READ, "131.169.214.149", null, fileAttributes, null);
+        assertEquals("New pool must be selectable", 2, preference[0].getPoolList().size());
+    }
+
+
     /*
      * test case: check that write with unknow storage group goes only to default-write pool
      */
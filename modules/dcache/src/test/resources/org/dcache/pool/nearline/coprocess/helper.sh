@@ -0,0 +1,43 @@
+#!/bin/sh
+#
+# HSM helper stub for CoprocessNearlineStorageTest.
+#
+# Stores are answered immediately with a location naming the process id of
+# the helper. Restores are held until five are in flight and then answered
+# in reverse order. Restores of 000000000000000000000000000000000BAD fail.
+
+gets=""
+count=0
+
+while read -r id op rest; do
+    set -- $rest
+    case "$op" in
+        put)
+            echo "$id OK stub://stub/?pid=$$&pnfsid=$1"
+            ;;
+        get)
+            if [ "$1" = "000000000000000000000000000000000BAD" ]; then
+                echo "$id ERR 42 no%20such%20file"
+            else
+                gets="$id $gets"
+                count=$((count + 1))
+                if [ $count -eq 5 ]; then
+                    for get in $gets; do
+                        echo "$get OK 1:0badc0de"
+                    done
+                    gets=""
+                    count=0
+                fi
+            fi
+            ;;
+        remove)
+            echo "$id OK"
+            ;;
+        cancel)
+            echo "$id ERR 1 cancelled"
+            ;;
+        *)
+            echo "unknown request: $id $op" >&2
+            ;;
+    esac
+done
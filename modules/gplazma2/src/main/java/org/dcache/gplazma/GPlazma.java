@@ -1,6 +1,7 @@
 package org.dcache.gplazma;
 
 import com.google.common.collect.Iterables;
+import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.Service;
 import com.google.common.util.concurrent.ServiceManager;
 import org.slf4j.Logger;
@@ -8,6 +9,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.security.auth.Subject;
 
+import java.io.PrintWriter;
 import java.lang.reflect.Modifier;
 import java.security.Principal;
 import java.util.ArrayList;
@@ -17,10 +19,12 @@ import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
 
 import org.dcache.auth.LoginNamePrincipal;
 import org.dcache.auth.Origin;
 import org.dcache.auth.PasswordCredential;
+import org.dcache.commons.stats.RequestExecutionTimeGauges;
 import org.dcache.commons.util.NDC;
 import org.dcache.gplazma.configuration.Configuration;
 import org.dcache.gplazma.configuration.ConfigurationItem;
@@ -84,6 +88,11 @@ public class GPlazma
 
     private Setup setup;
 
+    private volatile LoginCache _loginCache = new LoginCache(0, 0, TimeUnit.SECONDS);
+
+    private final RequestExecutionTimeGauges<String> _phaseTimes =
+            new RequestExecutionTimeGauges<>("gPlazma phases");
+
     /**
      * Storage class for failed login attempts.  This allows gPlazma to
      * refrain from filling up log files should a client attempt multiple
@@ -207,6 +216,25 @@ public class GPlazma
         }
     }
 
+    /**
+     * Configures caching of successful logins. Cached logins bypass all
+     * phases. The cache is cleared whenever the configuration is reloaded.
+     *
+     * @param size maximum number of cached logins; zero disables the cache
+     * @param lifetime maximum lifetime of a cached login
+     * @param unit the time unit of the lifetime argument
+     */
+    public void setLoginCache(int size, long lifetime, TimeUnit unit)
+    {
+        _loginCache = new LoginCache(size, lifetime, unit);
+    }
+
+    public void getInfo(PrintWriter pw)
+    {
+        _loginCache.getInfo(pw);
+        pw.println(_phaseTimes.toString("\u00B5s"));
+    }
+
     public void shutdown()
     {
         Setup setup = this.setup;
@@ -217,13 +245,29 @@ public class GPlazma
 
     public LoginReply login(Subject subject) throws AuthenticationException
     {
+        checkNotNull(subject, "subject is null");
+
         RecordingLoginMonitor record = new RecordingLoginMonitor();
         LoginMonitor combined = CombinedLoginMonitor.of(record,
                 LOGGING_LOGIN_MONITOR);
 
         try {
-            LoginReply reply = login(subject, combined);
+            Setup setup = getSetup();
+
+            LoginCache cache = _loginCache;
+            HashCode digest = cache.digestOf(subject);
+            if (digest != null) {
+                LoginReply cached = cache.get(digest, setup, subject);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+
+            LoginReply reply = login(subject, combined, setup);
             _failedLogins.remove(subject);
+            if (digest != null) {
+                cache.put(digest, setup, subject, reply);
+            }
             return reply;
         } catch(AuthenticationException e) {
             if(!_failedLogins.has(subject)) {
@@ -249,18 +293,12 @@ public class GPlazma
     {
         checkNotNull(subject, "subject is null");
 
-        Setup setup;
-
-        synchronized (configurationLoadingStrategy) {
-            try {
-                checkPluginConfig();
-            } catch(GPlazmaInternalException e) {
-                throw new AuthenticationException("internal gPlazma error: " + e.getMessage());
-            }
-
-            setup = this.setup;
-        }
+        return login(subject, monitor, getSetup());
+    }
 
+    private LoginReply login(Subject subject, LoginMonitor monitor, Setup setup)
+            throws AuthenticationException
+    {
         Set<Principal> principals = new HashSet<>();
         setup.doAuthPhase(monitor, subject, principals);
         setup.doMapPhase(monitor, principals);
@@ -271,6 +309,19 @@ public class GPlazma
         return buildReply(monitor, subject, principals, attributes);
     }
 
+    private Setup getSetup() throws AuthenticationException
+    {
+        synchronized (configurationLoadingStrategy) {
+            try {
+                checkPluginConfig();
+            } catch(GPlazmaInternalException e) {
+                throw new AuthenticationException("internal gPlazma error: " + e.getMessage());
+            }
+
+            return this.setup;
+        }
+    }
+
     private static boolean isPublic(Principal p)
     {
         return Modifier.isPublic(p.getClass().getModifiers());
@@ -292,6 +343,7 @@ public class GPlazma
 
         Result result = Result.FAIL;
         String error = null;
+        long start = System.nanoTime();
         NDC.push("VALIDATION");
         try {
             validationStrategy.validate(reply);
@@ -301,6 +353,7 @@ public class GPlazma
             throw e;
         } finally {
             NDC.pop();
+            _phaseTimes.update("VALIDATION", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
             monitor.validationResult(result, error);
         }
 
@@ -379,7 +432,7 @@ public class GPlazma
         }
         pluginLoader.init();
 
-        SetupBuilder setup = new SetupBuilder();
+        SetupBuilder setup = new SetupBuilder(_phaseTimes);
         Configuration configuration = configurationLoadingStrategy.load();
         List<ConfigurationItem> items = configuration.getConfigurationItemList();
 
@@ -411,6 +464,7 @@ public class GPlazma
         if (_globalPropertiesHaveUpdated || configurationLoadingStrategy.hasUpdated()) {
             _globalPropertiesHaveUpdated = false;
             _failedLogins.clear();
+            _loginCache.invalidateAll();
             reload();
         }
 
@@ -444,6 +498,12 @@ public class GPlazma
         private final Plugins<GPlazmaAccountPlugin> accountPlugins = new Plugins<>();
         private final Plugins<GPlazmaSessionPlugin> sessionPlugins = new Plugins<>();
         private final Plugins<GPlazmaIdentityPlugin> identityPlugins = new Plugins<>();
+        private final RequestExecutionTimeGauges<String> phaseTimes;
+
+        SetupBuilder(RequestExecutionTimeGauges<String> phaseTimes)
+        {
+            this.phaseTimes = phaseTimes;
+        }
 
         void add(ConfigurationItemType type, GPlazmaPlugin plugin, String pluginName, ConfigurationItemControl control)
                 throws PluginLoadingException
@@ -476,7 +536,8 @@ public class GPlazma
 
         Setup build() throws GPlazmaInternalException
         {
-            return new Setup(authenticationPlugins, mappingPlugins, accountPlugins, sessionPlugins, identityPlugins);
+            return new Setup(authenticationPlugins, mappingPlugins, accountPlugins, sessionPlugins, identityPlugins,
+                             phaseTimes);
         }
     }
 
@@ -490,15 +551,18 @@ public class GPlazma
         private final AccountStrategy accountStrategy;
         private final SessionStrategy sessionStrategy;
         private final IdentityStrategy identityStrategy;
+        private final RequestExecutionTimeGauges<String> phaseTimes;
 
         private final ServiceManager manager;
         private Throwable failure;
 
         Setup(Plugins<GPlazmaAuthenticationPlugin> authenticationPlugins,
               Plugins<GPlazmaMappingPlugin> mappingPlugins, Plugins<GPlazmaAccountPlugin> accountPlugins,
-              Plugins<GPlazmaSessionPlugin> sessionPlugins, Plugins<GPlazmaIdentityPlugin> identityPlugins)
+              Plugins<GPlazmaSessionPlugin> sessionPlugins, Plugins<GPlazmaIdentityPlugin> identityPlugins,
+              RequestExecutionTimeGauges<String> phaseTimes)
                 throws FactoryConfigurationException
         {
+            this.phaseTimes = phaseTimes;
             StrategyFactory factory = StrategyFactory.getInstance();
             authStrategy = factory.newAuthenticationStrategy();
             mapStrategy = factory.newMappingStrategy();
@@ -546,6 +610,7 @@ public class GPlazma
 
             principals.addAll(subject.getPrincipals());
 
+            long start = System.nanoTime();
             NDC.push("AUTH");
             Result result = Result.FAIL;
             try {
@@ -554,6 +619,7 @@ public class GPlazma
                 result = Result.SUCCESS;
             } finally {
                 NDC.pop();
+                updatePhaseTime("AUTH", start);
                 monitor.authEnds(principals, result);
             }
         }
@@ -562,6 +628,7 @@ public class GPlazma
         void doMapPhase(LoginMonitor monitor, Set<Principal> principals)
                 throws AuthenticationException
         {
+            long start = System.nanoTime();
             NDC.push("MAP");
             Result result = Result.FAIL;
             try {
@@ -570,6 +637,7 @@ public class GPlazma
                 result = Result.SUCCESS;
             } finally {
                 NDC.pop();
+                updatePhaseTime("MAP", start);
                 monitor.mapEnds(principals, result);
             }
         }
@@ -577,6 +645,7 @@ public class GPlazma
         void doAccountPhase(LoginMonitor monitor, Set<Principal> principals)
                 throws AuthenticationException
         {
+            long start = System.nanoTime();
             NDC.push("ACCOUNT");
             Result result = Result.FAIL;
             try {
@@ -585,6 +654,7 @@ public class GPlazma
                 result = Result.SUCCESS;
             } finally {
                 NDC.pop();
+                updatePhaseTime("ACCOUNT", start);
                 monitor.accountEnds(principals, result);
             }
         }
@@ -594,6 +664,7 @@ public class GPlazma
         {
             Set<Object> attributes = new HashSet<>();
 
+            long start = System.nanoTime();
             NDC.push("SESSION");
             Result result = Result.FAIL;
             try {
@@ -602,10 +673,16 @@ public class GPlazma
                 result = Result.SUCCESS;
             } finally {
                 NDC.pop();
+                updatePhaseTime("SESSION", start);
                 monitor.sessionEnds(principals, attributes, result);
             }
 
             return attributes;
         }
+
+        private void updatePhaseTime(String phase, long start)
+        {
+            phaseTimes.update(phase, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        }
     }
 }
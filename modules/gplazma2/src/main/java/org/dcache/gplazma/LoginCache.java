@@ -0,0 +1,217 @@
+package org.dcache.gplazma;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import javax.security.auth.Subject;
+
+import java.io.PrintWriter;
+import java.security.Principal;
+import java.security.cert.CertPath;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Cache of successful login results.
+ *
+ * Entries are keyed on a digest of the principals and public credentials of
+ * the subject logging in. As the digest only covers the names of the
+ * principals, an entry also records the principals and public credentials
+ * it was created for, and it is only used for a subject with equal
+ * principals and credentials. Subjects with private credentials (e.g. passwords)
+ * or with public credentials other than certificate paths are never cached.
+ * An entry expires after the configured lifetime or when the first
+ * certificate of the subject expires, whichever comes first. Entries are
+ * only valid for the gPlazma setup that produced them.
+ *
+ * This class is thread-safe.
+ */
+class LoginCache
+{
+    private static final HashFunction DIGEST = Hashing.sha256();
+
+    private static final Ordering<HashCode> BYTE_ORDER =
+            Ordering.natural().onResultOf(HashCode::toString);
+
+    private final Cache<HashCode, Entry> cache;
+    private final int size;
+    private final long lifetime;
+    private final TimeUnit unit;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder uncacheable = new LongAdder();
+
+    /**
+     * @param size maximum number of cached logins; zero disables the cache
+     * @param lifetime maximum lifetime of a cached login
+     * @param unit the time unit of the lifetime argument
+     */
+    LoginCache(int size, long lifetime, TimeUnit unit)
+    {
+        this.size = size;
+        this.lifetime = lifetime;
+        this.unit = unit;
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(lifetime, unit)
+                .build();
+    }
+
+    boolean isEnabled()
+    {
+        return size > 0;
+    }
+
+    /**
+     * Returns the digest identifying the login of a subject, or null if
+     * logins of the subject must not be cached.
+     */
+    HashCode digestOf(Subject subject)
+    {
+        if (!isEnabled()) {
+            return null;
+        }
+        if (!subject.getPrivateCredentials().isEmpty()) {
+            uncacheable.increment();
+            return null;
+        }
+
+        List<HashCode> digests = new ArrayList<>();
+        for (Principal principal : subject.getPrincipals()) {
+            Hasher hasher = DIGEST.newHasher();
+            putString(hasher, principal.getClass().getName());
+            putString(hasher, principal.getName());
+            digests.add(hasher.hash());
+        }
+        for (Object credential : subject.getPublicCredentials()) {
+            if (!(credential instanceof CertPath)) {
+                uncacheable.increment();
+                return null;
+            }
+            try {
+                Hasher hasher = DIGEST.newHasher();
+                putString(hasher, CertPath.class.getName());
+                hasher.putBytes(((CertPath) credential).getEncoded());
+                digests.add(hasher.hash());
+            } catch (CertificateEncodingException e) {
+                uncacheable.increment();
+                return null;
+            }
+        }
+        if (digests.isEmpty()) {
+            uncacheable.increment();
+            return null;
+        }
+
+        /* The digest must not depend on the iteration order of the subject's sets. */
+        Hasher hasher = DIGEST.newHasher();
+        for (HashCode digest : BYTE_ORDER.sortedCopy(digests)) {
+            hasher.putBytes(digest.asBytes());
+        }
+        return hasher.hash();
+    }
+
+    /**
+     * Returns the cached login reply for a subject, or null if there is no
+     * valid entry for the subject and the given setup.
+     */
+    LoginReply get(HashCode digest, Object setup, Subject subject)
+    {
+        Entry entry = cache.getIfPresent(digest);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (entry.setup != setup || entry.expiry <= System.currentTimeMillis() ||
+                !entry.loginPrincipals.equals(subject.getPrincipals()) ||
+                !entry.loginCredentials.equals(subject.getPublicCredentials())) {
+            cache.asMap().remove(digest, entry);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+
+        LoginReply reply = new LoginReply();
+        reply.setSubject(new Subject(false, new HashSet<>(entry.principals),
+                                     subject.getPublicCredentials(), subject.getPrivateCredentials()));
+        reply.setSessionAttributes(new HashSet<>(entry.attributes));
+        return reply;
+    }
+
+    void put(HashCode digest, Object setup, Subject subject, LoginReply reply)
+    {
+        long expiry = System.currentTimeMillis() + unit.toMillis(lifetime);
+        for (Object credential : subject.getPublicCredentials()) {
+            for (Certificate certificate : ((CertPath) credential).getCertificates()) {
+                if (certificate instanceof X509Certificate) {
+                    expiry = Math.min(expiry, ((X509Certificate) certificate).getNotAfter().getTime());
+                }
+            }
+        }
+        cache.put(digest, new Entry(setup, expiry, subject.getPrincipals(), subject.getPublicCredentials(),
+                                    reply.getSubject().getPrincipals(), reply.getSessionAttributes()));
+    }
+
+    void invalidateAll()
+    {
+        cache.invalidateAll();
+    }
+
+    void getInfo(PrintWriter pw)
+    {
+        long hits = this.hits.sum();
+        long misses = this.misses.sum();
+        long lookups = hits + misses;
+        pw.println("Login cache:");
+        pw.println("    Max size     : " + size);
+        pw.println("    Max lifetime : " + lifetime + " " + unit.name().toLowerCase());
+        pw.println("    Entries      : " + cache.size());
+        pw.println("    Hits         : " + hits);
+        pw.println("    Misses       : " + misses);
+        pw.println("    Uncacheable  : " + uncacheable.sum());
+        pw.println(String.format("    Hit rate     : %.1f%%", (lookups == 0) ? 0.0 : 100.0 * hits / lookups));
+    }
+
+    private static void putString(Hasher hasher, String s)
+    {
+        byte[] bytes = s.getBytes(UTF_8);
+        hasher.putInt(bytes.length).putBytes(bytes);
+    }
+
+    private static class Entry
+    {
+        private final Object setup;
+        private final long expiry;
+        private final Set<Principal> loginPrincipals;
+        private final Set<Object> loginCredentials;
+        private final Set<Principal> principals;
+        private final Set<Object> attributes;
+
+        Entry(Object setup, long expiry, Set<Principal> loginPrincipals, Set<Object> loginCredentials,
+              Set<Principal> principals, Set<Object> attributes)
+        {
+            this.setup = setup;
+            this.expiry = expiry;
+            this.loginPrincipals = ImmutableSet.copyOf(loginPrincipals);
+            this.loginCredentials = ImmutableSet.copyOf(loginCredentials);
+            this.principals = ImmutableSet.copyOf(principals);
+            this.attributes = ImmutableSet.copyOf(attributes);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.dcache.gplazma;
+
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.security.auth.Subject;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.auth.GidPrincipal;
+import org.dcache.auth.PasswordCredential;
+import org.dcache.auth.UidPrincipal;
+import org.dcache.auth.UserNamePrincipal;
+import org.dcache.auth.attributes.HomeDirectory;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class LoginCacheTest
+{
+    private final Object setup = new Object();
+
+    private LoginCache cache;
+
+    @Before
+    public void setUp()
+    {
+        cache = new LoginCache(10, 1, TimeUnit.MINUTES);
+    }
+
+    @Test
+    public void shouldReturnCachedReplyForSameLogin()
+    {
+        Subject subject = subject(new UserNamePrincipal("alice"), new UidPrincipal(1000));
+        cache.put(cache.digestOf(subject), setup, subject, reply(new UidPrincipal(1000)));
+
+        Subject other = subject(new UidPrincipal(1000), new UserNamePrincipal("alice"));
+        LoginReply reply = cache.get(cache.digestOf(other), setup, other);
+
+        assertThat(reply, is(notNullValue()));
+        assertThat(reply.getSubject().getPrincipals(), is(Collections.<Principal>singleton(new UidPrincipal(1000))));
+        assertThat(reply.getSessionAttributes(), is(Collections.<Object>singleton(new HomeDirectory("/home/alice"))));
+    }
+
+    @Test
+    public void shouldDistinguishDifferentPrincipals()
+    {
+        HashCode alice = cache.digestOf(subject(new UserNamePrincipal("alice")));
+        HashCode bob = cache.digestOf(subject(new UserNamePrincipal("bob")));
+
+        assertThat(alice, is(not(bob)));
+    }
+
+    @Test
+    public void shouldMissForDifferentPrimaryGroup()
+    {
+        Subject subject = subject(new UidPrincipal(1000), new GidPrincipal(100, true), new GidPrincipal(200, false));
+        cache.put(cache.digestOf(subject), setup, subject,
+                  reply(new UidPrincipal(1000), new GidPrincipal(100, true), new GidPrincipal(200, false)));
+
+        Subject other = subject(new UidPrincipal(1000), new GidPrincipal(200, true), new GidPrincipal(100, false));
+
+        assertThat(cache.get(cache.digestOf(other), setup, other), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotCacheLoginWithPrivateCredentials()
+    {
+        Subject subject = subject(new UserNamePrincipal("alice"));
+        subject.getPrivateCredentials().add(new PasswordCredential("alice", "secret"));
+
+        assertThat(cache.digestOf(subject), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotCacheLoginWithUnknownPublicCredentials()
+    {
+        Subject subject = subject(new UserNamePrincipal("alice"));
+        subject.getPublicCredentials().add("credential");
+
+        assertThat(cache.digestOf(subject), is(nullValue()));
+    }
+
+    @Test
+    public void shouldMissForDifferentSetup()
+    {
+        Subject subject = subject(new UserNamePrincipal("alice"));
+        HashCode digest = cache.digestOf(subject);
+        cache.put(digest, setup, subject, reply(new UidPrincipal(1000)));
+
+        assertThat(cache.get(digest, new Object(), subject), is(nullValue()));
+        assertThat(cache.get(digest, setup, subject), is(nullValue()));
+    }
+
+    @Test
+    public void shouldMissAfterInvalidation()
+    {
+        Subject subject = subject(new UserNamePrincipal("alice"));
+        HashCode digest = cache.digestOf(subject);
+        cache.put(digest, setup, subject, reply(new UidPrincipal(1000)));
+
+        cache.invalidateAll();
+
+        assertThat(cache.get(digest, setup, subject), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotCacheWhenDisabled()
+    {
+        LoginCache disabled = new LoginCache(0, 1, TimeUnit.MINUTES);
+
+        assertThat(disabled.digestOf(subject(new UserNamePrincipal("alice"))), is(nullValue()));
+    }
+
+    private static Subject subject(Principal... principals)
+    {
+        Subject subject = new Subject();
+        Collections.addAll(subject.getPrincipals(), principals);
+        return subject;
+    }
+
+    private static LoginReply reply(Principal... principals)
+    {
+        LoginReply reply = new LoginReply();
+        reply.setSubject(subject(principals));
+        reply.setSessionAttributes(Sets.newHashSet(new HomeDirectory("/home/alice")));
+        return reply;
+    }
+}